@@ -0,0 +1,191 @@
+package org.jlab.ersap.actor.sampa.bench;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import com.lmax.disruptor.*;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.decoder.DasDecoder;
+import org.jlab.ersap.actor.sampa.source.recagg.SAggregator;
+import org.jlab.ersap.actor.sampa.source.recagg.SAggregatorTree;
+import org.jlab.ersap.actor.sampa.source.recagg.SBlockAligner;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEventFactory;
+import org.jlab.ersap.actor.sampa.source.ring.SWaitStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.lmax.disruptor.RingBuffer.createSingleProducer;
+
+/**
+ * <p>End-to-end DAS pipeline without the network: one thread per stream decodes
+ * synthetic frames into its ring, an {@link SAggregator}, or a tree of them
+ * ({@link SAggregatorTree}), merges the streams and the benchmark thread
+ * consumes the aggregated events.</p>
+ *
+ * <p>The score is in frames per second per stream, so it can be compared
+ * directly with the 40 MHz frame rate of the front end.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class AggregatorBenchmark {
+
+    /** Frames decoded into each stream event. */
+    static final int FRAMES_PER_EVENT = 2048;
+
+    /** Frames of sample data each producer loops over. */
+    static final int LOOP_FRAMES = 32768;
+
+    /** Size of each event buffer. */
+    static final int BYTE_SIZE = 8192;
+
+    /** Ring size, kept small since each aggregated event holds 480 buffers. */
+    static final int RING_ITEMS = 16;
+
+    @Param({"2", "6", "10"})
+    public int streams;
+
+    /** Most streams merged by each aggregator thread, 0 for a single aggregator. */
+    @Param({"0", "2", "4"})
+    public int fanIn;
+
+    @Param({"false", "true"})
+    public boolean zeroCopy;
+
+    private RingBuffer<SRingRawEvent> aggRingBuffer;
+    private Sequence aggSequence;
+    private SequenceBarrier aggBarrier;
+    private long aggNextSequence;
+    private long aggAvailableSequence = -1L;
+
+    private Thread[] producers;
+    private SAggregatorTree aggregator;
+    private volatile boolean running = true;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Arrays of a generic type can't be created, but all rings are of SRingRawEvent
+        @SuppressWarnings("unchecked")
+        RingBuffer<SRingRawEvent>[] ringBuffers = (RingBuffer<SRingRawEvent>[]) new RingBuffer<?>[streams];
+        Sequence[] sequences = new Sequence[streams];
+        SequenceBarrier[] barriers = new SequenceBarrier[streams];
+        producers = new Thread[streams];
+
+        for (int i = 0; i < streams; i++) {
+            ringBuffers[i] = createSingleProducer(
+                    new SRingRawEventFactory(EMode.DAS, BYTE_SIZE, false), RING_ITEMS,
+                    new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
+            sequences[i] = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+            barriers[i] = ringBuffers[i].newBarrier();
+            ringBuffers[i].addGatingSequences(sequences[i]);
+
+            final int stream = i;
+            final RingBuffer<SRingRawEvent> ring = ringBuffers[i];
+            producers[i] = new Thread(() -> produce(stream, ring), "producer-" + i);
+        }
+
+        aggRingBuffer = createSingleProducer(
+                new SRingRawEventFactory(EMode.DAS, BYTE_SIZE, streams, 16), RING_ITEMS,
+                new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
+        aggSequence = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+        aggBarrier = aggRingBuffer.newBarrier();
+        aggRingBuffer.addGatingSequences(aggSequence);
+        aggNextSequence = aggSequence.get() + 1L;
+
+        int[] treeStreams = SAggregatorTree.intermediateStreams(streams, fanIn);
+        SRingRawEventFactory[] treeFactories = new SRingRawEventFactory[treeStreams.length];
+        for (int i = 0; i < treeStreams.length; i++) {
+            treeFactories[i] = new SRingRawEventFactory(EMode.DAS, BYTE_SIZE, treeStreams[i], 16);
+        }
+        aggregator = new SAggregatorTree(EMode.DAS, ringBuffers, sequences, barriers, aggRingBuffer,
+                fanIn, treeFactories, RING_ITEMS, SWaitStrategy.SPIN_BACKOFF, zeroCopy,
+                SBlockAligner.DEFAULT_WINDOW, SBlockAligner.DEFAULT_TIMEOUT_MILLIS);
+        // Once the producers stop, the aggregator is left waiting on its input rings
+        aggregator.setDaemon(true);
+        aggregator.start();
+
+        for (Thread producer : producers) {
+            producer.setDaemon(true);
+            producer.start();
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        aggregator.exit();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+    }
+
+
+    /**
+     * Decode the same stretch of synthetic frames over and over into a stream's ring.
+     * The first event also holds the sync.
+     */
+    private void produce(int stream, RingBuffer<SRingRawEvent> ring) {
+        DasDecoder decoder = new DasDecoder(false, stream, BYTE_SIZE);
+        ByteBuffer frames = SyntheticFrames.das(SyntheticFrames.DAS_SYNC_FRAMES + LOOP_FRAMES, stream);
+
+        try {
+            while (running) {
+                long sequence;
+                try {
+                    sequence = ring.tryNext();
+                }
+                catch (InsufficientCapacityException e) {
+                    LockSupport.parkNanos(1000);
+                    continue;
+                }
+
+                SRingRawEvent rawEvent = ring.get(sequence);
+                rawEvent.reset();
+
+                int decoded = 0;
+                while (decoded < FRAMES_PER_EVENT) {
+                    if (!frames.hasRemaining()) {
+                        frames.position(16 * SyntheticFrames.DAS_SYNC_FRAMES);
+                    }
+                    decoded += decoder.decodeFrames(frames, FRAMES_PER_EVENT - decoded, rawEvent);
+                }
+                decoder.transferData(rawEvent);
+                ring.publish(sequence);
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_EVENT)
+    public SRingRawEvent consume() throws Exception {
+        if (aggAvailableSequence < aggNextSequence) {
+            aggAvailableSequence = aggBarrier.waitFor(aggNextSequence);
+        }
+        SRingRawEvent event = aggRingBuffer.get(aggNextSequence);
+
+        aggSequence.set(aggNextSequence);
+        aggNextSequence++;
+        return event;
+    }
+}
@@ -0,0 +1,91 @@
+package org.jlab.ersap.actor.sampa.bench;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.epsci.ersap.base.error.ErsapException;
+import org.jlab.ersap.actor.datatypes.DasDataType;
+import org.jlab.ersap.actor.sampa.source.SEventSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * (De)serializing an aggregated event of 480 channels, in events per second.
+ * Multiply by 480 x bytes for bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DasDataTypeBenchmark {
+
+    /** Valid bytes in each channel buffer. */
+    @Param({"2048", "8192"})
+    public int bytes;
+
+    ByteBuffer[] channels;
+    ByteBuffer serialized;
+    ByteBuffer serializedPacked;
+    SEventSerializer parallel;
+
+    @Setup(Level.Trial)
+    public void setup() throws ErsapException {
+        Random rand = new Random(3);
+        channels = new ByteBuffer[480];
+        for (int i = 0; i < channels.length; i++) {
+            byte[] data = new byte[bytes];
+            rand.nextBytes(data);
+            channels[i] = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        serialized = DasDataType.serialize(channels);
+
+        // Same bytes, taken as 10 bit packed samples
+        serializedPacked = ByteBuffer.allocate(DasDataType.serializedSize(channels, 10));
+        DasDataType.serialize(channels, serializedPacked, null, 1, 10);
+
+        parallel = new SEventSerializer(4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        parallel.close();
+    }
+
+
+    @Benchmark
+    public ByteBuffer serialize() throws ErsapException {
+        return DasDataType.serialize(channels);
+    }
+
+
+    @Benchmark
+    public ByteBuffer serializeParallel() throws ErsapException {
+        return parallel.serialize(channels);
+    }
+
+
+    @Benchmark
+    public ByteBuffer[] deserialize() throws ErsapException {
+        return DasDataType.deserialize(serialized);
+    }
+
+
+    @Benchmark
+    public ByteBuffer[] deserializePacked() throws ErsapException {
+        return DasDataType.deserialize(serializedPacked);
+    }
+}
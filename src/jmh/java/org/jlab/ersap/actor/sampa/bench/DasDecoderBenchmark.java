@@ -0,0 +1,139 @@
+package org.jlab.ersap.actor.sampa.bench;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.decoder.DasDecoder;
+import org.jlab.ersap.actor.sampa.source.decoder.IDecoder;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DAS decoding, in frames per second on one core. The decoder has already
+ * found the sync, so only sample data is decoded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DasDecoderBenchmark {
+
+    /** Frames decoded per invocation. Fills half of the decoder's buffers. */
+    static final int FRAMES = 16384;
+
+    /** Size of each event buffer, which lets the decoder hold 32768 frames. */
+    static final int BYTE_SIZE = 8192;
+
+
+    @State(Scope.Thread)
+    public static class Decoder {
+        @Param({"true", "false"})
+        public boolean useLookupTables;
+
+        DasDecoder decoder;
+        SRingRawEvent event;
+        ByteBuffer frames;
+        int[][] frameWords;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            ByteBuffer stream = SyntheticFrames.das(SyntheticFrames.DAS_SYNC_FRAMES + FRAMES, 1);
+            decoder = new DasDecoder(false, 0, BYTE_SIZE, useLookupTables);
+            event = new SRingRawEvent(EMode.DAS, BYTE_SIZE, 1, sampleBits());
+            if (channelStats()) {
+                event.enableStats();
+            }
+
+            decoder.decodeFrames(stream, SyntheticFrames.DAS_SYNC_FRAMES, event);
+            decoder.transferData(event);
+            event.reset();
+
+            frames = stream.slice().order(ByteOrder.LITTLE_ENDIAN);
+            frameWords = new int[FRAMES][4];
+            for (int i = 0; i < FRAMES; i++) {
+                IDecoder.readFrame(frames, 16*i, frameWords[i]);
+            }
+        }
+
+        /** Bits each ADC value is stored in. */
+        int sampleBits() {
+            return 16;
+        }
+
+        /** Keep channel statistics while extracting ADC values. */
+        boolean channelStats() {
+            return false;
+        }
+
+        /** Start the next invocation with an empty decoder. */
+        @TearDown(Level.Invocation)
+        public void drain() {
+            decoder.transferData(event);
+            event.reset();
+            frames.clear();
+        }
+    }
+
+
+    @State(Scope.Thread)
+    public static class FullDecoder extends Decoder {
+        @Param({"16", "10", "12"})
+        public int sampleBits;
+
+        @Param({"false", "true"})
+        public boolean channelStats;
+
+        @Override
+        int sampleBits() {
+            return sampleBits;
+        }
+
+        @Override
+        boolean channelStats() {
+            return channelStats;
+        }
+
+        /** Give the decoder data to extract ADC values from. */
+        @Setup(Level.Invocation)
+        public void fill() throws Exception {
+            decoder.decodeFrames(frames, FRAMES, event);
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decodeSerial(Decoder d) throws Exception {
+        for (int[] frame : d.frameWords) {
+            d.decoder.decodeSerial(frame, d.event);
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decodeFrames(Decoder d) throws Exception {
+        return d.decoder.decodeFrames(d.frames, FRAMES, d.event);
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void getAdcValues(FullDecoder d) {
+        d.decoder.getAdcValues(d.event);
+    }
+}
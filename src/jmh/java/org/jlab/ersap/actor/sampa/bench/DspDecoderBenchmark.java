@@ -0,0 +1,92 @@
+package org.jlab.ersap.actor.sampa.bench;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.decoder.DspDecoder;
+import org.jlab.ersap.actor.sampa.source.decoder.IDecoder;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DSP decoding, in frames per second on one core. Each invocation decodes
+ * one block of generated packets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DspDecoderBenchmark {
+
+    /** Frames decoded per invocation, one block. */
+    static final int FRAMES = 2000;
+
+    /** Blocks generated, decoded one after the other. */
+    static final int BLOCKS = 16;
+
+    /** Decode each eLink a nibble at a time, or one bit at a time. */
+    @Param({"true", "false"})
+    public boolean nibbleAtATime;
+
+    DspDecoder decoder;
+    SRingRawEvent event;
+    ByteBuffer stream;
+    ByteBuffer frames;
+    int[][][] frameWords;
+    int block;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        decoder = new DspDecoder(false, nibbleAtATime);
+        event = new SRingRawEvent(EMode.DSP);
+        stream = SyntheticFrames.dsp(BLOCKS * FRAMES, 2);
+        frameWords = new int[BLOCKS][FRAMES][4];
+        for (int b = 0; b < BLOCKS; b++) {
+            for (int i = 0; i < FRAMES; i++) {
+                IDecoder.readFrame(stream, 16*(b*FRAMES + i), frameWords[b][i]);
+            }
+        }
+        block = -1;
+        nextBlock();
+    }
+
+    /** Move on to the next block, wrapping around to the first, where eLinks lose sync and find it again. */
+    @TearDown(Level.Invocation)
+    public void nextBlock() {
+        event.reset();
+        block = (block + 1) % BLOCKS;
+        stream.limit(16*(block + 1)*FRAMES).position(16*block*FRAMES);
+        frames = stream.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decodeSerial() {
+        for (int[] frame : frameWords[block]) {
+            decoder.decodeSerial(frame, event);
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decodeFrames() {
+        return decoder.decodeFrames(frames, FRAMES, event);
+    }
+}
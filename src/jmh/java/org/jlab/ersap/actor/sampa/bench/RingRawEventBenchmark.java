@@ -0,0 +1,96 @@
+package org.jlab.ersap.actor.sampa.bench;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.ring.SBufferSlab;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEventFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregating 6 DAS stream events (480 channels) into one, in events per second.
+ * Multiply by 480 x bytes for bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RingRawEventBenchmark {
+
+    /** Valid bytes in each channel buffer. */
+    @Param({"2048", "8192"})
+    public int bytes;
+
+    /** Channel buffers are carved out of an off-heap slab. */
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    SRingRawEvent[] streams;
+    SRingRawEvent aggregated;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SRingRawEventFactory streamFactory = new SRingRawEventFactory(EMode.DAS, bytes, 1, 16);
+        SRingRawEventFactory aggFactory = new SRingRawEventFactory(EMode.DAS, bytes, 6, 16);
+        if (offHeap) {
+            SBufferSlab slab = new SBufferSlab(bytes, 2 * 480);
+            streamFactory.setSlab(slab);
+            aggFactory.setSlab(slab);
+        }
+
+        streams = new SRingRawEvent[6];
+        for (int s = 0; s < streams.length; s++) {
+            streams[s] = streamFactory.newInstance();
+        }
+        aggregated = aggFactory.newInstance();
+        aggregated.getData();
+        fill();
+    }
+
+    /** Set each channel buffer up as the decoder leaves it, position just past valid data. */
+    @Setup(Level.Invocation)
+    public void fill() {
+        for (SRingRawEvent event : streams) {
+            for (ByteBuffer buf : event.getData()) {
+                buf.clear();
+                buf.position(bytes);
+            }
+        }
+    }
+
+
+    @Benchmark
+    public SRingRawEvent setDataAddData() {
+        aggregated.reset();
+        aggregated.setData(streams[0].getData());
+        for (int s = 1; s < streams.length; s++) {
+            aggregated.addData(streams[s].getData());
+        }
+        return aggregated;
+    }
+
+
+    @Benchmark
+    public SRingRawEvent swapData() {
+        aggregated.reset();
+        for (SRingRawEvent event : streams) {
+            aggregated.swapData(event);
+        }
+        return aggregated;
+    }
+}
@@ -0,0 +1,67 @@
+package org.jlab.ersap.actor.sampa.bench;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.source.generator.SDasFrameEncoder;
+import org.jlab.ersap.actor.sampa.source.generator.SDspFrameEncoder;
+import org.jlab.ersap.actor.sampa.source.generator.SFrameEncoder;
+import org.jlab.ersap.actor.sampa.source.generator.SSignalModel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Builds streams of GBT frames for the benchmarks with the stream generator,
+ * laid out as treadout sends them.
+ */
+final class SyntheticFrames {
+
+    /** Frames at the start of a DAS stream, before the first sample (idle frames and sync). */
+    static final int DAS_SYNC_FRAMES = 16;
+
+    private SyntheticFrames() {}
+
+
+    /**
+     * Build a DAS stream: a few idle frames, the sync, then samples of all 80 channels.
+     * Each channel is a pedestal with gaussian noise.
+     *
+     * @param frames number of frames.
+     * @param seed   random number seed.
+     * @return buffer of frames ready to read.
+     */
+    static ByteBuffer das(int frames, long seed) {
+        SSignalModel model = new SSignalModel(SSignalModel.Waveform.PEDESTAL, SDasFrameEncoder.CHANNEL_COUNT, seed);
+        return encode(new SDasFrameEncoder(model, DAS_SYNC_FRAMES - SDasFrameEncoder.FRAMES_PER_SAMPLE), frames);
+    }
+
+
+    /**
+     * Build a DSP stream of zero suppressed packets with pulses on all 80 channels.
+     *
+     * @param frames number of frames.
+     * @param seed   random number seed.
+     * @return buffer of frames ready to read.
+     */
+    static ByteBuffer dsp(int frames, long seed) {
+        SSignalModel model = new SSignalModel(SSignalModel.Waveform.PULSES, SDasFrameEncoder.CHANNEL_COUNT, seed);
+        return encode(new SDspFrameEncoder(model, 0), frames);
+    }
+
+
+    private static ByteBuffer encode(SFrameEncoder encoder, int frames) {
+        ByteBuffer buf = ByteBuffer.allocate(16 * frames).order(ByteOrder.LITTLE_ENDIAN);
+        encoder.encode(buf, frames);
+        buf.flip();
+        return buf;
+    }
+}
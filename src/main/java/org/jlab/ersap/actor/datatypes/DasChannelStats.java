@@ -0,0 +1,204 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Running count, mean and sum of squared deviations (M2) of the ADC values
+ * of each channel, from which variance = M2 / count. Values are added in batches,
+ * as the decoder produces them: the integer sums of a batch are exact, and
+ * are merged into the running values with the pairwise update of Chan et al.,
+ * which is what Welford's update does for a batch of one. Two sets of channel
+ * statistics, say of 2 streams or 2 events, are merged the same way.</p>
+ *
+ * <p>Serialized, statistics take 4 bytes for the channel count followed by
+ * {@link #BYTES_PER_CHANNEL} bytes per channel: the count as a 32 bit int,
+ * then the mean and M2 as doubles, all little endian.</p>
+ */
+public class DasChannelStats {
+
+    /** Serialized bytes for each channel. */
+    public static final int BYTES_PER_CHANNEL = 20;
+
+    /** Number of values of each channel. */
+    private final int[] count;
+
+    /** Mean of values of each channel. */
+    private final double[] mean;
+
+    /** Sum of squared deviations from the mean of each channel. */
+    private final double[] m2;
+
+
+    /**
+     * Constructor.
+     * @param channels number of channels.
+     */
+    public DasChannelStats(int channels) {
+        count = new int[channels];
+        mean  = new double[channels];
+        m2    = new double[channels];
+    }
+
+
+    /**
+     * Get the number of channels.
+     * @return number of channels.
+     */
+    public int getChannelCount() {return count.length;}
+
+    /**
+     * Get the number of values of a channel.
+     * @param channel channel number.
+     * @return number of values.
+     */
+    public int getCount(int channel) {return count[channel];}
+
+    /**
+     * Get the mean of a channel's values.
+     * @param channel channel number.
+     * @return mean, 0 if no values.
+     */
+    public double getMean(int channel) {return mean[channel];}
+
+    /**
+     * Get the sum of squared deviations from the mean of a channel's values.
+     * @param channel channel number.
+     * @return sum of squared deviations.
+     */
+    public double getM2(int channel) {return m2[channel];}
+
+    /**
+     * Get the (population) variance of a channel's values.
+     * @param channel channel number.
+     * @return variance, 0 if no values.
+     */
+    public double getVariance(int channel) {
+        return count[channel] == 0 ? 0 : m2[channel] / count[channel];
+    }
+
+    /**
+     * Get the (population) standard deviation of a channel's values.
+     * @param channel channel number.
+     * @return standard deviation, 0 if no values.
+     */
+    public double getSdv(int channel) {return Math.sqrt(getVariance(channel));}
+
+
+    /** Forget all values. */
+    public void reset() {
+        Arrays.fill(count, 0);
+        Arrays.fill(mean, 0);
+        Arrays.fill(m2, 0);
+    }
+
+
+    /**
+     * Add a single value to a channel.
+     * @param channel channel number.
+     * @param value   value.
+     */
+    public void add(int channel, int value) {
+        add(channel, 1, value, (long) value * value);
+    }
+
+
+    /**
+     * Add a batch of values to a channel, given their sums.
+     * @param channel    channel number.
+     * @param n          number of values.
+     * @param sum        sum of values.
+     * @param sumSquares sum of squared values.
+     */
+    public void add(int channel, int n, long sum, long sumSquares) {
+        if (n == 0) return;
+        // M2 of the batch is exact as n * sumSquares - sum * sum won't overflow for 10 bit values
+        merge(channel, n, (double) sum / n, (double) (n * sumSquares - sum * sum) / n);
+    }
+
+
+    /**
+     * Merge the statistics of some values into a channel's.
+     * @param channel channel number.
+     * @param n       number of values.
+     * @param nMean   mean of values.
+     * @param nM2     sum of squared deviations from the mean of values.
+     */
+    public void merge(int channel, int n, double nMean, double nM2) {
+        if (n == 0) return;
+        int c = count[channel];
+        int total = c + n;
+        double delta = nMean - mean[channel];
+        mean[channel] += delta * n / total;
+        m2[channel]   += nM2 + delta * delta * ((double) c * n / total);
+        count[channel] = total;
+    }
+
+
+    /**
+     * Merge the statistics of a range of another object's channels into this one's.
+     * @param stats        statistics to merge.
+     * @param firstChannel channel of this object into which the other's first channel merges.
+     *                     Channels beyond the end of this object are ignored.
+     */
+    public void merge(DasChannelStats stats, int firstChannel) {
+        int channels = Math.min(stats.count.length, count.length - firstChannel);
+        for (int i = 0; i < channels; i++) {
+            merge(firstChannel + i, stats.count[i], stats.mean[i], stats.m2[i]);
+        }
+    }
+
+
+    /**
+     * Get the number of bytes these statistics take once serialized.
+     * @return number of bytes in serialized form.
+     */
+    public int serializedSize() {
+        return 4 + BYTES_PER_CHANNEL * count.length;
+    }
+
+
+    /**
+     * Serialize into a buffer with absolute writes, leaving its position alone.
+     * @param buf buffer to write into, little endian.
+     * @param pos index in buf of the first byte to write.
+     */
+    public void write(ByteBuffer buf, int pos) {
+        buf.putInt(pos, count.length);
+        pos += 4;
+        for (int i = 0; i < count.length; i++, pos += BYTES_PER_CHANNEL) {
+            buf.putInt(pos, count[i]);
+            buf.putDouble(pos + 4, mean[i]);
+            buf.putDouble(pos + 12, m2[i]);
+        }
+    }
+
+
+    /**
+     * Deserialize from a buffer with absolute reads, leaving its position alone.
+     * @param buf buffer to read from, little endian.
+     * @param pos index in buf of the first byte to read.
+     * @return statistics.
+     */
+    public static DasChannelStats read(ByteBuffer buf, int pos) {
+        DasChannelStats stats = new DasChannelStats(buf.getInt(pos));
+        pos += 4;
+        for (int i = 0; i < stats.count.length; i++, pos += BYTES_PER_CHANNEL) {
+            stats.count[i] = buf.getInt(pos);
+            stats.mean[i]  = buf.getDouble(pos + 4);
+            stats.m2[i]    = buf.getDouble(pos + 12);
+        }
+        return stats;
+    }
+}
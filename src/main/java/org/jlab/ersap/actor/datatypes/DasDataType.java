@@ -17,6 +17,9 @@ import org.jlab.epsci.ersap.engine.ErsapSerializer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * <p>
@@ -33,12 +36,63 @@ import java.nio.ByteOrder;
  *     Length of last array in bytes --- 32 bit signed int
  *     [Last ByteBuffer's bytes]
  * </b></pre>
+ *
+ * <p>If ADC values are packed into fewer than 16 bits (see {@link DasSamplePacker}),
+ * zero suppressed, channel statistics are included, or the arrays are DSP blocks,
+ * the highest bit of the first word is set and a format word follows it.
+ * Each array is then preceded by its number of samples instead of its length:</p>
+ * <pre><b>
+ *     0x80000000 | number of byte arrays to come --- 32 bit int
+ *     Format: bits per sample in lowest 8 bits,
+ *             bit 8 set if statistics follow,
+ *             bit 9 set if zero suppressed,
+ *             bit 10 set if DSP blocks,
+ *             bit 11 set if streams are missing --- 32 bit int (other bits 0)
+ *     Number of first block, if bit 10 set      --- 32 bit int
+ *     Number of blocks, if bit 10 set           --- 32 bit int
+ *     Missing streams, if bit 11 set            --- 32 bit int, bit i for stream i
+ *     Number of samples in 1st array            --- 32 bit signed int
+ *     [1st ByteBuffer's packed bytes]
+ *     ...
+ *     [Channel statistics, see {@link DasChannelStats}]
+ * </b></pre>
+ * <p>Deserializing unpacks the values into shorts, so the result is the same either way.
+ * The statistics are read separately with {@link #getStats(ByteBuffer)}.
+ * Zero suppressed arrays hold 16 bit clusters of values (see {@link DasZeroSuppressor}),
+ * their "samples" counting the shorts of cluster headers too. Whether they do is told
+ * by {@link #isZeroSuppressed(ByteBuffer)}. DSP data holds one block, or consecutive
+ * blocks merged, whose numbers are read with {@link #getBlockNumber(ByteBuffer)} and
+ * {@link #getBlockCount(ByteBuffer)}; its "samples" are 16 bit halves of DSP words.
+ * The channels of streams missing from any of those blocks are empty, and the streams
+ * are told by {@link #getMissingStreams(ByteBuffer)}.</p>
  */
 public final class DasDataType {
 
     private DasDataType() { }
 
 
+    /** Below this many bytes of channel data, serializing in parallel isn't worth it. */
+    private static final int PARALLEL_MIN_BYTES = 1 << 20;
+
+    /** Set in the first word if a format word follows. */
+    private static final int FORMAT_FLAG = 0x80000000;
+
+    /** Bits of the format word holding the number of bits per sample. */
+    private static final int FORMAT_BITS_MASK = 0xFF;
+
+    /** Set in the format word if channel statistics follow the arrays. */
+    private static final int FORMAT_STATS = 0x100;
+
+    /** Set in the format word if arrays hold zero suppressed clusters. */
+    private static final int FORMAT_ZERO_SUPPRESSED = 0x200;
+
+    /** Set in the format word if the block number and number of blocks follow it. */
+    private static final int FORMAT_BLOCKS = 0x400;
+
+    /** Set in the format word if the mask of missing streams follows the block numbers. */
+    private static final int FORMAT_MISSING = 0x800;
+
+
     /**
      * Serialize the given array of ByteBuffers into a single ByteBuffer.
      * <b>The input buffers must be LITTLE endian.</b> This is assumed in this method.
@@ -49,57 +103,543 @@ public final class DasDataType {
      * @throws ErsapException if arg is null.
      */
     public static ByteBuffer serialize(ByteBuffer[] buffers) throws ErsapException {
+        ByteBuffer outBuf = ByteBuffer.allocate(serializedSize(buffers));
+        serialize(buffers, outBuf);
+        return outBuf;
+    }
+
+
+    /**
+     * Get the number of bytes the given array of ByteBuffers takes once serialized.
+     * @param buffers buffers to serialize together.
+     * @return number of bytes in serialized form.
+     * @throws ErsapException if arg is null.
+     */
+    public static int serializedSize(ByteBuffer[] buffers) throws ErsapException {
+        return serializedSize(buffers, DasSamplePacker.UNPACKED);
+    }
+
+
+    /**
+     * Get the number of bytes the given array of ByteBuffers takes once serialized.
+     * @param buffers    buffers to serialize together.
+     * @param sampleBits bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @return number of bytes in serialized form.
+     * @throws ErsapException if arg is null.
+     */
+    public static int serializedSize(ByteBuffer[] buffers, int sampleBits) throws ErsapException {
+        return serializedSize(buffers, sampleBits, null);
+    }
+
 
+    /**
+     * Get the number of bytes the given array of ByteBuffers takes once serialized
+     * along with the statistics of its channels.
+     * @param buffers    buffers to serialize together.
+     * @param sampleBits bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats      statistics of the buffers' channels, or null if none.
+     * @return number of bytes in serialized form.
+     * @throws ErsapException if buffers is null.
+     */
+    public static int serializedSize(ByteBuffer[] buffers, int sampleBits, DasChannelStats stats)
+            throws ErsapException {
+        return serializedSize(buffers, sampleBits, stats, false);
+    }
+
+
+    /**
+     * Get the number of bytes the given array of ByteBuffers takes once serialized
+     * along with the statistics of its channels.
+     * @param buffers        buffers to serialize together.
+     * @param sampleBits     bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats          statistics of the buffers' channels, or null if none.
+     * @param zeroSuppressed true if the buffers hold zero suppressed clusters.
+     * @return number of bytes in serialized form.
+     * @throws ErsapException if buffers is null.
+     */
+    public static int serializedSize(ByteBuffer[] buffers, int sampleBits, DasChannelStats stats,
+                                     boolean zeroSuppressed) throws ErsapException {
+        return serializedSize(buffers, sampleBits, stats, zeroSuppressed, 0);
+    }
+
+
+    /**
+     * Get the number of bytes the given array of ByteBuffers takes once serialized
+     * along with the statistics of its channels and the numbers of its DSP blocks.
+     * @param buffers        buffers to serialize together.
+     * @param sampleBits     bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats          statistics of the buffers' channels, or null if none.
+     * @param zeroSuppressed true if the buffers hold zero suppressed clusters.
+     * @param blockCount     number of DSP blocks the buffers hold, 0 if not DSP data.
+     * @return number of bytes in serialized form.
+     * @throws ErsapException if buffers is null.
+     */
+    public static int serializedSize(ByteBuffer[] buffers, int sampleBits, DasChannelStats stats,
+                                     boolean zeroSuppressed, int blockCount) throws ErsapException {
+        return serializedSize(buffers, sampleBits, stats, zeroSuppressed, blockCount, 0);
+    }
+
+
+    /**
+     * Get the number of bytes the given array of ByteBuffers takes once serialized
+     * along with the statistics of its channels, the numbers of its DSP blocks
+     * and the streams missing from them.
+     * @param buffers        buffers to serialize together.
+     * @param sampleBits     bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats          statistics of the buffers' channels, or null if none.
+     * @param zeroSuppressed true if the buffers hold zero suppressed clusters.
+     * @param blockCount     number of DSP blocks the buffers hold, 0 if not DSP data.
+     * @param missingStreams bit i set if stream i is missing, 0 if none.
+     * @return number of bytes in serialized form.
+     * @throws ErsapException if buffers is null.
+     */
+    public static int serializedSize(ByteBuffer[] buffers, int sampleBits, DasChannelStats stats,
+                                     boolean zeroSuppressed, int blockCount, int missingStreams)
+            throws ErsapException {
         if (buffers == null) {
             throw new ErsapException("arg is null");
         }
 
-        // Number of bufs
-        int arrayLen = buffers.length;
-        // Corresponding number of buffer lengths (of valid bytes)
-        int[] len = new int[arrayLen];
-
-        // Total number of bytes of all data.
         // Start with number of ints (1 for total # of bufs, and 1 for each BB len)
-        int totalLen = 4*(arrayLen + 1);
+        int totalLen = 4*(buffers.length + 1);
+        // Packed or zero suppressed data, or data with statistics, blocks or streams missing,
+        // has a format word
+        if (hasFormat(sampleBits, stats, zeroSuppressed, blockCount, missingStreams)) {
+            totalLen += 4;
+        }
+        if (blockCount > 0) {
+            totalLen += 8;
+        }
+        if (missingStreams != 0) {
+            totalLen += 4;
+        }
+        if (stats != null) {
+            totalLen += stats.serializedSize();
+        }
 
         // Add the bytes in each BB
-        for (int i=0; i < arrayLen; i++) {
-            len[i] = buffers[i].limit();
-            totalLen += len[i];
+        for (ByteBuffer buf : buffers) {
+            totalLen += buf.limit();
+        }
+        return totalLen;
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers into the given ByteBuffer, which may be direct.
+     * <b>The input buffers must be LITTLE endian.</b> This is assumed in this method.
+     * The output buffer is set to little endian, with position = 0 and limit = serialized bytes.
+     * @param buffers buffers to serialize together.
+     * @param outBuf  buffer to serialize into, with capacity of at least {@link #serializedSize(ByteBuffer[])}.
+     * @throws ErsapException if an arg is null or outBuf is too small.
+     */
+    public static void serialize(ByteBuffer[] buffers, ByteBuffer outBuf) throws ErsapException {
+        serialize(buffers, outBuf, null, 1);
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers into the given ByteBuffer, which may be direct.
+     * The header is written by the calling thread, after which copying the data of each
+     * buffer is split into the given number of tasks, run by the executor.
+     * <b>The input buffers must be LITTLE endian.</b> This is assumed in this method.
+     * The output buffer is set to little endian, with position = 0 and limit = serialized bytes.
+     * @param buffers  buffers to serialize together.
+     * @param outBuf   buffer to serialize into, with capacity of at least {@link #serializedSize(ByteBuffer[])}.
+     * @param executor runs the copying tasks. If null, or for small amounts of data,
+     *                 everything is done by the calling thread.
+     * @param tasks    number of tasks to split the copying into.
+     * @throws ErsapException if an arg is null, outBuf is too small, or copying fails.
+     */
+    public static void serialize(ByteBuffer[] buffers, ByteBuffer outBuf,
+                                 ExecutorService executor, int tasks) throws ErsapException {
+        serialize(buffers, outBuf, executor, tasks, DasSamplePacker.UNPACKED);
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers, holding ADC values packed into
+     * the given number of bits, into the given ByteBuffer, which may be direct.
+     * For 16 bits, this is identical to {@link #serialize(ByteBuffer[], ByteBuffer, ExecutorService, int)}.
+     * The packed bytes are copied as is, so each buffer's limit must be the
+     * {@link DasSamplePacker#packedSize(int, int)} of the samples it holds.
+     * @param buffers    buffers to serialize together.
+     * @param outBuf     buffer to serialize into, with capacity of at least
+     *                   {@link #serializedSize(ByteBuffer[], int)}.
+     * @param executor   runs the copying tasks. If null, or for small amounts of data,
+     *                   everything is done by the calling thread.
+     * @param tasks      number of tasks to split the copying into.
+     * @param sampleBits bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @throws ErsapException if an arg is null, sampleBits is unsupported,
+     *                        outBuf is too small, or copying fails.
+     */
+    public static void serialize(ByteBuffer[] buffers, ByteBuffer outBuf,
+                                 ExecutorService executor, int tasks, int sampleBits) throws ErsapException {
+        serialize(buffers, outBuf, executor, tasks, sampleBits, null);
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers as in
+     * {@link #serialize(ByteBuffer[], ByteBuffer, ExecutorService, int, int)},
+     * followed by the statistics of its channels, so that readers interested
+     * only in those don't need to go through the ADC values.
+     * @param buffers    buffers to serialize together.
+     * @param outBuf     buffer to serialize into, with capacity of at least
+     *                   {@link #serializedSize(ByteBuffer[], int, DasChannelStats)}.
+     * @param executor   runs the copying tasks. If null, or for small amounts of data,
+     *                   everything is done by the calling thread.
+     * @param tasks      number of tasks to split the copying into.
+     * @param sampleBits bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats      statistics of the buffers' channels, or null if none.
+     * @throws ErsapException if an arg is null, sampleBits is unsupported,
+     *                        outBuf is too small, or copying fails.
+     */
+    public static void serialize(ByteBuffer[] buffers, ByteBuffer outBuf, ExecutorService executor,
+                                 int tasks, int sampleBits, DasChannelStats stats) throws ErsapException {
+        serialize(buffers, outBuf, executor, tasks, sampleBits, stats, false);
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers as in
+     * {@link #serialize(ByteBuffer[], ByteBuffer, ExecutorService, int, int, DasChannelStats)},
+     * marking them as holding zero suppressed clusters if they do.
+     * @param buffers        buffers to serialize together.
+     * @param outBuf         buffer to serialize into, with capacity of at least
+     *                       {@link #serializedSize(ByteBuffer[], int, DasChannelStats, boolean)}.
+     * @param executor       runs the copying tasks. If null, or for small amounts of data,
+     *                       everything is done by the calling thread.
+     * @param tasks          number of tasks to split the copying into.
+     * @param sampleBits     bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats          statistics of the buffers' channels, or null if none.
+     * @param zeroSuppressed true if the buffers hold zero suppressed clusters, which are 16 bit.
+     * @throws ErsapException if an arg is null, sampleBits is unsupported or not 16
+     *                        for zero suppressed data, outBuf is too small, or copying fails.
+     */
+    public static void serialize(ByteBuffer[] buffers, ByteBuffer outBuf, ExecutorService executor,
+                                 int tasks, int sampleBits, DasChannelStats stats,
+                                 boolean zeroSuppressed) throws ErsapException {
+        serialize(buffers, outBuf, executor, tasks, sampleBits, stats, zeroSuppressed, 0, 0);
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers as in
+     * {@link #serialize(ByteBuffer[], ByteBuffer, ExecutorService, int, int, DasChannelStats, boolean)},
+     * along with the numbers of the DSP blocks they hold, if they do.
+     * @param buffers        buffers to serialize together.
+     * @param outBuf         buffer to serialize into, with capacity of at least
+     *                       {@link #serializedSize(ByteBuffer[], int, DasChannelStats, boolean, int)}.
+     * @param executor       runs the copying tasks. If null, or for small amounts of data,
+     *                       everything is done by the calling thread.
+     * @param tasks          number of tasks to split the copying into.
+     * @param sampleBits     bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats          statistics of the buffers' channels, or null if none.
+     * @param zeroSuppressed true if the buffers hold zero suppressed clusters, which are 16 bit.
+     * @param blockNumber    number of the first DSP block.
+     * @param blockCount     number of consecutive DSP blocks the buffers hold, 0 if not DSP data.
+     * @throws ErsapException if an arg is null, sampleBits is unsupported or not 16
+     *                        for zero suppressed data, outBuf is too small, or copying fails.
+     */
+    public static void serialize(ByteBuffer[] buffers, ByteBuffer outBuf, ExecutorService executor,
+                                 int tasks, int sampleBits, DasChannelStats stats,
+                                 boolean zeroSuppressed, int blockNumber, int blockCount)
+            throws ErsapException {
+        serialize(buffers, outBuf, executor, tasks, sampleBits, stats, zeroSuppressed,
+                  blockNumber, blockCount, 0);
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers as in
+     * {@link #serialize(ByteBuffer[], ByteBuffer, ExecutorService, int, int, DasChannelStats, boolean, int, int)},
+     * along with the streams missing from its DSP blocks, whose channels are empty.
+     * @param buffers        buffers to serialize together.
+     * @param outBuf         buffer to serialize into, with capacity of at least
+     *                       {@link #serializedSize(ByteBuffer[], int, DasChannelStats, boolean, int, int)}.
+     * @param executor       runs the copying tasks. If null, or for small amounts of data,
+     *                       everything is done by the calling thread.
+     * @param tasks          number of tasks to split the copying into.
+     * @param sampleBits     bits per ADC value in the buffers: 10, 12 or 16 (unpacked).
+     * @param stats          statistics of the buffers' channels, or null if none.
+     * @param zeroSuppressed true if the buffers hold zero suppressed clusters, which are 16 bit.
+     * @param blockNumber    number of the first DSP block.
+     * @param blockCount     number of consecutive DSP blocks the buffers hold, 0 if not DSP data.
+     * @param missingStreams bit i set if stream i is missing from any of the blocks, 0 if none.
+     * @throws ErsapException if an arg is null, sampleBits is unsupported or not 16
+     *                        for zero suppressed data, outBuf is too small, or copying fails.
+     */
+    public static void serialize(ByteBuffer[] buffers, ByteBuffer outBuf, ExecutorService executor,
+                                 int tasks, int sampleBits, DasChannelStats stats,
+                                 boolean zeroSuppressed, int blockNumber, int blockCount,
+                                 int missingStreams) throws ErsapException {
+
+        if (outBuf == null) {
+            throw new ErsapException("arg is null");
+        }
+        if (!DasSamplePacker.isSupported(sampleBits)) {
+            throw new ErsapException("unsupported sample bits " + sampleBits);
+        }
+        if (zeroSuppressed && sampleBits != DasSamplePacker.UNPACKED) {
+            throw new ErsapException("zero suppressed data can't be packed");
+        }
+        // With a format word, arrays are preceded by their number of samples
+        boolean packed = hasFormat(sampleBits, stats, zeroSuppressed, blockCount, missingStreams);
+
+        int totalLen = serializedSize(buffers, sampleBits, stats, zeroSuppressed, blockCount, missingStreams);
+        if (outBuf.capacity() < totalLen) {
+            throw new ErsapException("buffer too small, need " + totalLen + " bytes");
         }
 
+        // Number of bufs
+        int arrayLen = buffers.length;
+        // Where each buffer's bytes go
+        int[] dataPos = new int[arrayLen];
+
         int writePos = 0;
 
         // Dealing with little endian data
-        ByteBuffer outBuf = ByteBuffer.allocate(totalLen);
         outBuf.order(ByteOrder.LITTLE_ENDIAN);
+        outBuf.clear();
 
-        outBuf.putInt(writePos, arrayLen);
-        writePos += 4;
+        if (packed) {
+            outBuf.putInt(writePos, FORMAT_FLAG | arrayLen);
+            outBuf.putInt(writePos + 4, sampleBits | (stats != null ? FORMAT_STATS : 0) |
+                                        (zeroSuppressed ? FORMAT_ZERO_SUPPRESSED : 0) |
+                                        (blockCount > 0 ? FORMAT_BLOCKS : 0) |
+                                        (missingStreams != 0 ? FORMAT_MISSING : 0));
+            writePos += 8;
+            if (blockCount > 0) {
+                outBuf.putInt(writePos, blockNumber);
+                outBuf.putInt(writePos + 4, blockCount);
+                writePos += 8;
+            }
+            if (missingStreams != 0) {
+                outBuf.putInt(writePos, missingStreams);
+                writePos += 4;
+            }
+        }
+        else {
+            outBuf.putInt(writePos, arrayLen);
+            writePos += 4;
+        }
 
         for (int i=0; i < arrayLen; i++) {
-            outBuf.putInt(writePos, len[i]);
+            int limit = buffers[i].limit();
+            outBuf.putInt(writePos, packed ? DasSamplePacker.sampleCount(limit, sampleBits) : limit);
             writePos += 4;
-            System.arraycopy(buffers[i].array(), 0, outBuf.array(), writePos, len[i]);
-            writePos += len[i];
+            dataPos[i] = writePos;
+            writePos += buffers[i].limit();
+        }
+
+        if (stats != null) {
+            stats.write(outBuf, writePos);
+        }
+
+        tasks = Math.min(tasks, arrayLen);
+
+        if (executor == null || tasks < 2 || totalLen < PARALLEL_MIN_BYTES) {
+            copyBuffers(buffers, outBuf, dataPos, 0, arrayLen);
+        }
+        else {
+            Future<?>[] futures = new Future<?>[tasks];
+            for (int t=0; t < tasks; t++) {
+                int first = t * arrayLen / tasks;
+                int last  = (t + 1) * arrayLen / tasks;
+                futures[t] = executor.submit(() -> copyBuffers(buffers, outBuf, dataPos, first, last));
+            }
+            try {
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            }
+            catch (InterruptedException | ExecutionException e) {
+                throw new ErsapException("parallel serialization failed", e);
+            }
         }
 
         // Get ready for reading (pos is already 0)
         outBuf.limit(totalLen);
-        return outBuf;
     }
 
 
+    /**
+     * Does serialized data need a format word?
+     * @param sampleBits     bits per ADC value: 10, 12 or 16 (unpacked).
+     * @param stats          channel statistics, or null if none.
+     * @param zeroSuppressed true if zero suppressed.
+     * @param blockCount     number of DSP blocks, 0 if not DSP data.
+     * @param missingStreams bit i set if stream i is missing.
+     * @return true if a format word follows the number of arrays.
+     */
+    private static boolean hasFormat(int sampleBits, DasChannelStats stats, boolean zeroSuppressed,
+                                     int blockCount, int missingStreams) {
+        return sampleBits != DasSamplePacker.UNPACKED || stats != null || zeroSuppressed ||
+               blockCount > 0 || missingStreams != 0;
+    }
+
+
+    /**
+     * Copy the valid bytes of a range of buffers into their place in the output buffer.
+     * Only absolute operations are used, so different ranges can be copied concurrently.
+     * @param buffers buffers to copy.
+     * @param outBuf  buffer to copy into.
+     * @param dataPos where each buffer's bytes go in outBuf.
+     * @param first   index of first buffer to copy.
+     * @param last    index of buffer past the last to copy.
+     */
+    private static void copyBuffers(ByteBuffer[] buffers, ByteBuffer outBuf, int[] dataPos, int first, int last) {
+        for (int i=first; i < last; i++) {
+            outBuf.put(dataPos[i], buffers[i], 0, buffers[i].limit());
+        }
+    }
+
+
+
+    /**
+     * Get the number of bits each ADC value of serialized data is packed into.
+     * @param buffer serialized data, heap or direct.
+     * @return 10 or 12 if packed, 16 if not.
+     * @throws ErsapException if arg is null.
+     */
+    public static int getSampleBits(ByteBuffer buffer) throws ErsapException {
+        if (buffer == null) {
+            throw new ErsapException("arg is null");
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if ((buffer.getInt(0) & FORMAT_FLAG) == 0) {
+            return DasSamplePacker.UNPACKED;
+        }
+        return buffer.getInt(4) & FORMAT_BITS_MASK;
+    }
+
+
+    /**
+     * Do the arrays of serialized data hold zero suppressed clusters of ADC values?
+     * @param buffer serialized data, heap or direct.
+     * @return true if zero suppressed, see {@link DasZeroSuppressor}.
+     * @throws ErsapException if arg is null.
+     */
+    public static boolean isZeroSuppressed(ByteBuffer buffer) throws ErsapException {
+        if (buffer == null) {
+            throw new ErsapException("arg is null");
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return (buffer.getInt(0) & FORMAT_FLAG) != 0 && (buffer.getInt(4) & FORMAT_ZERO_SUPPRESSED) != 0;
+    }
+
+
+    /**
+     * Get the number of the first DSP block of serialized data.
+     * @param buffer serialized data, heap or direct.
+     * @return number of first block, 0 if not DSP data (see {@link #getBlockCount(ByteBuffer)}).
+     * @throws ErsapException if arg is null.
+     */
+    public static int getBlockNumber(ByteBuffer buffer) throws ErsapException {
+        if (buffer == null) {
+            throw new ErsapException("arg is null");
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if ((buffer.getInt(0) & FORMAT_FLAG) == 0 || (buffer.getInt(4) & FORMAT_BLOCKS) == 0) {
+            return 0;
+        }
+        return buffer.getInt(8);
+    }
+
+
+    /**
+     * Get the number of consecutive DSP blocks merged into serialized data.
+     * @param buffer serialized data, heap or direct.
+     * @return number of blocks, 0 if not DSP data.
+     * @throws ErsapException if arg is null.
+     */
+    public static int getBlockCount(ByteBuffer buffer) throws ErsapException {
+        if (buffer == null) {
+            throw new ErsapException("arg is null");
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if ((buffer.getInt(0) & FORMAT_FLAG) == 0 || (buffer.getInt(4) & FORMAT_BLOCKS) == 0) {
+            return 0;
+        }
+        return buffer.getInt(12);
+    }
+
+
+    /**
+     * Get the streams missing from the DSP blocks of serialized data, whose channels are empty.
+     * @param buffer serialized data, heap or direct.
+     * @return bit i set if stream i is missing, 0 if none.
+     * @throws ErsapException if arg is null.
+     */
+    public static int getMissingStreams(ByteBuffer buffer) throws ErsapException {
+        if (buffer == null) {
+            throw new ErsapException("arg is null");
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if ((buffer.getInt(0) & FORMAT_FLAG) == 0) {
+            return 0;
+        }
+        int format = buffer.getInt(4);
+        if ((format & FORMAT_MISSING) == 0) {
+            return 0;
+        }
+        return buffer.getInt(8 + ((format & FORMAT_BLOCKS) != 0 ? 8 : 0));
+    }
+
+
+    /**
+     * Get where the arrays of serialized data with a format word start.
+     * @param format format word.
+     * @return byte index of the first array's number of samples.
+     */
+    private static int arraysStart(int format) {
+        return 8 + ((format & FORMAT_BLOCKS) != 0 ? 8 : 0) + ((format & FORMAT_MISSING) != 0 ? 4 : 0);
+    }
+
+
+    /**
+     * Get the channel statistics of serialized data, without reading its ADC values.
+     * @param buffer serialized data, heap or direct.
+     * @return channel statistics, or null if there are none.
+     * @throws ErsapException if arg is null.
+     */
+    public static DasChannelStats getStats(ByteBuffer buffer) throws ErsapException {
+        if (buffer == null) {
+            throw new ErsapException("arg is null");
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int bufCount = buffer.getInt(0);
+        if ((bufCount & FORMAT_FLAG) == 0 || (buffer.getInt(4) & FORMAT_STATS) == 0) {
+            return null;
+        }
+        bufCount &= ~FORMAT_FLAG;
+        int bits = buffer.getInt(4) & FORMAT_BITS_MASK;
+
+        // Skip over the arrays
+        int readPos = arraysStart(buffer.getInt(4));
+        for (int i=0; i < bufCount; i++) {
+            readPos += 4 + DasSamplePacker.packedSize(buffer.getInt(readPos), bits);
+        }
+        return DasChannelStats.read(buffer, readPos);
+    }
+
 
     /**
-     * Deserialize the given buffer into an array of ByteBuffers.
+     * Deserialize the given buffer, heap or direct, into an array of ByteBuffers.
+     * Packed ADC values are unpacked into shorts.
      * <b>The buffer data must be LITTLE endian.</b>
      * This is assumed in this method.
      * Called internally.
      * @param buffer buffer to deserialize.
      * @return array of ByteBuffers.
-     * @throws ErsapException if arg is null.
+     * @throws ErsapException if arg is null or the packing format is unsupported.
      */
     public static ByteBuffer[] deserialize(ByteBuffer buffer) throws ErsapException {
 
@@ -112,6 +652,10 @@ public final class DasDataType {
         int bufCount = buffer.getInt(readPos);
         readPos += 4;
 
+        if ((bufCount & FORMAT_FLAG) != 0) {
+            return deserializePacked(buffer);
+        }
+
         // Allocate the array of ByteBuffers
         int len;
         ByteBuffer[] buffers = new ByteBuffer[bufCount];
@@ -121,7 +665,51 @@ public final class DasDataType {
             readPos += 4;
             buffers[i] = ByteBuffer.allocate(len);
             buffers[i].order(ByteOrder.LITTLE_ENDIAN);
-            System.arraycopy(buffer.array(), readPos, buffers[i].array(), 0, len);
+            buffer.get(readPos, buffers[i].array(), 0, len);
+            readPos += len;
+        }
+
+        return buffers;
+    }
+
+
+    /**
+     * Deserialize a buffer with a format word, unpacking any packed ADC values into shorts.
+     * @param buffer buffer to deserialize, little endian.
+     * @return array of ByteBuffers.
+     * @throws ErsapException if the packing format is unsupported.
+     */
+    private static ByteBuffer[] deserializePacked(ByteBuffer buffer) throws ErsapException {
+        int bufCount = buffer.getInt(0) & ~FORMAT_FLAG;
+        int bits = buffer.getInt(4) & FORMAT_BITS_MASK;
+        if (!DasSamplePacker.isSupported(bits)) {
+            throw new ErsapException("unsupported sample bits " + bits);
+        }
+
+        int readPos = arraysStart(buffer.getInt(4));
+        ByteBuffer[] buffers = new ByteBuffer[bufCount];
+        // Packed bytes of one array, if not readable straight from the buffer's array
+        byte[] packed = buffer.hasArray() ? null : new byte[0];
+
+        for (int i=0; i < bufCount; i++) {
+            int samples = buffer.getInt(readPos);
+            readPos += 4;
+            int len = DasSamplePacker.packedSize(samples, bits);
+
+            buffers[i] = ByteBuffer.allocate(2 * samples);
+            buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+
+            if (packed == null) {
+                DasSamplePacker.unpack(buffer.array(), buffer.arrayOffset() + readPos, samples, bits,
+                                       buffers[i].array(), 0);
+            }
+            else {
+                if (packed.length < len) {
+                    packed = new byte[len];
+                }
+                buffer.get(readPos, packed, 0, len);
+                DasSamplePacker.unpack(packed, 0, samples, bits, buffers[i].array(), 0);
+            }
             readPos += len;
         }
 
@@ -0,0 +1,257 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Packs SAMPA ADC values, which are only 10 bits, into fewer bytes than a short each.
+ * Samples of a channel are stored back to back as a little endian bit stream:
+ * sample i occupies bits i*width to (i+1)*width - 1, bit 0 being the lowest bit
+ * of the first byte. With a width of 10 bits, every 4 samples take 5 bytes.
+ * With 12 bits, which leaves room for values that are no longer raw ADC values,
+ * every 2 samples take 3 bytes. A width of 16 bits is the unpacked form,
+ * one little endian short per sample.</p>
+ *
+ * <p>A trailing partial group is padded with zero bits up to the next byte,
+ * so the number of samples in a buffer can be told from its size alone,
+ * see {@link #sampleCount(int, int)}.</p>
+ */
+public final class DasSamplePacker {
+
+    private DasSamplePacker() { }
+
+    /** Width of unpacked samples, stored as shorts. */
+    public static final int UNPACKED = 16;
+
+    /** View of a byte array as little endian shorts. */
+    private static final VarHandle SHORT_LE =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** View of a byte array as little endian ints. */
+    private static final VarHandle INT_LE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+
+    /**
+     * Is the given sample width supported?
+     * @param bits bits per sample.
+     * @return true if 10, 12 or 16.
+     */
+    public static boolean isSupported(int bits) {
+        return bits == 10 || bits == 12 || bits == UNPACKED;
+    }
+
+
+    /**
+     * Get the number of samples in a group which packs into a whole number of bytes.
+     * @param bits bits per sample (10, 12 or 16).
+     * @return 4 for 10 bits, 2 for 12 bits, 1 for 16 bits.
+     */
+    public static int samplesPerGroup(int bits) {
+        switch (bits) {
+            case 10: return 4;
+            case 12: return 2;
+            default: return 1;
+        }
+    }
+
+
+    /**
+     * Get the number of bytes taken by packed samples.
+     * @param samples number of samples.
+     * @param bits    bits per sample (10, 12 or 16).
+     * @return number of bytes.
+     */
+    public static int packedSize(int samples, int bits) {
+        return (int) (((long) samples * bits + 7) / 8);
+    }
+
+
+    /**
+     * Get the number of samples in a number of bytes of packed samples.
+     * @param bytes number of bytes, as returned by {@link #packedSize(int, int)}.
+     * @param bits  bits per sample (10, 12 or 16).
+     * @return number of samples.
+     */
+    public static int sampleCount(int bytes, int bits) {
+        return (int) ((long) bytes * 8 / bits);
+    }
+
+
+    /**
+     * Write a group of 4 samples as 5 bytes of 10 bit values.
+     * @param dst array to write into.
+     * @param d   index of first byte to write.
+     * @param v0  first sample.
+     * @param v1  second sample.
+     * @param v2  third sample.
+     * @param v3  fourth sample.
+     */
+    public static void put10(byte[] dst, int d, int v0, int v1, int v2, int v3) {
+        long group = (v0 & 0x3FFL) | ((v1 & 0x3FFL) << 10) | ((v2 & 0x3FFL) << 20) | ((v3 & 0x3FFL) << 30);
+        INT_LE.set(dst, d, (int) group);
+        dst[d + 4] = (byte) (group >>> 32);
+    }
+
+
+    /**
+     * Write a group of 2 samples as 3 bytes of 12 bit values.
+     * @param dst array to write into.
+     * @param d   index of first byte to write.
+     * @param v0  first sample.
+     * @param v1  second sample.
+     */
+    public static void put12(byte[] dst, int d, int v0, int v1) {
+        int group = (v0 & 0xFFF) | ((v1 & 0xFFF) << 12);
+        SHORT_LE.set(dst, d, (short) group);
+        dst[d + 2] = (byte) (group >>> 16);
+    }
+
+
+    /**
+     * Pack samples stored as little endian shorts.
+     * @param src     array of samples.
+     * @param srcOff  index in src of first sample's first byte.
+     * @param samples number of samples.
+     * @param bits    bits per packed sample (10, 12 or 16).
+     * @param dst     array to pack into, with room for {@link #packedSize(int, int)} bytes.
+     * @param dstOff  index in dst of first byte to write.
+     */
+    public static void pack(byte[] src, int srcOff, int samples, int bits, byte[] dst, int dstOff) {
+        int group = samplesPerGroup(bits);
+        int whole = samples - samples % group;
+        int s = srcOff, d = dstOff;
+
+        switch (bits) {
+            case 10:
+                for (int i = 0; i < whole; i += 4, s += 8, d += 5) {
+                    put10(dst, d, (short) SHORT_LE.get(src, s),     (short) SHORT_LE.get(src, s + 2),
+                                  (short) SHORT_LE.get(src, s + 4), (short) SHORT_LE.get(src, s + 6));
+                }
+                break;
+            case 12:
+                for (int i = 0; i < whole; i += 2, s += 4, d += 3) {
+                    put12(dst, d, (short) SHORT_LE.get(src, s), (short) SHORT_LE.get(src, s + 2));
+                }
+                break;
+            default:
+                System.arraycopy(src, srcOff, dst, dstOff, 2 * samples);
+                return;
+        }
+
+        // Partial group, zero padded
+        if (whole < samples) {
+            int bytes = packedSize(samples, bits) - packedSize(whole, bits);
+            for (int i = 0; i < bytes; i++) {
+                dst[d + i] = 0;
+            }
+            int mask = (1 << bits) - 1;
+            for (int i = 0; i < samples - whole; i++, s += 2) {
+                int bitPos = i * bits;
+                int val = ((short) SHORT_LE.get(src, s) & mask) << (bitPos & 7);
+                for (int b = bitPos >>> 3; val != 0; b++, val >>>= 8) {
+                    dst[d + b] |= (byte) val;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Unpack samples into little endian shorts.
+     * @param src     array of packed samples.
+     * @param srcOff  index in src of first byte of packed samples.
+     * @param samples number of samples.
+     * @param bits    bits per packed sample (10, 12 or 16).
+     * @param dst     array to unpack into, with room for 2*samples bytes.
+     * @param dstOff  index in dst of first sample's first byte.
+     */
+    public static void unpack(byte[] src, int srcOff, int samples, int bits, byte[] dst, int dstOff) {
+        int group = samplesPerGroup(bits);
+        int whole = samples - samples % group;
+        int s = srcOff, d = dstOff;
+
+        switch (bits) {
+            case 10:
+                for (int i = 0; i < whole; i += 4, s += 5, d += 8) {
+                    long g = ((int) INT_LE.get(src, s) & 0xFFFFFFFFL) | ((src[s + 4] & 0xFFL) << 32);
+                    SHORT_LE.set(dst, d,     (short) ( g         & 0x3FF));
+                    SHORT_LE.set(dst, d + 2, (short) ((g >>> 10) & 0x3FF));
+                    SHORT_LE.set(dst, d + 4, (short) ((g >>> 20) & 0x3FF));
+                    SHORT_LE.set(dst, d + 6, (short) ((g >>> 30) & 0x3FF));
+                }
+                break;
+            case 12:
+                for (int i = 0; i < whole; i += 2, s += 3, d += 4) {
+                    int g = ((short) SHORT_LE.get(src, s) & 0xFFFF) | ((src[s + 2] & 0xFF) << 16);
+                    SHORT_LE.set(dst, d,     (short) ( g         & 0xFFF));
+                    SHORT_LE.set(dst, d + 2, (short) ((g >>> 12) & 0xFFF));
+                }
+                break;
+            default:
+                System.arraycopy(src, srcOff, dst, dstOff, 2 * samples);
+                return;
+        }
+
+        // Partial group
+        for (int i = 0; i < samples - whole; i++, d += 2) {
+            SHORT_LE.set(dst, d, (short) getSample(src, s, i, bits));
+        }
+    }
+
+
+    /**
+     * Get a single packed sample.
+     * @param src    array of packed samples.
+     * @param srcOff index in src of first byte of packed samples.
+     * @param index  index of sample.
+     * @param bits   bits per packed sample (10 or 12).
+     * @return sample value.
+     */
+    private static int getSample(byte[] src, int srcOff, int index, int bits) {
+        int bitPos = index * bits;
+        int b = srcOff + (bitPos >>> 3);
+        int last = srcOff + (bitPos + bits - 1) / 8;
+        int val = 0;
+        for (int i = last; i >= b; i--) {
+            val = (val << 8) | (src[i] & 0xFF);
+        }
+        return (val >>> (bitPos & 7)) & ((1 << bits) - 1);
+    }
+
+
+    /**
+     * Get a single sample of a buffer, heap or direct, holding packed or unpacked samples.
+     * Only absolute reads are used, so the buffer's position is left alone.
+     * @param buf   buffer of samples, which must be little endian if unpacked.
+     * @param index index of sample.
+     * @param bits  bits per sample (10, 12 or 16).
+     * @return sample value.
+     */
+    public static int getSample(ByteBuffer buf, int index, int bits) {
+        if (bits == UNPACKED) {
+            return buf.getShort(2 * index);
+        }
+        int bitPos = index * bits;
+        int b = bitPos >>> 3;
+        int last = (bitPos + bits - 1) / 8;
+        int val = 0;
+        for (int i = last; i >= b; i--) {
+            val = (val << 8) | (buf.get(i) & 0xFF);
+        }
+        return (val >>> (bitPos & 7)) & ((1 << bits) - 1);
+    }
+}
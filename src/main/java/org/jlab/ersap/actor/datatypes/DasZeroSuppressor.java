@@ -0,0 +1,265 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Zero suppression of SAMPA ADC values: of a channel's values, only those above
+ * the channel's threshold are kept, along with a number of values before (pre)
+ * and after (post) each of them. Kept values which touch or overlap are merged
+ * into clusters, which are stored in place of the channel's values as little
+ * endian shorts:</p>
+ * <pre><b>
+ *     Number of values before suppression       --- 32 bit int (2 shorts)
+ *     Clusters, each:
+ *         Number of the cluster's first sample  --- 32 bit int (2 shorts)
+ *         Number of values in the cluster       --- 16 bit unsigned int
+ *         [Values]                              --- 16 bit int per value
+ * </b></pre>
+ *
+ * <p>Sample numbers count from the first value the channel had before
+ * suppression. Clusters are not carried over from one buffer to the next,
+ * so pre and post values are cut off at its ends. A cluster of more than
+ * 65535 values is split.</p>
+ *
+ * <p>Channels are suppressed one at a time: {@link #suppress(int, ByteBuffer)}
+ * gathers the clusters of a buffer's values and {@link #write(ByteBuffer)} stores
+ * them, which leaves room to enlarge the buffer in between if they don't fit.</p>
+ */
+public class DasZeroSuppressor {
+
+    /** Shorts in the header of a channel's clusters. */
+    public static final int CHANNEL_HEADER_SHORTS = 2;
+
+    /** Shorts in the header of each cluster. */
+    public static final int HEADER_SHORTS = 3;
+
+    /** Most values in one cluster. */
+    private static final int MAX_CLUSTER = 0xFFFF;
+
+    /** Values of each channel above this are kept. */
+    private final int[] threshold;
+
+    /** Number of values kept before each value above threshold. */
+    private final int pre;
+
+    /** Number of values kept after each value above threshold. */
+    private final int post;
+
+    /** Clusters of the last channel suppressed. */
+    private short[] clusters = new short[64];
+
+    /** Number of shorts in clusters. */
+    private int clusterShorts;
+
+    /** Number of values looked at. */
+    private long valuesIn;
+
+    /** Number of values kept. */
+    private long valuesKept;
+
+
+    /**
+     * Constructor.
+     * @param threshold values of each channel above this are kept.
+     * @param pre       number of values kept before each value above threshold.
+     * @param post      number of values kept after each value above threshold.
+     */
+    public DasZeroSuppressor(int[] threshold, int pre, int post) {
+        this.threshold = threshold.clone();
+        this.pre = Math.max(0, pre);
+        this.post = Math.max(0, post);
+    }
+
+
+    /**
+     * Get the thresholds of a range of channels, each the same number of ADC counts
+     * plus a number of standard deviations above the channel's pedestal.
+     * @param channels     number of channels.
+     * @param firstChannel index in mean and sdv of the first channel.
+     * @param counts       ADC counts above pedestal.
+     * @param sigmas       standard deviations above pedestal.
+     * @param mean         pedestal of each channel, or null for 0, which makes counts an absolute threshold.
+     * @param sdv          std. dev. of each channel's pedestal, or null for 0.
+     * @return threshold of each channel.
+     */
+    public static int[] thresholds(int channels, int firstChannel, int counts, float sigmas,
+                                   float[] mean, float[] sdv) {
+        int[] thr = new int[channels];
+        for (int i = 0; i < channels; i++) {
+            int ch = firstChannel + i;
+            float m = (mean != null && ch < mean.length) ? mean[ch] : 0;
+            float s = (sdv  != null && ch < sdv.length)  ? sdv[ch]  : 0;
+            thr[i] = Math.round(m + counts + sigmas * s);
+        }
+        return thr;
+    }
+
+
+    /**
+     * Get the number of channels.
+     * @return number of channels.
+     */
+    public int getChannelCount() {return threshold.length;}
+
+    /**
+     * Get the threshold of a channel.
+     * @param channel channel number.
+     * @return values above this are kept.
+     */
+    public int getThreshold(int channel) {return threshold[channel];}
+
+    /**
+     * Get the number of values looked at so far.
+     * @return number of values looked at.
+     */
+    public long getValuesIn() {return valuesIn;}
+
+    /**
+     * Get the number of values kept so far.
+     * @return number of values kept.
+     */
+    public long getValuesKept() {return valuesKept;}
+
+
+    /**
+     * Gather the clusters of a channel's values, to be stored with {@link #write(ByteBuffer)}.
+     * @param channel channel number, one with no threshold keeps all values.
+     * @param buf     values as little endian shorts, from 0 to position, as a decoder leaves them.
+     * @return number of bytes the clusters take.
+     */
+    public int suppress(int channel, ByteBuffer buf) {
+        int samples = buf.position() / 2;
+        int thr = channel < threshold.length ? threshold[channel] : Integer.MIN_VALUE;
+        clusters[0] = (short) samples;
+        clusters[1] = (short) (samples >>> 16);
+        clusterShorts = CHANNEL_HEADER_SHORTS;
+
+        // Values from keepFrom up to keepTo are to be kept
+        int keepFrom = -1, keepTo = 0;
+        for (int i = 0; i < samples; i++) {
+            if (buf.getShort(2 * i) <= thr) continue;
+
+            int from = Math.max(i - pre, 0);
+            int to = Math.min(i + 1 + post, samples);
+            if (keepFrom >= 0 && from <= keepTo) {
+                keepTo = to;
+            }
+            else {
+                if (keepFrom >= 0) {
+                    addCluster(buf, keepFrom, keepTo);
+                }
+                keepFrom = from;
+                keepTo = to;
+            }
+        }
+        if (keepFrom >= 0) {
+            addCluster(buf, keepFrom, keepTo);
+        }
+
+        valuesIn += samples;
+        return 2 * clusterShorts;
+    }
+
+
+    /**
+     * Add a range of values as one or more clusters.
+     * @param buf  values as little endian shorts.
+     * @param from first sample of range.
+     * @param to   sample past the last of range.
+     */
+    private void addCluster(ByteBuffer buf, int from, int to) {
+        while (from < to) {
+            int length = Math.min(to - from, MAX_CLUSTER);
+            int need = clusterShorts + HEADER_SHORTS + length;
+            if (need > clusters.length) {
+                clusters = Arrays.copyOf(clusters, Math.max(need, 2 * clusters.length));
+            }
+            clusters[clusterShorts]     = (short) from;
+            clusters[clusterShorts + 1] = (short) (from >>> 16);
+            clusters[clusterShorts + 2] = (short) length;
+            clusterShorts += HEADER_SHORTS;
+            for (int i = 0; i < length; i++) {
+                clusters[clusterShorts + i] = buf.getShort(2 * (from + i));
+            }
+            clusterShorts += length;
+            valuesKept += length;
+            from += length;
+        }
+    }
+
+
+    /**
+     * Store the clusters gathered by the last {@link #suppress(int, ByteBuffer)} in place
+     * of the values, leaving the buffer's position just past them.
+     * @param buf buffer the values were in, or a bigger one, little endian.
+     */
+    public void write(ByteBuffer buf) {
+        buf.clear();
+        for (int i = 0; i < clusterShorts; i++) {
+            buf.putShort(2 * i, clusters[i]);
+        }
+        buf.position(2 * clusterShorts);
+    }
+
+
+    /**
+     * Expand a channel's clusters back into its values, with those suppressed set to a fill value.
+     * @param buf    clusters as little endian shorts, from 0 to limit.
+     * @param values array to fill with the channel's values.
+     * @param fill   value of suppressed samples.
+     * @return number of values before suppression, of which values holds as many as fit.
+     */
+    public static int expand(ByteBuffer buf, short[] values, short fill) {
+        int shorts = buf.limit() / 2;
+        if (shorts < CHANNEL_HEADER_SHORTS) {
+            return 0;
+        }
+        int samples = readInt(buf, 0);
+        Arrays.fill(values, 0, Math.min(samples, values.length), fill);
+
+        for (int i = CHANNEL_HEADER_SHORTS; i + HEADER_SHORTS <= shorts; ) {
+            int from = readInt(buf, i);
+            int length = buf.getShort(2 * i + 4) & 0xFFFF;
+            i += HEADER_SHORTS;
+            int copy = Math.min(length, values.length - from);
+            for (int j = 0; j < copy; j++) {
+                values[from + j] = buf.getShort(2 * (i + j));
+            }
+            i += length;
+        }
+        return samples;
+    }
+
+
+    /**
+     * Get the number of values a channel had before suppression.
+     * @param buf clusters as little endian shorts, from 0 to limit.
+     * @return number of values before suppression.
+     */
+    public static int getSampleCount(ByteBuffer buf) {
+        return buf.limit() < 2 * CHANNEL_HEADER_SHORTS ? 0 : readInt(buf, 0);
+    }
+
+
+    /**
+     * Read an int stored as 2 little endian shorts, lower one first.
+     * @param buf   buffer of shorts.
+     * @param index index of the lower short.
+     * @return int.
+     */
+    private static int readInt(ByteBuffer buf, int index) {
+        return (buf.getShort(2 * index) & 0xFFFF) | (buf.getShort(2 * index + 2) << 16);
+    }
+}
@@ -0,0 +1,198 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+import org.jlab.epsci.ersap.base.error.ErsapException;
+import org.jlab.epsci.ersap.engine.EngineDataType;
+import org.jlab.epsci.ersap.engine.ErsapSerializer;
+import org.jlab.ersap.actor.sampa.proc.SampaHits;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>
+ * This class is used to define the pulses (hits) found in SAMPA channels,
+ * see {@link SampaHits}, which are far smaller than the channels' raw values.
+ * Hits are serialized column by column, so each column is one run of values
+ * of the same type. All is little endian:</p>
+ * <pre><b>
+ *     Number of hits to come            --- 32 bit signed int (highest bit set if windows follow)
+ *     Channel of each hit               --- 32 bit int per hit
+ *     Time of each hit                  --- 64 bit int per hit
+ *     Width of each hit                 --- 32 bit int per hit
+ *     Peak offset of each hit           --- 32 bit int per hit
+ *     Amplitude of each hit             --- 32 bit float per hit
+ *     Integral of each hit              --- 32 bit float per hit
+ * </b></pre>
+ *
+ * <p>If any hit has a window of raw ADC values, these follow:</p>
+ * <pre><b>
+ *     Window shift of each hit          --- 32 bit int per hit
+ *     Window length of each hit         --- 32 bit int per hit (0 if none)
+ *     [Window values of all hits]       --- 16 bit int per value
+ * </b></pre>
+ */
+public final class SampaHitDataType {
+
+    private SampaHitDataType() { }
+
+
+    public static final String MIME_TYPE = "binary/data-sampa-hits";
+
+    /** Set in the first word if windows follow. */
+    private static final int WINDOW_FLAG = 0x80000000;
+
+    /** Serialized bytes of each hit, windows aside. */
+    private static final int BYTES_PER_HIT = 4 + 8 + 4 + 4 + 4 + 4;
+
+
+    /**
+     * Get the number of bytes the given hits take once serialized.
+     * @param hits hits to serialize.
+     * @return number of bytes in serialized form.
+     */
+    public static int serializedSize(SampaHits hits) {
+        int bytes = 4 + BYTES_PER_HIT * hits.size();
+        if (hits.getWindowValueCount() > 0) {
+            bytes += 8 * hits.size() + 2 * hits.getWindowValueCount();
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Serialize the given hits into a new ByteBuffer.
+     * The returned buffer is little endian.
+     * @param hits hits to serialize.
+     * @return one buffer containing all hits, ready to read.
+     */
+    public static ByteBuffer serialize(SampaHits hits) {
+        ByteBuffer outBuf = ByteBuffer.allocate(serializedSize(hits));
+        outBuf.order(ByteOrder.LITTLE_ENDIAN);
+        serialize(hits, outBuf);
+        outBuf.flip();
+        return outBuf;
+    }
+
+
+    /**
+     * Serialize the given hits into a buffer, starting at its position,
+     * which is moved past the last byte written.
+     * @param hits   hits to serialize.
+     * @param outBuf buffer to write into, which must be LITTLE endian
+     *               and have {@link #serializedSize(SampaHits)} bytes remaining.
+     */
+    public static void serialize(SampaHits hits, ByteBuffer outBuf) {
+        int size = hits.size();
+        boolean windows = hits.getWindowValueCount() > 0;
+
+        outBuf.putInt(windows ? WINDOW_FLAG | size : size);
+        for (int i = 0; i < size; i++) outBuf.putInt(hits.getChannel(i));
+        for (int i = 0; i < size; i++) outBuf.putLong(hits.getTime(i));
+        for (int i = 0; i < size; i++) outBuf.putInt(hits.getWidth(i));
+        for (int i = 0; i < size; i++) outBuf.putInt(hits.getPeakOffset(i));
+        for (int i = 0; i < size; i++) outBuf.putFloat(hits.getAmplitude(i));
+        for (int i = 0; i < size; i++) outBuf.putFloat(hits.getIntegral(i));
+
+        if (windows) {
+            for (int i = 0; i < size; i++) outBuf.putInt(hits.getWindowShift(i));
+            for (int i = 0; i < size; i++) outBuf.putInt(hits.getWindowLength(i));
+            for (int i = 0; i < size; i++) {
+                int length = hits.getWindowLength(i);
+                for (int j = 0; j < length; j++) {
+                    outBuf.putShort(hits.getWindowValue(i, j));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Deserialize hits from a buffer, from its position on.
+     * @param buffer buffer to read from.
+     * @return hits.
+     * @throws ErsapException if the buffer is too short for the hits it says it holds.
+     */
+    public static SampaHits deserialize(ByteBuffer buffer) throws ErsapException {
+        ByteBuffer buf = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < 4) {
+            throw new ErsapException("SampaHitDataType: buffer too short");
+        }
+
+        int first = buf.getInt();
+        boolean windows = (first & WINDOW_FLAG) != 0;
+        int size = first & ~WINDOW_FLAG;
+        if (buf.remaining() < (long) (BYTES_PER_HIT + (windows ? 8 : 0)) * size) {
+            throw new ErsapException("SampaHitDataType: buffer too short for " + size + " hits");
+        }
+
+        // Columns start at fixed offsets, read them side by side
+        int chPos = 4;
+        int timePos = chPos + 4 * size;
+        int widthPos = timePos + 8 * size;
+        int peakPos = widthPos + 4 * size;
+        int ampPos = peakPos + 4 * size;
+        int intPos = ampPos + 4 * size;
+
+        int shiftPos = intPos + 4 * size;
+        int lengthPos = shiftPos + 4 * size;
+        int valuePos = lengthPos + 4 * size;
+        if (windows) {
+            long values = 0;
+            for (int i = 0; i < size; i++) {
+                values += buf.getInt(lengthPos + 4 * i);
+            }
+            if (buf.limit() - valuePos < 2 * values) {
+                throw new ErsapException("SampaHitDataType: buffer too short for " + values + " window values");
+            }
+        }
+
+        SampaHits hits = new SampaHits(size);
+        for (int i = 0; i < size; i++) {
+            hits.add(buf.getInt(chPos + 4 * i), buf.getLong(timePos + 8 * i),
+                     buf.getInt(widthPos + 4 * i), buf.getInt(peakPos + 4 * i),
+                     buf.getFloat(ampPos + 4 * i), buf.getFloat(intPos + 4 * i));
+            if (windows) {
+                int length = buf.getInt(lengthPos + 4 * i);
+                if (length > 0) {
+                    hits.setWindow(buf, valuePos / 2, length, buf.getInt(shiftPos + 4 * i));
+                    valuePos += 2 * length;
+                }
+            }
+        }
+        return hits;
+    }
+
+
+    private static class SampaHitSerializer implements ErsapSerializer {
+
+        @Override
+        public ByteBuffer write(Object data) throws ErsapException {
+            if (data instanceof ByteBuffer) {
+                // Already serialized
+                return (ByteBuffer) data;
+            }
+            if (!(data instanceof SampaHits)) {
+                throw new ErsapException("Expected SampaHits, got " + data.getClass().getName());
+            }
+            return serialize((SampaHits) data);
+        }
+
+        @Override
+        public Object read(ByteBuffer buffer) throws ErsapException {
+            return deserialize(buffer);
+        }
+    }
+
+    public static final EngineDataType SAMPA_HITS =
+            new EngineDataType(MIME_TYPE, new SampaHitSerializer());
+}
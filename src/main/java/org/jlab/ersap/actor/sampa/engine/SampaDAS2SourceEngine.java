@@ -16,6 +16,7 @@ import org.jlab.epsci.ersap.std.services.AbstractEventReaderService;
 import org.jlab.epsci.ersap.std.services.EventReaderException;
 import org.jlab.ersap.actor.sampa.source.s2.S2RecDecAgg;
 import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.SPipelineParameters;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
@@ -43,6 +44,45 @@ public class SampaDAS2SourceEngine extends AbstractEventReaderService<S2RecDecAg
 
     private static final String SMP_PORT1 = "port1";
     private static final String SMP_PORT2 = "port2";
+    // "das" (default) or "dsp"
+    private static final String MODE = "mode";
+    // Aggregate the 2 streams by handing buffers over instead of copying them
+    private static final String ZERO_COPY = "zero_copy";
+    // Threads copying channel data during serialization
+    private static final String SER_THREADS = "ser_threads";
+    // Max serialized events waiting to be read
+    private static final String QUEUE_SIZE = "queue_size";
+    // Drop events when they're not read fast enough instead of applying backpressure
+    private static final String DROP_WHEN_FULL = "drop_when_full";
+    // Bits each ADC value is stored and sent in: 10 or 12 to pack them, 16 (default) for shorts
+    private static final String SAMPLE_BITS = "sample_bits";
+    // Keep the channel data of all ring events in off-heap memory
+    private static final String OFF_HEAP = "off_heap";
+    // Keep per-channel statistics while decoding and send them with each event
+    private static final String CHANNEL_STATS = "channel_stats";
+    // Zero suppress DAS data as it's decoded
+    private static final String ZERO_SUPPRESSION = "zero_suppression";
+    // ADC counts above pedestal (absolute without pedestal file) a value must be to be kept
+    private static final String ZS_THRESHOLD = "zs_threshold";
+    // Std. devs. of the pedestal added to the threshold
+    private static final String ZS_SIGMAS = "zs_sigmas";
+    // Values kept before and after each one above threshold
+    private static final String ZS_PRE = "zs_pre";
+    private static final String ZS_POST = "zs_post";
+    // Pedestal file written by the statistics engine, thresholds are relative to its pedestals
+    private static final String ZS_PEDESTALS = "zs_pedestals";
+    // Number of last pedestal records averaged
+    private static final String ZS_PEDESTAL_RECORDS = "zs_pedestal_records";
+    // Watch for loss of sync once synced and resync
+    private static final String SYNC_MONITOR = "sync_monitor";
+    // Sampling windows (2000 frames each) per block (DSP mode)
+    private static final String N_BLOCK = "n_block";
+    // Consecutive blocks merged into each event (DSP mode)
+    private static final String MERGE_BLOCKS = "merge_blocks";
+    // DSP blocks a stream may have queued while the aggregator waits for another stream
+    private static final String ALIGN_WINDOW = "align_window";
+    // Milliseconds the aggregator waits for a DSP stream with no block queued
+    private static final String ALIGN_TIMEOUT_MS = "align_timeout_ms";
 
     private Process treadoutProcess;
 
@@ -93,11 +133,71 @@ public class SampaDAS2SourceEngine extends AbstractEventReaderService<S2RecDecAg
             throws EventReaderException {
         int port1 = opts.has(SMP_PORT1) ? opts.getInt(SMP_PORT1) : 6000;
         int port2 = opts.has(SMP_PORT2) ? opts.getInt(SMP_PORT2) : 6001;
+        EMode mode = EMode.DAS;
+        if (opts.has(MODE) && opts.getString(MODE).equalsIgnoreCase("dsp")) {
+            mode = EMode.DSP;
+        }
+        SPipelineParameters params = new SPipelineParameters();
+        if (opts.has(ZERO_COPY)) {
+            params.setZeroCopy(opts.getString(ZERO_COPY).equalsIgnoreCase("true"));
+        }
+        if (opts.has(SER_THREADS)) {
+            params.setSerializerThreads(opts.getInt(SER_THREADS));
+        }
+        if (opts.has(QUEUE_SIZE)) {
+            params.setQueueSize(opts.getInt(QUEUE_SIZE));
+        }
+        if (opts.has(DROP_WHEN_FULL)) {
+            params.setDropWhenFull(opts.getString(DROP_WHEN_FULL).equalsIgnoreCase("true"));
+        }
+        if (opts.has(SAMPLE_BITS)) {
+            params.setSampleBits(opts.getInt(SAMPLE_BITS));
+        }
+        if (opts.has(OFF_HEAP)) {
+            params.setOffHeapRings(opts.getString(OFF_HEAP).equalsIgnoreCase("true"));
+        }
+        if (opts.has(CHANNEL_STATS)) {
+            params.setChannelStats(opts.getString(CHANNEL_STATS).equalsIgnoreCase("true"));
+        }
+        if (opts.has(ZERO_SUPPRESSION)) {
+            params.setZeroSuppression(opts.getString(ZERO_SUPPRESSION).equalsIgnoreCase("true"));
+        }
+        if (opts.has(ZS_THRESHOLD)) {
+            params.setZsThreshold(opts.getInt(ZS_THRESHOLD));
+        }
+        if (opts.has(ZS_SIGMAS)) {
+            params.setZsSigmas((float) opts.getDouble(ZS_SIGMAS));
+        }
+        if (opts.has(ZS_PRE)) {
+            params.setZsPre(opts.getInt(ZS_PRE));
+        }
+        if (opts.has(ZS_POST)) {
+            params.setZsPost(opts.getInt(ZS_POST));
+        }
+        if (opts.has(ZS_PEDESTALS)) {
+            params.setZsPedestalFile(opts.getString(ZS_PEDESTALS));
+        }
+        if (opts.has(ZS_PEDESTAL_RECORDS)) {
+            params.setZsPedestalRecords(opts.getInt(ZS_PEDESTAL_RECORDS));
+        }
+        if (opts.has(SYNC_MONITOR)) {
+            params.setSyncMonitor(opts.getString(SYNC_MONITOR).equalsIgnoreCase("true"));
+        }
+        if (mode.isDSP()) {
+            params.setNBlock(opts.has(N_BLOCK) ? opts.getInt(N_BLOCK) : 1);
+            params.setMergeBlocks(opts.has(MERGE_BLOCKS) ? opts.getInt(MERGE_BLOCKS) : 1);
+            if (opts.has(ALIGN_WINDOW)) {
+                params.setAlignWindow(opts.getInt(ALIGN_WINDOW));
+            }
+            if (opts.has(ALIGN_TIMEOUT_MS)) {
+                params.setAlignTimeoutMillis(opts.getLong(ALIGN_TIMEOUT_MS));
+            }
+        }
         try {
             S2RecDecAgg v =
                     new S2RecDecAgg(port1, port2,
                             1, 2,
-                            0, EMode.DAS);
+                            0, mode, params);
             // start up receivers and aggregator
             v.start();
 
@@ -5,7 +5,12 @@ import org.jlab.epsci.ersap.std.services.AbstractEventReaderService;
 import org.jlab.epsci.ersap.std.services.EventReaderException;
 import org.jlab.ersap.actor.datatypes.DasDataType;
 import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.SPipelineParameters;
 import org.jlab.ersap.actor.sampa.source.SReceiveDecodeAggregate;
+import org.jlab.ersap.actor.sampa.source.SThreadAffinity;
+import org.jlab.ersap.actor.sampa.source.generator.SGenerator;
+import org.jlab.ersap.actor.sampa.source.generator.SSignalModel;
+import org.jlab.ersap.actor.sampa.source.ring.SWaitStrategy;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
@@ -32,9 +37,67 @@ import java.util.function.Consumer;
  */
 public class SampaDASSourceEngine extends AbstractEventReaderService<SReceiveDecodeAggregate> {
     private static final String SMP_PORT = "port";
+    // "das" (default) or "dsp"
+    private static final String MODE = "mode";
     // Total number of Front End Cards (FEC), assuming that each FEC has 2 GBT streams
     private static String FEC = "fec";
+    // Receive with NIO socket channels into direct buffers
+    private static final String NIO = "nio";
+    // Size in bytes of each NIO receiver's read buffer
+    private static final String READ_BUF = "read_buf";
+    // Socket receive buffer (SO_RCVBUF) size in bytes
+    private static final String RCV_BUF = "rcv_buf";
+    // Aggregate streams by handing buffers over instead of copying them
+    private static final String ZERO_COPY = "zero_copy";
+    // Threads copying channel data during serialization
+    private static final String SER_THREADS = "ser_threads";
+    // Max serialized events waiting to be read
+    private static final String QUEUE_SIZE = "queue_size";
+    // Drop events when they're not read fast enough instead of applying backpressure
+    private static final String DROP_WHEN_FULL = "drop_when_full";
+    // Bits each ADC value is stored and sent in: 10 or 12 to pack them, 16 (default) for shorts
+    private static final String SAMPLE_BITS = "sample_bits";
+    // Keep the channel data of all ring events in off-heap memory
+    private static final String OFF_HEAP = "off_heap";
+    // Keep per-channel statistics while decoding and send them with each event
+    private static final String CHANNEL_STATS = "channel_stats";
+    // Zero suppress DAS data as it's decoded
+    private static final String ZERO_SUPPRESSION = "zero_suppression";
+    // ADC counts above pedestal (absolute without pedestal file) a value must be to be kept
+    private static final String ZS_THRESHOLD = "zs_threshold";
+    // Std. devs. of the pedestal added to the threshold
+    private static final String ZS_SIGMAS = "zs_sigmas";
+    // Values kept before and after each one above threshold
+    private static final String ZS_PRE = "zs_pre";
+    private static final String ZS_POST = "zs_post";
+    // Pedestal file written by the statistics engine, thresholds are relative to its pedestals
+    private static final String ZS_PEDESTALS = "zs_pedestals";
+    // Number of last pedestal records averaged
+    private static final String ZS_PEDESTAL_RECORDS = "zs_pedestal_records";
+    // Watch for loss of sync once synced and resync
+    private static final String SYNC_MONITOR = "sync_monitor";
+    // Most streams merged by each aggregator thread, in a tree, instead of one aggregator for all
+    private static final String AGGREGATOR_FAN_IN = "aggregator_fan_in";
+    // Sampling windows (2000 frames each) per block (DSP mode)
+    private static final String N_BLOCK = "n_block";
+    // Consecutive blocks merged into each event (DSP mode)
+    private static final String MERGE_BLOCKS = "merge_blocks";
+    // DSP blocks a stream may have queued while the aggregator waits for another stream
+    private static final String ALIGN_WINDOW = "align_window";
+    // Milliseconds the aggregator waits for a DSP stream with no block queued
+    private static final String ALIGN_TIMEOUT_MS = "align_timeout_ms";
+    // Wait strategy and ring size preset: "low_latency", "low_cpu" or "default"
+    private static final String PRESET = "preset";
+    // How ring consumers wait for events, e.g. "busy_spin", "yielding", "blocking"
+    private static final String WAIT_STRATEGY = "wait_strategy";
+    // Number of events in each ring, a power of 2
+    private static final String RING_SIZE = "ring_size";
+    // CPUs to pin the pipeline threads to, e.g. "2-11" or "isolated"
+    private static final String CPUS = "cpus";
+    // Feed the receivers from the built-in generator instead of treadout: "max" or frames/sec per stream
+    private static final String GENERATOR = "generator";
     private Process tReadoutProcess;
+    private SGenerator generator;
 
 
     /**
@@ -113,11 +176,98 @@ public class SampaDASSourceEngine extends AbstractEventReaderService<SReceiveDec
         }
 
 
+        EMode mode = EMode.DAS;
+        if (opts.has(MODE) && opts.getString(MODE).equalsIgnoreCase("dsp")) {
+            mode = EMode.DSP;
+        }
+
+        SPipelineParameters params = new SPipelineParameters();
+        // A preset goes first so the other options can override it
+        if (opts.has(PRESET)) {
+            params.applyPreset(opts.getString(PRESET));
+        }
+        if (opts.has(WAIT_STRATEGY)) {
+            params.setWaitStrategy(SWaitStrategy.parse(opts.getString(WAIT_STRATEGY)));
+        }
+        if (opts.has(RING_SIZE)) {
+            params.setRingSize(opts.getInt(RING_SIZE));
+        }
+        if (opts.has(CPUS)) {
+            params.setCpus(SThreadAffinity.parseCpus(opts.getString(CPUS)));
+        }
+        if (opts.has(NIO)) {
+            params.setNio(opts.getString(NIO).equalsIgnoreCase("true"));
+        }
+        if (opts.has(READ_BUF)) {
+            params.setReadBufferSize(opts.getInt(READ_BUF));
+        }
+        if (opts.has(RCV_BUF)) {
+            params.setReceiveBufferSize(opts.getInt(RCV_BUF));
+        }
+        if (opts.has(ZERO_COPY)) {
+            params.setZeroCopy(opts.getString(ZERO_COPY).equalsIgnoreCase("true"));
+        }
+        if (opts.has(SER_THREADS)) {
+            params.setSerializerThreads(opts.getInt(SER_THREADS));
+        }
+        if (opts.has(QUEUE_SIZE)) {
+            params.setQueueSize(opts.getInt(QUEUE_SIZE));
+        }
+        if (opts.has(DROP_WHEN_FULL)) {
+            params.setDropWhenFull(opts.getString(DROP_WHEN_FULL).equalsIgnoreCase("true"));
+        }
+        if (opts.has(SAMPLE_BITS)) {
+            params.setSampleBits(opts.getInt(SAMPLE_BITS));
+        }
+        if (opts.has(OFF_HEAP)) {
+            params.setOffHeapRings(opts.getString(OFF_HEAP).equalsIgnoreCase("true"));
+        }
+        if (opts.has(CHANNEL_STATS)) {
+            params.setChannelStats(opts.getString(CHANNEL_STATS).equalsIgnoreCase("true"));
+        }
+        if (opts.has(ZERO_SUPPRESSION)) {
+            params.setZeroSuppression(opts.getString(ZERO_SUPPRESSION).equalsIgnoreCase("true"));
+        }
+        if (opts.has(ZS_THRESHOLD)) {
+            params.setZsThreshold(opts.getInt(ZS_THRESHOLD));
+        }
+        if (opts.has(ZS_SIGMAS)) {
+            params.setZsSigmas((float) opts.getDouble(ZS_SIGMAS));
+        }
+        if (opts.has(ZS_PRE)) {
+            params.setZsPre(opts.getInt(ZS_PRE));
+        }
+        if (opts.has(ZS_POST)) {
+            params.setZsPost(opts.getInt(ZS_POST));
+        }
+        if (opts.has(ZS_PEDESTALS)) {
+            params.setZsPedestalFile(opts.getString(ZS_PEDESTALS));
+        }
+        if (opts.has(ZS_PEDESTAL_RECORDS)) {
+            params.setZsPedestalRecords(opts.getInt(ZS_PEDESTAL_RECORDS));
+        }
+        if (opts.has(SYNC_MONITOR)) {
+            params.setSyncMonitor(opts.getString(SYNC_MONITOR).equalsIgnoreCase("true"));
+        }
+        if (opts.has(AGGREGATOR_FAN_IN)) {
+            params.setAggregatorFanIn(opts.getInt(AGGREGATOR_FAN_IN));
+        }
+        if (mode.isDSP()) {
+            params.setNBlock(opts.has(N_BLOCK) ? opts.getInt(N_BLOCK) : 1);
+            params.setMergeBlocks(opts.has(MERGE_BLOCKS) ? opts.getInt(MERGE_BLOCKS) : 1);
+            if (opts.has(ALIGN_WINDOW)) {
+                params.setAlignWindow(opts.getInt(ALIGN_WINDOW));
+            }
+            if (opts.has(ALIGN_TIMEOUT_MS)) {
+                params.setAlignTimeoutMillis(opts.getLong(ALIGN_TIMEOUT_MS));
+            }
+        }
+
         // This is the initial port, assuming that treadout will send each link/stream data to
         // sequential ports starting from initialPort (e.g. 6000, 6001, 6002, etc.)
         try {
             SReceiveDecodeAggregate v =
-                    new SReceiveDecodeAggregate(EMode.DAS, activePorts);
+                    new SReceiveDecodeAggregate(mode, activePorts, params);
             // start up receivers and aggregator
             v.start();
 
@@ -127,6 +277,14 @@ public class SampaDASSourceEngine extends AbstractEventReaderService<SReceiveDec
             // Start up code to sent sampa data to the receivers-aggregator
 //            startupTReadout();
 
+            // Or generate data locally, for load testing without hardware
+            if (opts.has(GENERATOR)) {
+                String rate = opts.getString(GENERATOR);
+                double frameRate = rate.equalsIgnoreCase("max") ? 0 : Double.parseDouble(rate);
+                generator = new SGenerator(mode, SSignalModel.Waveform.PULSES, frameRate, 0, 1);
+                generator.startTcp("localhost", activePorts);
+            }
+
             return v;
         }
         catch (Exception e) {
@@ -138,10 +296,15 @@ public class SampaDASSourceEngine extends AbstractEventReaderService<SReceiveDec
     protected void closeReader() {
         // Best thing is to stop treadout first or else it may hang
         // subsequent attempts to use the Sampa FECs currently in use.
-        tReadoutProcess.destroyForcibly();
-        try {
-            tReadoutProcess.waitFor();
-        } catch (InterruptedException e) {}
+        if (tReadoutProcess != null) {
+            tReadoutProcess.destroyForcibly();
+            try {
+                tReadoutProcess.waitFor();
+            } catch (InterruptedException e) {}
+        }
+        if (generator != null) {
+            generator.close();
+        }
 
         // Now close the receiver-aggregator
         reader.close();
@@ -10,7 +10,11 @@ import org.jlab.epsci.ersap.engine.Engine;
 import org.jlab.epsci.ersap.engine.EngineData;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.ersap.actor.datatypes.DasDataType;
+import org.jlab.ersap.actor.datatypes.DasZeroSuppressor;
+import org.jlab.ersap.actor.datatypes.SampaHitDataType;
 import org.jlab.ersap.actor.sampa.proc.DasHistogram;
+import org.jlab.ersap.actor.sampa.proc.PulseFinder;
+import org.jlab.ersap.actor.sampa.proc.SampaHits;
 import org.jlab.ersap.actor.sampa.proc.SampaDasGson;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -20,6 +24,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 /**
@@ -33,9 +38,33 @@ import java.util.*;
  * @author gurjyan on 5/23/23
  * @project ersap-actor
  */
+
+/**
+ * <p>Finds pulses in SAMPA DAS events with a {@link PulseFinder}, histograms their
+ * peak amplitudes and passes them on as {@link SampaHitDataType} hits.</p>
+ *
+ * <p>The pulse finder keeps each channel's pedestal and any pulse in progress from
+ * one event to the next, so a pulse which straddles 2 events is found whole. This
+ * needs events to arrive in order, one at a time, so this engine should run with a
+ * single thread. If ERSAP calls it from several threads anyway, events are still
+ * deserialized concurrently, but their pulses are found one event at a time
+ * (see {@link #findHits(ByteBuffer[], boolean)}), so events can't overwrite
+ * each other's hits. Events out of order may then split or miss pulses that
+ * straddle them.</p>
+ */
 public class SampaHitIdentificationEngine implements Engine {
+    // A pulse starts this many ADC counts above pedestal
     private static String THR_ESTIMATE = "threshold";
     private int thr_estimate;
+    // ... and ends below this many, half the threshold by default
+    private static String THR_OFF = "threshold_off";
+    private int thr_off = -1;
+    // Raw values kept with each hit: this many before its start ...
+    private static String WINDOW_PRE = "window_pre";
+    private int windowPre;
+    // ... out of this many, 0 for none
+    private static String WINDOW_SAMPLES = "window_samples";
+    private int windowSamples;
     private static String FEC_COUNT = "fec_count";
     private int fecCount;
     private static String FRAME_TITLE = "frame_title";
@@ -59,8 +88,19 @@ public class SampaHitIdentificationEngine implements Engine {
 
     private int chNum;
 
+    private PulseFinder pulseFinder;
+
+    private final SampaHits hits = new SampaHits();
+
+    // Histogram title of each channel, null if not histogrammed
+    private String[] channelTitles;
+
+    // Values of a zero suppressed channel, expanded
+    private short[] expanded = new short[0];
+    private ByteBuffer expandedBuffer;
+
     @Override
-    public EngineData configure(EngineData input) {
+    public synchronized EngineData configure(EngineData input) {
         if (input.getMimeType().equalsIgnoreCase(EngineDataType.JSON.mimeType())) {
             String source = (String) input.getData();
             JSONObject opts = new JSONObject(source);
@@ -76,6 +116,15 @@ public class SampaHitIdentificationEngine implements Engine {
             if (opts.has(THR_ESTIMATE)) {
                 thr_estimate = opts.getInt(THR_ESTIMATE);
             }
+            if (opts.has(THR_OFF)) {
+                thr_off = opts.getInt(THR_OFF);
+            }
+            if (opts.has(WINDOW_PRE)) {
+                windowPre = opts.getInt(WINDOW_PRE);
+            }
+            if (opts.has(WINDOW_SAMPLES)) {
+                windowSamples = opts.getInt(WINDOW_SAMPLES);
+            }
             if (opts.has(FRAME_TITLE)) {
                 frameTitle = opts.getString(FRAME_TITLE);
             }
@@ -111,58 +160,109 @@ public class SampaHitIdentificationEngine implements Engine {
             histogram = new DasHistogram(frameTitle, histTitles,
                     gridSize, frameWidth, frameHeight,
                     histBins, histMin, histMax);
+
+            pulseFinder = new PulseFinder(chNum, thr_estimate,
+                    thr_off < 0 ? thr_estimate / 2f : Math.min(thr_off, thr_estimate));
+            pulseFinder.setWindow(windowPre, windowSamples);
+
+            // Look up titles by channel instead of searching the list for each channel
+            channelTitles = new String[chNum];
+            for (String title : histTitles) {
+                try {
+                    int channel = Integer.parseInt(title);
+                    if (channel >= 0 && channel < chNum) {
+                        channelTitles[channel] = title;
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("SampaHitIdentificationEngine: bad channel in hist_titles " + title);
+                }
+            }
         }
         return null;
     }
 
     @Override
     public EngineData execute(EngineData input) {
-        double m = 0, M2 = 0, variance = 0, sdv, delta, dataPt;
+        EngineData out = null;
         ByteBuffer bb = (ByteBuffer) input.getData();
         ByteBuffer[] data;
         try {
             data = DasDataType.deserialize(bb);
-            int sampleLimit = data[0].limit() / 2;
-            for (int channel = 0; channel < chNum; channel++) {
-                String title = String.valueOf(channel);
-                if (histTitles.contains(title)) {
-                    double[] _sData = new double[sampleLimit];
-                    for (int sample = 0; sample < sampleLimit; sample++) {
-                        try {
-                            dataPt = data[channel].getShort(2 * sample);
-                            if (dataPt > thr_estimate) {
-                                // This is a hit, read all hit samples and add it to the histogram.
-//                                sdv = Math.sqrt(variance);
-                                int hitSample = sample;
-                                System.out.println("Start of a hit on the channel = " + channel + " at the sample = " + hitSample);
-                                do {
-                                    hitSample++;
-                                    dataPt = data[channel].getShort(2 * hitSample);
-                                    // Add the hit sample to the histogram array.
-                                    // Subtract pedestal mean value.
-                                    _sData[hitSample] = dataPt - m;
-                                } while (dataPt <= thr_estimate);
-                                System.out.println("End of a hit on the channel = " + channel + " at the sample = " + hitSample);
-                                sample = hitSample;
-                            } else {
-                                // This is estimated threshold, calculate mean and sdv.
-                                delta = dataPt - m;
-                                m += delta / (sample + 1);
-                                M2 += delta * (dataPt - m);
-                                variance = M2 / (sample + 1);
-                            }
-                        } catch (IndexOutOfBoundsException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    histogram.update(title, _sData);
-                }
-            }
+            out = new EngineData();
+            out.setData(SampaHitDataType.SAMPA_HITS, findHits(data, DasDataType.isZeroSuppressed(bb)));
 
         } catch (ErsapException e) {
             e.printStackTrace();
         }
-        return null;
+        return out;
+    }
+
+    /**
+     * Find the pulses of an event, histogram them and serialize them.
+     * The pulse finder, hit list and scratch buffers are shared by all events,
+     * so this goes through one event at a time.
+     * @param data           deserialized channels of the event.
+     * @param zeroSuppressed if true, the channels hold clusters of values.
+     * @return serialized hits.
+     */
+    private synchronized ByteBuffer findHits(ByteBuffer[] data, boolean zeroSuppressed) {
+        hits.clear();
+        if (zeroSuppressed) {
+            findPulsesZeroSuppressed(data);
+        }
+        else {
+            pulseFinder.findPulses(data, hits);
+        }
+
+        // Histogram the peak amplitudes of pulses
+        for (int hit = 0; hit < hits.size(); hit++) {
+            String title = channelTitles[hits.getChannel(hit)];
+            if (title != null) {
+                histogram.fill(title, hits.getAmplitude(hit));
+            }
+        }
+
+        // Serialized now as the list is reused for the next event
+        return SampaHitDataType.serialize(hits);
+    }
+
+    /**
+     * Find the pulses of zero suppressed channels, whose suppressed values
+     * are taken to be at the pedestal. Until a channel's pedestal is known,
+     * it's set by the first value kept.
+     * @param data clusters of each channel.
+     */
+    private void findPulsesZeroSuppressed(ByteBuffer[] data) {
+        int channels = Math.min(chNum, data.length);
+        for (int channel = 0; channel < channels; channel++) {
+            ByteBuffer clusters = data[channel];
+            int samples = DasZeroSuppressor.getSampleCount(clusters);
+
+            float ped = pulseFinder.getPedestal(channel);
+            short fill;
+            if (!Float.isNaN(ped)) {
+                fill = (short) Math.round(ped);
+            }
+            else if (clusters.limit() > 2 * (DasZeroSuppressor.CHANNEL_HEADER_SHORTS +
+                                              DasZeroSuppressor.HEADER_SHORTS)) {
+                fill = clusters.getShort(2 * (DasZeroSuppressor.CHANNEL_HEADER_SHORTS +
+                                              DasZeroSuppressor.HEADER_SHORTS));
+            }
+            else {
+                pulseFinder.skip(channel, samples);
+                continue;
+            }
+
+            if (expanded.length < samples) {
+                expanded = new short[samples];
+                expandedBuffer = ByteBuffer.allocate(2 * samples).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            DasZeroSuppressor.expand(clusters, expanded, fill);
+            expandedBuffer.clear();
+            expandedBuffer.asShortBuffer().put(expanded, 0, samples);
+            expandedBuffer.limit(2 * samples);
+            pulseFinder.findPulses(channel, expandedBuffer, hits);
+        }
     }
 
     @Override
@@ -178,7 +278,7 @@ public class SampaHitIdentificationEngine implements Engine {
 
     @Override
     public Set<EngineDataType> getOutputDataTypes() {
-        return ErsapUtil.buildDataTypes(EngineDataType.BYTES,
+        return ErsapUtil.buildDataTypes(SampaHitDataType.SAMPA_HITS, EngineDataType.BYTES,
                 EngineDataType.JSON);
     }
 
@@ -203,8 +303,10 @@ public class SampaHitIdentificationEngine implements Engine {
     }
 
     @Override
-    public void reset() {
-
+    public synchronized void reset() {
+        if (pulseFinder != null) {
+            pulseFinder.reset();
+        }
     }
 
     @Override
@@ -0,0 +1,135 @@
+package org.jlab.ersap.actor.sampa.engine;
+
+import org.jlab.epsci.ersap.engine.EngineDataType;
+import org.jlab.epsci.ersap.std.services.AbstractEventReaderService;
+import org.jlab.epsci.ersap.std.services.EventReaderException;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.replay.SMappedStream;
+import org.jlab.ersap.actor.sampa.source.replay.SReplaySource;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * Replays SAMPA streams recorded by the treadout ALICE program from memory-mapped files.
+ *
+ * @project ersap-sampa
+ */
+public class SampaReplaySourceEngine extends AbstractEventReaderService<SReplaySource> {
+    // Comma separated list of streams. Files of a single stream, replayed
+    // back to back, are separated by "+". If missing, the input file is the only stream.
+    private static final String FILES = "files";
+    // "das" or "dsp"
+    private static final String MODE = "mode";
+    // Frames of each stream in one event (DAS mode)
+    private static final String FRAMES = "frames";
+    // "max" for as fast as possible, "realtime" for the SAMPA link rate, or frames/sec
+    private static final String RATE = "rate";
+    // Size in bytes of each event's internal buffers
+    private static final String BYTE_SIZE = "byte_size";
+    // Size in MB of each memory-mapped window of a file
+    private static final String WINDOW_MB = "window_mb";
+    // Sampling windows (2000 frames each) per block (DSP mode)
+    private static final String N_BLOCK = "n_block";
+    // Consecutive blocks merged into each event (DSP mode)
+    private static final String MERGE_BLOCKS = "merge_blocks";
+
+    @Override
+    protected SReplaySource createReader(Path file, JSONObject opts)
+            throws EventReaderException {
+
+        ArrayList<Path[]> streams = new ArrayList<>();
+        if (opts.has(FILES)) {
+            for (String stream : opts.getString(FILES).split(",")) {
+                String[] names = stream.trim().split("\\+");
+                Path[] paths = new Path[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    paths[i] = Paths.get(names[i].trim());
+                }
+                streams.add(paths);
+            }
+        }
+        else {
+            streams.add(new Path[] {file});
+        }
+
+        EMode mode = EMode.DAS;
+        if (opts.has(MODE) && opts.getString(MODE).equalsIgnoreCase("dsp")) {
+            mode = EMode.DSP;
+        }
+
+        int frames = opts.has(FRAMES) ? opts.getInt(FRAMES) : 4000;
+
+        double rate = 0;
+        if (opts.has(RATE)) {
+            String r = opts.getString(RATE).trim();
+            if (r.equalsIgnoreCase("realtime")) {
+                rate = SReplaySource.WALL_CLOCK_FRAME_RATE;
+            }
+            else if (!r.equalsIgnoreCase("max")) {
+                try {
+                    rate = Double.parseDouble(r);
+                }
+                catch (NumberFormatException e) {
+                    throw new EventReaderException("bad " + RATE + " value: " + r);
+                }
+            }
+        }
+
+        // Each channel gets 2 bytes every 8 frames, leave room for sync offsets
+        int byteSize = opts.has(BYTE_SIZE) ? opts.getInt(BYTE_SIZE) : Math.max(8192, frames / 4 + 64);
+
+        long window = opts.has(WINDOW_MB) ? (opts.getInt(WINDOW_MB) * (1L << 20)) : SMappedStream.DEFAULT_WINDOW_SIZE;
+
+        SReplaySource source = new SReplaySource(streams, mode, frames, rate, byteSize, window);
+        try {
+            source.setNBlock(opts.has(N_BLOCK) ? opts.getInt(N_BLOCK) : 1);
+            source.setMergeBlocks(opts.has(MERGE_BLOCKS) ? opts.getInt(MERGE_BLOCKS) : 1);
+        }
+        catch (IllegalArgumentException e) {
+            source.close();
+            throw new EventReaderException(e.getMessage());
+        }
+        return source;
+    }
+
+    @Override
+    protected void closeReader() {
+        reader.close();
+    }
+
+    @Override
+    protected int readEventCount() throws EventReaderException {
+        return reader.getEventCount();
+    }
+
+    @Override
+    protected ByteOrder readByteOrder() throws EventReaderException {
+        return ByteOrder.LITTLE_ENDIAN;
+    }
+
+    @Override
+    protected Object readEvent(int eventNumber) throws EventReaderException {
+        ByteBuffer bb = reader.getProcess();
+        if (bb == null) {
+            throw new EventReaderException("end of replay data at event " + eventNumber);
+        }
+        return bb;
+    }
+
+    @Override
+    protected EngineDataType getDataType() {
+        return EngineDataType.BYTES;
+    }
+}
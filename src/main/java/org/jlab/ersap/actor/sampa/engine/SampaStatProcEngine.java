@@ -17,10 +17,13 @@ import org.jlab.epsci.ersap.engine.Engine;
 import org.jlab.epsci.ersap.engine.EngineData;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.util.report.JsonUtils;
+import org.jlab.ersap.actor.datatypes.DasChannelStats;
 import org.jlab.ersap.actor.datatypes.DasDataType;
 import org.jlab.ersap.actor.sampa.proc.DasStreamStatistics;
+import org.jlab.ersap.actor.sampa.proc.PedestalStore;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Set;
 
@@ -29,9 +32,21 @@ public class SampaStatProcEngine implements Engine {
     private int fecCount;
     private static final String VERBOSE = "verbose";
     private boolean verbose = false;
+    // Split channels among the threads of the common fork-join pool
+    private static final String PARALLEL = "parallel";
+    // Report statistics of all events so far instead of the last one
+    private static final String ACCUMULATE = "accumulate";
+    // "binary" writes pedestals of every event into an append-only binary file
+    private static final String PEDESTALS = "pedestals";
+    // Binary pedestal records gathered before writing them out
+    private static final String PEDESTAL_FLUSH = "pedestal_flush";
+    // Latest binary pedestal records kept in memory
+    private static final String PEDESTAL_WINDOW = "pedestal_window";
+    private boolean binaryPedestals = false;
     private DasStreamStatistics dasStat;
 
     private int chNum = 80;
+    private boolean warnedZeroSuppressed = false;
 
 
     @Override
@@ -41,11 +56,30 @@ public class SampaStatProcEngine implements Engine {
         if (input.getMimeType().equalsIgnoreCase(EngineDataType.JSON.mimeType())) {
             String source = (String) input.getData();
             JSONObject data = new JSONObject(source);
-            if (data.has(VERBOSE) && data.getString(VERBOSE).equalsIgnoreCase("true")) {
-                dasStat = new DasStreamStatistics(chNum, true);
-                verbose = true;
-            } else {
-                dasStat = new DasStreamStatistics(chNum, false);
+            // Each FEC offers 160 channels, 0 leaves the default
+            if (data.has(FEC_COUNT)) {
+                fecCount = data.getInt(FEC_COUNT);
+                if (fecCount > 0) {
+                    chNum = 160 * fecCount;
+                }
+            }
+            boolean parallel = data.has(PARALLEL) && data.getString(PARALLEL).equalsIgnoreCase("true");
+            boolean accumulate = data.has(ACCUMULATE) && data.getString(ACCUMULATE).equalsIgnoreCase("true");
+            binaryPedestals = data.has(PEDESTALS) && data.getString(PEDESTALS).equalsIgnoreCase("binary");
+            verbose = data.has(VERBOSE) && data.getString(VERBOSE).equalsIgnoreCase("true");
+            // Binary pedestals replace the text pedestal file
+            dasStat = new DasStreamStatistics(chNum, verbose && !binaryPedestals, parallel, accumulate);
+
+            if (binaryPedestals) {
+                int flushRecords = data.has(PEDESTAL_FLUSH) ? data.getInt(PEDESTAL_FLUSH) : 100;
+                int windowSize = data.has(PEDESTAL_WINDOW) ? data.getInt(PEDESTAL_WINDOW) : 100;
+                try {
+                    String user_data = System.getenv("ERSAP_USER_DATA");
+                    dasStat.setPedestalStore(new PedestalStore(user_data + "/data/output/pedestals.bin",
+                                                               chNum, flushRecords, windowSize));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
         }
 
@@ -55,18 +89,42 @@ public class SampaStatProcEngine implements Engine {
     @Override
     public EngineData execute(EngineData input) {
 
+        if (!verbose && !binaryPedestals) {
+            return input;
+        }
+
         ByteBuffer bb = (ByteBuffer)input.getData();
         ByteBuffer[] data = null;
+        DasChannelStats stats = null;
 
         try {
-            data = DasDataType.deserialize(bb);
+            // Statistics kept by the source spare going through all the data
+            stats = DasDataType.getStats(bb);
+            if (stats == null) {
+                // Kept values alone would give pedestals of pulses
+                if (DasDataType.isZeroSuppressed(bb)) {
+                    if (!warnedZeroSuppressed) {
+                        System.out.println("SampaStatProcEngine: zero suppressed data without channel statistics, " +
+                                "set channel_stats in the source");
+                        warnedZeroSuppressed = true;
+                    }
+                    return input;
+                }
+                data = DasDataType.deserialize(bb);
+            }
         } catch (ErsapException e) {
             e.printStackTrace();
         }
-        if(verbose) {
+        if (stats != null) {
+            dasStat.setStats(stats);
+        }
+        else {
             dasStat.calculateStats(data);
+        }
+        if (verbose) {
             dasStat.printStats(System.out, true);
         }
+        dasStat.storePedestals();
         return input;
     }
 
@@ -1,5 +1,7 @@
 package org.jlab.ersap.actor.sampa.proc;
 
+import org.jlab.ersap.actor.datatypes.DasChannelStats;
+
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
@@ -55,6 +57,20 @@ public class Das2StreamStatistics {
         }
     }
 
+    /**
+     * Take the statistics kept while decoding instead of calculating them from the data.
+     * Channels beyond those of the given statistics are set to 0.
+     * @param stats channel statistics sent along with the data.
+     */
+    public void setStats(DasChannelStats stats) {
+        reset();
+        int channels = Math.min(160, stats.getChannelCount());
+        for (int channel = 0; channel < channels; channel++) {
+            mean[channel] = stats.getMean(channel);
+            sdv[channel]  = stats.getSdv(channel);
+        }
+    }
+
     public void printStats(OutputStream out, boolean json) {
 
         boolean autoFlush = true;
@@ -66,4 +66,11 @@ public class DasHistogram {
             }
         }
     }
+
+    public void fill(String name, double value) {
+        H1F hist = histograms.get(name);
+        if (hist != null) {
+            hist.fill(value);
+        }
+    }
 }
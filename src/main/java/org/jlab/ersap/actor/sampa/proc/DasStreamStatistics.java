@@ -1,5 +1,7 @@
 package org.jlab.ersap.actor.sampa.proc;
 
+import org.jlab.ersap.actor.datatypes.DasChannelStats;
+
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -7,6 +9,8 @@ import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
@@ -19,7 +23,20 @@ import java.util.Arrays;
  * @author gurjyan on 2/19/23
  * @project ersap-coda
  */
+
+/**
+ * <p>Mean and standard deviation of the ADC values of each channel.
+ * Channels may be split among the threads of a fork-join pool, and the
+ * statistics of many events may be accumulated instead of each event's
+ * replacing the last: each event's count, mean and M2 are merged into
+ * the running ones, which gives the same result as going through all
+ * values of all events at once.</p>
+ */
 public class DasStreamStatistics {
+
+    /** Most channels handled by one fork-join task. */
+    private static final int CHANNELS_PER_TASK = 8;
+
     private double[] mean;
     private double[] sdv;
 
@@ -29,10 +46,36 @@ public class DasStreamStatistics {
 
     private boolean pedestalFileOutput;
 
+    /** Pool channels are split among, or null to go through them on the calling thread. */
+    private final ForkJoinPool pool;
+
+    /** Statistics of the last event. */
+    private final DasChannelStats eventStats;
+
+    /** Statistics of all events so far, or null if only the last event counts. */
+    private final DasChannelStats totalStats;
+
+    /** Binary pedestal file, or null. */
+    private PedestalStore pedestalStore;
+
     public DasStreamStatistics(int ChNum, boolean pedestalFileOutput) {
+        this(ChNum, pedestalFileOutput, false, false);
+    }
+
+    /**
+     * Constructor.
+     * @param ChNum              number of channels.
+     * @param pedestalFileOutput if true, statistics are also written to the pedestals file.
+     * @param parallel           if true, channels are split among the threads of the common fork-join pool.
+     * @param accumulate         if true, statistics are of all events so far, else of the last one.
+     */
+    public DasStreamStatistics(int ChNum, boolean pedestalFileOutput, boolean parallel, boolean accumulate) {
         this.chNum = ChNum;
         mean = new double[chNum];
         sdv = new double[chNum];
+        pool = parallel ? ForkJoinPool.commonPool() : null;
+        eventStats = new DasChannelStats(chNum);
+        totalStats = accumulate ? new DasChannelStats(chNum) : null;
         this.pedestalFileOutput = pedestalFileOutput;
         if (pedestalFileOutput) {
             try {
@@ -44,42 +87,128 @@ public class DasStreamStatistics {
         }
     }
 
+    /**
+     * Calculate the statistics of an event's channels, which replace
+     * or, when accumulating, are added to those so far.
+     * Every value counts, zeros included, as in the statistics kept by the source.
+     * @param data one buffer of little endian shorts per channel, with limit = valid bytes.
+     *             Channels with a null buffer get no values.
+     */
     public void calculateStats(ByteBuffer[] data) {
+        eventStats.reset();
+        int channels = Math.min(chNum, data.length);
+
+        if (pool == null) {
+            calculateStats(data, eventStats, 0, channels);
+        }
+        else {
+            pool.invoke(new ChannelTask(data, eventStats, 0, channels));
+        }
 
-        double m, M2, variance, delta, dataPt;
+        update(eventStats);
+    }
 
-        // reset stat arrays
-        reset();
 
-        // How much data do we have?
-        int sampleLimit = data[0].limit() / 2;
+    /**
+     * Calculate the statistics of a range of channels.
+     * Different ranges may be done concurrently as they touch different channels.
+     * @param data  one buffer of little endian shorts per channel.
+     * @param stats statistics to add each channel's values to.
+     * @param first first channel.
+     * @param last  channel past the last one.
+     */
+    private static void calculateStats(ByteBuffer[] data, DasChannelStats stats, int first, int last) {
+        for (int channel = first; channel < last; channel++) {
+            ByteBuffer buf = data[channel];
+            if (buf == null) {
+                continue;
+            }
+            int sampleLimit = buf.limit() / 2;
+            long sum = 0, sumSquares = 0;
 
-        for (int channel = 0; channel < chNum; channel++) {
-            m = 0;
-            M2 = 0;
-            variance = 0;
+            for (int sample = 0; sample < sampleLimit; sample++) {
+                int dataPt = buf.getShort(2 * sample); // ADC sample
+                sum += dataPt;
+                sumSquares += dataPt * dataPt;
+            }
+            stats.add(channel, sampleLimit, sum, sumSquares);
+        }
+    }
 
-            try {
-                for (int sample = 0; sample < sampleLimit; sample++) {
-                    try {
-                        dataPt = data[channel].getShort(2 * sample); // ADC sample
-                        if (dataPt > 0) {
-                            delta = dataPt - m;
-                            m += delta / (sample + 1);
-                            M2 += delta * (dataPt - m);
-                            variance = M2 / (sample + 1);
-                        }
-                    } catch (IndexOutOfBoundsException e) {
-                        e.printStackTrace();
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
 
+    /** Splits a range of channels in two until small enough to go through. */
+    private static class ChannelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized, their data needn't be
+        private final transient ByteBuffer[] data;
+        private final transient DasChannelStats stats;
+        private final int first, last;
+
+        ChannelTask(ByteBuffer[] data, DasChannelStats stats, int first, int last) {
+            this.data = data;
+            this.stats = stats;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first <= CHANNELS_PER_TASK) {
+                calculateStats(data, stats, first, last);
+            }
+            else {
+                int middle = (first + last) >>> 1;
+                invokeAll(new ChannelTask(data, stats, first, middle),
+                          new ChannelTask(data, stats, middle, last));
             }
-            mean[channel] = m;
-            sdv[channel] = Math.sqrt(variance);
         }
+    }
+
 
+    /**
+     * Set the mean and std. dev. of each channel from an event's statistics,
+     * first adding them to those so far if accumulating.
+     * @param stats statistics of an event.
+     */
+    private void update(DasChannelStats stats) {
+        if (totalStats != null) {
+            totalStats.merge(stats, 0);
+            stats = totalStats;
+        }
+        reset();
+        int channels = Math.min(chNum, stats.getChannelCount());
+        for (int channel = 0; channel < channels; channel++) {
+            mean[channel] = stats.getMean(channel);
+            sdv[channel] = stats.getSdv(channel);
+        }
+    }
+
+
+    /**
+     * Get the statistics of all events so far.
+     * @return statistics of all events so far, or null if not accumulating.
+     */
+    public DasChannelStats getTotalStats() {
+        return totalStats;
+    }
+
+
+    /** Forget the statistics of all events so far. */
+    public void resetTotalStats() {
+        if (totalStats != null) {
+            totalStats.reset();
+        }
+    }
+
+    /**
+     * Take the statistics kept while decoding instead of calculating them from the data.
+     * They replace or, when accumulating, are added to those so far.
+     * Channels beyond those of the given statistics get no values.
+     * @param stats channel statistics sent along with the data.
+     */
+    public void setStats(DasChannelStats stats) {
+        update(stats);
     }
 
     public void printStats(OutputStream out, boolean json) {
@@ -123,6 +252,9 @@ public class DasStreamStatistics {
         writer.write("\n");
 
         // write to the pedestals file
+        if (fileWriter == null) {
+            return;
+        }
         try {
 
             for (int channel = 0; channel < chNum; channel++) {
@@ -141,6 +273,37 @@ public class DasStreamStatistics {
 
     }
 
+    /**
+     * Write pedestals into a binary file, see {@link #storePedestals()},
+     * instead of only as text when printing statistics.
+     * @param pedestalStore binary pedestal file, closed by {@link #fileClose()}.
+     */
+    public void setPedestalStore(PedestalStore pedestalStore) {
+        this.pedestalStore = pedestalStore;
+    }
+
+    /**
+     * Get the binary pedestal file, which also holds the latest pedestals in memory.
+     * @return binary pedestal file, or null if none.
+     */
+    public PedestalStore getPedestalStore() {
+        return pedestalStore;
+    }
+
+    /**
+     * Add the current mean and std. dev. of each channel to the binary pedestal file, if any.
+     */
+    public void storePedestals() {
+        if (pedestalStore == null) {
+            return;
+        }
+        try {
+            pedestalStore.add(System.currentTimeMillis(), mean, sdv);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void fileClose() {
         if (pedestalFileOutput) {
             try {
@@ -150,6 +313,13 @@ public class DasStreamStatistics {
                 throw new RuntimeException(e);
             }
         }
+        if (pedestalStore != null) {
+            try {
+                pedestalStore.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
     private void reset() {
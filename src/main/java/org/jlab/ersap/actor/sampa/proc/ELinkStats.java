@@ -13,7 +13,7 @@ package org.jlab.ersap.actor.sampa.proc;
  */
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public class ELinkStats {
@@ -44,7 +44,7 @@ public class ELinkStats {
     public void write(OutputStream out) {
 
         boolean autoFlush = true;
-        PrintWriter writer = new PrintWriter(out, autoFlush, Charset.forName("US_ASCII"));
+        PrintWriter writer = new PrintWriter(out, autoFlush, StandardCharsets.US_ASCII);
 
         writer.println();
 
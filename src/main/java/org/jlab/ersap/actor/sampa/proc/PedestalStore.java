@@ -0,0 +1,351 @@
+package org.jlab.ersap.actor.sampa.proc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+/**
+ * <p>Append-only binary file of channel pedestals, one fixed-size record per event,
+ * along with a rolling window of the latest records kept in memory which can be
+ * asked for the latest or averaged pedestals. Records are gathered in a buffer
+ * and written out every so many records, instead of formatting and flushing
+ * text for every event.</p>
+ *
+ * <p>The file is little endian:</p>
+ * <pre><b>
+ *     Magic number 0x50454453 ("PEDS")      --- 32 bit int
+ *     Version (1)                           --- 32 bit int
+ *     Number of channels                    --- 32 bit int
+ *     Records, each:
+ *         Time in milliseconds since epoch  --- 64 bit int
+ *         Mean of each channel              --- 32 bit float per channel
+ *         Std. dev. of each channel         --- 32 bit float per channel
+ * </b></pre>
+ *
+ * <p>Opening an existing file appends to it, provided it's for the same number
+ * of channels, and fills the window with its last records.</p>
+ */
+public class PedestalStore {
+
+    /** File magic number, "PEDS". */
+    public static final int MAGIC = 0x50454453;
+
+    /** File format version. */
+    public static final int VERSION = 1;
+
+    /** Bytes of file header. */
+    public static final int HEADER_BYTES = 12;
+
+    private final int chNum;
+
+    /** Bytes of each record. */
+    private final int recordBytes;
+
+    private final FileChannel channel;
+
+    /** Records not written out yet. */
+    private final ByteBuffer buffer;
+
+    /** Time of each record in the window. */
+    private final long[] windowTime;
+
+    /** Channel means of each record in the window. */
+    private final float[][] windowMean;
+
+    /** Channel std. devs. of each record in the window. */
+    private final float[][] windowSdv;
+
+    /** Number of records in the window. */
+    private int windowCount;
+
+    /** Index in the window of the next record. */
+    private int windowNext;
+
+    /** Number of records in the file, including those not written out yet. */
+    private long records;
+
+
+    /**
+     * Constructor.
+     * @param fileName     name of file, created if it doesn't exist.
+     * @param chNum        number of channels.
+     * @param flushRecords number of records gathered before writing them out.
+     * @param windowSize   number of latest records kept in memory.
+     * @throws IOException if the file can't be opened, or is not one for this number of channels.
+     */
+    public PedestalStore(String fileName, int chNum, int flushRecords, int windowSize) throws IOException {
+        this.chNum = chNum;
+        recordBytes = 8 + 8 * chNum;
+        windowTime = new long[Math.max(1, windowSize)];
+        windowMean = new float[windowTime.length][chNum];
+        windowSdv  = new float[windowTime.length][chNum];
+
+        buffer = ByteBuffer.allocateDirect(recordBytes * Math.max(1, flushRecords));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        Path path = Paths.get(fileName);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                writeHeader();
+            }
+            else {
+                readExisting();
+            }
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        // Append from here on
+        channel.position(HEADER_BYTES + records * recordBytes);
+    }
+
+
+    /** Write the file header. */
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(chNum).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+
+    /** Check the header of an existing file and fill the window with its last records. */
+    private void readExisting() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != chNum) {
+            throw new IOException("not a pedestal file for " + chNum + " channels");
+        }
+
+        // A partly written last record is dropped
+        records = (channel.size() - HEADER_BYTES) / recordBytes;
+        long first = Math.max(0, records - windowTime.length);
+        ByteBuffer record = ByteBuffer.allocate(recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (long r = first; r < records; r++) {
+            record.clear();
+            readFully(record, HEADER_BYTES + r * recordBytes);
+            int w = windowNext;
+            windowTime[w] = record.getLong(0);
+            for (int ch = 0; ch < chNum; ch++) {
+                windowMean[w][ch] = record.getFloat(8 + 4 * ch);
+                windowSdv[w][ch]  = record.getFloat(8 + 4 * (chNum + ch));
+            }
+            advanceWindow();
+        }
+    }
+
+
+    /**
+     * Fill a buffer from the file.
+     * @param buf buffer to fill.
+     * @param pos position in file to read from.
+     */
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        readFully(channel, buf, pos);
+    }
+
+
+    /**
+     * Fill a buffer from a file.
+     * @param channel file to read from.
+     * @param buf     buffer to fill.
+     * @param pos     position in file to read from.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("pedestal file too short");
+            }
+        }
+    }
+
+
+    /**
+     * Read the pedestals of an existing file, averaged over its last records as in
+     * {@link #getAverage(int, float[], float[])}, without opening it for writing.
+     * @param fileName name of file.
+     * @param records  number of last records to average, all of the file if more.
+     * @param mean     array to fill with the average mean of each channel, or null.
+     *                 Channels past its end are skipped, its entries past the file's channels are left alone.
+     * @param sdv      array to fill with the average std. dev. of each channel, or null.
+     * @return number of channels in the file.
+     * @throws IOException if the file can't be read, isn't a pedestal file or has no records.
+     */
+    public static int readAverage(String fileName, int records, float[] mean, float[] sdv) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(file, header, 0);
+            int chNum = header.getInt(8);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || chNum < 0) {
+                throw new IOException(fileName + " is not a pedestal file");
+            }
+
+            int recordBytes = 8 + 8 * chNum;
+            long fileRecords = (file.size() - HEADER_BYTES) / recordBytes;
+            long n = Math.min(Math.max(records, 1), fileRecords);
+            if (n == 0) {
+                throw new IOException(fileName + " has no pedestals");
+            }
+
+            double[] sumMean = new double[chNum];
+            double[] sumVar  = new double[chNum];
+            ByteBuffer record = ByteBuffer.allocate(recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+            for (long r = fileRecords - n; r < fileRecords; r++) {
+                record.clear();
+                readFully(file, record, HEADER_BYTES + r * recordBytes);
+                for (int ch = 0; ch < chNum; ch++) {
+                    float sd = record.getFloat(8 + 4 * (chNum + ch));
+                    sumMean[ch] += record.getFloat(8 + 4 * ch);
+                    sumVar[ch]  += (double) sd * sd;
+                }
+            }
+
+            for (int ch = 0; ch < chNum; ch++) {
+                if (mean != null && ch < mean.length) mean[ch] = (float) (sumMean[ch] / n);
+                if (sdv  != null && ch < sdv.length)  sdv[ch]  = (float) Math.sqrt(sumVar[ch] / n);
+            }
+            return chNum;
+        }
+    }
+
+
+    /** Move on to the next record of the window. */
+    private void advanceWindow() {
+        windowNext = (windowNext + 1) % windowTime.length;
+        windowCount = Math.min(windowCount + 1, windowTime.length);
+    }
+
+
+    /**
+     * Add a record, writing out the gathered records if there's no room for more.
+     * @param time time in milliseconds since epoch.
+     * @param mean mean of each channel.
+     * @param sdv  std. dev. of each channel.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void add(long time, double[] mean, double[] sdv) throws IOException {
+        int w = windowNext;
+        windowTime[w] = time;
+        buffer.putLong(time);
+        for (int ch = 0; ch < chNum; ch++) {
+            windowMean[w][ch] = (float) mean[ch];
+            buffer.putFloat(windowMean[w][ch]);
+        }
+        for (int ch = 0; ch < chNum; ch++) {
+            windowSdv[w][ch] = (float) sdv[ch];
+            buffer.putFloat(windowSdv[w][ch]);
+        }
+        advanceWindow();
+        records++;
+
+        if (buffer.remaining() < recordBytes) {
+            flush();
+        }
+    }
+
+
+    /**
+     * Write out the gathered records.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    /**
+     * Write out the gathered records and close the file.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Get the number of channels.
+     * @return number of channels.
+     */
+    public int getChannelCount() {return chNum;}
+
+    /**
+     * Get the number of records in the file, including those not written out yet.
+     * @return number of records.
+     */
+    public synchronized long getRecordCount() {return records;}
+
+    /**
+     * Get the number of records in the window.
+     * @return number of records in the window.
+     */
+    public synchronized int getWindowCount() {return windowCount;}
+
+
+    /**
+     * Get the latest pedestals.
+     * @param mean array to fill with the mean of each channel, or null.
+     * @param sdv  array to fill with the std. dev. of each channel, or null.
+     * @return time of the latest record, or -1 if there is none.
+     */
+    public synchronized long getLatest(float[] mean, float[] sdv) {
+        if (windowCount == 0) {
+            return -1;
+        }
+        int w = (windowNext + windowTime.length - 1) % windowTime.length;
+        if (mean != null) System.arraycopy(windowMean[w], 0, mean, 0, chNum);
+        if (sdv  != null) System.arraycopy(windowSdv[w], 0, sdv, 0, chNum);
+        return windowTime[w];
+    }
+
+
+    /**
+     * Get the pedestals averaged over the latest records of the window.
+     * Means are averaged, as are variances, whose square root is given.
+     * @param records number of latest records to average, all of the window if more.
+     * @param mean    array to fill with the average mean of each channel, or null.
+     * @param sdv     array to fill with the average std. dev. of each channel, or null.
+     * @return number of records averaged, 0 if there is none.
+     */
+    public synchronized int getAverage(int records, float[] mean, float[] sdv) {
+        int n = Math.min(records, windowCount);
+        for (int ch = 0; ch < chNum; ch++) {
+            double sumMean = 0, sumVar = 0;
+            for (int i = 1; i <= n; i++) {
+                int w = (windowNext + windowTime.length - i) % windowTime.length;
+                sumMean += windowMean[w][ch];
+                sumVar  += (double) windowSdv[w][ch] * windowSdv[w][ch];
+            }
+            if (mean != null) mean[ch] = n == 0 ? 0 : (float) (sumMean / n);
+            if (sdv  != null) sdv[ch]  = n == 0 ? 0 : (float) Math.sqrt(sumVar / n);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,257 @@
+package org.jlab.ersap.actor.sampa.proc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+/**
+ * <p>Finds pulses in the ADC values of SAMPA channels, one event after another.
+ * The pedestal of each channel is subtracted from its values, a pulse starts
+ * when a value rises above the upper threshold and ends when one drops below
+ * the lower threshold. The gap between the two (hysteresis) keeps noise around
+ * a single threshold from splitting a pulse or starting spurious ones.
+ * For each pulse, its start, width, peak and integral go into a {@link SampaHits}.</p>
+ *
+ * <p>Each channel's state is kept from one event to the next, so a pulse
+ * which straddles 2 events is found whole, in the event it ends in, and
+ * times are sample numbers counted from the first event. Events must thus be
+ * given in order, from one thread at a time: a finder isn't thread safe.</p>
+ *
+ * <p>Pedestals are either given or, by default, tracked: each channel's pedestal
+ * follows its values outside of pulses with an exponential moving average,
+ * starting from its first value. All state is in primitive arrays and finding
+ * pulses allocates nothing.</p>
+ *
+ * <p>Optionally, each hit keeps a window of raw values around its start,
+ * limited to the values of the event the hit ends in.</p>
+ */
+public class PulseFinder {
+
+    private final int chNum;
+
+    /** Pulse starts above pedestal + this. */
+    private final float thresholdOn;
+
+    /** Pulse ends below pedestal + this. */
+    private final float thresholdOff;
+
+    /** Weight of each new value in the moving average of a tracked pedestal. */
+    private final float pedestalWeight;
+
+    /** Number of values before a pulse's start in its window. */
+    private int windowPre;
+
+    /** Number of values in a pulse's window, 0 for none. */
+    private int windowLength;
+
+    /** Are pedestals tracked rather than given? */
+    private boolean trackPedestals = true;
+
+    /** Pedestal of each channel, NaN until its first value if tracked. */
+    private final float[] pedestal;
+
+    /** Sample number of the next value of each channel. */
+    private final long[] nextTime;
+
+    /** Is each channel in a pulse? */
+    private final boolean[] inPulse;
+
+    /** Start of each channel's current pulse. */
+    private final long[] start;
+
+    /** Sample number of each channel's current pulse peak. */
+    private final long[] peakTime;
+
+    /** Peak amplitude of each channel's current pulse. */
+    private final float[] peak;
+
+    /** Integral of each channel's current pulse. */
+    private final float[] integral;
+
+
+    /**
+     * Constructor. Pedestals are tracked with a weight of 1/64.
+     * @param chNum        number of channels.
+     * @param thresholdOn  a pulse starts above pedestal + this.
+     * @param thresholdOff a pulse ends below pedestal + this, no more than thresholdOn.
+     */
+    public PulseFinder(int chNum, float thresholdOn, float thresholdOff) {
+        this(chNum, thresholdOn, thresholdOff, 1f/64);
+    }
+
+
+    /**
+     * Constructor.
+     * @param chNum          number of channels.
+     * @param thresholdOn    a pulse starts above pedestal + this.
+     * @param thresholdOff   a pulse ends below pedestal + this, no more than thresholdOn.
+     * @param pedestalWeight weight of each value outside of pulses in the moving
+     *                       average of a tracked pedestal, between 0 and 1.
+     */
+    public PulseFinder(int chNum, float thresholdOn, float thresholdOff, float pedestalWeight) {
+        if (thresholdOff > thresholdOn) {
+            throw new IllegalArgumentException("lower threshold " + thresholdOff +
+                                               " above upper " + thresholdOn);
+        }
+        this.chNum = chNum;
+        this.thresholdOn = thresholdOn;
+        this.thresholdOff = thresholdOff;
+        this.pedestalWeight = pedestalWeight;
+
+        pedestal = new float[chNum];
+        nextTime = new long[chNum];
+        inPulse  = new boolean[chNum];
+        start    = new long[chNum];
+        peakTime = new long[chNum];
+        peak     = new float[chNum];
+        integral = new float[chNum];
+        reset();
+    }
+
+
+    /**
+     * Use the given pedestals instead of tracking them.
+     * @param pedestals pedestal of each channel.
+     */
+    public void setPedestals(float[] pedestals) {
+        System.arraycopy(pedestals, 0, pedestal, 0, Math.min(chNum, pedestals.length));
+        trackPedestals = false;
+    }
+
+
+    /**
+     * Keep a window of raw values with each hit.
+     * @param pre    number of values before the pulse's start.
+     * @param length number of values in the window, 0 for none.
+     */
+    public void setWindow(int pre, int length) {
+        windowPre = Math.max(0, pre);
+        windowLength = Math.max(0, length);
+    }
+
+
+    /**
+     * Get the pedestal of a channel.
+     * @param channel channel number.
+     * @return pedestal, NaN if tracked and the channel has had no values yet.
+     */
+    public float getPedestal(int channel) {return pedestal[channel];}
+
+
+    /**
+     * Get the number of channels.
+     * @return number of channels.
+     */
+    public int getChannelCount() {return chNum;}
+
+
+    /** Forget all pulses in progress, restart times at 0 and, if tracked, pedestals. */
+    public void reset() {
+        if (trackPedestals) {
+            Arrays.fill(pedestal, Float.NaN);
+        }
+        Arrays.fill(nextTime, 0);
+        Arrays.fill(inPulse, false);
+    }
+
+
+    /**
+     * Advance a channel's time past values which aren't there, such as zero suppressed
+     * ones of a channel whose pedestal isn't known yet. Any pulse in progress goes on.
+     * @param channel channel number.
+     * @param samples number of values.
+     */
+    public void skip(int channel, int samples) {nextTime[channel] += samples;}
+
+
+    /**
+     * Find the pulses of an event's channels.
+     * @param data one buffer per channel of little endian shorts, from position 0 to limit.
+     *             Channels beyond the finder's are ignored.
+     * @param hits list to add the pulses which end in this event to.
+     */
+    public void findPulses(ByteBuffer[] data, SampaHits hits) {
+        int channels = Math.min(chNum, data.length);
+        for (int channel = 0; channel < channels; channel++) {
+            findPulses(channel, data[channel], hits);
+        }
+    }
+
+
+    /**
+     * Find the pulses of a channel's values of one event.
+     * @param channel channel number.
+     * @param buf     little endian shorts, from position 0 to limit.
+     * @param hits    list to add the pulses which end in these values to.
+     */
+    public void findPulses(int channel, ByteBuffer buf, SampaHits hits) {
+        int samples = buf.limit() / 2;
+        if (samples == 0) return;
+
+        float ped = pedestal[channel];
+        if (Float.isNaN(ped)) {
+            ped = buf.getShort(0);
+        }
+        long t = nextTime[channel];
+        long firstTime = t;
+        boolean pulse = inPulse[channel];
+        float pk = peak[channel], sum = integral[channel];
+        long pkTime = peakTime[channel];
+
+        for (int i = 0; i < samples; i++, t++) {
+            int value = buf.getShort(2 * i);
+            float v = value - ped;
+
+            if (pulse) {
+                if (v < thresholdOff) {
+                    long st = start[channel];
+                    hits.add(channel, st, (int) (t - st), (int) (pkTime - st), pk, sum);
+                    if (windowLength > 0) {
+                        long from = Math.max(st - windowPre, firstTime);
+                        long to = Math.min(st - windowPre + windowLength, firstTime + samples);
+                        if (to > from) {
+                            hits.setWindow(buf, (int) (from - firstTime), (int) (to - from), (int) (from - st));
+                        }
+                    }
+                    pulse = false;
+                }
+                else {
+                    sum += v;
+                    if (v > pk) {
+                        pk = v;
+                        pkTime = t;
+                    }
+                    continue;
+                }
+            }
+
+            if (v > thresholdOn) {
+                pulse = true;
+                start[channel] = t;
+                pkTime = t;
+                pk = v;
+                sum = v;
+            }
+            else if (trackPedestals) {
+                ped += pedestalWeight * v;
+            }
+        }
+
+        pedestal[channel] = ped;
+        nextTime[channel] = t;
+        inPulse[channel] = pulse;
+        peak[channel] = pk;
+        peakTime[channel] = pkTime;
+        integral[channel] = sum;
+    }
+}
@@ -0,0 +1,221 @@
+package org.jlab.ersap.actor.sampa.proc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+/**
+ * <p>List of pulses found in SAMPA channels, stored column by column in
+ * primitive arrays rather than as one object per hit. The arrays grow as
+ * needed and are kept when the list is cleared, so once a list has grown
+ * to the number of hits of a busy event, filling it allocates nothing.</p>
+ *
+ * <p>For each hit there is its channel, the time (sample number) at which it
+ * crossed the threshold, its width in samples, the number of samples from its
+ * start to its peak, and its pedestal-subtracted peak amplitude and integral.
+ * A hit may also have a short window of its raw ADC values. The values of
+ * all windows are stored back to back in a single array.</p>
+ */
+public class SampaHits {
+
+    private int size;
+
+    private int[] channel;
+    private long[] time;
+    private int[] width;
+    private int[] peakOffset;
+    private float[] amplitude;
+    private float[] integral;
+
+    /** Index in windowValues of the first value of each hit's window. */
+    private int[] windowIndex;
+    /** Number of values in each hit's window, 0 if none. */
+    private int[] windowLength;
+    /** Sample number of the first value of each hit's window, relative to the hit's time. */
+    private int[] windowShift;
+
+    /** Number of window values of all hits. */
+    private int windowValueCount;
+    /** Window values of all hits. */
+    private short[] windowValues;
+
+
+    /** Constructor with room for 1024 hits. */
+    public SampaHits() {this(1024);}
+
+
+    /**
+     * Constructor.
+     * @param capacity number of hits there's room for before growing.
+     */
+    public SampaHits(int capacity) {
+        capacity = Math.max(1, capacity);
+        channel    = new int[capacity];
+        time       = new long[capacity];
+        width      = new int[capacity];
+        peakOffset = new int[capacity];
+        amplitude  = new float[capacity];
+        integral   = new float[capacity];
+        windowIndex  = new int[capacity];
+        windowLength = new int[capacity];
+        windowShift  = new int[capacity];
+        windowValues = new short[capacity];
+    }
+
+
+    /**
+     * Add a hit.
+     * @param channel    channel number.
+     * @param time       sample number at which the threshold was crossed.
+     * @param width      number of samples above threshold.
+     * @param peakOffset number of samples from the start to the peak.
+     * @param amplitude  peak amplitude above pedestal.
+     * @param integral   sum of samples above pedestal.
+     */
+    public void add(int channel, long time, int width, int peakOffset, float amplitude, float integral) {
+        if (size == this.channel.length) {
+            grow();
+        }
+        this.channel[size]    = channel;
+        this.time[size]       = time;
+        this.width[size]      = width;
+        this.peakOffset[size] = peakOffset;
+        this.amplitude[size]  = amplitude;
+        this.integral[size]   = integral;
+        windowIndex[size]  = windowValueCount;
+        windowLength[size] = 0;
+        windowShift[size]  = 0;
+        size++;
+    }
+
+
+    /**
+     * Give the last hit added a window of raw ADC values.
+     * @param buf   little endian shorts.
+     * @param first index of the first value in buf (in shorts, not bytes).
+     * @param count number of values.
+     * @param shift sample number of the first value relative to the hit's time.
+     */
+    public void setWindow(ByteBuffer buf, int first, int count, int shift) {
+        int hit = size - 1;
+        if (windowValueCount + count > windowValues.length) {
+            windowValues = Arrays.copyOf(windowValues, Math.max(2 * windowValues.length,
+                                                                windowValueCount + count));
+        }
+        for (int i = 0; i < count; i++) {
+            windowValues[windowValueCount + i] = buf.getShort(2 * (first + i));
+        }
+        windowIndex[hit]  = windowValueCount;
+        windowLength[hit] = count;
+        windowShift[hit]  = shift;
+        windowValueCount += count;
+    }
+
+
+    /** Double the room for hits. */
+    private void grow() {
+        int capacity = 2 * channel.length;
+        channel    = Arrays.copyOf(channel, capacity);
+        time       = Arrays.copyOf(time, capacity);
+        width      = Arrays.copyOf(width, capacity);
+        peakOffset = Arrays.copyOf(peakOffset, capacity);
+        amplitude  = Arrays.copyOf(amplitude, capacity);
+        integral   = Arrays.copyOf(integral, capacity);
+        windowIndex  = Arrays.copyOf(windowIndex, capacity);
+        windowLength = Arrays.copyOf(windowLength, capacity);
+        windowShift  = Arrays.copyOf(windowShift, capacity);
+    }
+
+
+    /** Remove all hits, keeping the room for them. */
+    public void clear() {
+        size = 0;
+        windowValueCount = 0;
+    }
+
+    /**
+     * Get the number of hits.
+     * @return number of hits.
+     */
+    public int size() {return size;}
+
+    /**
+     * Get the channel of a hit.
+     * @param hit index of hit.
+     * @return channel number.
+     */
+    public int getChannel(int hit) {return channel[hit];}
+
+    /**
+     * Get the sample number at which a hit crossed the threshold.
+     * @param hit index of hit.
+     * @return sample number.
+     */
+    public long getTime(int hit) {return time[hit];}
+
+    /**
+     * Get the number of samples a hit stayed above threshold.
+     * @param hit index of hit.
+     * @return number of samples.
+     */
+    public int getWidth(int hit) {return width[hit];}
+
+    /**
+     * Get the number of samples from the start of a hit to its peak.
+     * @param hit index of hit.
+     * @return number of samples.
+     */
+    public int getPeakOffset(int hit) {return peakOffset[hit];}
+
+    /**
+     * Get the peak amplitude above pedestal of a hit.
+     * @param hit index of hit.
+     * @return peak amplitude.
+     */
+    public float getAmplitude(int hit) {return amplitude[hit];}
+
+    /**
+     * Get the sum of the samples above pedestal of a hit.
+     * @param hit index of hit.
+     * @return integral.
+     */
+    public float getIntegral(int hit) {return integral[hit];}
+
+    /**
+     * Get the number of raw ADC values in a hit's window.
+     * @param hit index of hit.
+     * @return number of values, 0 if the hit has no window.
+     */
+    public int getWindowLength(int hit) {return windowLength[hit];}
+
+    /**
+     * Get the sample number of the first value of a hit's window, relative to the hit's time.
+     * @param hit index of hit.
+     * @return sample number relative to the hit's time, 0 or less.
+     */
+    public int getWindowShift(int hit) {return windowShift[hit];}
+
+    /**
+     * Get a raw ADC value of a hit's window.
+     * @param hit   index of hit.
+     * @param index index of value in the window.
+     * @return ADC value.
+     */
+    public short getWindowValue(int hit, int index) {return windowValues[windowIndex[hit] + index];}
+
+    /**
+     * Get the number of window values of all hits.
+     * @return number of window values.
+     */
+    public int getWindowValueCount() {return windowValueCount;}
+}
@@ -0,0 +1,113 @@
+package org.jlab.ersap.actor.sampa.source;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Bounded hand-off of serialized events from the pipeline thread to the engine
+ * asking for them. The consumer blocks in {@link #take()} until an event is published
+ * and is woken up as soon as that happens.</p>
+ *
+ * <p>When full, the producer either blocks, which backs pressure up through the rings
+ * to the receivers, or, if dropping is enabled, the newest event is dropped and counted.
+ * Fill level, drop and publish counters can be read at any time.</p>
+ */
+public class SEventQueue {
+
+    /** Queued events. */
+    private final BlockingQueue<ByteBuffer> queue;
+
+    /** Max number of queued events. */
+    private final int capacity;
+
+    /** Drop events when full instead of blocking the producer? */
+    private final boolean dropWhenFull;
+
+    /** Number of events published. */
+    private final AtomicLong published = new AtomicLong();
+
+    /** Number of events dropped since queue was full. */
+    private final AtomicLong dropped = new AtomicLong();
+
+
+    /**
+     * Constructor.
+     * @param capacity max number of queued events.
+     * @param dropWhenFull if true, drop events when full, else block the producer.
+     */
+    public SEventQueue(int capacity, boolean dropWhenFull) {
+        this.capacity = Math.max(1, capacity);
+        this.dropWhenFull = dropWhenFull;
+        queue = new ArrayBlockingQueue<>(this.capacity);
+    }
+
+
+    /**
+     * Queue an event.
+     * @param event event to queue.
+     * @return true if queued, false if dropped because the queue is full.
+     *         A dropped event is still owned by the caller.
+     * @throws InterruptedException if interrupted while waiting for room.
+     */
+    public boolean publish(ByteBuffer event) throws InterruptedException {
+        if (dropWhenFull) {
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        else {
+            queue.put(event); // Blocks if the queue is full
+        }
+        published.incrementAndGet();
+        return true;
+    }
+
+
+    /**
+     * Get the next event, waiting for one if necessary.
+     * @return next event.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public ByteBuffer take() throws InterruptedException {
+        return queue.take(); // Blocks if the queue is empty
+    }
+
+
+    /**
+     * Get the number of events queued.
+     * @return number of events queued.
+     */
+    public int getFillLevel() {return queue.size();}
+
+    /**
+     * Get the max number of events queued.
+     * @return max number of events queued.
+     */
+    public int getCapacity() {return capacity;}
+
+    /**
+     * Get the number of events published.
+     * @return number of events published.
+     */
+    public long getPublishedCount() {return published.get();}
+
+    /**
+     * Get the number of events dropped since the queue was full.
+     * @return number of events dropped.
+     */
+    public long getDroppedCount() {return dropped.get();}
+}
@@ -0,0 +1,153 @@
+package org.jlab.ersap.actor.sampa.source;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.epsci.ersap.base.error.ErsapException;
+import org.jlab.ersap.actor.datatypes.DasChannelStats;
+import org.jlab.ersap.actor.datatypes.DasDataType;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Serializes aggregated events with {@link DasDataType}, each into a buffer of
+ * its own, as events leave the pipeline with no telling when their users are done
+ * with them. Copying the channel data can be split across a number of worker threads.</p>
+ */
+public class SEventSerializer {
+
+    /** Worker threads copying channel data, null if single threaded. */
+    private final ExecutorService executor;
+
+    /** Number of worker threads. */
+    private final int threads;
+
+    /** Bits each ADC value of the events is packed into, 16 if unpacked. */
+    private final int sampleBits;
+
+    /** Do the events hold zero suppressed clusters? */
+    private final boolean zeroSuppressed;
+
+
+    /**
+     * Constructor.
+     * @param threads number of threads copying channel data, 1 for calling thread only.
+     */
+    public SEventSerializer(int threads) {
+        this(threads, 16);
+    }
+
+
+    /**
+     * Constructor.
+     * @param threads    number of threads copying channel data, 1 for calling thread only.
+     * @param sampleBits bits each ADC value of the events is packed into: 10, 12 or 16 (unpacked).
+     */
+    public SEventSerializer(int threads, int sampleBits) {
+        this(threads, sampleBits, false);
+    }
+
+
+    /**
+     * Constructor.
+     * @param threads        number of threads copying channel data, 1 for calling thread only.
+     * @param sampleBits     bits each ADC value of the events is packed into: 10, 12 or 16 (unpacked).
+     * @param zeroSuppressed if true, the events hold zero suppressed clusters (16 bits only).
+     */
+    public SEventSerializer(int threads, int sampleBits, boolean zeroSuppressed) {
+        this.threads = Math.max(1, threads);
+        this.sampleBits = sampleBits;
+        this.zeroSuppressed = zeroSuppressed;
+
+        if (this.threads > 1) {
+            executor = Executors.newFixedThreadPool(this.threads, r -> {
+                Thread t = new Thread(r, "sampa-serializer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        else {
+            executor = null;
+        }
+    }
+
+
+    /**
+     * Constructor. Settings are taken from the given parameters.
+     * @param params pipeline parameters.
+     */
+    public SEventSerializer(SPipelineParameters params) {
+        this(params.getSerializerThreads(), params.getSampleBits(), params.isZeroSuppression());
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers.
+     * @param buffers buffers to serialize together.
+     * @return buffer, ready to read, holding serialized data.
+     * @throws ErsapException if arg is null or copying fails.
+     */
+    public ByteBuffer serialize(ByteBuffer[] buffers) throws ErsapException {
+        return serialize(buffers, null);
+    }
+
+
+    /**
+     * Serialize the given array of ByteBuffers followed by the statistics of its channels.
+     * @param buffers buffers to serialize together.
+     * @param stats   statistics of the buffers' channels, or null if none.
+     * @return buffer, ready to read, holding serialized data.
+     * @throws ErsapException if buffers is null or copying fails.
+     */
+    public ByteBuffer serialize(ByteBuffer[] buffers, DasChannelStats stats) throws ErsapException {
+        int size = DasDataType.serializedSize(buffers, sampleBits, stats, zeroSuppressed);
+        ByteBuffer outBuf = ByteBuffer.allocate(size);
+        DasDataType.serialize(buffers, outBuf, executor, threads, sampleBits, stats, zeroSuppressed);
+        return outBuf;
+    }
+
+
+    /**
+     * Serialize an aggregated event's channels and statistics, and in DSP mode the
+     * numbers of its blocks and the streams missing from them. How its values are stored is taken from the event:
+     * DSP events are never packed or zero suppressed, whatever the settings.
+     * @param event aggregated event.
+     * @return buffer, ready to read, holding serialized data.
+     * @throws ErsapException if copying fails.
+     */
+    public ByteBuffer serialize(SRingRawEvent event) throws ErsapException {
+        ByteBuffer[] buffers = event.getData();
+        DasChannelStats stats = event.getStats();
+        int bits = event.getSampleBits();
+        boolean dsp = event.getSampaType().isDSP();
+        boolean suppressed = zeroSuppressed && !dsp;
+        // An event which isn't merged holds a single block
+        int blocks = dsp ? Math.max(1, event.getBlockCount()) : 0;
+        int missing = dsp ? event.getMissingStreams() : 0;
+
+        int size = DasDataType.serializedSize(buffers, bits, stats, suppressed, blocks, missing);
+        ByteBuffer outBuf = ByteBuffer.allocate(size);
+        DasDataType.serialize(buffers, outBuf, executor, threads, bits, stats, suppressed,
+                              event.getBlockNumber(), blocks, missing);
+        return outBuf;
+    }
+
+
+    /** Stop the worker threads. */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package org.jlab.ersap.actor.sampa.source;
+
+import org.jlab.ersap.actor.datatypes.DasSamplePacker;
+import org.jlab.ersap.actor.datatypes.DasZeroSuppressor;
+import org.jlab.ersap.actor.sampa.proc.PedestalStore;
+import org.jlab.ersap.actor.sampa.source.recagg.SBlockAligner;
+import org.jlab.ersap.actor.sampa.source.ring.SWaitStrategy;
+
+import java.io.IOException;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * Settings for the receive-decode-aggregate pipeline ({@link SReceiveDecodeAggregate}).
+ * Defaults reproduce the original behavior.
+ *
+ * @project ersap-sampa
+ */
+public class SPipelineParameters {
+    // Receive with NIO socket channels into direct buffers instead of streams
+    private boolean nio = false;
+    // Size in bytes of the direct buffer each NIO receiver reads into
+    private int readBufferSize = 1 << 20;
+    // Socket SO_RCVBUF in bytes, 0 leaves the OS default
+    private int receiveBufferSize = 0;
+    // Aggregate by handing buffers over instead of copying them
+    private boolean zeroCopy = false;
+    // Threads copying channel data during serialization
+    private int serializerThreads = 1;
+    // Max serialized events waiting for the engine
+    private int queueSize = 64;
+    // Drop serialized events when the engine falls behind instead of blocking
+    private boolean dropWhenFull = false;
+    // Bits each DAS ADC value is stored and sent in: 10 or 12 to pack them, 16 for shorts
+    private int sampleBits = 16;
+    // Take the channel buffers of all ring events out of one off-heap slab
+    private boolean offHeapRings = false;
+    // Keep per-channel statistics while decoding and send them along with each event
+    private boolean channelStats = false;
+    // Zero suppress DAS data as it's decoded, keeping only values above threshold
+    private boolean zeroSuppression = false;
+    // ADC counts above pedestal a value must be to be kept, an absolute threshold without pedestals
+    private int zsThreshold = 20;
+    // Std. devs. of the pedestal added to the threshold
+    private float zsSigmas = 0;
+    // Values kept before and after each one above threshold
+    private int zsPre = 2;
+    private int zsPost = 4;
+    // Pedestal file (see PedestalStore) thresholds are relative to, null for absolute thresholds
+    private String zsPedestalFile = null;
+    // Number of last pedestal records averaged
+    private int zsPedestalRecords = 100;
+    // Watch for sync patterns once synced and resync if one is out of step (DAS mode)
+    private boolean syncMonitor = false;
+    // Sampling windows (2000 frames each) per DSP block
+    private int nBlock = 1;
+    // Consecutive DSP blocks merged into each event, 1 for no merging
+    private int mergeBlocks = 1;
+    // DSP blocks a stream may have queued while the aggregator waits for another stream
+    private int alignWindow = SBlockAligner.DEFAULT_WINDOW;
+    // Milliseconds the aggregator waits for a DSP stream with no block queued
+    private long alignTimeoutMillis = SBlockAligner.DEFAULT_TIMEOUT_MILLIS;
+    // Most streams merged by each aggregator thread of a tree, 0 for a single aggregator
+    private int aggregatorFanIn = 0;
+    // How the consumers of the rings wait for events
+    private SWaitStrategy waitStrategy = SWaitStrategy.SPIN_BACKOFF;
+    // Number of events in each ring, a power of 2
+    private int ringSize = 1024;
+    // CPUs the receiver, aggregator and serializing threads are pinned to, in turn, null for none
+    private int[] cpus = null;
+
+    /**
+     * Apply a preset of the wait strategy and ring size, before any other setting.
+     * <ul>
+     * <li>"low_latency": consumers busy spin, for dedicated readout nodes, best with
+     *     each pipeline thread pinned to a core of its own. Rings of 256 events keep
+     *     less memory in use between the threads.</li>
+     * <li>"low_cpu": consumers block while waiting, for nodes shared with processing.
+     *     Rings of 4096 events take up the slack while threads wake up.</li>
+     * <li>"default": consumers spin a while then block, rings of 1024 events.</li>
+     * </ul>
+     * @param preset name of preset.
+     * @throws IllegalArgumentException if there's no such preset.
+     */
+    public void applyPreset(String preset) {
+        switch (preset.trim().toLowerCase()) {
+            case "low_latency":
+                waitStrategy = SWaitStrategy.BUSY_SPIN;
+                ringSize = 256;
+                break;
+            case "low_cpu":
+                waitStrategy = SWaitStrategy.BLOCKING;
+                ringSize = 4096;
+                break;
+            case "default":
+                waitStrategy = SWaitStrategy.SPIN_BACKOFF;
+                ringSize = 1024;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown preset " + preset);
+        }
+    }
+
+    public boolean isNio() {
+        return nio;
+    }
+
+    public void setNio(boolean nio) {
+        this.nio = nio;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public boolean isZeroCopy() {
+        return zeroCopy;
+    }
+
+    public void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    public int getSerializerThreads() {
+        return serializerThreads;
+    }
+
+    public void setSerializerThreads(int serializerThreads) {
+        this.serializerThreads = serializerThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public boolean isDropWhenFull() {
+        return dropWhenFull;
+    }
+
+    public void setDropWhenFull(boolean dropWhenFull) {
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    public int getSampleBits() {
+        return sampleBits;
+    }
+
+    public void setSampleBits(int sampleBits) {
+        if (!DasSamplePacker.isSupported(sampleBits)) {
+            throw new IllegalArgumentException("sample_bits must be 10, 12 or 16, not " + sampleBits);
+        }
+        this.sampleBits = sampleBits;
+    }
+
+    public boolean isOffHeapRings() {
+        return offHeapRings;
+    }
+
+    public void setOffHeapRings(boolean offHeapRings) {
+        this.offHeapRings = offHeapRings;
+    }
+
+    public boolean isChannelStats() {
+        return channelStats;
+    }
+
+    public void setChannelStats(boolean channelStats) {
+        this.channelStats = channelStats;
+    }
+
+    public boolean isSyncMonitor() {
+        return syncMonitor;
+    }
+
+    public void setSyncMonitor(boolean syncMonitor) {
+        this.syncMonitor = syncMonitor;
+    }
+
+    public int getNBlock() {
+        return nBlock;
+    }
+
+    public void setNBlock(int nBlock) {
+        if (nBlock < 1) {
+            throw new IllegalArgumentException("n_block must be at least 1, not " + nBlock);
+        }
+        this.nBlock = nBlock;
+    }
+
+    public int getMergeBlocks() {
+        return mergeBlocks;
+    }
+
+    public void setMergeBlocks(int mergeBlocks) {
+        if (mergeBlocks < 1) {
+            throw new IllegalArgumentException("merge_blocks must be at least 1, not " + mergeBlocks);
+        }
+        this.mergeBlocks = mergeBlocks;
+    }
+
+    public int getAlignWindow() {
+        return alignWindow;
+    }
+
+    public void setAlignWindow(int alignWindow) {
+        this.alignWindow = alignWindow;
+    }
+
+    public long getAlignTimeoutMillis() {
+        return alignTimeoutMillis;
+    }
+
+    public void setAlignTimeoutMillis(long alignTimeoutMillis) {
+        this.alignTimeoutMillis = alignTimeoutMillis;
+    }
+
+    public int getAggregatorFanIn() {
+        return aggregatorFanIn;
+    }
+
+    public void setAggregatorFanIn(int aggregatorFanIn) {
+        this.aggregatorFanIn = aggregatorFanIn;
+    }
+
+    public SWaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(SWaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    public void setRingSize(int ringSize) {
+        if (ringSize < 1 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("ring_size must be a positive power of 2, not " + ringSize);
+        }
+        this.ringSize = ringSize;
+    }
+
+    public int[] getCpus() {
+        return cpus;
+    }
+
+    public void setCpus(int[] cpus) {
+        this.cpus = cpus;
+    }
+
+    public boolean isZeroSuppression() {
+        return zeroSuppression;
+    }
+
+    public void setZeroSuppression(boolean zeroSuppression) {
+        this.zeroSuppression = zeroSuppression;
+    }
+
+    public int getZsThreshold() {
+        return zsThreshold;
+    }
+
+    public void setZsThreshold(int zsThreshold) {
+        this.zsThreshold = zsThreshold;
+    }
+
+    public float getZsSigmas() {
+        return zsSigmas;
+    }
+
+    public void setZsSigmas(float zsSigmas) {
+        this.zsSigmas = zsSigmas;
+    }
+
+    public int getZsPre() {
+        return zsPre;
+    }
+
+    public void setZsPre(int zsPre) {
+        this.zsPre = zsPre;
+    }
+
+    public int getZsPost() {
+        return zsPost;
+    }
+
+    public void setZsPost(int zsPost) {
+        this.zsPost = zsPost;
+    }
+
+    public String getZsPedestalFile() {
+        return zsPedestalFile;
+    }
+
+    public void setZsPedestalFile(String zsPedestalFile) {
+        this.zsPedestalFile = zsPedestalFile;
+    }
+
+    public int getZsPedestalRecords() {
+        return zsPedestalRecords;
+    }
+
+    public void setZsPedestalRecords(int zsPedestalRecords) {
+        this.zsPedestalRecords = zsPedestalRecords;
+    }
+
+    /**
+     * Create the zero suppressors of a number of streams, each with the thresholds of its
+     * channels. Aggregated channels are numbered stream after stream, as are a pedestal file's.
+     * @param streams           number of streams.
+     * @param channelsPerStream number of channels of each stream.
+     * @return zero suppressor of each stream, or null if zero suppression is off.
+     * @throws IOException if the pedestal file can't be read.
+     * @throws IllegalArgumentException if ADC values are to be packed, which clusters can't be.
+     */
+    public DasZeroSuppressor[] createZeroSuppressors(int streams, int channelsPerStream) throws IOException {
+        if (!zeroSuppression) {
+            return null;
+        }
+        if (sampleBits != 16) {
+            throw new IllegalArgumentException("zero suppression needs 16 sample bits, not " + sampleBits);
+        }
+
+        float[] mean = null, sdv = null;
+        if (zsPedestalFile != null) {
+            mean = new float[streams * channelsPerStream];
+            sdv  = new float[streams * channelsPerStream];
+            int channels = PedestalStore.readAverage(zsPedestalFile, zsPedestalRecords, mean, sdv);
+            if (channels < mean.length) {
+                System.out.println("SPipelineParameters: " + zsPedestalFile + " has pedestals of only " +
+                        channels + " channels, thresholds of the others are absolute");
+            }
+        }
+
+        DasZeroSuppressor[] suppressors = new DasZeroSuppressor[streams];
+        for (int i = 0; i < streams; i++) {
+            suppressors[i] = new DasZeroSuppressor(
+                    DasZeroSuppressor.thresholds(channelsPerStream, i * channelsPerStream,
+                                                 zsThreshold, zsSigmas, mean, sdv),
+                    zsPre, zsPost);
+        }
+        return suppressors;
+    }
+}
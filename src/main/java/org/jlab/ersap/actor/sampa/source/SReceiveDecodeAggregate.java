@@ -2,16 +2,21 @@ package org.jlab.ersap.actor.sampa.source;
 
 import com.lmax.disruptor.*;
 import org.jlab.epsci.ersap.base.error.ErsapException;
-import org.jlab.ersap.actor.datatypes.DasDataType;
+import org.jlab.ersap.actor.datatypes.DasZeroSuppressor;
 import org.jlab.ersap.actor.sampa.EMode;
-import org.jlab.ersap.actor.sampa.source.recagg.SAggregator;
+import org.jlab.ersap.actor.sampa.source.recagg.SAggregatorTree;
+import org.jlab.ersap.actor.sampa.source.recagg.SBlockAligner;
+import org.jlab.ersap.actor.sampa.source.recagg.SBlockMerger;
+import org.jlab.ersap.actor.sampa.source.recagg.SChannelReceiverDecoder;
 import org.jlab.ersap.actor.sampa.source.recagg.SReceiverDecoder;
+import org.jlab.ersap.actor.sampa.source.ring.SBufferSlab;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEventFactory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Arrays;
 
 import static com.lmax.disruptor.RingBuffer.createSingleProducer;
 
@@ -32,8 +37,8 @@ public class SReceiveDecodeAggregate extends Thread {
     // how many FEC we configure to read
     private int activeStreams;
 
-    // Max ring items
-    private final static int maxRingItems = 1024;
+    // Number of events in each ring
+    private final int ringItems;
 
     // Aggregated RingBuffer for data transfer between aggregator and this object.
     private final RingBuffer<SRingRawEvent> aggRingBuffer;
@@ -45,8 +50,9 @@ public class SReceiveDecodeAggregate extends Thread {
     // Data receivers receiving and decoding SAMPA streams
     private final SReceiverDecoder[] receivers;
 
-    // Data aggregator reading from receivers and aggregating into the output ring buffer
-    private final SAggregator aggregator;
+    // Data aggregators reading from receivers and aggregating into the output ring buffer,
+    // a single one unless aggregating in a tree
+    private final SAggregatorTree aggregator;
 
     // Sequence of event to get next from last/aggregated ring.
     private long aggNextSequence;
@@ -56,11 +62,31 @@ public class SReceiveDecodeAggregate extends Thread {
     // Control for this thread termination.
     private volatile boolean running = true;
 
-    // Pool of ByteBuffers of serialized SAMPA stream data.
-    private final ConcurrentLinkedQueue<ByteBuffer> pool;
+    // Bounded queue of serialized SAMPA stream data waiting for the engine.
+    private final SEventQueue queue;
+
+    // Serializes aggregated events, possibly in parallel.
+    private final SEventSerializer serializer;
+
+    // Factories of the events of all rings, receivers' first, which track memory allocated
+    private final SRingRawEventFactory[] factories;
+
+    // Off-heap memory shared by the events of all rings, null if on the heap
+    private final SBufferSlab slab;
+
+    // Merges consecutive aggregated DSP blocks into larger events, null if not merging
+    private final SBlockMerger merger;
+
+    // CPU this thread is pinned to, -1 if it isn't
+    private int cpu = -1;
 
     public SReceiveDecodeAggregate(EMode eMode, ArrayList<Integer> activePorts) {
+        this(eMode, activePorts, new SPipelineParameters());
+    }
+
+    public SReceiveDecodeAggregate(EMode eMode, ArrayList<Integer> activePorts, SPipelineParameters params) {
         activeStreams = activePorts.size();
+        ringItems = params.getRingSize();
 
         // Max number of frames to receive before ending program.
         int streamFrameLimit = 0;
@@ -68,6 +94,17 @@ public class SReceiveDecodeAggregate extends Thread {
         // Byte size of each buffer in each raw event (1 buf per channel)
         int byteSize = 8192;
 
+        // Zero suppressors with the thresholds of each stream's 80 channels, DAS mode only
+        DasZeroSuppressor[] suppressors = null;
+        if (eMode.isDAS()) {
+            try {
+                suppressors = params.createZeroSuppressors(activeStreams, 80);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         // RingBuffers in which receivers will get & fill events, then pass them to the aggregator
         receivers = new SReceiverDecoder[activeStreams];
         // RingBuffers in which receivers will get & fill events, then pass them to the aggregator
@@ -79,10 +116,48 @@ public class SReceiveDecodeAggregate extends Thread {
         // Create receiver ring barriers
         SequenceBarrier[] barriers = new SequenceBarrier[activeStreams];
 
+        // Streams held by the events of each intermediate ring when aggregating in a tree
+        int[] treeStreams = SAggregatorTree.intermediateStreams(activeStreams, params.getAggregatorFanIn());
+
+        // Event factories of the receivers' rings, then of the aggregated ring,
+        // each of whose events holds the channels of all active streams,
+        // then of the intermediate rings of the aggregator tree
+        factories = new SRingRawEventFactory[activeStreams + 1 + treeStreams.length];
         for (int i = 0; i < activeStreams; i++) {
-            ringBuffers[i] = createSingleProducer(
-                    new SRingRawEventFactory(eMode, byteSize, false), maxRingItems,
-                    new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
+            factories[i] = new SRingRawEventFactory(eMode, byteSize, 1, params.getSampleBits());
+        }
+        factories[activeStreams] = new SRingRawEventFactory(eMode, byteSize, activeStreams, params.getSampleBits());
+        for (int i = 0; i < treeStreams.length; i++) {
+            factories[activeStreams + 1 + i] = new SRingRawEventFactory(eMode, byteSize, treeStreams[i], params.getSampleBits());
+        }
+
+        // Channel statistics are kept by the decoders and merged when aggregating
+        if (params.isChannelStats()) {
+            for (SRingRawEventFactory f : factories) {
+                f.enableStats();
+            }
+        }
+
+        // Events trade buffers when aggregating without copying,
+        // so one slab is shared by all rings and sized for all their events
+        if (params.isOffHeapRings()) {
+            long channels = 0;
+            for (SRingRawEventFactory f : factories) {
+                channels += f.getChannelCount();
+            }
+            long buffers = (long) ringItems * channels;
+            slab = new SBufferSlab(factories[0].getBufferSize(), buffers);
+            for (SRingRawEventFactory f : factories) {
+                f.setSlab(slab);
+            }
+        }
+        else {
+            slab = null;
+        }
+
+        for (int i = 0; i < activeStreams; i++) {
+            ringBuffers[i] = createSingleProducer(factories[i], ringItems,
+                    params.getWaitStrategy().create());
 
             // Ring sequence used by aggregator to read data from first receiver
             sequences[i] = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
@@ -92,32 +167,115 @@ public class SReceiveDecodeAggregate extends Thread {
             ringBuffers[i].addGatingSequences(sequences[i]);
 
             // Create the receiver
-            receivers[i] = new SReceiverDecoder(activePorts.get(i),i,
-                    ringBuffers[i], streamFrameLimit, eMode, byteSize);
+            if (params.isNio()) {
+                receivers[i] = new SChannelReceiverDecoder(activePorts.get(i), i,
+                        ringBuffers[i], streamFrameLimit, eMode, byteSize,
+                        params.getReadBufferSize(), params.getReceiveBufferSize());
+            }
+            else {
+                receivers[i] = new SReceiverDecoder(activePorts.get(i),i,
+                        ringBuffers[i], streamFrameLimit, eMode, byteSize);
+            }
+            if (suppressors != null) {
+                receivers[i].setZeroSuppressor(suppressors[i]);
+            }
+            receivers[i].setSyncMonitor(params.isSyncMonitor());
+            receivers[i].setNBlock(params.getNBlock());
         }
         // RingBuffer in which Aggregator will get empty events and fill them with data aggregated
         // from multiple streams. It then passes to this object which takes the place of the consumer.
-        aggRingBuffer = createSingleProducer(
-                new SRingRawEventFactory(eMode, byteSize, true), maxRingItems,
-                new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
+        aggRingBuffer = createSingleProducer(factories[activeStreams], ringItems,
+                params.getWaitStrategy().create());
 
         aggSequence = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
         aggBarrier = aggRingBuffer.newBarrier();
         aggRingBuffer.addGatingSequences(aggSequence);
 
-        // Create aggregator
-        aggregator = new SAggregator(eMode, ringBuffers, sequences, barriers, aggRingBuffer);
+        // Create aggregators
+        aggregator = new SAggregatorTree(eMode, ringBuffers, sequences, barriers, aggRingBuffer,
+                params.getAggregatorFanIn(),
+                Arrays.copyOfRange(factories, activeStreams + 1, factories.length), ringItems,
+                params.getWaitStrategy(), params.isZeroCopy(), params.getAlignWindow(), params.getAlignTimeoutMillis());
+
+        if (eMode.isDSP() && params.getMergeBlocks() > 1) {
+            merger = new SBlockMerger(params.getMergeBlocks(), eMode, byteSize, activeStreams);
+        }
+        else {
+            merger = null;
+        }
 
         // Get this thread ready
         aggNextSequence = aggSequence.get() + 1L;
         aggAvailableSequence = -1L;
 
-        // Create a pool of ByteBuffers
-        pool = new ConcurrentLinkedQueue<>();
+        // Create the queue of serialized events
+        queue = new SEventQueue(params.getQueueSize(), params.isDropWhenFull());
+
+        serializer = new SEventSerializer(params);
+
+        // Buffers are allocated as events get used, so this is the most the rings will take
+        long streamRing = ringItems * factories[0].getEventBytes();
+        long aggRing = ringItems * factories[activeStreams].getEventBytes();
+        long treeRings = 0;
+        for (int i = activeStreams + 1; i < factories.length; i++) {
+            treeRings += ringItems * factories[i].getEventBytes();
+        }
+        System.out.println("SReceiveDecodeAggregate: ring memory up to " +
+                ((activeStreams * streamRing + aggRing + treeRings) >> 20) + " MB (" + activeStreams + " x " +
+                (streamRing >> 20) + " MB stream rings, " + (aggRing >> 20) + " MB aggregated ring" +
+                (treeRings == 0 ? "" : ", " + (treeRings >> 20) + " MB in " + treeStreams.length +
+                        " intermediate rings of " + aggregator.getAggregatorCount() + " aggregators") +
+                "), allocated as used" + (slab == null ? "" : " off heap"));
+
+        if (params.getCpus() != null && params.getCpus().length > 0) {
+            pinThreads(params.getCpus());
+        }
+    }
+
+    /**
+     * Pin the receivers, then the aggregators, then this thread, each to the next CPU of a list.
+     * Threads share CPUs, taken again from the start of the list, if there are fewer CPUs than threads.
+     * @param cpus CPU numbers.
+     */
+    private void pinThreads(int[] cpus) {
+        int next = 0;
+        for (SReceiverDecoder receiver : receivers) {
+            receiver.setCpu(cpus[next++ % cpus.length]);
+        }
+        for (int i = 0; i < aggregator.getAggregatorCount(); i++) {
+            aggregator.getAggregator(i).setCpu(cpus[next++ % cpus.length]);
+        }
+        cpu = cpus[next++ % cpus.length];
+
+        System.out.println("SReceiveDecodeAggregate: " + next + " threads pinned to CPUs " +
+                Arrays.toString(cpus) + (next > cpus.length ? ", some sharing a CPU" : ""));
+    }
+
+    /**
+     * Get the number of bytes of event buffers allocated so far in all rings.
+     * @return number of bytes of event buffers allocated so far in all rings.
+     */
+    public long getAllocatedRingBytes() {
+        long bytes = 0;
+        for (SRingRawEventFactory f : factories) {
+            bytes += f.getAllocatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the aggregator's DSP block aligner, for its counters of complete, partial and dropped blocks.
+     * @return block aligner, null in DAS mode.
+     */
+    public SBlockAligner getBlockAligner() {
+        return aggregator.getRoot().getBlockAligner();
     }
 
     @Override
     public void run() {
+        if (cpu >= 0) {
+            SThreadAffinity.pin(cpu);
+        }
         for (int i = 0; i < activeStreams; i++) {
             receivers[i].start();
         }
@@ -125,7 +283,13 @@ public class SReceiveDecodeAggregate extends Thread {
         while (running) {
             try {
                 ByteBuffer b = getSerializedData();
-                if (b != null) pool.add(b);
+                // Blocks while the queue is full, unless dropping
+                if (b != null) {
+                    queue.publish(b);
+                }
+            } catch (InterruptedException e) {
+                // Interrupted by close()
+                break;
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -171,37 +335,69 @@ public class SReceiveDecodeAggregate extends Thread {
      * Release the item back to the ring.
      * Return serialized data.
      * This method does a get and put underneath.
+     * When merging DSP blocks, the item is merged with the following ones instead
+     * and only serialized once enough blocks are merged.
      *
-     * @return next available item in ring buffer.
+     * @return next available item in ring buffer, or null if merging and the merged event isn't complete.
      * @throws InterruptedException if thread interrupted.
      */
     private ByteBuffer getSerializedData() throws InterruptedException {
 
         SRingRawEvent item = get();
 
+        if (merger != null) {
+            // The block is copied, so it can go back to the ring right away
+            item = merger.add(item);
+            put();
+            if (item == null) {
+                return null;
+            }
+        }
+
         // Serialize this data here. By doing the copy here,
         // the put() can be done immediately, greatly simplifying
         // the engine code to wrap this class.
         ByteBuffer bb = null;
 
         try {
-            bb = DasDataType.serialize(item.getData());
-        } catch (ErsapException e) {/* never happen */}
+            bb = serializer.serialize(item);
+        } catch (ErsapException e) {
+            e.printStackTrace();
+        }
 
-        put();
+        if (merger == null) {
+            put();
+        }
 
         return bb;
     }
 
+    /**
+     * Get the queue of serialized events, for its fill level and counters.
+     * @return queue of serialized events.
+     */
+    public SEventQueue getEventQueue() {
+        return queue;
+    }
+
+    /**
+     * Get the next serialized event.
+     *
+     * @return next serialized event, or null if interrupted while waiting for one,
+     *         in which case the thread's interrupt status is set.
+     */
     public ByteBuffer getEvent() {
-        while (pool.isEmpty()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        ByteBuffer bb;
+        try {
+            bb = queue.take();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            // Keep the interrupt for whoever shuts the engine down
+            Thread.currentThread().interrupt();
+            return null;
         }
-        return pool.poll();
+
+        return bb;
     }
 
     public void close() {
@@ -210,6 +406,9 @@ public class SReceiveDecodeAggregate extends Thread {
         }
         aggregator.exit();
         running = false;
+        // Wake up this thread if it's waiting to queue an event
+        this.interrupt();
+        serializer.close();
     }
 
 }
@@ -0,0 +1,105 @@
+package org.jlab.ersap.actor.sampa.source;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * Pins pipeline threads to CPUs, on Linux. Java can't set a thread's affinity,
+ * so the calling thread's id is read from /proc/thread-self and handed to taskset.
+ * Pinning is a hint: if it fails, a message is printed and the thread runs unpinned.
+ *
+ * @project ersap-sampa
+ */
+public final class SThreadAffinity {
+
+    /** Kernel's list of CPUs isolated from the scheduler (isolcpus boot parameter). */
+    private static final Path ISOLATED = Paths.get("/sys/devices/system/cpu/isolated");
+
+    private SThreadAffinity() {}
+
+
+    /**
+     * Parse a list of CPUs.
+     * @param list CPU numbers and ranges such as "2-5,8", or "isolated" for the
+     *             CPUs the kernel keeps other processes off.
+     * @return CPU numbers, empty if none are isolated.
+     * @throws IllegalArgumentException if the list can't be parsed.
+     */
+    public static int[] parseCpus(String list) {
+        list = list.trim();
+        if (list.equalsIgnoreCase("isolated")) {
+            try {
+                list = new String(Files.readAllBytes(ISOLATED), StandardCharsets.US_ASCII).trim();
+            }
+            catch (IOException e) {
+                System.out.println("SThreadAffinity: can't read isolated CPUs, " + e.getMessage());
+                return new int[0];
+            }
+            if (list.isEmpty()) {
+                System.out.println("SThreadAffinity: no isolated CPUs");
+                return new int[0];
+            }
+        }
+
+        ArrayList<Integer> cpus = new ArrayList<>();
+        try {
+            for (String token : list.split(",")) {
+                String[] range = token.trim().split("-");
+                int first = Integer.parseInt(range[0].trim());
+                int last = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+                for (int cpu = first; cpu <= last; cpu++) {
+                    cpus.add(cpu);
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad CPU list " + list);
+        }
+
+        int[] result = new int[cpus.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cpus.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * Pin the calling thread to a CPU.
+     * @param cpu CPU number.
+     * @return true if pinned.
+     */
+    public static boolean pin(int cpu) {
+        String name = Thread.currentThread().getName();
+        try {
+            // Links to <pid>/task/<tid>
+            String tid = Files.readSymbolicLink(Paths.get("/proc/thread-self")).getFileName().toString();
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", Integer.toString(cpu), tid)
+                    .redirectErrorStream(true).start();
+            String output = new String(taskset.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            if (taskset.waitFor() != 0) {
+                System.out.println("SThreadAffinity: can't pin " + name + " to CPU " + cpu + ", " + output.trim());
+                return false;
+            }
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            System.out.println("SThreadAffinity: can't pin " + name + " to CPU " + cpu + ", " + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
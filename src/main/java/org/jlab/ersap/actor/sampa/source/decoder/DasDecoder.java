@@ -13,10 +13,16 @@ package org.jlab.ersap.actor.sampa.source.decoder;
  */
 
 
+import org.jlab.ersap.actor.datatypes.DasChannelStats;
+import org.jlab.ersap.actor.datatypes.DasSamplePacker;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
 import org.jlab.ersap.actor.sampa.EMode;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 
 /**
@@ -71,20 +77,25 @@ public class DasDecoder implements IDecoder {
 
     private long offset = 20000;
 
-    // SYNC positions, index in the ByteBuffer at the sync start - for each stream
+    // SYNC positions, index in the ByteBuffer of the last sync pattern value - for each stream,
+    // in the order low, high, low 1, high 1, 2
     private final int sync_unknown_ = -1;
-    private int sync_low_ = sync_unknown_; // Need to do this since we're not looking for a sync at the moment
-    private int sync_high_ = sync_unknown_;
-    private int sync_low_1_ = sync_unknown_;
-    private int sync_high_1_ = sync_unknown_;
-    private int sync_2_ = sync_unknown_;
-
-    // Has the sync been found in this channel?
-    private boolean syncLow0Found;
-    private boolean syncHigh0Found;
-    private boolean syncLow1Found;
-    private boolean syncHigh1Found;
-    private boolean sync2Found;
+    private final int[] syncPos = {sync_unknown_, sync_unknown_, sync_unknown_, sync_unknown_, sync_unknown_};
+
+    // Has the sync been found in this stream?
+    private final boolean[] syncFound = new boolean[5];
+
+    /** Incremental search for the sync pattern in each stream. */
+    private final DasSyncMatcher[] syncMatchers = new DasSyncMatcher[5];
+
+    /**
+     * If true, keep looking for sync patterns once synced and resync if one
+     * turns up out of step with the sample groups.
+     */
+    private boolean syncMonitor;
+
+    /** Number of times sync was lost and looked for again. */
+    private long syncLossCount;
 
     private boolean syncHighMiniFound;
     private int sync_high_mini_ = sync_unknown_;
@@ -104,6 +115,15 @@ public class DasDecoder implements IDecoder {
     public final ByteBuffer sampa_stream_high_1_;
     public final ByteBuffer sampa_stream_2_;      // for SAMPA2 (1 stream only)
 
+    /** The 5 streams above, in the same order as the sync positions. */
+    private final ByteBuffer[] streams;
+
+    /** Frame being decoded when decoding frames in bulk. */
+    private final int[] frame = new int[4];
+
+    /** Holds ADC values of a channel on their way into a buffer that isn't array-backed. */
+    private byte[] scratch = new byte[0];
+
     // Clock data is currently unused
 //    private final ByteBuffer sampa_stream_clock_0_ = ByteBuffer.allocate(maxBufSize); // for SAMPA0 e-link 10 (clock)
 //    private final ByteBuffer sampa_stream_clock_1_ = ByteBuffer.allocate(maxBufSize); // for SAMPA1 e-link 10 (clock)
@@ -117,6 +137,54 @@ public class DasDecoder implements IDecoder {
             0xa, 0x15, 0x15, 0xa, 0xa, 0x15, 0x15, 0x15, 0x15, 0xa, 0xa,
             0xa, 0xa, 0x15, 0x15, 0x15, 0x15, 0xa, 0xa, 0xa, 0xa};
 
+    /**
+     * If true, demultiplex frames with the lookup tables {@link #HALF_WORD_LO} and
+     * {@link #HALF_WORD_HI} instead of pulling out each bit individually.
+     */
+    private final boolean useLookupTables;
+
+    /**
+     * <p>Lookup tables used to demultiplex a frame into half-words.</p>
+     *
+     * <p>Each of the 5 half-word streams occupies a contiguous 20-bit window of the frame.
+     * That window is made of 5 nibbles, and bit k of nibble j ends up as bit j of the
+     * (4-k)th half-word. In other words, the 4 half-words are just the transpose of the
+     * 5 x 4 bit matrix formed by the nibbles. Each table entry holds the contribution
+     * of 10 window bits to all 4 half-words, packed into an int with the first half-word
+     * in the most significant byte. The 4 half-words of a stream are then obtained with
+     * 2 table loads: HALF_WORD_LO[window &amp; 0x3ff] | HALF_WORD_HI[window &gt;&gt;&gt; 10].</p>
+     */
+    private static final int[] HALF_WORD_LO = new int[1024];
+    private static final int[] HALF_WORD_HI = new int[1024];
+
+    /** View of a byte array as little endian shorts, for transposing ADC values. */
+    private static final VarHandle SHORT_LE =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static {
+        for (int i = 0; i < 1024; i++) {
+            int lo = 0, hi = 0;
+            for (int b = 0; b < 10; b++) {
+                if (((i >>> b) & 1) == 0) continue;
+                lo |= 1 << halfWordShift(b);
+                hi |= 1 << halfWordShift(b + 10);
+            }
+            HALF_WORD_LO[i] = lo;
+            HALF_WORD_HI[i] = hi;
+        }
+    }
+
+    /**
+     * Where in the packed table entry a given bit of a 20-bit stream window ends up.
+     * @param windowBit bit of the 20-bit window (0-19).
+     * @return bit position in the packed entry.
+     */
+    private static int halfWordShift(int windowBit) {
+        // Nibble bit (0-3) selects the half-word (3 -> first, stored in the highest byte),
+        // nibble number (0-4) selects the bit within the half-word.
+        return 8 * (windowBit % 4) + windowBit / 4;
+    }
+
 
     /**
      * Constructor. No debug output. 1024 samples for statistics. 8192 bytes storage (2048 frames).
@@ -135,8 +203,24 @@ public class DasDecoder implements IDecoder {
      *                         no larger than the internal buffer size of a raw event.
      */
     public DasDecoder(boolean verbose, int streamId, int rawEventByteSize) {
+        this(verbose, streamId, rawEventByteSize, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param verbose          if true, printout debug messages.
+     * @param streamId         if of stream this decoder is working on.
+     * @param rawEventByteSize max number of bytes this decoder will be able to store
+     *                         before needing to transfer it to an event.  This must be
+     *                         no larger than the internal buffer size of a raw event.
+     * @param useLookupTables  if true, demultiplex frames into half-words with lookup tables,
+     *                         else extract them one bit at a time. Both produce identical results.
+     */
+    public DasDecoder(boolean verbose, int streamId, int rawEventByteSize, boolean useLookupTables) {
         this.verbose = verbose;
         this.streamId = streamId;
+        this.useLookupTables = useLookupTables;
 
         // Round up buffer size to 4 byte boundary.
         // Each single source rawEvent has 80 buffers whereas this decoder
@@ -152,6 +236,12 @@ public class DasDecoder implements IDecoder {
         sampa_stream_low_1_ = ByteBuffer.allocate(maxBufSize);
         sampa_stream_high_1_ = ByteBuffer.allocate(maxBufSize);
         sampa_stream_2_ = ByteBuffer.allocate(maxBufSize);
+
+        streams = new ByteBuffer[] {sampa_stream_low_, sampa_stream_high_,
+                                    sampa_stream_low_1_, sampa_stream_high_1_, sampa_stream_2_};
+        for (int i = 0; i < 5; i++) {
+            syncMatchers[i] = new DasSyncMatcher(SYNC_PATTERN);
+        }
     }
 
 
@@ -169,10 +259,43 @@ public class DasDecoder implements IDecoder {
      * {@inheritDoc}
      */
     public void reSync() {
-        gotSync = syncLow0Found = syncLow1Found = syncHigh0Found = syncHigh1Found = sync2Found = false;
+        gotSync = false;
+        for (int i = 0; i < 5; i++) {
+            syncFound[i] = false;
+            // Only data from now on is searched, not the old sync still in the buffers
+            syncMatchers[i].restart();
+        }
         clearSyncOffsets();
     }
 
+
+    /**
+     * <p>Keep watching for sync patterns after the sync has been found. Watching costs
+     * a table lookup per half-word, well below that of demultiplexing the frames.</p>
+     * <p>
+     * A pattern which ends on a sample group boundary, as a repeat of the sync would,
+     * is ignored. One which doesn't means a stream has slipped out of step with the
+     * sample groups and the sync is lost: {@link #reSync()} is called and each stream
+     * takes up the new sync from the pattern just seen in it, or from the next one
+     * that comes. Data of a stream before its new sync is dropped.</p>
+     *
+     * @param syncMonitor if true, watch for loss of sync.
+     */
+    public void setSyncMonitor(boolean syncMonitor) {
+        this.syncMonitor = syncMonitor;
+    }
+
+
+    /**
+     * Get the number of times sync was lost and looked for again,
+     * see {@link #setSyncMonitor(boolean)}.
+     *
+     * @return number of times sync was lost.
+     */
+    public long getSyncLossCount() {
+        return syncLossCount;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -242,7 +365,7 @@ public class DasDecoder implements IDecoder {
      * will have been taken into account.
      */
     void clearSyncOffsets() {
-        sync_low_ = sync_high_ = sync_low_1_ = sync_high_1_ = sync_2_ = -1;
+        Arrays.fill(syncPos, sync_unknown_);
     }
 
 
@@ -255,6 +378,9 @@ public class DasDecoder implements IDecoder {
         sampa_stream_low_1_.clear();
         sampa_stream_high_1_.clear();
         sampa_stream_2_.clear();
+        for (DasSyncMatcher matcher : syncMatchers) {
+            matcher.reset();
+        }
 
 //        sampa_stream_clock_0_.clear();
 //        sampa_stream_clock_1_.clear();
@@ -289,12 +415,18 @@ public class DasDecoder implements IDecoder {
         }
 
         // Get and parse 1 frame of data (adds 20 bytes of data to this decoder)
-        getHalfWords(gbt_frame);
+        if (useLookupTables) {
+            getHalfWordsTable(gbt_frame);
+        }
+        else {
+            getHalfWords(gbt_frame);
+        }
 
         // Initially there is no sync so the first thing we need to do is look for it.
         // Once found and the data starts flowing, all data values are good.
-        // Perhaps in the future, another sync signal will be sent at some unknown time.
-        // Tests show, however, that this KILLS performance. So skip if for now.
+        // Another sync signal may be sent at some unknown time. Looking for it used to
+        // rescan all stored data on each frame, which KILLED performance. Now each
+        // stream's search picks up where it left off, see setSyncMonitor().
 
         if (!gotSync) {
 
@@ -312,12 +444,76 @@ public class DasDecoder implements IDecoder {
             // If we still don't have all syncs, read more data and try looking again
         } else {
             rawEvent.incrementFramesStored();
+            if (syncMonitor) {
+                checkSync();
+            }
         }
 
         frameCount++;
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Until all syncs are found, frames are decoded one at a time since any of them
+     * may complete the sync. After that, since each local buffer grows by 4 bytes
+     * per frame, the number of frames that fit is known up front and they are
+     * demultiplexed in a single loop with no per-frame checks.
+     */
+    public int decodeFrames(ByteBuffer frames, int maxFrames, SRingRawEvent rawEvent) throws Exception {
+        int count = Math.min(maxFrames, frames.remaining() / 16);
+        int pos = frames.position();
+        int done = 0;
+
+        while (!gotSync && done < count) {
+            IDecoder.readFrame(frames, pos, frame);
+            decodeSerial(frame, rawEvent);
+            pos += 16;
+            done++;
+
+            if (isFull()) {
+                frames.position(pos);
+                return done;
+            }
+        }
+
+        if (done < count) {
+            int room = Math.min(Math.min(sampa_stream_low_.remaining(), sampa_stream_high_.remaining()),
+                                Math.min(Math.min(sampa_stream_low_1_.remaining(), sampa_stream_high_1_.remaining()),
+                                         sampa_stream_2_.remaining())) / 4;
+            if (room < 1) {
+                System.out.println("decodeFrames " + streamId + ", data storage limit reached");
+                throw new Exception("Data storage limit reached in DAS decoder");
+            }
+
+            int todo = Math.min(count - done, room);
+
+            if (useLookupTables) {
+                getHalfWordsTable(frames, pos, todo);
+            }
+            else {
+                for (int i = 0; i < todo; i++) {
+                    IDecoder.readFrame(frames, pos + 16*i, frame);
+                    getHalfWords(frame);
+                }
+            }
+
+            pos += 16 * todo;
+            done += todo;
+            frameCount += todo;
+            rawEvent.addFramesStored(todo);
+
+            if (syncMonitor) {
+                checkSync();
+            }
+        }
+
+        frames.position(pos);
+        return done;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -427,6 +623,108 @@ public class DasDecoder implements IDecoder {
     }
 
 
+    /**
+     * <p>Does the same as {@link #getHalfWords(int[])} but uses the lookup tables
+     * {@link #HALF_WORD_LO} and {@link #HALF_WORD_HI}. Each stream's 20-bit window is
+     * pulled out of the frame and turned into its 4 half-words with 2 table loads,
+     * which are then written with a single putInt. The local ByteBuffers are big endian
+     * so the first half-word, held in the most significant byte, is written first.</p>
+     *
+     * <p>Window positions (bits of the frame counting from bit 0 of gf[0]):<br>
+     * SAMPA0 low = 0-19, SAMPA0 high = 20-39, SAMPA1 low = 44-63,
+     * SAMPA1 high = 64-83, SAMPA2 = 88-107.</p>
+     *
+     * @param gf frame of data to parse.
+     */
+    private void getHalfWordsTable(int[] gf) {
+        int w;
+
+        w = gf[0] & 0xfffff;
+        sampa_stream_low_.putInt(HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+        w = (gf[0] >>> 20) | ((gf[1] & 0xff) << 12);
+        sampa_stream_high_.putInt(HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+        w = gf[1] >>> 12;
+        sampa_stream_low_1_.putInt(HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+        w = gf[2] & 0xfffff;
+        sampa_stream_high_1_.putInt(HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+        w = (gf[2] >>> 24) | ((gf[3] & 0xfff) << 8);
+        sampa_stream_2_.putInt(HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+    }
+
+
+    /**
+     * Does the same as {@link #getHalfWordsTable(int[])} for a number of consecutive
+     * frames, writing straight into the arrays backing the local ByteBuffers.
+     * The caller must make sure there is room for all of them.
+     *
+     * @param frames buffer of streamed data.
+     * @param pos    index of first frame's first byte in buffer.
+     * @param count  number of frames to parse.
+     */
+    private void getHalfWordsTable(ByteBuffer frames, int pos, int count) {
+        byte[] low   = sampa_stream_low_.array();
+        byte[] high  = sampa_stream_high_.array();
+        byte[] low1  = sampa_stream_low_1_.array();
+        byte[] high1 = sampa_stream_high_1_.array();
+        byte[] s2    = sampa_stream_2_.array();
+
+        int pLow   = sampa_stream_low_.position();
+        int pHigh  = sampa_stream_high_.position();
+        int pLow1  = sampa_stream_low_1_.position();
+        int pHigh1 = sampa_stream_high_1_.position();
+        int pS2    = sampa_stream_2_.position();
+
+        for (int i = 0; i < count; i++, pos += 16) {
+            int gf3 = frames.getInt(pos);
+            int gf2 = frames.getInt(pos + 4);
+            int gf1 = frames.getInt(pos + 8);
+            int gf0 = frames.getInt(pos + 12);
+            int w;
+
+            w = gf0 & 0xfffff;
+            putHalfWords(low, pLow, HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+            w = (gf0 >>> 20) | ((gf1 & 0xff) << 12);
+            putHalfWords(high, pHigh, HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+            w = gf1 >>> 12;
+            putHalfWords(low1, pLow1, HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+            w = gf2 & 0xfffff;
+            putHalfWords(high1, pHigh1, HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+            w = (gf2 >>> 24) | ((gf3 & 0xfff) << 8);
+            putHalfWords(s2, pS2, HALF_WORD_LO[w & 0x3ff] | HALF_WORD_HI[w >>> 10]);
+
+            pLow += 4; pHigh += 4; pLow1 += 4; pHigh1 += 4; pS2 += 4;
+        }
+
+        sampa_stream_low_.position(pLow);
+        sampa_stream_high_.position(pHigh);
+        sampa_stream_low_1_.position(pLow1);
+        sampa_stream_high_1_.position(pHigh1);
+        sampa_stream_2_.position(pS2);
+    }
+
+
+    /**
+     * Write 4 half-words, packed into an int with the first in the highest byte, into an array.
+     * @param array array to write into.
+     * @param pos   index of first half-word.
+     * @param hw    packed half-words.
+     */
+    private static void putHalfWords(byte[] array, int pos, int hw) {
+        array[pos]     = (byte) (hw >>> 24);
+        array[pos + 1] = (byte) (hw >>> 16);
+        array[pos + 2] = (byte) (hw >>> 8);
+        array[pos + 3] = (byte) hw;
+    }
+
+
     /**
      * Parse incoming frames and store as 5 bit values (1 half word) in ByteBuffers.
      * Each 5 bit values is stored in 1 byte as opposed to the original C++
@@ -590,67 +888,27 @@ public class DasDecoder implements IDecoder {
 
         if (gotSync) return 5;
 
-        // Start by assuming we have all syncs
-        int count = 5;
-
-        // If a sync is already found for this stream, do NOT repeat the search
-        if (!syncLow0Found) {
-            sync_low_ = findSync(sampa_stream_low_, 0);
-            if (sync_low_ == sync_unknown_) {
-                // We don't have a sync on this stream
-                count--;
-            } else {
-                // Mark sync as having been found so no redundant work is done
-                // when this method is called again.
-                syncLow0Found = true;
-            }
-        }
+        int count = 0;
 
-        if (!syncHigh0Found) {
-            sync_high_ = findSync(sampa_stream_high_, 0);
-            if (sync_high_ == sync_unknown_) {
-                count--;
-            } else {
-                syncHigh0Found = true;
-            }
-        }
-
-        if (!syncLow1Found) {
-            sync_low_1_ = findSync(sampa_stream_low_1_, 0);
-            if (sync_low_1_ == sync_unknown_) {
-                count--;
-            } else {
-                syncLow1Found = true;
-            }
-        }
-
-        if (!syncHigh1Found) {
-            sync_high_1_ = findSync(sampa_stream_high_1_, 0);
-            if (sync_high_1_ == sync_unknown_) {
-                count--;
-            } else {
-                syncHigh1Found = true;
-            }
-        }
-
-        if (!sync2Found) {
-            sync_2_ = findSync(sampa_stream_2_, 0);
-            if (sync_2_ == sync_unknown_) {
-                count--;
-            } else {
-                sync2Found = true;
+        for (int i = 0; i < 5; i++) {
+            // If a sync is already found for this stream, do NOT repeat the search.
+            // Otherwise only look at what was added since the last search.
+            if (!syncFound[i]) {
+                syncPos[i] = findSync(i);
+                syncFound[i] = (syncPos[i] != sync_unknown_);
             }
+            if (syncFound[i]) count++;
         }
 
         gotSync = (count == 5);
 
         //if (verbose && gotSync && streamId == 2) {
         if (gotSync && streamId == 2) {
-            System.out.println("SYNC " + streamId + ": SAMPA0 Stream Low  = " + sync_low_);
-            System.out.println("SYNC " + streamId + ": SAMPA0 Stream High = " + sync_high_);
-            System.out.println("SYNC " + streamId + ": SAMPA1 Stream Low  = " + sync_low_1_);
-            System.out.println("SYNC " + streamId + ": SAMPA1 Stream High = " + sync_high_1_);
-            System.out.println("SYNC " + streamId + ": SAMPA2 Stream      = " + sync_2_);
+            System.out.println("SYNC " + streamId + ": SAMPA0 Stream Low  = " + syncPos[0]);
+            System.out.println("SYNC " + streamId + ": SAMPA0 Stream High = " + syncPos[1]);
+            System.out.println("SYNC " + streamId + ": SAMPA1 Stream Low  = " + syncPos[2]);
+            System.out.println("SYNC " + streamId + ": SAMPA1 Stream High = " + syncPos[3]);
+            System.out.println("SYNC " + streamId + ": SAMPA2 Stream      = " + syncPos[4]);
         }
 
         return count;
@@ -658,30 +916,57 @@ public class DasDecoder implements IDecoder {
 
 
     /**
-     * Loop over the 5-bit half-word stream and search for the SYNC pattern.
+     * Search the 5-bit half-word stream for the SYNC pattern
      * and find the position of the last SYNC pattern value (0xA) in the stream.
      * The number of bytes to skip to get to real data = returned position + 1.
+     * The search resumes where the last one for this stream stopped,
+     * so each half-word is looked at only once.
      *
-     * @param data       input data "stream".
-     * @param startIndex index of byte to start the search
+     * @param stream index of stream (0-4).
      * @return position of the last SYNC pattern value (0xA) in the data buffer or -1 if unknown.
      */
-    private int findSync(ByteBuffer data, int startIndex) {
-        int index = 0;
+    private int findSync(int stream) {
+        return syncMatchers[stream].find(streams[stream]);
+    }
+
 
-        for (int i = 0; i < data.limit(); i++) {
-            if (data.get(i) == SYNC_PATTERN[index + startIndex]) {
-//if (index > 27) System.out.println("findSync : " + index + " 0x" + Integer.toHexString((int)(data.get(i))) + " - 0x" + Integer.toHexString(SYNC_PATTERN[index + startIndex]));
-                index++;
-            } else {
-                index = 0;
+    /**
+     * Once synced, look for sync patterns in the data added since the last check.
+     * If one isn't a whole number of sample groups after the stream's sync,
+     * the sync is lost and looked for again, see {@link #setSyncMonitor(boolean)}.
+     */
+    private void checkSync() {
+        boolean lost = false;
+        int[] seen = null;
+
+        for (int i = 0; i < 5; i++) {
+            int end;
+            while ((end = findSync(i)) != sync_unknown_) {
+                // Until the first transfer, data starts past the sync, then at 0
+                if ((end - syncPos[i]) % 32 != 0) {
+                    lost = true;
+                }
+                if (seen == null) {
+                    seen = new int[] {sync_unknown_, sync_unknown_, sync_unknown_, sync_unknown_, sync_unknown_};
+                }
+                seen[i] = end;
             }
+        }
+
+        if (!lost) return;
 
-            if (index == (32 - startIndex)) {
-                return i;
+        syncLossCount++;
+        System.out.println("DasDecoder " + streamId + ": sync lost, resyncing (" + syncLossCount + " times)");
+        reSync();
+
+        // Streams with a pattern in this data have their new sync already
+        for (int i = 0; i < 5; i++) {
+            if (seen[i] != sync_unknown_) {
+                syncPos[i] = seen[i];
+                syncFound[i] = true;
             }
         }
-        return sync_unknown_;
+        getSyncCount();
     }
 
 
@@ -691,11 +976,11 @@ public class DasDecoder implements IDecoder {
      * @param rawEvent object in which to store the ADC values.
      */
     public void getAdcValues(SRingRawEvent rawEvent) {
-        extractAdcValues(1, sampa_stream_low_, sync_low_ + 1, channel_offset_low_, rawEvent);
-        extractAdcValues(2, sampa_stream_high_, sync_high_ + 1, channel_offset_high_, rawEvent);
-        extractAdcValues(3, sampa_stream_low_1_, sync_low_1_ + 1, channel_offset_low_1_, rawEvent);
-        extractAdcValues(4, sampa_stream_high_1_, sync_high_1_ + 1, channel_offset_high_1_, rawEvent);
-        extractAdcValues(5, sampa_stream_2_, sync_2_ + 1, channel_offset_2_, rawEvent);
+        extractAdcValues(1, sampa_stream_low_, syncPos[0] + 1, channel_offset_low_, rawEvent);
+        extractAdcValues(2, sampa_stream_high_, syncPos[1] + 1, channel_offset_high_, rawEvent);
+        extractAdcValues(3, sampa_stream_low_1_, syncPos[2] + 1, channel_offset_low_1_, rawEvent);
+        extractAdcValues(4, sampa_stream_high_1_, syncPos[3] + 1, channel_offset_high_1_, rawEvent);
+        extractAdcValues(5, sampa_stream_2_, syncPos[4] + 1, channel_offset_2_, rawEvent);
         // The offsets must only be used once before being cleared
         clearSyncOffsets();
     }
@@ -703,6 +988,7 @@ public class DasDecoder implements IDecoder {
 
     /**
      * Extract the ADC values from the data stream.
+     * If the raw event keeps channel statistics, the values are added to them on the way.
      *
      * @param data           data from a single stream.
      * @param startPos       starting position in data (# of bad bytes to skip).
@@ -722,12 +1008,23 @@ public class DasDecoder implements IDecoder {
         int dataBytes = data.position();
 
         int maxSamples = (dataBytes - startPos) / 32;
+
+        // When packing, only store whole groups of ADC values so that whatever is
+        // stored next in the same buffers starts on a byte boundary. The rest stays
+        // here for the next transfer, just like a partial sample group does.
+        int bits = rawEvent.getSampleBits();
+        if (bits != DasSamplePacker.UNPACKED) {
+            maxSamples -= maxSamples % DasSamplePacker.samplesPerGroup(bits);
+        }
+
         // Did we read all the data?
         boolean readAll = 32 * maxSamples == (dataBytes - startPos);
 
 //        if (verbose)
         // Array of buffers in which to place data
         ByteBuffer[] dataBufs = rawEvent.getData();
+        // Statistics of each channel's values, if kept
+        DasChannelStats stats = rawEvent.getStats();
 
 //        if (id == 1 && streamId == 2) {
 //            System.out.println("extractAdcValues stream = " + streamId + " : BB " + id + ": samples in substream: " +
@@ -739,8 +1036,23 @@ public class DasDecoder implements IDecoder {
 //            System.out.println("dataBufs[0].pos = " + dataBufs[0].position() + ", lim = " + dataBufs[0].limit());
 //        }
 
+        // Transpose whole sample groups into the channel buffers at once when they're
+        // little endian with room for all samples, else do it one value at a time below.
+        // Packed values are always transposed in bulk.
+        int firstSample = 0;
+        if (bits != DasSamplePacker.UNPACKED) {
+            packAdcValues(data.array(), data.arrayOffset() + startPos, maxSamples, bits,
+                          dataBufs, channel_offset, stats);
+            firstSample = maxSamples;
+        }
+        else if (canTranspose(data, dataBufs, channel_offset, 2 * maxSamples)) {
+            transposeAdcValues(data.array(), data.arrayOffset() + startPos, maxSamples,
+                               dataBufs, channel_offset, stats);
+            firstSample = maxSamples;
+        }
+
         // Loop over the samples
-        for (int numSamples = 0; numSamples < maxSamples; numSamples++) {
+        for (int numSamples = firstSample; numSamples < maxSamples; numSamples++) {
             // Extract the 16 channels
             int offset = startPos + numSamples * 32;
 
@@ -763,6 +1075,9 @@ public class DasDecoder implements IDecoder {
                 try {
                     // The buffers in the raw event object are all set to little endian
                     dataBufs[channel + channel_offset].putShort(adc_value);
+                    if (stats != null) {
+                        stats.add(channel + channel_offset, adc_value);
+                    }
                 } catch (Exception e) {
                     System.out.println("Failed on dataBufs[" + (channel + channel_offset) + "], remaining = " + dataBufs[channel + channel_offset].remaining());
                     //e.printStackTrace();
@@ -793,9 +1108,179 @@ public class DasDecoder implements IDecoder {
 //if (id == 1 && (streamId == 2)) System.out.println("COMPACTED stream " + streamId + " : " + id + ": data.pos = " + data.position() + ", lim = " + data.limit());
         }
 
+        // The sync search goes on in the data left
+        syncMatchers[id - 1].shift(dataBytes - data.position());
+
 
 //System.out.println("extractAdcValues END Id = " + streamId + ", Data bytes : " + (data.limit() - startPos));
 
     }
 
+
+    /**
+     * Can ADC values be transposed in bulk from the data of a stream into its 16 channel buffers?
+     *
+     * @param data           data from a single stream.
+     * @param dataBufs       channel buffers of raw event.
+     * @param channel_offset index of first of the stream's 16 channel buffers.
+     * @param bytes          number of bytes to be written into each channel buffer.
+     * @return true if data is array-backed and all buffers are little endian and have room for the values.
+     */
+    private static boolean canTranspose(ByteBuffer data, ByteBuffer[] dataBufs, int channel_offset, int bytes) {
+        if (!data.hasArray()) return false;
+        for (int channel = 0; channel < 16; channel++) {
+            ByteBuffer buf = dataBufs[channel + channel_offset];
+            if (buf.order() != ByteOrder.LITTLE_ENDIAN || buf.remaining() < bytes) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * <p>Transpose sample groups of a stream into its 16 channel buffers.
+     * Each 32 byte sample group holds 2 half-words (lower 5 bits first) of each of 16 channels.
+     * One channel at a time, a half-word pair is read as a single little endian short,
+     * combined into the 10 bit ADC value and stored as a little endian short.
+     * The result is identical to reading and writing a byte at a time.
+     * Buffers that aren't array-backed are written into a scratch array first.
+     * Each channel's values are summed on the way, for its statistics.</p>
+     *
+     * @param src            backing array of stream data.
+     * @param srcOffset      index in src of first sample group.
+     * @param samples        number of sample groups.
+     * @param dataBufs       channel buffers of raw event, advanced past the values written.
+     * @param channel_offset index of first of the stream's 16 channel buffers.
+     * @param stats          statistics to add the values to, or null.
+     */
+    private void transposeAdcValues(byte[] src, int srcOffset, int samples,
+                                    ByteBuffer[] dataBufs, int channel_offset, DasChannelStats stats) {
+        int bytes = 2 * samples;
+
+        for (int channel = 0; channel < 16; channel++) {
+            ByteBuffer buf = dataBufs[channel + channel_offset];
+            byte[] dst = destination(buf, bytes);
+            int d = buf.hasArray() ? buf.arrayOffset() + buf.position() : 0;
+            int s = srcOffset + 2 * channel;
+            long sum = 0, sumSquares = 0;
+
+            for (int i = 0; i < samples; i++, s += 32, d += 2) {
+                int v = adcValue(src, s);
+                SHORT_LE.set(dst, d, (short) v);
+                sum += v;
+                sumSquares += v * v;
+            }
+
+            advance(buf, bytes);
+            if (stats != null) {
+                stats.add(channel + channel_offset, samples, sum, sumSquares);
+            }
+        }
+    }
+
+
+    /**
+     * <p>Transpose sample groups of a stream into its 16 channel buffers, packing
+     * the ADC values into 10 or 12 bits as described in {@link DasSamplePacker}.
+     * Buffers that aren't array-backed are written into a scratch array first.
+     * A buffer without room for all values gets none of them.
+     * Each channel's values are summed on the way, for its statistics.</p>
+     *
+     * @param src            backing array of stream data.
+     * @param srcOffset      index in src of first sample group.
+     * @param samples        number of sample groups, a multiple of the packing group size.
+     * @param bits           bits per packed value (10 or 12).
+     * @param dataBufs       channel buffers of raw event, advanced past the values written.
+     * @param channel_offset index of first of the stream's 16 channel buffers.
+     * @param stats          statistics to add the values to, or null.
+     */
+    private void packAdcValues(byte[] src, int srcOffset, int samples, int bits,
+                               ByteBuffer[] dataBufs, int channel_offset, DasChannelStats stats) {
+        int bytes = DasSamplePacker.packedSize(samples, bits);
+
+        for (int channel = 0; channel < 16; channel++) {
+            ByteBuffer buf = dataBufs[channel + channel_offset];
+            if (buf.remaining() < bytes) {
+                System.out.println("Failed on dataBufs[" + (channel + channel_offset) + "], remaining = " + buf.remaining());
+                continue;
+            }
+
+            byte[] dst = destination(buf, bytes);
+            int d = buf.hasArray() ? buf.arrayOffset() + buf.position() : 0;
+
+            int s = srcOffset + 2 * channel;
+            long sum = 0, sumSquares = 0;
+            if (bits == 10) {
+                for (int i = 0; i < samples; i += 4, s += 128, d += 5) {
+                    int v0 = adcValue(src, s),      v1 = adcValue(src, s + 32);
+                    int v2 = adcValue(src, s + 64), v3 = adcValue(src, s + 96);
+                    DasSamplePacker.put10(dst, d, v0, v1, v2, v3);
+                    sum += v0 + v1 + v2 + v3;
+                    sumSquares += v0 * v0 + v1 * v1 + v2 * v2 + v3 * v3;
+                }
+            }
+            else {
+                for (int i = 0; i < samples; i += 2, s += 64, d += 3) {
+                    int v0 = adcValue(src, s), v1 = adcValue(src, s + 32);
+                    DasSamplePacker.put12(dst, d, v0, v1);
+                    sum += v0 + v1;
+                    sumSquares += v0 * v0 + v1 * v1;
+                }
+            }
+
+            advance(buf, bytes);
+            if (stats != null) {
+                stats.add(channel + channel_offset, samples, sum, sumSquares);
+            }
+        }
+    }
+
+
+    /**
+     * Get the array to write a channel's values into: the buffer's backing array,
+     * or if it has none, the scratch array, made big enough.
+     * @param buf   channel buffer.
+     * @param bytes number of bytes to be written.
+     * @return array to write into.
+     */
+    private byte[] destination(ByteBuffer buf, int bytes) {
+        if (buf.hasArray()) {
+            return buf.array();
+        }
+        if (scratch.length < bytes) {
+            scratch = new byte[bytes];
+        }
+        return scratch;
+    }
+
+
+    /**
+     * Finish writing a channel's values by advancing its buffer past them,
+     * after copying them in from the scratch array if the buffer has no backing array.
+     * @param buf   channel buffer.
+     * @param bytes number of bytes written.
+     */
+    private void advance(ByteBuffer buf, int bytes) {
+        if (buf.hasArray()) {
+            buf.position(buf.position() + bytes);
+        }
+        else {
+            buf.put(scratch, 0, bytes);
+        }
+    }
+
+
+    /**
+     * Combine a channel's pair of half-words into its 10 bit ADC value.
+     * @param src backing array of stream data.
+     * @param s   index in src of the lower half-word, followed by the upper one.
+     * @return ADC value.
+     */
+    private static int adcValue(byte[] src, int s) {
+        // Lower half-word in the low byte, upper half-word in the high byte
+        int halfWords = (short) SHORT_LE.get(src, s);
+        return (halfWords & 0x1F) | ((halfWords >>> 3) & 0x3E0);
+    }
+
 }
@@ -0,0 +1,119 @@
+package org.jlab.ersap.actor.sampa.source.decoder;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Incremental search for the sync pattern in one stream of 5 bit half-words.</p>
+ *
+ * <p>This is a Knuth-Morris-Pratt automaton: its state is the number of pattern
+ * half-words matched so far and each half-word moves it to the next state with
+ * a single table lookup. No half-word is looked at twice, patterns which overlap
+ * a partial match are not missed, and since the state is kept from one call to
+ * the next, each call only looks at the half-words added since the last one.</p>
+ *
+ * <p>Indexes are those of the stream's buffer. When data is removed from the
+ * front of the buffer, the matcher must be told with {@link #shift(int)}.</p>
+ */
+final class DasSyncMatcher {
+
+    /** Half-words have 5 bits. */
+    private static final int SYMBOLS = 32;
+
+    /** Next state for each state (row) and half-word (column). */
+    private final int[][] next;
+
+    /** Number of half-words in the pattern, reaching this state is a match. */
+    private final int length;
+
+    /** Number of pattern half-words matched. */
+    private int state;
+
+    /** Index of the next half-word to look at. */
+    private int scanned;
+
+
+    /**
+     * Constructor.
+     * @param pattern sync pattern, in 5 bit half-words.
+     */
+    DasSyncMatcher(byte[] pattern) {
+        length = pattern.length;
+        next = new int[length + 1][SYMBOLS];
+
+        // Build the automaton. Past a full match, the search goes on
+        // as it would on a mismatch, so it finds the following one too.
+        next[0][pattern[0]] = 1;
+        int fallback = 0;
+        for (int s = 1; s <= length; s++) {
+            for (int c = 0; c < SYMBOLS; c++) {
+                next[s][c] = next[fallback][c];
+            }
+            if (s < length) {
+                next[s][pattern[s]] = s + 1;
+                fallback = next[fallback][pattern[s]];
+            }
+        }
+    }
+
+
+    /**
+     * Look for the pattern in the half-words added to a stream's buffer since the last call.
+     * The search stops at the first pattern found, the next call goes on from there.
+     *
+     * @param data stream's buffer, from 0 to position, array-backed.
+     * @return index of the last half-word of the pattern, -1 if none was found.
+     */
+    int find(ByteBuffer data) {
+        byte[] array = data.array();
+        int off = data.arrayOffset();
+        int end = data.position();
+        int s = state;
+
+        for (int i = scanned; i < end; i++) {
+            s = next[s][array[off + i] & 0x1f];
+            if (s == length) {
+                state = s;
+                scanned = i + 1;
+                return i;
+            }
+        }
+
+        state = s;
+        scanned = end;
+        return -1;
+    }
+
+
+    /** Forget any partial match, the search goes on from the next half-word added. */
+    void restart() {
+        state = 0;
+    }
+
+
+    /** Start over on an empty buffer. */
+    void reset() {
+        restart();
+        scanned = 0;
+    }
+
+
+    /**
+     * Take into account that data was removed from the front of the stream's buffer.
+     * A partial match carries on into the half-words added next.
+     * @param bytes number of bytes removed.
+     */
+    void shift(int bytes) {
+        scanned = Math.max(0, scanned - bytes);
+    }
+}
@@ -61,11 +61,17 @@ public class DspDecoder implements IDecoder {
     // The period is called the sample window and equates to 50 us when sampling at 20 MHz.
     // This corresponds to 2000 frames of the 4.8 Gb/s data stream. We define a BLOCK of packets
     // to be the set of all packets collected during N_BLOCK consecutive sampling windows.
-    // N_BLOCK is programmable (see below for current val). A BLOCK HEADER is written to a file followed
+    // N_BLOCK is programmable (see setNBlock, 1 by default). A BLOCK HEADER is written to a file followed
     // by all the packet data of the BLOCK. For N_BOCK = 10, the BLOCK represents 500 us of time,
     // so the file written is time-ordered to this level.
-    private static final int N_BLOCK = 1;
-    private static final int framesInBlock = 2000 * N_BLOCK;
+    /** Number of frames in one sampling window. */
+    public static final int FRAMES_PER_WINDOW = 2000;
+
+    /** Number of sampling windows per block, see {@link #setNBlock(int)}. */
+    private int nBlock = 1;
+
+    /** Number of frames in one block. */
+    private int framesInBlock = FRAMES_PER_WINDOW;
 
     /** Total number of frames parsed. */
     private long frameCount;
@@ -73,6 +79,30 @@ public class DspDecoder implements IDecoder {
     /** Number of full blocks of data parsed. */
     private int blockCount;
 
+    /** Frame being decoded when decoding frames in bulk. */
+    private final int[] frame = new int[4];
+
+    /**
+     * If true, advance each eLink by its 4 bits of a frame at once with the
+     * tables {@link #NIBBLE_IN} and {@link #NIBBLE_REVERSED} instead of one bit at a time.
+     */
+    private final boolean nibbleAtATime;
+
+    /** Each 4 bit nibble with its bits in reverse order: an eLink's bits come most significant first. */
+    private static final int[] NIBBLE_REVERSED = new int[16];
+
+    /**
+     * Each nibble as it ends up in a shift register once its 4 bits have been taken in at
+     * the top (bit 49) and shifted down, the first bit at 46, the last at 49.
+     */
+    private static final long[] NIBBLE_IN = new long[16];
+
+    static {
+        for (int n = 0; n < 16; n++) {
+            NIBBLE_REVERSED[n] = ((n & 1) << 3) | ((n & 2) << 1) | ((n & 4) >>> 1) | ((n & 8) >>> 3);
+            NIBBLE_IN[n] = (long) NIBBLE_REVERSED[n] << 46;
+        }
+    }
 
 
     /** Constructor with no debug output. */
@@ -80,11 +110,21 @@ public class DspDecoder implements IDecoder {
 
 
     /**
-     * Constructor.
+     * Constructor. Each eLink is decoded a nibble at a time.
      * @param verbose if true, enable debug output.
      */
-    public DspDecoder(boolean verbose) {
+    public DspDecoder(boolean verbose) {this(verbose, true);}
+
+
+    /**
+     * Constructor.
+     * @param verbose       if true, enable debug output, which decodes one bit at a time.
+     * @param nibbleAtATime if true, advance each eLink by its 4 bits of a frame at once,
+     *                      else one bit at a time. Both produce identical results.
+     */
+    public DspDecoder(boolean verbose, boolean nibbleAtATime) {
         this.verbose = verbose;
+        this.nibbleAtATime = nibbleAtATime;
         eLinkStats.init(); // not necessary, but anyways
 
         for (int i = 0; i < 28; i++) {
@@ -96,17 +136,32 @@ public class DspDecoder implements IDecoder {
     }
 
 
+    /**
+     * Set the number of sequential sampling windows (2000 frames each) per block.
+     * Larger blocks spread the cost of handling, aggregating and serializing
+     * each event over more data. Call before decoding starts, or between blocks.
+     * @param nBlock number of sampling windows per block, at least 1.
+     * @throws IllegalArgumentException if nBlock &lt; 1.
+     */
+    public void setNBlock(int nBlock) {
+        if (nBlock < 1) {
+            throw new IllegalArgumentException("bad number of windows per block " + nBlock);
+        }
+        this.nBlock = nBlock;
+        framesInBlock = FRAMES_PER_WINDOW * nBlock;
+    }
+
     /**
      * Get the number of sequential sampling windows (2000 frames each) of SAMPA board per block.
      * @return number of sequential sampling windows of SAMPA board per block.
      */
-    public static int getNBlock() {return N_BLOCK;}
+    public int getNBlock() {return nBlock;}
 
     /**
      * Get the number of frames in 1 block.
      * @return number of frames in 1 block.
      */
-    public static int getFramesInBlock() {return framesInBlock;}
+    public int getFramesInBlock() {return framesInBlock;}
 
     /** {@inheritDoc} */
     public EMode getSampaType() {return EMode.DSP;}
@@ -133,276 +188,378 @@ public class DspDecoder implements IDecoder {
     /** {@inheritDoc} */
     public void decodeSerial(int[] gbt_frame, SRingRawEvent rawEvent) {
 
+        // Time of the last packet header decoded in this frame, whatever the eLink
+        int bxCount = 0;
+
+        // The event is full once it holds one of this decoder's blocks
+        rawEvent.setFramesInBlock(framesInBlock);
+        rawEvent.incrementFramesStored();
+        frameCount++;
+
+        // Loop thru all 28 eLinks ...
+        for (int eLink = 0; eLink < 28; eLink++) {
+            // 8 eLinks in each frame word
+            int gFrameWord = gbt_frame[eLink / 8];
+
+            if (nibbleAtATime && !verbose) {
+                bxCount = decodeNibble(eLink, gFrameWord, bxCount, rawEvent);
+            }
+            else {
+                bxCount = decodeBits(eLink, gFrameWord, bxCount, rawEvent);
+            }
+        }
+    }
+
+
+    /**
+     * Decode the 4 bits an eLink has in a frame, one bit at a time.
+     *
+     * @param eLink      eLink (0-27).
+     * @param gFrameWord word of the frame holding the eLink's bits.
+     * @param bxCount    time of the last packet header decoded in this frame.
+     * @param rawEvent   object in which to store complete packets.
+     * @return time of the last packet header decoded in this frame.
+     */
+    private int decodeBits(int eLink, int gFrameWord, int bxCount, SRingRawEvent rawEvent) {
+
         int bitValue;
         int dataWord;
         int pkt;
         int hadd;
         int chadd;
-        int bxCount = 0;
         int hamming;
         int parity;
         int dataParity;
         int head1;
         int head2;
         int dataValue;
-        int gFrameWord;
         int ii_min;
         int ii_max;
         int fec_channel;
         boolean match;
 
-        rawEvent.incrementFramesStored();
-        frameCount++;
+        ii_min = (eLink % 8) * 4;
+        ii_max = ii_min + 3;
 
-        // Loop thru all 28 eLinks ...
-        for (int eLink = 0; eLink < 28; eLink++) {
+        // find sync header - this will run until first sync packet header is found
+        // sync packet header pattern
+        if (syncFound[eLink] == 0) {
+            for (int ii = ii_max; ii >= ii_min; ii--) {
+                // elink (4 bits per frame)
+                bitValue = (gFrameWord >>> ii) & 1;
+                // bitValue = (gFrameWord & (0x00000001 << ii)) >> ii;
 
-            if (eLink < 8) {
-                gFrameWord = gbt_frame[0];
-            } else if (eLink < 16) {
-                gFrameWord = gbt_frame[1];
-            } else if (eLink < 24) {
-                gFrameWord = gbt_frame[2];
-            } else {
-                gFrameWord = gbt_frame[3];
-            }
-            ii_min = (eLink % 8) * 4;
-            ii_max = ii_min + 3;
-
-            // find sync header - this will run until first sync packet header is found
-            // sync packet header pattern
-            if (syncFound[eLink] == 0) {
-                for (int ii = ii_max; ii >= ii_min; ii--) {
-                    // elink (4 bits per frame)
-                    bitValue = (gFrameWord >>> ii) & 1;
-                    // bitValue = (gFrameWord & (0x00000001 << ii)) >> ii;
-
-                    if (bitValue == 1) {
-                        if (verbose && (eLink == eLinkToDebug)) {
-                            System.out.println("-> " + ii + " " + Long.toHexString(shiftReg[eLink]));
-                        }
-
-                        shiftReg[eLink] = shiftReg[eLink] | 0x0004000000000000L; // set bit 50 in shiftReg
-
-                        if (verbose && (eLink == eLinkToDebug)) {
-                            System.out.println("-> " + ii + " " + Long.toHexString(shiftReg[eLink]));
-                        }
+                if (bitValue == 1) {
+                    if (verbose && (eLink == eLinkToDebug)) {
+                        System.out.println("-> " + ii + " " + Long.toHexString(shiftReg[eLink]));
                     }
-                    // Carl, fix bug, needed a >>> instead of >>
-                    shiftReg[eLink] = shiftReg[eLink] >>> 1;
+
+                    shiftReg[eLink] = shiftReg[eLink] | 0x0004000000000000L; // set bit 50 in shiftReg
 
                     if (verbose && (eLink == eLinkToDebug)) {
-                        System.out.println("DDD-> " + ii + " " + Integer.toHexString(gFrameWord) + " " + Integer.toHexString(bitValue));
-                        System.out.println("elink = " + eLink + " shiftReg = " + Long.toHexString(shiftReg[eLink]));
-                    }
-                    if (syncFound[eLink] != 0) {
-                        // when sync found count remaining bits of frame for next header
-                        headerBitCount[eLink]++;
-                    }
-                    if (shiftReg[eLink] == syncHeaderPattern) {
-                        // check if sync packet header detected
-                        syncFound[eLink] = 1;
-                        eLinkStats.getSyncFoundCount()[eLink]++;
-                        eLinkStats.getSyncCount()[eLink]++;
-                        headerBitCount[eLink] = 0;
-                        if (verbose && (eLink == eLinkToDebug)) {
-                            System.out.println("DDD:  ****************|| SYNC HEADER  elink = " + eLink + " ||****************** ");
-                        }
+                        System.out.println("-> " + ii + " " + Long.toHexString(shiftReg[eLink]));
                     }
                 }
+                // Carl, fix bug, needed a >>> instead of >>
+                shiftReg[eLink] = shiftReg[eLink] >>> 1;
+
+                if (verbose && (eLink == eLinkToDebug)) {
+                    System.out.println("DDD-> " + ii + " " + Integer.toHexString(gFrameWord) + " " + Integer.toHexString(bitValue));
+                    System.out.println("elink = " + eLink + " shiftReg = " + Long.toHexString(shiftReg[eLink]));
+                }
                 if (syncFound[eLink] != 0) {
-                    // print headerBitCount after frame where sync packet found
+                    // when sync found count remaining bits of frame for next header
+                    headerBitCount[eLink]++;
+                }
+                if (shiftReg[eLink] == syncHeaderPattern) {
+                    // check if sync packet header detected
+                    syncFound[eLink] = 1;
+                    eLinkStats.getSyncFoundCount()[eLink]++;
+                    eLinkStats.getSyncCount()[eLink]++;
+                    headerBitCount[eLink] = 0;
                     if (verbose && (eLink == eLinkToDebug)) {
-                        System.out.println("DDD: SyncPacket found headerBitCount = " + headerBitCount[eLink]);
+                        System.out.println("DDD:  ****************|| SYNC HEADER  elink = " + eLink + " ||****************** ");
                     }
                 }
             }
-            else if (dataHeader[eLink] == 0) {
-                // runs only after first sync packet header has been found
-                // we find NEXT header here
-                for (int ii = ii_max; ii >= ii_min; ii--) {
-                    // elink 0 (4 bits per frame)
-                    bitValue = (gFrameWord >>> ii) & 1;
-                    if (bitValue == 1) {
-                        shiftReg[eLink] = shiftReg[eLink] | 0x0004000000000000L;        // set bit 50 in shiftReg
-                    }
-                    shiftReg[eLink] = shiftReg[eLink] >>> 1;
+            if (syncFound[eLink] != 0) {
+                // print headerBitCount after frame where sync packet found
+                if (verbose && (eLink == eLinkToDebug)) {
+                    System.out.println("DDD: SyncPacket found headerBitCount = " + headerBitCount[eLink]);
+                }
+            }
+        }
+        else if (dataHeader[eLink] == 0) {
+            // runs only after first sync packet header has been found
+            // we find NEXT header here
+            for (int ii = ii_max; ii >= ii_min; ii--) {
+                // elink 0 (4 bits per frame)
+                bitValue = (gFrameWord >>> ii) & 1;
+                if (bitValue == 1) {
+                    shiftReg[eLink] = shiftReg[eLink] | 0x0004000000000000L;        // set bit 50 in shiftReg
+                }
+                shiftReg[eLink] = shiftReg[eLink] >>> 1;
+
+                if (dataHeader[eLink] > 0) {
+                    // AFTER data header is found count remaining bits of frame as data bits
+                    dataBitCount[eLink]++;
+                } else {
+                    // count frame bits as header bits not data type
+                    headerBitCount[eLink]++;
+                }
+//      -----------------------------------------------------------------------
+                if (headerBitCount[eLink] == 50) {
+                    // next packet header - decode
+                    if (shiftReg[eLink] == syncHeaderPattern) {
+                        // sync header
+                        eLinkStats.getSyncCount()[eLink]++;
+                        headerBitCount[eLink] = 0;
 
-                    if (dataHeader[eLink] > 0) {
-                        // AFTER data header is found count remaining bits of frame as data bits
-                        dataBitCount[eLink]++;
+                        if (verbose && (eLink == eLinkToDebug)) {
+                            System.out.println("DDD: **************** SYNC HEADER  elink = " + eLink +
+                                    " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
+                                    " syncCount = " + eLinkStats.getSyncCount()[eLink]);
+                        }
                     } else {
-                        // count frame bits as header bits not data type
-                        headerBitCount[eLink]++;
-                    }
-//          -----------------------------------------------------------------------
-                    if (headerBitCount[eLink] == 50) {
-                        // next packet header - decode
-                        if (shiftReg[eLink] == syncHeaderPattern) {
-                            // sync header
-                            eLinkStats.getSyncCount()[eLink]++;
+                        // non-sync packet header - identify type
+                        pkt             = (int) ((shiftReg[eLink] >>> 7) & 0x7);
+                        numWords[eLink] = (int) ((shiftReg[eLink] >>> 10) & 0x3FF);
+                        hadd            = (int) ((shiftReg[eLink] >>> 20) & 0xF);
+                        chadd           = (int) ((shiftReg[eLink] >>> 24) & 0x1F);
+                        bxCount         = (int) ((shiftReg[eLink] >>> 29) & 0xFFFFF);
+                        hamming         = (int) ((shiftReg[eLink]) & 0x3F);
+                        dataParity      = (int) ((shiftReg[eLink] >>> 49) & 0x1);
+                        parity          = (int) ((shiftReg[eLink] >>> 6) & 0x1);
+
+                        // Carl, this is different than Ed's, Ed's code looks like an error
+                        if ((pkt == 0) && (numWords[eLink] == 0) && (chadd == 0x15)) {
+                            // heartbeat packet (NO payload) - push into output stream
+                            eLinkStats.getHeartBeatCount()[eLink]++;
                             headerBitCount[eLink] = 0;
+                            head1 = 0xA0000000 | (bxCount << 9) | (chadd << 4) | hadd;
+                            head2 = 0x40000000 | (parity << 23) | (hamming << 17) | (dataParity << 16) | (numWords[eLink] << 3) | pkt;
 
                             if (verbose && (eLink == eLinkToDebug)) {
-                                System.out.println("DDD: **************** SYNC HEADER  elink = " + eLink +
-                                        " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
-                                        " syncCount = " + eLinkStats.getSyncCount()[eLink]);
+                                System.out.println("DDD: **************** HEARTBEAT HEADER  elink = " + eLink
+                                        + " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
+                                        " heartBeatCount = " + eLinkStats.getHeartBeatCount()[eLink]);
                             }
-                        } else {
-                            // non-sync packet header - identify type
-                            pkt             = (int) ((shiftReg[eLink] >>> 7) & 0x7);
-                            numWords[eLink] = (int) ((shiftReg[eLink] >>> 10) & 0x3FF);
-                            hadd            = (int) ((shiftReg[eLink] >>> 20) & 0xF);
-                            chadd           = (int) ((shiftReg[eLink] >>> 24) & 0x1F);
-                            bxCount         = (int) ((shiftReg[eLink] >>> 29) & 0xFFFFF);
-                            hamming         = (int) ((shiftReg[eLink]) & 0x3F);
-                            dataParity      = (int) ((shiftReg[eLink] >>> 49) & 0x1);
-                            parity          = (int) ((shiftReg[eLink] >>> 6) & 0x1);
-
-                            // Carl, this is different than Ed's, Ed's code looks like an error
-                            if ((pkt == 0) && (numWords[eLink] == 0) && (chadd == 0x15)) {
-                                // heartbeat packet (NO payload) - push into output stream
-                                eLinkStats.getHeartBeatCount()[eLink]++;
+                        }
+                        else if (pkt == 4) {
+                            // initially require only NORMAL data packet headers
+                            // check consistency of data header - verify that 'hadd' and chadd' are consistent with 'eLink' number
+                            match = matchDataHeader(eLink, hadd, chadd);
+
+                            if (match) {
+                                // header consistent with data header
+                                dataCount[eLink]++;
+                                eLinkStats.getDataHeaderCount()[eLink]++;
+                                fec_channel = (hadd * 32) + chadd;
+                                if ((fec_channel >= 0) && (fec_channel <= 159)) {
+                                    eLinkStats.getDataChannelCount()[fec_channel]++;
+                                }
+                                else if (verbose) {
+                                    System.out.println("DDD:  -------- ILLEGAL CHANNEL NUMBER  elink = " + eLink +
+                                            " hadd = " + hadd + " chadd = " + chadd);
+                                }
+                                dataHeader[eLink] = 1;
+                                dataBitCount[eLink] = 0;
+                                dataWordCount[eLink] = 0;
                                 headerBitCount[eLink] = 0;
                                 head1 = 0xA0000000 | (bxCount << 9) | (chadd << 4) | hadd;
                                 head2 = 0x40000000 | (parity << 23) | (hamming << 17) | (dataParity << 16) | (numWords[eLink] << 3) | pkt;
 
+                                // push header into temporary storage vector
+                                eLinkDataTemp[eLink].putInt(head1);
+                                eLinkDataTemp[eLink].putInt(head2);
+
                                 if (verbose && (eLink == eLinkToDebug)) {
-                                    System.out.println("DDD: **************** HEARTBEAT HEADER  elink = " + eLink
-                                            + " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
-                                            " heartBeatCount = " + eLinkStats.getHeartBeatCount()[eLink]);
-                                }
-                            }
-                            else if (pkt == 4) {
-                                // initially require only NORMAL data packet headers
-                                // check consistency of data header - verify that 'hadd' and chadd' are consistent with 'eLink' number
-                                match = matchDataHeader(eLink, hadd, chadd);
-
-                                if (match) {
-                                    // header consistent with data header
-                                    dataCount[eLink]++;
-                                    eLinkStats.getDataHeaderCount()[eLink]++;
-                                    fec_channel = (hadd * 32) + chadd;
-                                    if ((fec_channel >= 0) && (fec_channel <= 159)) {
-                                        eLinkStats.getDataChannelCount()[fec_channel]++;
-                                    }
-                                    else if (verbose) {
-                                        System.out.println("DDD:  -------- ILLEGAL CHANNEL NUMBER  elink = " + eLink +
-                                                " hadd = " + hadd + " chadd = " + chadd);
-                                    }
-                                    dataHeader[eLink] = 1;
-                                    dataBitCount[eLink] = 0;
-                                    dataWordCount[eLink] = 0;
-                                    headerBitCount[eLink] = 0;
-                                    head1 = 0xA0000000 | (bxCount << 9) | (chadd << 4) | hadd;
-                                    head2 = 0x40000000 | (parity << 23) | (hamming << 17) | (dataParity << 16) | (numWords[eLink] << 3) | pkt;
-
-                                    // push header into temporary storage vector
-                                    eLinkDataTemp[eLink].putInt(head1);
-                                    eLinkDataTemp[eLink].putInt(head2);
-
-                                    if (verbose && (eLink == eLinkToDebug)) {
-                                        System.out.println("DDD: **************** DATA HEADER  elink = " + eLink +
-                                                " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
-                                                " pkt = " + pkt +
-                                                " dataCount = " + dataCount[eLink] +
-                                                " numWords = " + numWords[eLink] +
-                                                " hadd = " + hadd +
-                                                " chadd = " + chadd +
-                                                " bxCount = " + bxCount);
-                                    }
-                                } else {
-                                    // inconsistent data header - force the finding of next sync header
-                                    headerBitCount[eLink] = 0;
-                                    syncFound[eLink] = 0;
-                                    eLinkStats.getSyncLostCount()[eLink]++;
-                                    if (verbose && (eLink == eLinkToDebug)) {
-                                        System.out.println("DDD: UNRECOGNIZED HEADER  elink = " + eLink +
-                                                " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
-                                                " pkt = ");
-                                    }
+                                    System.out.println("DDD: **************** DATA HEADER  elink = " + eLink +
+                                            " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
+                                            " pkt = " + pkt +
+                                            " dataCount = " + dataCount[eLink] +
+                                            " numWords = " + numWords[eLink] +
+                                            " hadd = " + hadd +
+                                            " chadd = " + chadd +
+                                            " bxCount = " + bxCount);
                                 }
                             } else {
-                                // 'unrecognized' header - force the finding of next sync header
+                                // inconsistent data header - force the finding of next sync header
                                 headerBitCount[eLink] = 0;
                                 syncFound[eLink] = 0;
                                 eLinkStats.getSyncLostCount()[eLink]++;
                                 if (verbose && (eLink == eLinkToDebug)) {
-                                    System.out.println("DDD: -------- UNRECOGNIZED HEADER  elink = " + eLink +
+                                    System.out.println("DDD: UNRECOGNIZED HEADER  elink = " + eLink +
                                             " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
-                                            " pkt = " + pkt);
+                                            " pkt = ");
                                 }
                             }
+                        } else {
+                            // 'unrecognized' header - force the finding of next sync header
+                            headerBitCount[eLink] = 0;
+                            syncFound[eLink] = 0;
+                            eLinkStats.getSyncLostCount()[eLink]++;
+                            if (verbose && (eLink == eLinkToDebug)) {
+                                System.out.println("DDD: -------- UNRECOGNIZED HEADER  elink = " + eLink +
+                                        " shiftReg = 0x" + Long.toHexString(shiftReg[eLink]) +
+                                        " pkt = " + pkt);
+                            }
                         }
                     }
-                    //-----------------------------------------------------------------------
                 }
+                //-----------------------------------------------------------------------
             }
-            else if (dataHeader[eLink] > 0) {
-                // runs only after data packet header has been found
-                for (int ii = ii_max; ii >= ii_min; ii--) {
-                    // elink (4 bits per frame)
-                    // Carl, more efficient to do:
-                    bitValue = (gFrameWord >>> ii) & 1;
-                    // bitValue = (gFrameWord & (0x00000001 << ii)) >>> ii;
-                    if (bitValue > 0)
-                        shiftReg[eLink] = shiftReg[eLink] | 0x0004000000000000L;        // set bit 50 in shiftReg
-                    shiftReg[eLink] = shiftReg[eLink] >>> 1;
-
-                    if (dataHeader[eLink] > 0)       // count data word bits until data payload is exhausted
-                        dataBitCount[eLink]++;
-                    else                            // if payload is exhausted count remaining bits of frame for next header
-                        headerBitCount[eLink]++;
-
-                    if (dataBitCount[eLink] == 10) {
-                        // print data word
-                        dataWordCount[eLink]++;
-                        dataWord = (int) ((shiftReg[eLink] >>> 40) & 0x3FF);
-                        dataValue = (dataWordCount[eLink] << 16) | dataWord;
-                        eLinkDataTemp[eLink].putInt(dataValue);
-                        dataBitCount[eLink] = 0;
+        }
+        else if (dataHeader[eLink] > 0) {
+            // runs only after data packet header has been found
+            for (int ii = ii_max; ii >= ii_min; ii--) {
+                // elink (4 bits per frame)
+                // Carl, more efficient to do:
+                bitValue = (gFrameWord >>> ii) & 1;
+                // bitValue = (gFrameWord & (0x00000001 << ii)) >>> ii;
+                if (bitValue > 0)
+                    shiftReg[eLink] = shiftReg[eLink] | 0x0004000000000000L;        // set bit 50 in shiftReg
+                shiftReg[eLink] = shiftReg[eLink] >>> 1;
+
+                if (dataHeader[eLink] > 0)       // count data word bits until data payload is exhausted
+                    dataBitCount[eLink]++;
+                else                            // if payload is exhausted count remaining bits of frame for next header
+                    headerBitCount[eLink]++;
+
+                if (dataBitCount[eLink] == 10) {
+                    // print data word
+                    dataWordCount[eLink]++;
+                    dataWord = (int) ((shiftReg[eLink] >>> 40) & 0x3FF);
+                    dataValue = (dataWordCount[eLink] << 16) | dataWord;
+                    eLinkDataTemp[eLink].putInt(dataValue);
+                    dataBitCount[eLink] = 0;
 
-                        if (verbose && (eLink == eLinkToDebug)) {
-                            System.out.println("DDD:  shiftReg = " + shiftReg[eLink] +
-                                    " data = 0x" + Integer.toHexString(dataWord) +
-                                    " data = " + dataWord +
-                                    " dataWordCount = " + dataWordCount[eLink] +
-                                    " elink = " + eLink);
-                        }
+                    if (verbose && (eLink == eLinkToDebug)) {
+                        System.out.println("DDD:  shiftReg = " + shiftReg[eLink] +
+                                " data = 0x" + Integer.toHexString(dataWord) +
+                                " data = " + dataWord +
+                                " dataWordCount = " + dataWordCount[eLink] +
+                                " elink = " + eLink);
                     }
+                }
 
-                    if (dataWordCount[eLink] == numWords[eLink]) {
-                        // Done with packet payload.
-                        // Both header words and all packet data words have been stored in a temporary vector.
-                        // This is done to assure that only complete packets appear in the output data stream.
-                        // Now copy the temporary vector to the output stream.
-                        int dataBytes = 4 * (numWords[eLink] + 2);
-                        // Write directly into raw event's ByteBuffer.
-                        // Expand it if necessary to handle all data.
-                        rawEvent.setTime(bxCount);
-                        ByteBuffer bb = rawEvent.expandBuffer(eLink, dataBytes);
-                        System.arraycopy(eLinkDataTemp[eLink].array(), 0,
-                                bb.array(), bb.position(), dataBytes);
-
-                        // Be sure to track how much we've written to date
-                        bb.position(bb.position() + dataBytes);
-
-                        // Delete all data of temporary vector
-                        eLinkDataTemp[eLink].clear();
-
-                        // Reset
-                        dataHeader[eLink] = 0;
-                        headerBitCount[eLink] = 0;
-                        dataBitCount[eLink] = 0;
-                        dataWordCount[eLink] = 0;
+                if (dataWordCount[eLink] == numWords[eLink]) {
+                    // Done with packet payload.
+                    // Both header words and all packet data words have been stored in a temporary vector.
+                    // This is done to assure that only complete packets appear in the output data stream.
+                    // Now copy the temporary vector to the output stream.
+                    int dataBytes = 4 * (numWords[eLink] + 2);
+                    // Write directly into raw event's ByteBuffer.
+                    // Expand it if necessary to handle all data.
+                    rawEvent.setTime(bxCount);
+                    ByteBuffer bb = rawEvent.getBuffer(eLink);
+                    bb = rawEvent.expandBuffer(eLink, bb.position() + dataBytes);
+                    bb.put(bb.position(), eLinkDataTemp[eLink], 0, dataBytes);
+
+                    // Be sure to track how much we've written to date
+                    bb.position(bb.position() + dataBytes);
+
+                    // Delete all data of temporary vector
+                    eLinkDataTemp[eLink].clear();
+
+                    // Reset
+                    dataHeader[eLink] = 0;
+                    headerBitCount[eLink] = 0;
+                    dataBitCount[eLink] = 0;
+                    dataWordCount[eLink] = 0;
 
-                        if (verbose && (eLink == eLinkToDebug)) {
-                            System.out.println("DDD: END OF DATA  elink = " + eLink);
-                        }
+                    if (verbose && (eLink == eLinkToDebug)) {
+                        System.out.println("DDD: END OF DATA  elink = " + eLink);
                     }
                 }
             }
         }
+
+        return bxCount;
+    }
+
+
+    /**
+     * <p>Decode the 4 bits an eLink has in a frame all at once, with the same results
+     * as {@link #decodeBits(int, int, int, SRingRawEvent)}. The shift register takes in
+     * the whole nibble with one table lookup, and a data word which the nibble completes
+     * is read from the register as it was at the bit the word ends on.</p>
+     * <p>
+     * The few nibbles in which there is more to do, those which complete a packet
+     * header or a packet's payload and those looked at while searching for sync,
+     * are decoded one bit at a time.</p>
+     *
+     * @param eLink      eLink (0-27).
+     * @param gFrameWord word of the frame holding the eLink's bits.
+     * @param bxCount    time of the last packet header decoded in this frame.
+     * @param rawEvent   object in which to store complete packets.
+     * @return time of the last packet header decoded in this frame.
+     */
+    private int decodeNibble(int eLink, int gFrameWord, int bxCount, SRingRawEvent rawEvent) {
+
+        if (syncFound[eLink] == 0) {
+            return decodeBits(eLink, gFrameWord, bxCount, rawEvent);
+        }
+
+        int nibble = (gFrameWord >>> ((eLink % 8) * 4)) & 0xF;
+        long reg = shiftReg[eLink];
+
+        if (dataHeader[eLink] == 0) {
+            // Header bits, the next header is complete at 50
+            if (headerBitCount[eLink] >= 46) {
+                return decodeBits(eLink, gFrameWord, bxCount, rawEvent);
+            }
+            shiftReg[eLink] = (reg >>> 4) | NIBBLE_IN[nibble];
+            headerBitCount[eLink] += 4;
+            return bxCount;
+        }
+
+        // Payload bits, a data word is complete every 10
+        int words = dataWordCount[eLink];
+        if (words == numWords[eLink]) {
+            return decodeBits(eLink, gFrameWord, bxCount, rawEvent);
+        }
+
+        int bits = 10 - dataBitCount[eLink];
+        if (bits > 4) {
+            shiftReg[eLink] = (reg >>> 4) | NIBBLE_IN[nibble];
+            dataBitCount[eLink] += 4;
+            return bxCount;
+        }
+
+        if (words + 1 == numWords[eLink]) {
+            // Last word of the payload
+            return decodeBits(eLink, gFrameWord, bxCount, rawEvent);
+        }
+
+        // Register after the word's last bit, bits taken in from the top
+        long wordReg = (reg >>> bits) | ((long) (NIBBLE_REVERSED[nibble] & ((1 << bits) - 1)) << (50 - bits));
+        words++;
+        eLinkDataTemp[eLink].putInt((words << 16) | (int) ((wordReg >>> 40) & 0x3FF));
+        dataWordCount[eLink] = words;
+        dataBitCount[eLink] = 4 - bits;
+        shiftReg[eLink] = (reg >>> 4) | NIBBLE_IN[nibble];
+        return bxCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The number of frames still missing from a full block is known up front,
+     * so frames are decoded in one loop without checking rawEvent after each.
+     */
+    public int decodeFrames(ByteBuffer frames, int maxFrames, SRingRawEvent rawEvent) {
+        int count = Math.min(maxFrames, frames.remaining() / 16);
+        count = Math.min(count, Math.max(0, framesInBlock - (int) rawEvent.getFramesStored()));
+        int pos = frames.position();
+
+        for (int i = 0; i < count; i++, pos += 16) {
+            IDecoder.readFrame(frames, pos, frame);
+            decodeSerial(frame, rawEvent);
+        }
+
+        frames.position(pos);
+        return count;
     }
 
     private boolean matchDataHeader(int eLink, int hadd, int chadd) {
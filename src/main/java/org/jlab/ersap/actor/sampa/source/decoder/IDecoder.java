@@ -18,6 +18,8 @@ package org.jlab.ersap.actor.sampa.source.decoder;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
 import org.jlab.ersap.actor.sampa.EMode;
 
+import java.nio.ByteBuffer;
+
 /**
  */
 public interface IDecoder {
@@ -39,6 +41,26 @@ public interface IDecoder {
      */
     void decodeSerial(int[] gbt_frame, SRingRawEvent rawEvent) throws Exception;
 
+    /**
+     * <p>Decode a number of consecutive frames of streamed data from SAMPA card.
+     * Frames are read, 16 bytes each, starting at the buffer's position and using
+     * the buffer's byte order. The first int of each frame on the wire is word 3
+     * of the frame, the last is word 0. Only whole frames are decoded.</p>
+     *
+     * <p>Decoding stops early once no more data can be stored: in DAS mode when
+     * {@link #isFull()} becomes true, in DSP mode when rawEvent holds a full block.
+     * The buffer's position is advanced past the frames decoded.</p>
+     *
+     * @param frames    buffer of streamed data.
+     * @param maxFrames max number of frames to decode.
+     * @param rawEvent  object from ring buffer for storing data and passing to next ring consumer.
+     * @return number of frames decoded.
+     * @throws Exception thrown if looking for a sync from each stream, but only some are found, while
+     *                   at the same time the storage limit for streamed data has been reached.
+     *                   Thrown only in DAS mode.
+     */
+    int decodeFrames(ByteBuffer frames, int maxFrames, SRingRawEvent rawEvent) throws Exception;
+
     /**
      * Get the number of frames that have been processed by this decoder.
      * @return number of frames that have been processed by this decoder.
@@ -65,5 +87,20 @@ public interface IDecoder {
      */
     int incrementBlockCount();
 
+
+    /**
+     * Read a single frame out of a buffer of streamed data.
+     *
+     * @param frames buffer of streamed data.
+     * @param pos    index of frame's first byte in buffer.
+     * @param gbt_frame array of 4 ints in which to place the frame.
+     */
+    static void readFrame(ByteBuffer frames, int pos, int[] gbt_frame) {
+        gbt_frame[3] = frames.getInt(pos);
+        gbt_frame[2] = frames.getInt(pos + 4);
+        gbt_frame[1] = frames.getInt(pos + 8);
+        gbt_frame[0] = frames.getInt(pos + 12);
+    }
+
 }
 
@@ -0,0 +1,174 @@
+package org.jlab.ersap.actor.sampa.source.generator;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>This class generates a DAS format stream, the inverse of what the DasDecoder parses.</p>
+ *
+ * <p>A frame carries 5 serial streams of 5 bit half-words, 4 half-words of each per frame.
+ * The stream starts with a number of idle frames (all zero), followed by the sync pattern
+ * on all 5 serial streams, followed by samples. Each sample of a serial stream's 16 channels
+ * takes 32 half-words (8 frames): the lower 5 bits, then the upper 5 bits of each channel's
+ * 10 bit ADC value. Serial streams 0-4 carry channels 0-15, 16-31, 32-47, 48-63 and 64-79.</p>
+ */
+public class SDasFrameEncoder implements SFrameEncoder {
+
+    /** Sync pattern, in 5 bit half-words. */
+    private static final byte[] SYNC_PATTERN = {0x15, 0x15, 0xa, 0xa, 0x15, 0x15, 0xa, 0xa, 0x15, 0x15, 0xa,
+            0xa, 0x15, 0x15, 0xa, 0xa, 0x15, 0x15, 0x15, 0x15, 0xa, 0xa,
+            0xa, 0xa, 0x15, 0x15, 0x15, 0x15, 0xa, 0xa, 0xa, 0xa};
+
+    /** Number of channels in a stream. */
+    public static final int CHANNEL_COUNT = 80;
+
+    /** Number of frames taken by one sample of all channels (or the sync pattern). */
+    public static final int FRAMES_PER_SAMPLE = 8;
+
+    /**
+     * Bit j of a half-word spread to bit 4j. The 4 half-words of a serial stream
+     * in one frame are interleaved, the first in the highest bit of each nibble.
+     */
+    private static final int[] SPREAD = new int[32];
+
+    static {
+        for (int v = 0; v < 32; v++) {
+            for (int j = 0; j < 5; j++) {
+                SPREAD[v] |= ((v >>> j) & 1) << (4*j);
+            }
+        }
+    }
+
+    /** Source of ADC samples. */
+    private final SSignalModel model;
+
+    /** Number of idle frames before the sync pattern. */
+    private final int idleFrames;
+
+    /** Current sample of all channels. */
+    private final int[] adc = new int[CHANNEL_COUNT];
+
+    /** Half-words of each serial stream for the current 8 frames. */
+    private final int[][] halfWords = new int[5][4 * FRAMES_PER_SAMPLE];
+
+    /** Number of frames generated. */
+    private long frameCount;
+
+
+    /**
+     * Constructor with 8 idle frames before the sync.
+     * @param model source of ADC samples, must have at least 80 channels.
+     */
+    public SDasFrameEncoder(SSignalModel model) {
+        this(model, 8);
+    }
+
+
+    /**
+     * Constructor.
+     * @param model      source of ADC samples, must have at least 80 channels.
+     * @param idleFrames number of idle frames before the sync pattern.
+     */
+    public SDasFrameEncoder(SSignalModel model, int idleFrames) {
+        this.model = model;
+        this.idleFrames = idleFrames;
+    }
+
+
+    /** {@inheritDoc} */
+    public EMode getSampaType() {return EMode.DAS;}
+
+    /** {@inheritDoc} */
+    public long getFrameCount() {return frameCount;}
+
+    /**
+     * Get the number of frames before the first sample, idle frames and sync included.
+     * @return number of frames before the first sample.
+     */
+    public int getPreambleFrames() {return idleFrames + FRAMES_PER_SAMPLE;}
+
+
+    /** {@inheritDoc} */
+    public void encode(ByteBuffer frames, int count) {
+        for (int i = 0; i < count; i++) {
+            long phase = frameCount++ - idleFrames;
+            if (phase < 0) {
+                frames.putLong(0L).putLong(0L);
+                continue;
+            }
+
+            int frameInSample = (int) (phase % FRAMES_PER_SAMPLE);
+            if (frameInSample == 0) {
+                if (phase == 0) {
+                    fillSync();
+                }
+                else {
+                    fillSample();
+                }
+            }
+
+            // Serial streams start at bits 0, 20, 44, 64 and 88 of the frame
+            int hw = 4*frameInSample;
+            long lo = window(halfWords[0], hw) |
+                      (long) window(halfWords[1], hw) << 20 |
+                      (long) window(halfWords[2], hw) << 44;
+            long hi = window(halfWords[3], hw) |
+                      (long) window(halfWords[4], hw) << 24;
+
+            frames.putInt((int) (hi >>> 32));
+            frames.putInt((int) hi);
+            frames.putInt((int) (lo >>> 32));
+            frames.putInt((int) lo);
+        }
+    }
+
+
+    /**
+     * Get the 20 bits of a frame carrying 4 half-words of a serial stream.
+     * @param halfWords half-words of serial stream.
+     * @param index     index of first of the 4 half-words.
+     * @return 20 bits of frame.
+     */
+    private static int window(int[] halfWords, int index) {
+        return SPREAD[halfWords[index]]     << 3 |
+               SPREAD[halfWords[index + 1]] << 2 |
+               SPREAD[halfWords[index + 2]] << 1 |
+               SPREAD[halfWords[index + 3]];
+    }
+
+
+    /** Put the sync pattern on all serial streams. */
+    private void fillSync() {
+        for (int[] hw : halfWords) {
+            for (int j = 0; j < SYNC_PATTERN.length; j++) {
+                hw[j] = SYNC_PATTERN[j];
+            }
+        }
+    }
+
+
+    /** Put the next sample of all channels on the serial streams. */
+    private void fillSample() {
+        model.nextSamples(adc);
+        for (int s = 0; s < 5; s++) {
+            int[] hw = halfWords[s];
+            for (int chan = 0; chan < 16; chan++) {
+                int value = adc[16*s + chan];
+                hw[2*chan]     = value & 0x1f;
+                hw[2*chan + 1] = value >>> 5;
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package org.jlab.ersap.actor.sampa.source.generator;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>This class generates a DSP format stream, the inverse of what the DspDecoder parses.</p>
+ *
+ * <p>A frame carries 4 bits of each of 28 eLinks. Each eLink is a continuous series
+ * of packets, each a 50 bit header followed by 10 bit data words, sent least significant
+ * bit first. An eLink starts with a sync packet and is kept busy with sync packets
+ * when there's nothing else to send.</p>
+ *
+ * <p>Every sampling window (1000 samples, 2000 frames) each eLink sends a heartbeat packet
+ * and, for each of its 2 or 3 channels with samples above threshold, a data packet.
+ * The data is zero suppressed into clusters of consecutive samples above threshold,
+ * each cluster being the number of samples, the time of the first sample in the window,
+ * then the samples. If an eLink has more data than it can send in a window,
+ * clusters are left out; if it falls a whole window behind, the window's data
+ * packets are dropped.</p>
+ *
+ * <p>The Hamming bits of headers are left 0 (they aren't checked by the decoder),
+ * the parity bits are set.</p>
+ */
+public class SDspFrameEncoder implements SFrameEncoder {
+
+    /** Sync packet header. */
+    private static final long SYNC_HEADER = 0x1555540F00113L;
+
+    /** Bits in a packet header. */
+    private static final int HEADER_BITS = 50;
+
+    /** Number of eLinks. */
+    private static final int ELINKS = 28;
+
+    /** Number of samples in a sampling window. */
+    public static final int SAMPLES_PER_WINDOW = 1000;
+
+    /** Number of frames in a sampling window. */
+    public static final int FRAMES_PER_WINDOW = 2000;
+
+    /** Bits an eLink sends in a sampling window. */
+    private static final int WINDOW_BITS = 4 * FRAMES_PER_WINDOW;
+
+    /** Max data words in a packet. */
+    private static final int MAX_WORDS = 0x3FF;
+
+    /** Bits held by each eLink's queue of bits waiting to be sent. */
+    private static final int QUEUE_BITS = 1 << 15;
+
+    /** The 4 bits of an eLink, first bit sent in the lowest, reversed to put it in the highest. */
+    private static final int[] REVERSE = {0x0, 0x8, 0x4, 0xc, 0x2, 0xa, 0x6, 0xe,
+                                          0x1, 0x9, 0x5, 0xd, 0x3, 0xb, 0x7, 0xf};
+
+    /** Source of ADC samples. */
+    private final SSignalModel model;
+
+    /** Samples above pedestal needed to be kept by zero suppression. */
+    private final int threshold;
+
+    /** Chip address (hadd) of each channel of each eLink. */
+    private final int[][] chipAddress = new int[ELINKS][];
+
+    /** Channel address (chadd) of each channel of each eLink. */
+    private final int[][] channelAddress = new int[ELINKS][];
+
+    /** Index of signal model channel of each channel of each eLink. */
+    private final int[][] modelChannel = new int[ELINKS][];
+
+    /** Current sampling window's samples of each channel. */
+    private final int[][] samples;
+
+    /** Current sample of all channels. */
+    private final int[] adc;
+
+    /** Data words of packet being built. */
+    private final int[] payload = new int[MAX_WORDS];
+
+    /** Queue of bits of each eLink waiting to be sent, as a ring. */
+    private final long[][] queue = new long[ELINKS][QUEUE_BITS / 64];
+
+    /** Number of bits ever put into each eLink's queue. */
+    private final long[] queueIn = new long[ELINKS];
+
+    /** Number of bits ever taken out of each eLink's queue. */
+    private final long[] queueOut = new long[ELINKS];
+
+    /** Number of frames generated. */
+    private long frameCount;
+
+    /** Number of sampling windows generated. */
+    private long windowCount;
+
+    /** Number of data packets dropped or cut short for lack of bandwidth. */
+    private long droppedPackets;
+
+
+    /**
+     * Constructor with a zero suppression threshold of 5 times the noise.
+     * @param model source of ADC samples, must have at least 80 channels.
+     * @param link  which of the FEC's 2 links (0 or 1) this stream is.
+     */
+    public SDspFrameEncoder(SSignalModel model, int link) {
+        this(model, link, (int) Math.ceil(5 * model.getNoise()));
+    }
+
+
+    /**
+     * Constructor.
+     * @param model     source of ADC samples, must have at least 80 channels.
+     * @param link      which of the FEC's 2 links (0 or 1) this stream is.
+     * @param threshold samples above pedestal needed to be kept by zero suppression.
+     */
+    public SDspFrameEncoder(SSignalModel model, int link, int threshold) {
+        this.model = model;
+        this.threshold = (int) Math.round(model.getPedestal()) + threshold;
+        adc = new int[model.getChannelCount()];
+        samples = new int[model.getChannelCount()][SAMPLES_PER_WINDOW];
+
+        // Same mapping of chips and channels to eLinks the decoder checks for
+        int chan = 0;
+        for (int eLink = 0; eLink < ELINKS; eLink++) {
+            int chip, first, count;
+            if (eLink < 11) {
+                chip = (link == 0) ? 0 : 3;
+                first = 3*eLink;
+                count = (eLink == 10) ? 2 : 3;
+            }
+            else if (eLink < 22) {
+                chip = (link == 0) ? 1 : 4;
+                first = 3*(eLink - 11);
+                count = (eLink == 21) ? 2 : 3;
+            }
+            else if (eLink < 27) {
+                // Chip 2 is shared by both links
+                chip = 2;
+                first = 3*(eLink - 22) + ((link == 0) ? 0 : 15);
+                count = 3;
+            }
+            else {
+                chip = 2;
+                first = (link == 0) ? 30 : 31;
+                count = 1;
+            }
+
+            chipAddress[eLink] = new int[count];
+            channelAddress[eLink] = new int[count];
+            modelChannel[eLink] = new int[count];
+            for (int i = 0; i < count; i++) {
+                chipAddress[eLink][i] = chip;
+                channelAddress[eLink][i] = first + i;
+                modelChannel[eLink][i] = chan++;
+            }
+
+            // Each eLink starts with a sync
+            putBits(eLink, SYNC_HEADER, HEADER_BITS);
+        }
+    }
+
+
+    /** {@inheritDoc} */
+    public EMode getSampaType() {return EMode.DSP;}
+
+    /** {@inheritDoc} */
+    public long getFrameCount() {return frameCount;}
+
+    /**
+     * Get the number of data packets dropped or cut short for lack of bandwidth.
+     * @return number of data packets dropped or cut short.
+     */
+    public long getDroppedPackets() {return droppedPackets;}
+
+
+    /** {@inheritDoc} */
+    public void encode(ByteBuffer frames, int count) {
+        int[] gf = new int[4];
+
+        for (int i = 0; i < count; i++) {
+            if (frameCount++ % FRAMES_PER_WINDOW == 0) {
+                fillWindow();
+            }
+
+            gf[0] = gf[1] = gf[2] = gf[3] = 0;
+            for (int eLink = 0; eLink < ELINKS; eLink++) {
+                gf[eLink >>> 3] |= REVERSE[takeNibble(eLink)] << ((eLink & 7) * 4);
+            }
+
+            frames.putInt(gf[3]);
+            frames.putInt(gf[2]);
+            frames.putInt(gf[1]);
+            frames.putInt(gf[0]);
+        }
+    }
+
+
+    /**
+     * Generate the next sampling window and queue its packets on each eLink.
+     */
+    private void fillWindow() {
+        for (int t = 0; t < SAMPLES_PER_WINDOW; t++) {
+            model.nextSamples(adc);
+            for (int c = 0; c < samples.length; c++) {
+                samples[c][t] = adc[c];
+            }
+        }
+
+        int bxCount = (int) ((windowCount++ * SAMPLES_PER_WINDOW) & 0xFFFFF);
+
+        for (int eLink = 0; eLink < ELINKS; eLink++) {
+            int[] channels = modelChannel[eLink];
+
+            // Fallen a whole window behind, so skip this one's data
+            if (queueIn[eLink] - queueOut[eLink] > WINDOW_BITS) {
+                droppedPackets += channels.length;
+                continue;
+            }
+
+            // Heartbeat
+            int budget = WINDOW_BITS - HEADER_BITS;
+            putBits(eLink, header(0, 0, chipAddress[eLink][0], 0x15, bxCount, 0), HEADER_BITS);
+
+            for (int i = 0; i < channels.length; i++) {
+                int maxWords = Math.min(MAX_WORDS, (budget - HEADER_BITS) / 10);
+                int words = suppressZeros(samples[channels[i]], maxWords);
+                if (words == 0) continue;
+
+                int dataParity = 0;
+                for (int w = 0; w < words; w++) {
+                    dataParity ^= Integer.bitCount(payload[w]) & 1;
+                }
+
+                putBits(eLink, header(4, words, chipAddress[eLink][i], channelAddress[eLink][i],
+                                      bxCount, dataParity), HEADER_BITS);
+                for (int w = 0; w < words; w++) {
+                    putBits(eLink, payload[w], 10);
+                }
+                budget -= HEADER_BITS + 10*words;
+            }
+        }
+    }
+
+
+    /**
+     * Zero suppress a channel's samples into clusters in the payload.
+     * @param data     channel's samples.
+     * @param maxWords max number of words to put in payload.
+     * @return number of words in payload.
+     */
+    private int suppressZeros(int[] data, int maxWords) {
+        int words = 0;
+        int t = 0;
+        while (t < data.length) {
+            if (data[t] <= threshold) {
+                t++;
+                continue;
+            }
+
+            int start = t;
+            while (t < data.length && data[t] > threshold) t++;
+            int length = t - start;
+
+            if (words + 2 + length > maxWords) {
+                droppedPackets++;
+                break;
+            }
+
+            payload[words++] = length;
+            payload[words++] = start;
+            for (int i = start; i < t; i++) {
+                payload[words++] = data[i];
+            }
+        }
+        return words;
+    }
+
+
+    /**
+     * Build a packet header.
+     *
+     * @param pkt        packet type (0 heartbeat, 4 normal data).
+     * @param numWords   number of 10 bit data words following the header.
+     * @param hadd       chip address.
+     * @param chadd      channel address.
+     * @param bxCount    time of start of sampling window.
+     * @param dataParity parity of the data words.
+     * @return header.
+     */
+    private static long header(int pkt, int numWords, int hadd, int chadd, int bxCount, int dataParity) {
+        long h = ((long) pkt << 7) | ((long) numWords << 10) | ((long) hadd << 20) |
+                 ((long) chadd << 24) | ((long) bxCount << 29) | ((long) dataParity << 49);
+        // Header parity over all bits (Hamming bits being 0)
+        return h | ((long) (Long.bitCount(h) & 1) << 6);
+    }
+
+
+    /**
+     * Queue bits to be sent on an eLink.
+     * @param eLink eLink number.
+     * @param bits  bits to send, first in the lowest bit.
+     * @param count number of bits, at most 64.
+     */
+    private void putBits(int eLink, long bits, int count) {
+        long[] q = queue[eLink];
+        int pos = (int) (queueIn[eLink] & (QUEUE_BITS - 1));
+        int index = pos >>> 6;
+        int offset = pos & 63;
+
+        // Words are always started fresh, so overwrite rather than OR into old data
+        if (offset == 0) {
+            q[index] = bits;
+        }
+        else {
+            q[index] |= bits << offset;
+        }
+        if (offset + count > 64) {
+            q[(index + 1) & (q.length - 1)] = bits >>> (64 - offset);
+        }
+        queueIn[eLink] += count;
+    }
+
+
+    /**
+     * Take the next 4 bits to send on an eLink, adding a sync packet if there's nothing else to send.
+     * @param eLink eLink number.
+     * @return next 4 bits, first in the lowest bit.
+     */
+    private int takeNibble(int eLink) {
+        if (queueIn[eLink] - queueOut[eLink] < 4) {
+            putBits(eLink, SYNC_HEADER, HEADER_BITS);
+        }
+        int pos = (int) (queueOut[eLink] & (QUEUE_BITS - 1));
+        queueOut[eLink] += 4;
+        return (int) (queue[eLink][pos >>> 6] >>> (pos & 63)) & 0xF;
+    }
+}
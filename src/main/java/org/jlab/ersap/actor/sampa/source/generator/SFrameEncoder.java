@@ -0,0 +1,45 @@
+package org.jlab.ersap.actor.sampa.source.generator;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * This interface allows for generating 2 different formats of data,
+ * DSP and DAS, as it comes from the SAMPA board through treadout.
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+
+import java.nio.ByteBuffer;
+
+/**
+ */
+public interface SFrameEncoder {
+
+    /**
+     * Get the type of data this encoder generates.
+     * @return type of data this encoder generates.
+     */
+    EMode getSampaType();
+
+    /**
+     * Write the next frames of the stream, 16 bytes each, at the buffer's position.
+     * As treadout sends them, the first int of each frame is word 3 of the frame,
+     * the last is word 0. The buffer must be little endian.
+     *
+     * @param frames buffer to write frames into.
+     * @param count  number of frames to write.
+     */
+    void encode(ByteBuffer frames, int count);
+
+    /**
+     * Get the number of frames generated so far.
+     * @return number of frames generated so far.
+     */
+    long getFrameCount();
+}
@@ -0,0 +1,253 @@
+package org.jlab.ersap.actor.sampa.source.generator;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.jlab.ersap.actor.sampa.EMode.DAS;
+import static org.jlab.ersap.actor.sampa.EMode.DSP;
+
+/**
+ * <p>This class stands in for treadout and the SAMPA front end cards, so the
+ * receive/decode/aggregate pipeline can be run and loaded without hardware.
+ * It generates any number of concurrent DAS or DSP streams, each in its own thread,
+ * sent over TCP to receivers or written into files.</p>
+ *
+ * <p>Streams are numbered from 0. In DSP mode, even numbered streams are the first
+ * link of a FEC and odd numbered ones the second, as treadout sends them.</p>
+ */
+public class SGenerator {
+
+    /** Type of data generated. */
+    private final EMode EMode;
+
+    /** Shape of the channels' signals. */
+    private final SSignalModel.Waveform waveform;
+
+    /** Frames per second of each stream, 0 for as fast as possible. */
+    private final double frameRate;
+
+    /** Number of frames of each stream before quitting, 0 for no limit. */
+    private final long frameLimit;
+
+    /** Random number seed of first stream, the others' follow. */
+    private final long seed;
+
+    /** Generator of each stream. */
+    private final List<SStreamGenerator> streams = new ArrayList<>();
+
+
+    /**
+     * Constructor.
+     *
+     * @param EMode      type of data to generate.
+     * @param waveform   shape of the channels' signals.
+     * @param frameRate  frames per second of each stream, 0 for as fast as possible.
+     * @param frameLimit number of frames of each stream before quitting, 0 for no limit.
+     * @param seed       random number seed.
+     */
+    public SGenerator(EMode EMode, SSignalModel.Waveform waveform,
+                      double frameRate, long frameLimit, long seed) {
+        this.EMode = EMode;
+        this.waveform = waveform;
+        this.frameRate = frameRate;
+        this.frameLimit = frameLimit;
+        this.seed = seed;
+    }
+
+
+    /**
+     * Create the frame source of a stream.
+     * @param streamId stream number.
+     * @return frame source.
+     */
+    private SFrameEncoder createEncoder(int streamId) {
+        SSignalModel model = new SSignalModel(waveform, SDasFrameEncoder.CHANNEL_COUNT, seed + streamId);
+        if (EMode.isDSP()) {
+            return new SDspFrameEncoder(model, streamId % 2);
+        }
+        return new SDasFrameEncoder(model);
+    }
+
+
+    /**
+     * Start sending one stream to each of the given ports.
+     * @param host  host of receivers.
+     * @param ports TCP port of each stream's receiver.
+     */
+    public void startTcp(String host, List<Integer> ports) {
+        for (int port : ports) {
+            int id = streams.size();
+            streams.add(new SStreamGenerator(id, createEncoder(id), host, port, frameRate, frameLimit));
+        }
+        for (SStreamGenerator stream : streams) {
+            stream.start();
+        }
+    }
+
+
+    /**
+     * Start writing streams into files named prefix_0.bin, prefix_1.bin, etc.
+     * @param prefix      path and start of file names.
+     * @param streamCount number of streams.
+     */
+    public void startFiles(String prefix, int streamCount) {
+        for (int id = 0; id < streamCount; id++) {
+            Path file = Paths.get(prefix + "_" + id + ".bin");
+            streams.add(new SStreamGenerator(id, createEncoder(id), file, frameRate, frameLimit));
+        }
+        for (SStreamGenerator stream : streams) {
+            stream.start();
+        }
+    }
+
+
+    /**
+     * Get the generator of each stream.
+     * @return generator of each stream.
+     */
+    public List<SStreamGenerator> getStreams() {return streams;}
+
+
+    /**
+     * Get the number of frames sent by all streams.
+     * @return number of frames sent by all streams.
+     */
+    public long getFramesSent() {
+        long frames = 0;
+        for (SStreamGenerator stream : streams) {
+            frames += stream.getFramesSent();
+        }
+        return frames;
+    }
+
+
+    /**
+     * Is any stream still sending?
+     * @return true if any stream is still sending.
+     */
+    public boolean isAlive() {
+        for (SStreamGenerator stream : streams) {
+            if (stream.isAlive()) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Print each stream's frame count and how far behind its rate it is.
+     */
+    public void printStats() {
+        for (int i = 0; i < streams.size(); i++) {
+            SStreamGenerator stream = streams.get(i);
+            System.out.print("  stream " + i + ": frames = " + stream.getFramesSent());
+            if (frameRate > 0) {
+                System.out.print(", behind by " + stream.getLagNanos() / 1000 + " us");
+            }
+            if (stream.getEncoder() instanceof SDspFrameEncoder) {
+                System.out.print(", dropped packets = " +
+                        ((SDspFrameEncoder) stream.getEncoder()).getDroppedPackets());
+            }
+            System.out.println();
+        }
+    }
+
+
+    /**
+     * Stop all streams.
+     */
+    public void close() {
+        for (SStreamGenerator stream : streams) {
+            stream.exit();
+        }
+    }
+
+
+    /**
+     * Main method. Arguments are:
+     * <ol>
+     * <li>das or dsp
+     * <li>number of streams
+     * <li>host:port of first stream's receiver (the others follow on sequential ports),
+     *     or path and start of names of files to write
+     * <li>optional: frames per second of each stream, 0 (default) for as fast as possible
+     * <li>optional: number of frames of each stream, 0 (default) for no limit
+     * <li>optional: pedestal, pulses (default) or ramp
+     * <li>optional: random number seed
+     * </ol>
+     * @param args array of args.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: SGenerator <das|dsp> <streams> <host:port | file prefix> " +
+                    "[frames/sec] [frames] [pedestal|pulses|ramp] [seed]");
+            System.exit(-1);
+        }
+
+        EMode sampaType = args[0].equalsIgnoreCase("dsp") ? DSP : DAS;
+        int streamCount = Integer.parseInt(args[1]);
+        String destination = args[2];
+        double frameRate = (args.length > 3) ? Double.parseDouble(args[3]) : 0;
+        long frameLimit = (args.length > 4) ? Long.parseLong(args[4]) : 0;
+
+        SSignalModel.Waveform waveform = SSignalModel.Waveform.PULSES;
+        if (args.length > 5) {
+            waveform = SSignalModel.Waveform.getWaveform(args[5]);
+            if (waveform == null) {
+                System.out.println("Unknown waveform " + args[5]);
+                System.exit(-1);
+            }
+        }
+        long seed = (args.length > 6) ? Long.parseLong(args[6]) : 1;
+
+        SGenerator generator = new SGenerator(sampaType, waveform, frameRate, frameLimit, seed);
+
+        int colon = destination.lastIndexOf(':');
+        if (colon > 0) {
+            String host = destination.substring(0, colon);
+            int port = Integer.parseInt(destination.substring(colon + 1));
+            List<Integer> ports = new ArrayList<>();
+            for (int i = 0; i < streamCount; i++) {
+                ports.add(port + i);
+            }
+            generator.startTcp(host, ports);
+        }
+        else {
+            generator.startFiles(destination, streamCount);
+        }
+
+        // Print the rate every few seconds until done
+        long lastFrames = 0;
+        long lastTime = System.nanoTime();
+        while (generator.isAlive()) {
+            try {
+                Thread.sleep(5000);
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            long frames = generator.getFramesSent();
+            long now = System.nanoTime();
+            double rate = (frames - lastFrames) * 1.0e9 / (now - lastTime) / streamCount;
+            System.out.printf("SGenerator: %.3g frames/sec per stream, %.1f MB/sec total%n",
+                    rate, 16 * rate * streamCount / 1.0e6);
+            generator.printStats();
+            lastFrames = frames;
+            lastTime = now;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.jlab.ersap.actor.sampa.source.generator;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.util.Random;
+
+/**
+ * <p>This class generates the ADC samples of the channels of one SAMPA stream.
+ * Each channel has its own pedestal (a few counts apart) with gaussian noise on top.
+ * Optionally, pulses with a CR-RC shape are added at random times,
+ * or channels just count up so decoded data is easy to check.</p>
+ *
+ * <p>Noise is looked up in a table of gaussian values, so samples
+ * can be generated faster than any receiver decodes them.</p>
+ */
+public class SSignalModel {
+
+    /** Shape of the channels' signals. */
+    public enum Waveform {
+        /** Pedestal and noise. */
+        PEDESTAL,
+        /** Pedestal, noise and random pulses. */
+        PULSES,
+        /** Each channel counts up by one every sample, starting at 7 x channel number. */
+        RAMP;
+
+        /**
+         * Get the waveform of a given name, ignoring case.
+         * @param name name of waveform.
+         * @return waveform of that name, or null if none.
+         */
+        public static Waveform getWaveform(String name) {
+            for (Waveform w : values()) {
+                if (w.name().equalsIgnoreCase(name)) return w;
+            }
+            return null;
+        }
+    }
+
+    /** Largest 10 bit ADC value. */
+    private static final int MAX_ADC = 0x3FF;
+
+    /** Number of entries in the table of noise values, small enough to stay in L1 cache. */
+    private static final int NOISE_TABLE_SIZE = 1 << 12;
+
+    /** A pulse ends this many shaping times after it starts. */
+    private static final int PULSE_LENGTH = 10;
+
+    /** Shape of channels' signals. */
+    private final Waveform waveform;
+
+    /** Number of channels. */
+    private final int channelCount;
+
+    /** Mean pedestal in ADC counts. */
+    private final double pedestal;
+
+    /** Standard deviation of noise in ADC counts. */
+    private final double noise;
+
+    /** Probability of a pulse starting on a channel in a given sample. */
+    private final double pulseRate;
+
+    /** Mean pulse height above pedestal in ADC counts. */
+    private final double pulseAmplitude;
+
+    /** Shaping time of pulses in samples. */
+    private final double pulseWidth;
+
+    /** Pedestal of each channel. */
+    private final int[] pedestals;
+
+    /** Samples since the pulse on each channel started, -1 if none. */
+    private final int[] pulseTime;
+
+    /** Height of the pulse on each channel. */
+    private final double[] pulseHeight;
+
+    /** Samples until the next pulse starts on each channel. */
+    private final int[] untilPulse;
+
+    /** Shape of a pulse of height 1, by sample. */
+    private final double[] pulseShape;
+
+    /** Table of noise values. */
+    private final int[] noiseTable = new int[NOISE_TABLE_SIZE];
+
+    /** Random numbers for noise table and pulses. */
+    private final Random rand;
+
+    /** State of xorshift random numbers used to pick noise. */
+    private long noiseState;
+
+    /** Number of samples generated for each channel so far. */
+    private long sampleCount;
+
+
+    /**
+     * Constructor with a pedestal of 60 counts, noise of 3 counts and, for pulses,
+     * one pulse in every 2000 samples, 300 counts high and 4 samples shaping time.
+     *
+     * @param waveform     shape of channels' signals.
+     * @param channelCount number of channels.
+     * @param seed         random number seed.
+     */
+    public SSignalModel(Waveform waveform, int channelCount, long seed) {
+        this(waveform, channelCount, 60, 3, 5.0e-4, 300, 4, seed);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param waveform       shape of channels' signals.
+     * @param channelCount   number of channels.
+     * @param pedestal       mean pedestal in ADC counts.
+     * @param noise          standard deviation of noise in ADC counts.
+     * @param pulseRate      probability of a pulse starting on a channel in a given sample.
+     * @param pulseAmplitude mean pulse height above pedestal in ADC counts.
+     * @param pulseWidth     shaping time of pulses in samples.
+     * @param seed           random number seed.
+     */
+    public SSignalModel(Waveform waveform, int channelCount,
+                        double pedestal, double noise,
+                        double pulseRate, double pulseAmplitude, double pulseWidth,
+                        long seed) {
+        this.waveform = waveform;
+        this.channelCount = channelCount;
+        this.pedestal = pedestal;
+        this.noise = noise;
+        this.pulseRate = pulseRate;
+        this.pulseAmplitude = pulseAmplitude;
+        this.pulseWidth = pulseWidth;
+
+        rand = new Random(seed);
+        noiseState = seed | 1L;
+
+        pedestals = new int[channelCount];
+        pulseTime = new int[channelCount];
+        pulseHeight = new double[channelCount];
+        untilPulse = new int[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            pedestals[i] = (int) Math.round(pedestal) + (i % 16) - 8;
+            pulseTime[i] = -1;
+            untilPulse[i] = samplesUntilPulse();
+        }
+
+        // CR-RC shape, peaks one shaping time after the start
+        pulseShape = new double[(int) Math.ceil(PULSE_LENGTH * pulseWidth) + 1];
+        for (int t = 0; t < pulseShape.length; t++) {
+            double x = t / pulseWidth;
+            pulseShape[t] = x * Math.exp(1.0 - x);
+        }
+
+        for (int i = 0; i < NOISE_TABLE_SIZE; i++) {
+            noiseTable[i] = (int) Math.round(noise * rand.nextGaussian());
+        }
+    }
+
+
+    /**
+     * Get the shape of the channels' signals.
+     * @return shape of the channels' signals.
+     */
+    public Waveform getWaveform() {return waveform;}
+
+    /**
+     * Get the number of channels.
+     * @return number of channels.
+     */
+    public int getChannelCount() {return channelCount;}
+
+    /**
+     * Get the mean pedestal in ADC counts.
+     * @return mean pedestal in ADC counts.
+     */
+    public double getPedestal() {return pedestal;}
+
+    /**
+     * Get the standard deviation of noise in ADC counts.
+     * @return standard deviation of noise in ADC counts.
+     */
+    public double getNoise() {return noise;}
+
+    /**
+     * Get the number of samples generated for each channel so far.
+     * @return number of samples generated for each channel so far.
+     */
+    public long getSampleCount() {return sampleCount;}
+
+
+    /**
+     * Generate the next sample of all channels.
+     * @param adc array in which to place the 10 bit ADC value of each channel.
+     */
+    public void nextSamples(int[] adc) {
+        if (waveform == Waveform.RAMP) {
+            for (int i = 0; i < channelCount; i++) {
+                adc[i] = (int) ((sampleCount + 7L*i) & MAX_ADC);
+            }
+            sampleCount++;
+            return;
+        }
+
+        boolean pulses = (waveform == Waveform.PULSES);
+        long r = 0;
+        for (int i = 0; i < channelCount; i++) {
+            // One random number gives the noise of 4 channels
+            if ((i & 3) == 0) r = nextRandom();
+            int value = pedestals[i] + noiseTable[(int) (r >>> (16 * (i & 3))) & (NOISE_TABLE_SIZE - 1)];
+
+            if (pulses && (pulseTime[i] >= 0 || --untilPulse[i] < 0)) {
+                value += pulse(i);
+            }
+
+            adc[i] = Math.max(0, Math.min(MAX_ADC, value));
+        }
+        sampleCount++;
+    }
+
+
+    /**
+     * Get the next xorshift random number.
+     * @return next random number.
+     */
+    private long nextRandom() {
+        noiseState ^= noiseState << 13;
+        noiseState ^= noiseState >>> 7;
+        noiseState ^= noiseState << 17;
+        return noiseState;
+    }
+
+
+    /**
+     * Get the number of samples until the next pulse on a channel,
+     * the time between pulses being exponentially distributed.
+     * @return number of samples until the next pulse.
+     */
+    private int samplesUntilPulse() {
+        if (pulseRate <= 0) return Integer.MAX_VALUE;
+        double samples = Math.log(1.0 - rand.nextDouble()) / Math.log(1.0 - pulseRate);
+        return (int) Math.min(samples, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Get the pulse's contribution to the current sample of a channel
+     * which has a pulse going on or due to start.
+     *
+     * @param channel channel number.
+     * @return pulse height in ADC counts.
+     */
+    private int pulse(int channel) {
+        int t = pulseTime[channel];
+        if (t < 0) {
+            // Start a new pulse
+            t = 0;
+            pulseHeight[channel] = pulseAmplitude * (0.5 + rand.nextDouble());
+            untilPulse[channel] = samplesUntilPulse();
+        }
+
+        pulseTime[channel] = (t + 1 < pulseShape.length) ? t + 1 : -1;
+        return (int) (pulseHeight[channel] * pulseShape[t]);
+    }
+}
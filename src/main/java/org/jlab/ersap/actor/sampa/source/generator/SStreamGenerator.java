@@ -0,0 +1,233 @@
+package org.jlab.ersap.actor.sampa.source.generator;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>This class sends one generated SAMPA stream, as treadout would, either to a
+ * receiver over TCP or into a file which can be read by SFileReaderDecoder or replayed.</p>
+ *
+ * <p>It can go as fast as possible or be paced to a given frame rate. When it can't
+ * keep up with that rate (because the receiver doesn't read fast enough),
+ * the time it has fallen behind is available from {@link #getLagNanos()}.</p>
+ */
+public class SStreamGenerator extends Thread {
+
+    /** Number of frames written at once. */
+    private static final int CHUNK_FRAMES = 4096;
+
+    /** Milliseconds to keep trying to connect to a receiver that isn't listening yet. */
+    private static final int CONNECT_TIMEOUT = 30000;
+
+    /** Data stream id number. */
+    private final int streamId;
+
+    /** Source of frames. */
+    private final SFrameEncoder encoder;
+
+    /** Host of receiver, null if writing a file. */
+    private final String host;
+
+    /** TCP port of receiver. */
+    private final int port;
+
+    /** File to write, null if sending over TCP. */
+    private final Path file;
+
+    /** Frames per second to pace the stream to, 0 for as fast as possible. */
+    private final double frameRate;
+
+    /** Number of frames to send before quitting, 0 for no limit. */
+    private final long frameLimit;
+
+    /** Channel the frames are written to. */
+    private WritableByteChannel channel;
+
+    /** Number of frames sent. */
+    private volatile long framesSent;
+
+    /** Nanoseconds the stream is behind the given frame rate. */
+    private volatile long lagNanos;
+
+    /** Control for this thread termination. */
+    private volatile boolean running = true;
+
+
+    /**
+     * Constructor for sending over TCP.
+     *
+     * @param streamId   data stream id number.
+     * @param encoder    source of frames.
+     * @param host       host of receiver.
+     * @param port       TCP port of receiver.
+     * @param frameRate  frames per second to pace the stream to, 0 for as fast as possible.
+     * @param frameLimit number of frames to send before quitting, 0 for no limit.
+     */
+    public SStreamGenerator(int streamId, SFrameEncoder encoder, String host, int port,
+                            double frameRate, long frameLimit) {
+        this.streamId = streamId;
+        this.encoder = encoder;
+        this.host = host;
+        this.port = port;
+        this.file = null;
+        this.frameRate = frameRate;
+        this.frameLimit = frameLimit;
+    }
+
+
+    /**
+     * Constructor for writing a file.
+     *
+     * @param streamId   data stream id number.
+     * @param encoder    source of frames.
+     * @param file       file to write.
+     * @param frameRate  frames per second to pace the stream to, 0 for as fast as possible.
+     * @param frameLimit number of frames to write before quitting, 0 for no limit.
+     */
+    public SStreamGenerator(int streamId, SFrameEncoder encoder, Path file,
+                            double frameRate, long frameLimit) {
+        this.streamId = streamId;
+        this.encoder = encoder;
+        this.host = null;
+        this.port = 0;
+        this.file = file;
+        this.frameRate = frameRate;
+        this.frameLimit = frameLimit;
+    }
+
+
+    /**
+     * Get the number of frames sent.
+     * @return number of frames sent.
+     */
+    public long getFramesSent() {return framesSent;}
+
+    /**
+     * Get the time this stream is behind its frame rate, 0 if keeping up or not paced.
+     * @return nanoseconds behind the frame rate.
+     */
+    public long getLagNanos() {return lagNanos;}
+
+    /**
+     * Get the source of this stream's frames.
+     * @return source of frames.
+     */
+    public SFrameEncoder getEncoder() {return encoder;}
+
+
+    /**
+     * Open the file or connect to the receiver, retrying while it isn't listening yet.
+     * @throws IOException if error opening file or not able to connect.
+     */
+    private void openChannel() throws IOException {
+        if (file != null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            System.out.println("SAMPA stream generator " + streamId + " writing " + file);
+            return;
+        }
+
+        long giveUp = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try {
+                SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(host, port));
+                socketChannel.socket().setTcpNoDelay(true);
+                channel = socketChannel;
+                System.out.println("SAMPA stream generator " + streamId + " connected to " + host + ":" + port);
+                return;
+            }
+            catch (IOException e) {
+                if (!running || System.currentTimeMillis() > giveUp) throw e;
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException ex) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Wait until the time at which the frames sent so far are due.
+     * @param startNanos time at which sending started.
+     */
+    private void pace(long startNanos) {
+        if (frameRate <= 0) return;
+        long due = startNanos + (long) (framesSent * 1.0e9 / frameRate);
+        long wait = due - System.nanoTime();
+        lagNanos = Math.max(0, -wait);
+        while (wait > 0) {
+            LockSupport.parkNanos(wait);
+            wait = due - System.nanoTime();
+        }
+    }
+
+
+    public void run() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(16 * CHUNK_FRAMES).order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            openChannel();
+            long startNanos = System.nanoTime();
+
+            while (running) {
+                int frames = CHUNK_FRAMES;
+                if (frameLimit > 0) {
+                    frames = (int) Math.min(frames, frameLimit - framesSent);
+                    if (frames < 1) break;
+                }
+
+                buf.clear();
+                encoder.encode(buf, frames);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+
+                framesSent += frames;
+                pace(startNanos);
+            }
+        }
+        catch (IOException e) {
+            if (running) {
+                System.out.println("SAMPA stream generator " + streamId + ": " + e.getMessage());
+            }
+        }
+        finally {
+            try {
+                if (channel != null) channel.close();
+            }
+            catch (IOException e) {}
+        }
+    }
+
+
+    /**
+     * Stop this thread.
+     */
+    public void exit() {
+        running = false;
+        this.interrupt();
+    }
+}
@@ -2,6 +2,7 @@ package org.jlab.ersap.actor.sampa.source.recagg;
 
 import com.lmax.disruptor.*;
 import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.SThreadAffinity;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
 
 import java.util.Arrays;
@@ -37,11 +38,58 @@ public class SAggregator extends Thread {
     private final RingBuffer<SRingRawEvent> outputRingBuffer;
     // Control for the thread termination
     private volatile boolean running = true;
+    // Hand the input events' buffers over to the output event instead of copying them
+    private final boolean zeroCopy;
+    // Lines up DSP blocks by block number, null in DAS mode
+    private final SBlockAligner aligner;
+    // Output events are aggregated again by another aggregator
+    private boolean intermediate;
+    // CPU this thread is pinned to, -1 if it isn't
+    private int cpu = -1;
 
 
     public SAggregator(EMode eMode, RingBuffer<SRingRawEvent>[] ringBuffers,
                        Sequence[] sequences, SequenceBarrier[] barriers,
                        RingBuffer<SRingRawEvent> outputRingBuffer) {
+        this(eMode, ringBuffers, sequences, barriers, outputRingBuffer, false);
+    }
+
+    /**
+     * Constructor.
+     * @param eMode            type of data coming from the input streams.
+     * @param ringBuffers      ring buffers containing events from each input data stream.
+     * @param sequences        consumer ring sequence for each input stream.
+     * @param barriers         ring barrier for consumer of each input stream.
+     * @param outputRingBuffer ring buffer containing aggregated events.
+     * @param zeroCopy         if true, the buffers of the input events are swapped with those
+     *                         of the output event instead of being copied into them
+     *                         (see {@link SRingRawEvent#swapData(SRingRawEvent)}).
+     */
+    public SAggregator(EMode eMode, RingBuffer<SRingRawEvent>[] ringBuffers,
+                       Sequence[] sequences, SequenceBarrier[] barriers,
+                       RingBuffer<SRingRawEvent> outputRingBuffer, boolean zeroCopy) {
+        this(eMode, ringBuffers, sequences, barriers, outputRingBuffer, zeroCopy,
+             SBlockAligner.DEFAULT_WINDOW, SBlockAligner.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     * @param eMode            type of data coming from the input streams.
+     * @param ringBuffers      ring buffers containing events from each input data stream.
+     * @param sequences        consumer ring sequence for each input stream.
+     * @param barriers         ring barrier for consumer of each input stream.
+     * @param outputRingBuffer ring buffer containing aggregated events.
+     * @param zeroCopy         if true, the buffers of the input events are swapped with those
+     *                         of the output event instead of being copied into them
+     *                         (see {@link SRingRawEvent#swapData(SRingRawEvent)}).
+     * @param alignWindow      DSP mode: number of blocks a stream may have queued while
+     *                         waiting for another, see {@link SBlockAligner}.
+     * @param alignTimeoutMillis DSP mode: time to wait for a stream with no block queued, in milliseconds.
+     */
+    public SAggregator(EMode eMode, RingBuffer<SRingRawEvent>[] ringBuffers,
+                       Sequence[] sequences, SequenceBarrier[] barriers,
+                       RingBuffer<SRingRawEvent> outputRingBuffer, boolean zeroCopy,
+                       int alignWindow, long alignTimeoutMillis) {
 
         // Make sure the data is correct. Array sizes must be the same as the number of streams.
         if ((ringBuffers.length != sequences.length) ||
@@ -54,6 +102,7 @@ public class SAggregator extends Thread {
         this.sequences = sequences;
         this.barriers = barriers;
         this.outputRingBuffer = outputRingBuffer;
+        this.zeroCopy = zeroCopy;
 
         this.nextSequences = new long[ringBuffers.length];
         this.availableSequences = new long[ringBuffers.length];
@@ -61,20 +110,50 @@ public class SAggregator extends Thread {
             this.nextSequences[i] = this.sequences[i].get() + 1L;
             this.availableSequences[i] = -1L;
         }
+
+        if (eMode.isDSP()) {
+            aligner = new SBlockAligner(ringBuffers, sequences, outputRingBuffer, zeroCopy,
+                                        alignWindow, alignTimeoutMillis);
+        }
+        else {
+            aligner = null;
+        }
+    }
+
+    /**
+     * Have the output events aggregated again by another aggregator, as in an
+     * {@link SAggregatorTree}, by leaving their buffers as the decoder does
+     * (see {@link SRingRawEvent#prepareForAggregation()}).
+     * Must be called before this thread is started.
+     * @param intermediate if true, output events are aggregated again.
+     */
+    public void setIntermediate(boolean intermediate) {
+        this.intermediate = intermediate;
+        if (aligner != null) {
+            aligner.setIntermediate(intermediate);
+        }
+    }
+
+    /**
+     * Pin this thread to a CPU once started, see {@link SThreadAffinity#pin(int)}.
+     * Must be called before this thread is started.
+     * @param cpu CPU number, -1 to leave this thread unpinned.
+     */
+    public void setCpu(int cpu) {
+        this.cpu = cpu;
+    }
+
+    /**
+     * Get the block aligner, for its counters.
+     * @return block aligner, null in DAS mode.
+     */
+    public SBlockAligner getBlockAligner() {
+        return aligner;
     }
 
     /**
-     * Get events from ring buffers
-     * <p>DSP mode: The assumption is made that on each input stream, blocks arrive in
-     * numerical order with the block number increasing by one in each successive event.
-     * It may be possible that particular members of that sequence are missing, but it
-     * will still be monotonically increasing. Based on that assumption, the logic matches
-     * up data with identical block numbers from each of the N input streams and saves
-     * that together in one event.</p>
-     * <p>
-     * DAS mode: In this mode, there is no reliable clock accompanying the data. It relies
-     * entirely on the sync signal and on not dropping any data in the receiver in assuring
-     * that the given events are from the same time and can be combined.
+     * Get the next event of each input ring buffer and aggregate them (DAS mode).
+     * @throws InterruptedException if thread interrupted.
      */
     private void getEvents()
             throws InterruptedException, AlertException, TimeoutException {
@@ -107,29 +186,35 @@ public class SAggregator extends Thread {
         // Define the max block number
         int max = Arrays.stream(blockNumbers).max().getAsInt();
 
-        if (EMode.isDSP()) {
-            for (int i = 0; i < blockNumbers.length; i++) {
-                while (blockNumbers[i] != max) {
-                    // Dump block and read next from the ring buffer
-                    sequences[i].set(nextSequences[i]++);
-                }
-            }
-            // TODO Get events from all ring buffers again. This time all sequences are aligned.
-            // TODO get events from those ring buffers that are changed
-//            events = getEvents();
-        }
-
         // Get an event placeholder from the ring which holds the aggregated events
         long outSequence = outputRingBuffer.next();
         SRingRawEvent outputItem = outputRingBuffer.get(outSequence);
         outputItem.reset();
 
-        // Set output ring item block number (ignored in DAS)
+        // Set output ring item block number and time (ignored in DAS)
         outputItem.setBlockNumber(max);
+        outputItem.setTime(events[0].getTime());
 
-        outputItem.setData(events[0].getData());
-        for (int i = 1; i < events.length; i++) {
-            outputItem.addData(events[i].getData());
+        if (zeroCopy) {
+            // Input slots are released right after this, taking with them only
+            // buffers whose output event was already released by the consumer
+            for (SRingRawEvent event : events) {
+                outputItem.swapData(event);
+            }
+        }
+        else {
+            outputItem.setData(events[0].getData());
+            for (int i = 1; i < events.length; i++) {
+                outputItem.addData(events[i].getData());
+            }
+            int firstChannel = 0;
+            for (SRingRawEvent event : events) {
+                outputItem.mergeStats(event, firstChannel);
+                firstChannel += event.getChannelCount();
+            }
+        }
+        if (intermediate) {
+            outputItem.prepareForAggregation();
         }
         // Publish
         outputRingBuffer.publish(outSequence);
@@ -149,6 +234,17 @@ public class SAggregator extends Thread {
      * Run this thread.
      */
     public void run() {
+        if (cpu >= 0) {
+            SThreadAffinity.pin(cpu);
+        }
+
+        if (aligner != null) {
+            while (running) {
+                aligner.publishNext();
+            }
+            return;
+        }
+
         try {
             while (running) {
                 getEvents();
@@ -164,6 +260,9 @@ public class SAggregator extends Thread {
      */
     public void exit() {
         running = false;
+        if (aligner != null) {
+            aligner.stop();
+        }
         //this.interrupt();
     }
 
@@ -0,0 +1,218 @@
+package org.jlab.ersap.actor.sampa.source.recagg;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import com.lmax.disruptor.*;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEventFactory;
+import org.jlab.ersap.actor.sampa.source.ring.SWaitStrategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.lmax.disruptor.RingBuffer.createSingleProducer;
+
+/**
+ * <p>Aggregates N SAMPA streams with a tree of {@link SAggregator} threads
+ * instead of a single one, for when one thread can't keep up with many streams.
+ * Each aggregator merges up to fan-in inputs into an intermediate ring, level by
+ * level, until a last one, the root, merges what's left into the output ring.
+ * Streams keep their order, so the output events are laid out just as if a single
+ * aggregator had merged all streams. With a fan-in of 0 or 1, or at least the
+ * number of streams, the root is the only aggregator.</p>
+ *
+ * <p>Intermediate rings hold events of as many streams as their aggregator merges.
+ * Their factories are made by the caller, who can then have them keep statistics
+ * or use off-heap memory like the other rings, see {@link #intermediateStreams(int, int)}.</p>
+ *
+ * <p>For example, 10 streams with a fan-in of 4 take 3 aggregators of 4, 4 and
+ * 2 streams, and the root merges their 3 intermediate rings.</p>
+ */
+public class SAggregatorTree {
+
+    // Aggregators, leaves first, the root last
+    private final ArrayList<SAggregator> aggregators = new ArrayList<>();
+
+
+    /**
+     * Get the number of streams held by the events of each intermediate ring of a tree,
+     * in the order their factories are to be given to the constructor.
+     * @param streams number of input streams.
+     * @param fanIn   most inputs of each aggregator, 0 or 1 for a single aggregator.
+     * @return number of streams of each intermediate ring, empty for a single aggregator.
+     */
+    public static int[] intermediateStreams(int streams, int fanIn) {
+        ArrayList<Integer> rings = new ArrayList<>();
+
+        // Streams of each input of the level being grouped
+        int[] inputs = new int[streams];
+        Arrays.fill(inputs, 1);
+
+        while (fanIn > 1 && inputs.length > fanIn) {
+            int[] groups = new int[(inputs.length + fanIn - 1) / fanIn];
+            for (int i = 0; i < inputs.length; i++) {
+                groups[i / fanIn] += inputs[i];
+            }
+            for (int g = 0; g < groups.length; g++) {
+                // A lone input is passed on to the next level as is
+                if (groupSize(inputs.length, fanIn, g) > 1) {
+                    rings.add(groups[g]);
+                }
+            }
+            inputs = groups;
+        }
+
+        int[] result = new int[rings.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = rings.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * Get the number of inputs of a group of a level.
+     * @param inputs number of inputs of the level.
+     * @param fanIn  most inputs of each group.
+     * @param group  index of group.
+     * @return number of inputs of the group.
+     */
+    private static int groupSize(int inputs, int fanIn, int group) {
+        return Math.min(fanIn, inputs - group * fanIn);
+    }
+
+
+    /**
+     * Constructor.
+     * @param eMode            type of data coming from the input streams.
+     * @param ringBuffers      ring buffers containing events from each input data stream.
+     * @param sequences        consumer ring sequence for each input stream.
+     * @param barriers         ring barrier for consumer of each input stream.
+     * @param outputRingBuffer ring buffer containing aggregated events of all streams.
+     * @param fanIn            most inputs of each aggregator, 0 or 1 for a single aggregator.
+     * @param factories        factory of each intermediate ring, whose events hold
+     *                         {@link #intermediateStreams(int, int)} streams.
+     * @param ringItems        number of events in each intermediate ring.
+     * @param waitStrategy     how the aggregators wait for events of intermediate rings.
+     * @param zeroCopy         if true, buffers are swapped rather than copied,
+     *                         see {@link SRingRawEvent#swapData(SRingRawEvent)}.
+     * @param alignWindow      DSP mode: number of blocks a stream may have queued while
+     *                         waiting for another, see {@link SBlockAligner}.
+     * @param alignTimeoutMillis DSP mode: time to wait for a stream with no block queued, in milliseconds.
+     * @throws IllegalArgumentException if the number of factories doesn't match the tree.
+     */
+    public SAggregatorTree(EMode eMode, RingBuffer<SRingRawEvent>[] ringBuffers,
+                           Sequence[] sequences, SequenceBarrier[] barriers,
+                           RingBuffer<SRingRawEvent> outputRingBuffer, int fanIn,
+                           SRingRawEventFactory[] factories, int ringItems,
+                           SWaitStrategy waitStrategy, boolean zeroCopy,
+                           int alignWindow, long alignTimeoutMillis) {
+
+        if (factories.length != intermediateStreams(ringBuffers.length, fanIn).length) {
+            throw new IllegalArgumentException(factories.length + " factories for a tree of " +
+                    ringBuffers.length + " streams with fan-in " + fanIn);
+        }
+
+        int factory = 0;
+        while (fanIn > 1 && ringBuffers.length > fanIn) {
+            int groups = (ringBuffers.length + fanIn - 1) / fanIn;
+            // Arrays of a generic type can't be created, but all rings are of SRingRawEvent
+            @SuppressWarnings("unchecked")
+            RingBuffer<SRingRawEvent>[] groupRings = (RingBuffer<SRingRawEvent>[]) new RingBuffer<?>[groups];
+            Sequence[] groupSequences = new Sequence[groups];
+            SequenceBarrier[] groupBarriers = new SequenceBarrier[groups];
+
+            for (int g = 0; g < groups; g++) {
+                int from = g * fanIn;
+                int to = from + groupSize(ringBuffers.length, fanIn, g);
+
+                if (to - from == 1) {
+                    groupRings[g] = ringBuffers[from];
+                    groupSequences[g] = sequences[from];
+                    groupBarriers[g] = barriers[from];
+                    continue;
+                }
+
+                groupRings[g] = createSingleProducer(factories[factory++], ringItems, waitStrategy.create());
+                groupSequences[g] = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+                groupBarriers[g] = groupRings[g].newBarrier();
+                groupRings[g].addGatingSequences(groupSequences[g]);
+
+                SAggregator aggregator = new SAggregator(eMode,
+                        Arrays.copyOfRange(ringBuffers, from, to),
+                        Arrays.copyOfRange(sequences, from, to),
+                        Arrays.copyOfRange(barriers, from, to),
+                        groupRings[g], zeroCopy, alignWindow, alignTimeoutMillis);
+                aggregator.setIntermediate(true);
+                aggregators.add(aggregator);
+            }
+
+            ringBuffers = groupRings;
+            sequences = groupSequences;
+            barriers = groupBarriers;
+        }
+
+        aggregators.add(new SAggregator(eMode, ringBuffers, sequences, barriers,
+                                        outputRingBuffer, zeroCopy, alignWindow, alignTimeoutMillis));
+    }
+
+
+    /**
+     * Get the number of aggregator threads.
+     * @return number of aggregator threads.
+     */
+    public int getAggregatorCount() {return aggregators.size();}
+
+
+    /**
+     * Get the aggregator merging into the output ring.
+     * @return root aggregator.
+     */
+    public SAggregator getRoot() {return aggregators.get(aggregators.size() - 1);}
+
+
+    /**
+     * Get an aggregator.
+     * @param index index of aggregator, leaves first, the root last.
+     * @return aggregator.
+     */
+    public SAggregator getAggregator(int index) {return aggregators.get(index);}
+
+
+    /**
+     * Set whether the aggregator threads are daemon threads.
+     * Must be called before they are started.
+     * @param on if true, they are daemon threads.
+     */
+    public void setDaemon(boolean on) {
+        for (SAggregator aggregator : aggregators) {
+            aggregator.setDaemon(on);
+        }
+    }
+
+
+    /** Start all aggregator threads. */
+    public void start() {
+        for (SAggregator aggregator : aggregators) {
+            aggregator.start();
+        }
+    }
+
+
+    /** Stop all aggregator threads. */
+    public void exit() {
+        for (SAggregator aggregator : aggregators) {
+            aggregator.exit();
+        }
+    }
+}
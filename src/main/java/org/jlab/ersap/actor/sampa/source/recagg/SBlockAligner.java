@@ -0,0 +1,355 @@
+package org.jlab.ersap.actor.sampa.source.recagg;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Lines up the DSP blocks of N streams by block number and aggregates those
+ * with the same number into one event of an output ring.</p>
+ *
+ * <p>Each stream's blocks arrive in increasing order, though some may be missing,
+ * so the events waiting in a stream's input ring, unreleased, act as its window:
+ * the oldest one is the only one which can match the next block to go out.
+ * A block goes out as soon as every stream has either delivered it or moved
+ * past it. If a stream has nothing yet, the block waits for it, but not longer
+ * than a timeout, and not once another stream has a full window of blocks queued
+ * up behind it. Such a block goes out partial: the channels of each missing stream
+ * are left empty and it's marked in {@link SRingRawEvent#getMissingStreams()}.
+ * A block which turns up after its number went out is dropped and counted.</p>
+ *
+ * <p>Input rings are polled rather than waited on, so that one stream which stops
+ * doesn't hold up the others. They must have a single producer, whose cursor is
+ * the last event published. An input may itself hold several streams aggregated
+ * (see {@link SAggregatorTree}), whose missing streams are carried over.</p>
+ */
+public class SBlockAligner {
+
+    /** Default number of blocks a stream may have queued while another is waited for. */
+    public static final int DEFAULT_WINDOW = 64;
+
+    /** Default time to wait for a stream with nothing queued, in milliseconds. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10;
+
+    /** Busy spins while idle before parking between polls. */
+    private static final int SPINS = 30000;
+
+    /** Time parked between polls once done spinning, about one sampling window. */
+    private static final long PARK_NANOS = 50000;
+
+    // Input ring buffers
+    private final RingBuffer<SRingRawEvent>[] ringBuffers;
+    // Input ring sequences
+    private final Sequence[] sequences;
+    // Output RingBuffer
+    private final RingBuffer<SRingRawEvent> outputRingBuffer;
+    // Hand the input events' buffers over to the output event instead of copying them
+    private final boolean zeroCopy;
+
+    /** Number of channels of each input's events. */
+    private final int[] channels;
+
+    /** Missing stream bits of each input's streams, were they all missing. */
+    private final int[] streamMasks;
+
+    /** Index of the first stream of each input. */
+    private final int[] firstStreams;
+
+    /** Output events are aggregated again by another aggregator. */
+    private boolean intermediate;
+
+    /** Sequence of each input ring to look at next. */
+    private final long[] nextSequences;
+
+    /** Oldest event of each stream, null if it has none queued. */
+    private final SRingRawEvent[] heads;
+
+    /** Number of blocks a stream may have queued while another is waited for. */
+    private final int window;
+
+    /** Time to wait for a stream with nothing queued. */
+    private final long timeoutNanos;
+
+    /** Number of the next block to go out, once one has. */
+    private int nextBlock;
+
+    /** Has a block gone out yet? */
+    private boolean started;
+
+    /** Control for the thread termination. */
+    private volatile boolean running = true;
+
+    // Counters, only written by the aggregating thread
+    private volatile long completeBlocks;
+    private volatile long partialBlocks;
+    private volatile long missingBlocks;
+    private volatile long lateBlocks;
+
+
+    /**
+     * Constructor.
+     * @param ringBuffers      ring buffers containing DSP blocks from each input,
+     *                         32 streams at most in all, each with a single producer.
+     * @param sequences        consumer ring sequence for each input stream.
+     * @param outputRingBuffer ring buffer containing aggregated events.
+     * @param zeroCopy         if true, the buffers of the input events are swapped with those
+     *                         of the output event instead of being copied into them.
+     * @param window           number of blocks a stream may have queued while another stream
+     *                         with nothing queued is waited for, at least 1 and less than
+     *                         the size of the input rings.
+     * @param timeoutMillis    time to wait for a stream with nothing queued, in milliseconds.
+     * @throws IllegalArgumentException if more than 32 streams or window &lt; 1.
+     */
+    public SBlockAligner(RingBuffer<SRingRawEvent>[] ringBuffers, Sequence[] sequences,
+                         RingBuffer<SRingRawEvent> outputRingBuffer, boolean zeroCopy,
+                         int window, long timeoutMillis) {
+        // Events of a ring all have the same layout
+        channels = new int[ringBuffers.length];
+        streamMasks = new int[ringBuffers.length];
+        firstStreams = new int[ringBuffers.length];
+        int streams = 0;
+        for (int i = 0; i < ringBuffers.length; i++) {
+            SRingRawEvent event = ringBuffers[i].get(0);
+            channels[i] = event.getChannelCount();
+            firstStreams[i] = streams;
+            streams += event.getStreamCount();
+            if (streams > 32) {
+                throw new IllegalArgumentException("too many streams " + streams);
+            }
+            streamMasks[i] = (-1 >>> (32 - event.getStreamCount())) << firstStreams[i];
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("bad window " + window);
+        }
+        this.ringBuffers = ringBuffers;
+        this.sequences = sequences;
+        this.outputRingBuffer = outputRingBuffer;
+        this.zeroCopy = zeroCopy;
+        this.window = window;
+        timeoutNanos = Math.max(0, timeoutMillis) * 1000000L;
+
+        nextSequences = new long[ringBuffers.length];
+        heads = new SRingRawEvent[ringBuffers.length];
+        for (int i = 0; i < nextSequences.length; i++) {
+            nextSequences[i] = sequences[i].get() + 1L;
+        }
+    }
+
+
+    /**
+     * Have the output events aggregated again by another aggregator
+     * (see {@link SRingRawEvent#prepareForAggregation()}).
+     * Must be called before aligning starts.
+     * @param intermediate if true, output events are aggregated again.
+     */
+    public void setIntermediate(boolean intermediate) {this.intermediate = intermediate;}
+
+
+    /**
+     * Get the number of blocks which went out with all streams.
+     * @return number of complete blocks.
+     */
+    public long getCompleteBlocks() {return completeBlocks;}
+
+    /**
+     * Get the number of blocks which went out with streams missing.
+     * @return number of partial blocks.
+     */
+    public long getPartialBlocks() {return partialBlocks;}
+
+    /**
+     * Get the number of streams' blocks missing from partial blocks.
+     * @return number of missing stream blocks.
+     */
+    public long getMissingBlocks() {return missingBlocks;}
+
+    /**
+     * Get the number of streams' blocks dropped because their number had already gone out.
+     * @return number of blocks dropped.
+     */
+    public long getLateBlocks() {return lateBlocks;}
+
+
+    /**
+     * Is one block number before another? Block numbers may wrap around.
+     * @param a block number.
+     * @param b block number.
+     * @return true if a is before b.
+     */
+    private static boolean before(int a, int b) {return a - b < 0;}
+
+
+    /** Release the oldest event of a stream. */
+    private void release(int stream) {
+        sequences[stream].set(nextSequences[stream]++);
+        heads[stream] = null;
+    }
+
+
+    /**
+     * Find the oldest event of a stream, dropping those too late to go out.
+     * @param stream index of stream.
+     * @return oldest event, or null if none is queued.
+     */
+    private SRingRawEvent head(int stream) {
+        while (heads[stream] == null) {
+            if (ringBuffers[stream].getCursor() < nextSequences[stream]) {
+                return null;
+            }
+            SRingRawEvent event = ringBuffers[stream].get(nextSequences[stream]);
+            if (started && before(event.getBlockNumber(), nextBlock)) {
+                release(stream);
+                lateBlocks++;
+                continue;
+            }
+            heads[stream] = event;
+        }
+        return heads[stream];
+    }
+
+
+    /**
+     * Wait for the next block of all streams and publish it, complete or not.
+     * @return false if stopped before a block could go out.
+     */
+    public boolean publishNext() {
+        long waitStart = 0;
+        int spins = 0;
+
+        while (running) {
+            // The oldest block any stream has
+            int block = 0;
+            boolean any = false;
+            for (int i = 0; i < heads.length; i++) {
+                SRingRawEvent event = head(i);
+                if (event != null && (!any || before(event.getBlockNumber(), block))) {
+                    block = event.getBlockNumber();
+                    any = true;
+                }
+            }
+
+            if (any) {
+                // Streams yet to say whether they have this block,
+                // and the most blocks any other stream has queued
+                boolean waiting = false;
+                long queued = 0;
+                for (int i = 0; i < heads.length; i++) {
+                    if (heads[i] == null) {
+                        waiting = true;
+                    }
+                    else {
+                        queued = Math.max(queued, ringBuffers[i].getCursor() - nextSequences[i] + 1);
+                    }
+                }
+
+                if (!waiting) {
+                    publish(block);
+                    return true;
+                }
+
+                long now = System.nanoTime();
+                if (waitStart == 0) {
+                    waitStart = now;
+                }
+                if (queued >= window || now - waitStart >= timeoutNanos) {
+                    publish(block);
+                    return true;
+                }
+            }
+
+            if (spins < SPINS) {
+                spins++;
+                Thread.onSpinWait();
+            }
+            else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Aggregate the streams' events of a block into an event of the output ring
+     * and release them. The channels of streams without it are left empty.
+     * @param block block number.
+     */
+    private void publish(int block) {
+        long outSequence = outputRingBuffer.next();
+        SRingRawEvent outputItem = outputRingBuffer.get(outSequence);
+        outputItem.reset();
+        outputItem.setBlockNumber(block);
+
+        int missing = 0;
+        int absent = 0;
+        int firstChannel = 0;
+        boolean timed = false;
+
+        for (int i = 0; i < heads.length; i++) {
+            SRingRawEvent event = heads[i];
+            int first = firstChannel;
+            firstChannel += channels[i];
+
+            if (event == null || event.getBlockNumber() != block) {
+                absent |= 1 << i;
+                missing |= streamMasks[i];
+                outputItem.addMissing(channels[i]);
+                continue;
+            }
+            missing |= event.getMissingStreams() << firstStreams[i];
+
+            if (!timed) {
+                outputItem.setTime(event.getTime());
+                timed = true;
+            }
+            if (zeroCopy) {
+                outputItem.swapData(event);
+            }
+            else {
+                outputItem.addData(event.getData());
+                outputItem.mergeStats(event, first);
+            }
+        }
+        outputItem.setMissingStreams(missing);
+        if (intermediate) {
+            outputItem.prepareForAggregation();
+        }
+        outputRingBuffer.publish(outSequence);
+
+        // Input slots are released after handing their buffers over
+        for (int i = 0; i < heads.length; i++) {
+            if ((absent & (1 << i)) == 0) {
+                release(i);
+            }
+        }
+
+        if (missing == 0) {
+            completeBlocks++;
+        }
+        else {
+            partialBlocks++;
+            missingBlocks += Integer.bitCount(missing);
+        }
+        nextBlock = block + 1;
+        started = true;
+    }
+
+
+    /** Stop waiting for blocks. */
+    public void stop() {
+        running = false;
+    }
+}
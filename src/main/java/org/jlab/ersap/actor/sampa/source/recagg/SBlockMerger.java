@@ -0,0 +1,133 @@
+package org.jlab.ersap.actor.sampa.source.recagg;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+
+/**
+ * <p>Merges consecutive blocks of aggregated DSP data into larger events, so the cost
+ * of handling, serializing and sending each event is spread over more data.
+ * Each eLink's packets of a block are appended after those of the blocks before it
+ * (see {@link SRingRawEvent#appendBlock(SRingRawEvent)}), so they stay in time order,
+ * and each packet keeps its own time in its header. A merged event has the block
+ * number and time of its first block, {@link SRingRawEvent#getBlockCount()}
+ * tells how many blocks it holds, and a stream missing from any of them is marked
+ * missing from it, see {@link SRingRawEvent#getMissingStreams()}.</p>
+ *
+ * <p>Blocks are expected one after the other. A block which doesn't follow on from
+ * those being merged, because blocks were dropped or numbering started over, closes
+ * the merged event early and starts the next one. A merged event thus never spans a gap.</p>
+ *
+ * <p>Two events are merged into in turn, so the one handed out is left alone while
+ * the next one is started. It stays valid until the next call to {@link #add(SRingRawEvent)}
+ * or {@link #flush()}.</p>
+ */
+public class SBlockMerger {
+
+    /** Number of blocks in a merged event. */
+    private final int blocks;
+
+    /** Events merged into in turn. */
+    private final SRingRawEvent[] merged = new SRingRawEvent[2];
+
+    /** Index of the event being merged into. */
+    private int current;
+
+
+    /**
+     * Constructor.
+     * @param blocks   number of blocks in a merged event.
+     * @param eMode    type of data, DSP.
+     * @param byteSize number of bytes each buffer of a merged event starts with,
+     *                 they're expanded as needed.
+     * @param streams  number of streams aggregated into each block.
+     * @throws IllegalArgumentException if blocks &lt; 1.
+     */
+    public SBlockMerger(int blocks, EMode eMode, int byteSize, int streams) {
+        if (blocks < 1) {
+            throw new IllegalArgumentException("bad number of blocks to merge " + blocks);
+        }
+        this.blocks = blocks;
+        for (int i = 0; i < merged.length; i++) {
+            merged[i] = new SRingRawEvent(eMode, byteSize, streams, 16);
+        }
+    }
+
+
+    /**
+     * Get the number of blocks in a merged event.
+     * @return number of blocks in a merged event.
+     */
+    public int getBlocks() {return blocks;}
+
+
+    /**
+     * Is a block the one following those merged into an event?
+     * @param event event being merged into.
+     * @param block next block.
+     * @return true if the block's number is the next one.
+     */
+    private static boolean follows(SRingRawEvent event, SRingRawEvent block) {
+        return block.getBlockNumber() == event.getBlockNumber() + event.getBlockCount();
+    }
+
+
+    /**
+     * Move on to the other event and start merging into it.
+     * @return event to merge into.
+     */
+    private SRingRawEvent next() {
+        current ^= 1;
+        merged[current].reset();
+        return merged[current];
+    }
+
+
+    /**
+     * Add the next block.
+     * @param block aggregated block, each buffer holding its data from position to limit.
+     *              Its data is copied, so it can be reused as soon as this returns.
+     * @return merged event if one is complete, else null.
+     */
+    public SRingRawEvent add(SRingRawEvent block) {
+        SRingRawEvent event = merged[current];
+
+        if (event.getBlockCount() > 0 && !follows(event, block)) {
+            // Hand out what's merged so far. It holds fewer than blocks,
+            // so more than 1 are merged and this block alone isn't enough.
+            next().appendBlock(block);
+            return event;
+        }
+
+        event.appendBlock(block);
+        if (event.getBlockCount() >= blocks) {
+            next();
+            return event;
+        }
+        return null;
+    }
+
+
+    /**
+     * Hand out the blocks merged so far, for when no more blocks are coming.
+     * @return merged event, or null if no block is waiting.
+     */
+    public SRingRawEvent flush() {
+        SRingRawEvent event = merged[current];
+        if (event.getBlockCount() == 0) {
+            return null;
+        }
+        next();
+        return event;
+    }
+}
@@ -0,0 +1,110 @@
+package org.jlab.ersap.actor.sampa.source.recagg;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+import com.lmax.disruptor.RingBuffer;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * This class does the same job as {@link SReceiverDecoder} but reads the client's
+ * socket with a blocking NIO channel straight into a large direct buffer which is
+ * then handed to the decoder. No intermediate stream buffers are involved.
+ */
+public class SChannelReceiverDecoder extends SReceiverDecoder {
+
+    /** Socket receive buffer size in bytes, 0 for OS default. */
+    private final int receiveBufferSize;
+
+    /** TCP server channel. */
+    private ServerSocketChannel serverChannel;
+
+    /** Channel connected to the client. */
+    private SocketChannel channel;
+
+
+    /**
+     * Constructor.
+     *
+     * @param sampaPort TCP server port.
+     * @param streamId  data stream id number.
+     * @param ringBuffer disruptor's ring buffer used to pass the data received here on
+     *                   to an aggregator and from there it's passed to a data consumer.
+     * @param streamFrameLimit total number of frames consumed before printing stats and exiting.
+     * @param EMode type of data coming over TCP client's socket.
+     * @param byteSize  size in bytes of each raw event's internal buffer.
+     * @param readBufferSize size in bytes of the direct buffer data is read into,
+     *                       rounded down to a whole number of frames.
+     * @param receiveBufferSize socket receive buffer (SO_RCVBUF) size in bytes, 0 for OS default.
+     */
+    public SChannelReceiverDecoder(int sampaPort,
+                                   int streamId,
+                                   RingBuffer<SRingRawEvent> ringBuffer,
+                                   int streamFrameLimit,
+                                   EMode EMode,
+                                   int byteSize,
+                                   int readBufferSize,
+                                   int receiveBufferSize) {
+
+        super(sampaPort, streamId, ringBuffer, streamFrameLimit, EMode, byteSize,
+              ByteBuffer.allocateDirect(Math.max(16, readBufferSize & ~15)));
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected void openConnection() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        // Set on the listening socket so the accepted one starts out with it
+        // and a large enough TCP window gets negotiated
+        if (receiveBufferSize > 0) {
+            serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+        serverChannel.bind(new InetSocketAddress(sampaPort));
+        System.out.println("SAMPA stream channel receiver is listening on port " + sampaPort);
+
+        channel = serverChannel.accept();
+        channel.configureBlocking(true);
+        System.out.println("SAMPA stream channel receiver connected on port = " + sampaPort +
+                           ", SO_RCVBUF = " + channel.getOption(StandardSocketOptions.SO_RCVBUF));
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected void closeConnection() throws IOException {
+        if (channel != null) channel.close();
+        if (serverChannel != null) serverChannel.close();
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected void readChunk() throws IOException {
+        chunkBuffer.compact();
+        do {
+            if (channel.read(chunkBuffer) < 0) {
+                throw new EOFException();
+            }
+        } while (chunkBuffer.position() < 16);
+        chunkBuffer.flip();
+    }
+}
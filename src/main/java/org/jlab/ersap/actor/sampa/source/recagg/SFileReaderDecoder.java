@@ -24,8 +24,6 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import static org.jlab.ersap.actor.sampa.EMode.DAS;
-
 
 /**
  * This class is designed to read a binary file create by the treadout ALICE program
@@ -44,19 +42,24 @@ public class SFileReaderDecoder {
     private final int streamId;
 
     /**
-     * Buffer used to read a single frame of data.
+     * Number of frames read from the file at once.
+     */
+    private static final int CHUNK_FRAMES = 4096;
+
+    /**
+     * Buffer used to read a chunk of frames. Data from position to limit is yet to be decoded.
      */
-    private final ByteBuffer frameBuffer;
+    private final ByteBuffer chunkBuffer;
 
     /**
-     * Array wrapped by frameBuffer.
+     * Event reused for each call to {@link #getProcess()}.
      */
-    private final byte[] frameArray = new byte[16];
+    private final SRingRawEvent rawEvent;
 
     /**
-     * Int array holding frame data in word form.
+     * Has the end of the file been reached?
      */
-    private final int[] data = new int[4];
+    private boolean endOfFile;
 
     /**
      * Type of data coming from SAMPA board.
@@ -93,8 +96,9 @@ public class SFileReaderDecoder {
         this.streamFrameLimit = streamFrameLimit;
         this.EMode = EMode;
 
-        frameBuffer = ByteBuffer.wrap(frameArray);
-        frameBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        chunkBuffer = ByteBuffer.allocate(16 * CHUNK_FRAMES);
+        chunkBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        chunkBuffer.limit(0);
 
         boolean verbose = false;
 
@@ -108,6 +112,8 @@ public class SFileReaderDecoder {
             isDSP = false;
         }
 
+        rawEvent = new SRingRawEvent(EMode);
+
         try {
             dataInputStream = new DataInputStream(new FileInputStream(fileName));
         } catch (FileNotFoundException e) {
@@ -116,54 +122,60 @@ public class SFileReaderDecoder {
     }
 
     /**
-     * Process one frame of data and place update rawEvent
+     * Read another chunk of data, keeping any partial frame left over from the last one.
      *
-     * @param rawEvent event to update (write data into it if DSP, or track frames if DAS).
+     * @return false if the end of file has been reached with no whole frame left, else true.
      * @throws IOException if error reading data.
      */
-    public void processOneFrame(SRingRawEvent rawEvent) throws IOException {
-        frameBuffer.clear();
-
-        try {
-            // clear gbt_frame: 4, 4-byte words
-            dataInputStream.readFully(frameArray);
-        } catch (IOException j){
-//            j.printStackTrace();
-            System.out.println("End of File");
-            return;
+    private boolean readChunk() throws IOException {
+        chunkBuffer.compact();
+        while (!endOfFile && chunkBuffer.hasRemaining()) {
+            int bytesRead = dataInputStream.read(chunkBuffer.array(), chunkBuffer.position(), chunkBuffer.remaining());
+            if (bytesRead < 0) {
+                System.out.println("End of File");
+                endOfFile = true;
+            }
+            else {
+                chunkBuffer.position(chunkBuffer.position() + bytesRead);
+            }
         }
-        data[3] = frameBuffer.getInt();
-        data[2] = frameBuffer.getInt();
-        data[1] = frameBuffer.getInt();
-        data[0] = frameBuffer.getInt();
-
-//        for (int i=0;i<4; i++) System.out.println(data[i]);
-//        try {
-//            Thread.sleep(1000);
-//        } catch (InterruptedException e) {
-//            throw new RuntimeException(e);
-//        }
+        chunkBuffer.flip();
+        return chunkBuffer.remaining() >= 16;
+    }
 
+    /**
+     * Process frames of data, as many as are read in one chunk, and update rawEvent.
+     *
+     * @param rawEvent  event to update (write data into it if DSP, or track frames if DAS).
+     * @param maxFrames max number of frames to process.
+     * @return number of frames processed, or -1 if the end of file has been reached.
+     * @throws IOException if error reading data.
+     */
+    public int processFrames(SRingRawEvent rawEvent, int maxFrames) throws IOException {
+        if (chunkBuffer.remaining() < 16 && !readChunk()) {
+            return -1;
+        }
 
         try {
-            iDecoder.decodeSerial(data, rawEvent);
+            return iDecoder.decodeFrames(chunkBuffer, maxFrames, rawEvent);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return 0;
     }
 
     public ByteBuffer getProcess() {
         int frameCount = 0;
         ByteBuffer bb = null;
         try {
-            SRingRawEvent rawEvent = new SRingRawEvent(DAS);
                 rawEvent.reset();
 
                 // Fill event with data until it's full or hits the frame limit
                 do {
-
-                    processOneFrame(rawEvent);
-                    frameCount++;
+                    int maxFrames = (streamFrameLimit == 0) ? Integer.MAX_VALUE : streamFrameLimit - frameCount;
+                    int frames = processFrames(rawEvent, maxFrames);
+                    if (frames < 0) break;
+                    frameCount += frames;
                     // In DSP mode, the rawEvent becomes full once "block" number of frames have been stored in it.
                     // In DAS mode, the decoder becomes full when it cannot hold any more raw data bytes and needs
                     // to pass them to the rawEvent.
@@ -12,7 +12,9 @@ package org.jlab.ersap.actor.sampa.source.recagg;
  * @project ersap-sampa
  */
 import com.lmax.disruptor.RingBuffer;
+import org.jlab.ersap.actor.datatypes.DasZeroSuppressor;
 import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.SThreadAffinity;
 import org.jlab.ersap.actor.sampa.source.decoder.DasDecoder;
 import org.jlab.ersap.actor.sampa.source.decoder.DspDecoder;
 import org.jlab.ersap.actor.sampa.source.decoder.IDecoder;
@@ -20,6 +22,7 @@ import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
 
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
@@ -38,18 +41,16 @@ public class SReceiverDecoder extends Thread {
     private DataInputStream dataInputStream;
 
     /** ID number of the data stream. */
-    private final int streamId;
+    protected final int streamId;
 
-    private int sampaPort;
+    /** TCP server port. */
+    protected final int sampaPort;
 
-    /** Buffer used to read a single frame of data. */
-    private final ByteBuffer frameBuffer;
+    /** Number of frames read from the socket at once. */
+    private static final int CHUNK_FRAMES = 4096;
 
-    /** Array wrapped by frameBuffer. */
-    private final byte[] frameArray = new byte[16];
-
-    /** Int array holding frame data in word form. */
-    private final int[] data = new int[4];
+    /** Buffer used to read a chunk of frames. Data from position to limit is yet to be decoded. */
+    protected final ByteBuffer chunkBuffer;
 
     /** Type of data coming from SAMPA board. */
     private final EMode EMode;
@@ -69,6 +70,12 @@ public class SReceiverDecoder extends Thread {
     /** Is the incoming data format DSP? */
     private final boolean isDSP;
 
+    /** Zero suppresses decoded DAS data, null if all values are kept. */
+    private DasZeroSuppressor zeroSuppressor;
+
+    /** CPU this thread is pinned to, -1 if it isn't. */
+    private int cpu = -1;
+
 
     //--------------------------------
     // Disruptor stuff
@@ -99,14 +106,40 @@ public class SReceiverDecoder extends Thread {
                             EMode EMode,
                             int byteSize) {
 
+        this(sampaPort, streamId, ringBuffer, streamFrameLimit, EMode, byteSize,
+             ByteBuffer.allocate(16 * CHUNK_FRAMES));
+    }
+
+
+    /**
+     * Constructor for subclasses which read data into a buffer of their own.
+     *
+     * @param sampaPort TCP server port.
+     * @param streamId  data stream id number.
+     * @param ringBuffer disruptor's ring buffer used to pass the data received here on
+     *                   to an aggregator and from there it's passed to a data consumer.
+     * @param streamFrameLimit total number of frames consumed before printing stats and exiting.
+     * @param EMode type of data coming over TCP client's socket.
+     * @param byteSize  size in bytes of each raw event's internal buffer.
+     * @param chunkBuffer buffer to read data into, must hold at least one frame (16 bytes).
+     */
+    protected SReceiverDecoder(int sampaPort,
+                               int streamId,
+                               RingBuffer<SRingRawEvent> ringBuffer,
+                               int streamFrameLimit,
+                               EMode EMode,
+                               int byteSize,
+                               ByteBuffer chunkBuffer) {
+
         this.sampaPort = sampaPort;
         this.ringBuffer = ringBuffer;
         this.streamId = streamId;
         this.streamFrameLimit = streamFrameLimit;
         this.EMode = EMode;
 
-        frameBuffer = ByteBuffer.wrap(frameArray);
-        frameBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.chunkBuffer = chunkBuffer;
+        chunkBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        chunkBuffer.limit(0);
 
         boolean verbose = false;
 
@@ -122,6 +155,69 @@ public class SReceiverDecoder extends Thread {
         }
     }
 
+    /**
+     * Zero suppress the decoded data of each event before passing it on (DAS mode only).
+     * Must be called before this thread is started.
+     * @param zeroSuppressor suppressor with the thresholds of this stream's channels,
+     *                       or null to keep all values.
+     */
+    public void setZeroSuppressor(DasZeroSuppressor zeroSuppressor) {
+        this.zeroSuppressor = zeroSuppressor;
+    }
+
+
+    /**
+     * Get the zero suppressor.
+     * @return zero suppressor, null if all values are kept.
+     */
+    public DasZeroSuppressor getZeroSuppressor() {return zeroSuppressor;}
+
+
+    /**
+     * Keep watching for sync patterns once synced and resync on loss of sync (DAS mode only),
+     * see {@link DasDecoder#setSyncMonitor(boolean)}.
+     * Must be called before this thread is started.
+     * @param syncMonitor if true, watch for loss of sync.
+     */
+    public void setSyncMonitor(boolean syncMonitor) {
+        if (isDAS) {
+            ((DasDecoder) iDecoder).setSyncMonitor(syncMonitor);
+        }
+    }
+
+
+    /**
+     * Set the number of sampling windows per block (DSP mode only),
+     * see {@link DspDecoder#setNBlock(int)}.
+     * Must be called before this thread is started.
+     * @param nBlock number of sampling windows per block.
+     */
+    public void setNBlock(int nBlock) {
+        if (isDSP) {
+            ((DspDecoder) iDecoder).setNBlock(nBlock);
+        }
+    }
+
+
+    /**
+     * Pin this thread to a CPU once started, see {@link SThreadAffinity#pin(int)}.
+     * Must be called before this thread is started.
+     * @param cpu CPU number, -1 to leave this thread unpinned.
+     */
+    public void setCpu(int cpu) {
+        this.cpu = cpu;
+    }
+
+
+    /**
+     * Get the number of times sync was lost and looked for again.
+     * @return number of times sync was lost, 0 in DSP mode.
+     */
+    public long getSyncLossCount() {
+        return isDAS ? ((DasDecoder) iDecoder).getSyncLossCount() : 0;
+    }
+
+
     /**
      * Get the next available item in ring buffer for writing data.
      *
@@ -144,37 +240,77 @@ public class SReceiverDecoder extends Thread {
 
 
     /**
-     * Process one frame of data and place update rawEvent
-     * @param rawEvent event to update (write data into it if DSP, or track frames if DAS).
+     * Wait for the client to connect.
+     * @throws IOException if error setting up the connection.
+     */
+    protected void openConnection() throws IOException {
+        serverSocket = new ServerSocket(sampaPort);
+        System.out.println("SAMPA stream receiver is listening on port " + sampaPort);
+        Socket socket = serverSocket.accept();
+        System.out.println("SAMPA stream receiver connected on port = " + sampaPort);
+        InputStream input = socket.getInputStream();
+        dataInputStream = new DataInputStream(new BufferedInputStream(input, 65536));
+    }
+
+
+    /**
+     * Close the connection to the client.
+     * @throws IOException if error closing.
+     */
+    protected void closeConnection() throws IOException {
+        dataInputStream.close();
+        serverSocket.close();
+    }
+
+
+    /**
+     * Read another chunk of data, keeping any partial frame left over from the last one.
+     * Blocks until at least one whole frame is available.
      * @throws IOException   if error reading data.
+     * @throws EOFException  if client closed the connection.
      */
-    public void processOneFrame(SRingRawEvent rawEvent) throws IOException {
-        frameBuffer.clear();
+    protected void readChunk() throws IOException {
+        chunkBuffer.compact();
+        do {
+            int bytesRead = dataInputStream.read(chunkBuffer.array(), chunkBuffer.position(), chunkBuffer.remaining());
+            if (bytesRead < 0) {
+                throw new EOFException();
+            }
+            chunkBuffer.position(chunkBuffer.position() + bytesRead);
+        } while (chunkBuffer.position() < 16);
+        chunkBuffer.flip();
+    }
 
-        // clear gbt_frame: 4, 4-byte words
-        dataInputStream.readFully(frameArray);
-        data[3] = frameBuffer.getInt();
-        data[2] = frameBuffer.getInt();
-        data[1] = frameBuffer.getInt();
-        data[0] = frameBuffer.getInt();
+
+    /**
+     * Process frames of data, as many as are read in one chunk, and update rawEvent.
+     * @param rawEvent  event to update (write data into it if DSP, or track frames if DAS).
+     * @param maxFrames max number of frames to process.
+     * @return number of frames processed.
+     * @throws IOException   if error reading data.
+     */
+    public int processFrames(SRingRawEvent rawEvent, int maxFrames) throws IOException {
+        if (chunkBuffer.remaining() < 16) {
+            readChunk();
+        }
 
         try {
-            iDecoder.decodeSerial(data, rawEvent);
+            return iDecoder.decodeFrames(chunkBuffer, maxFrames, rawEvent);
         }
         catch (Exception e) {
             e.printStackTrace();
         }
+        return 0;
     }
 
     public void run() {
+        if (cpu >= 0) {
+            SThreadAffinity.pin(cpu);
+        }
+
         // Connecting to the sampa stream source
         try {
-            serverSocket = new ServerSocket(sampaPort);
-            System.out.println("SAMPA stream receiver is listening on port " + sampaPort);
-            Socket socket = serverSocket.accept();
-            System.out.println("SAMPA stream receiver connected on port = " + sampaPort);
-            InputStream input = socket.getInputStream();
-            dataInputStream = new DataInputStream(new BufferedInputStream(input, 65536));
+            openConnection();
         }
         catch (IOException e) {
             e.printStackTrace();
@@ -192,8 +328,8 @@ public class SReceiverDecoder extends Thread {
 
                 // Fill event with data until it's full or hits the frame limit
                 do {
-                    processOneFrame(rawEvent);
-                    frameCount++;
+                    int maxFrames = (streamFrameLimit == 0) ? Integer.MAX_VALUE : streamFrameLimit - frameCount;
+                    frameCount += processFrames(rawEvent, maxFrames);
 
                     // In DSP mode, the rawEvent becomes full once "block" number of frames have been stored in it.
                     // In DAS mode, the decoder becomes full when it cannot hold any more raw data bytes and needs
@@ -215,6 +351,10 @@ public class SReceiverDecoder extends Thread {
                 }
                 else {
                     ((DasDecoder) iDecoder).transferData(rawEvent);
+                    // Drop what's below threshold before it's aggregated and serialized
+                    if (zeroSuppressor != null) {
+                        rawEvent.zeroSuppress(zeroSuppressor);
+                    }
                     //if (streamId == 2) System.out.println("Transferred str2 at framecount = " + frameCount);
                 }
 
@@ -240,8 +380,7 @@ public class SReceiverDecoder extends Thread {
 
     public void exit() {
         try {
-            dataInputStream.close();
-            serverSocket.close();
+            closeConnection();
         }
         catch (IOException e) {
             e.printStackTrace();
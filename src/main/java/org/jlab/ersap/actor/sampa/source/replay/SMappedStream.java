@@ -0,0 +1,132 @@
+package org.jlab.ersap.actor.sampa.source.replay;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>One recorded SAMPA stream, made of one or more capture files which are
+ * replayed back to back. Files are memory-mapped a window at a time so captures
+ * larger than 2GB (the limit of a single mapping) can be read. Windows are always
+ * a whole number of frames. A partial frame at the end of a file is ignored.</p>
+ *
+ * <p>Windows no longer in use are unmapped whenever the garbage collector
+ * gets to them, there is no explicit unmapping in Java.</p>
+ */
+public class SMappedStream {
+
+    /** Default size in bytes of each mapped window. */
+    public static final long DEFAULT_WINDOW_SIZE = 256L << 20;
+
+    /** Capture files of this stream, in replay order. */
+    private final Path[] files;
+
+    /** Size in bytes of each mapped window, a multiple of 16. */
+    private final long windowSize;
+
+    /** Index into files of the file currently being read. */
+    private int fileIndex = -1;
+
+    /** Channel of the file currently being read. */
+    private FileChannel channel;
+
+    /** Size of the file currently being read. */
+    private long fileSize;
+
+    /** Offset in the file of the currently mapped window. */
+    private long windowStart;
+
+    /** Currently mapped window. */
+    private MappedByteBuffer window;
+
+
+    /**
+     * Constructor.
+     * @param files capture files of this stream, in replay order.
+     * @param windowSize size in bytes of each mapped window, rounded down to a whole number of frames.
+     */
+    public SMappedStream(Path[] files, long windowSize) {
+        this.files = files;
+        this.windowSize = Math.max(16, windowSize & ~15L);
+    }
+
+
+    /**
+     * Get the number of whole frames in all files of this stream.
+     * @return number of whole frames in all files of this stream.
+     * @throws IOException if a file cannot be read.
+     */
+    public long getFrameCount() throws IOException {
+        long frames = 0;
+        for (Path file : files) {
+            try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+                frames += fc.size() / 16;
+            }
+        }
+        return frames;
+    }
+
+
+    /**
+     * Get the buffer holding the next frames to replay, with its position at the
+     * next frame and in little endian order. The caller advances the position as
+     * frames are consumed. Maps the next window or opens the next file as needed.
+     *
+     * @return buffer with at least one whole frame remaining, or null if all files are done.
+     * @throws IOException if a file cannot be read.
+     */
+    public ByteBuffer frames() throws IOException {
+        while (window == null || window.remaining() < 16) {
+            long next = (window == null) ? 0 : windowStart + window.position();
+
+            if (channel == null || fileSize - next < 16) {
+                if (channel != null) channel.close();
+                channel = null;
+                window = null;
+                if (++fileIndex >= files.length) {
+                    return null;
+                }
+                channel = FileChannel.open(files[fileIndex], StandardOpenOption.READ);
+                fileSize = channel.size();
+                next = 0;
+                if (fileSize < 16) continue;
+            }
+
+            long length = Math.min(windowSize, (fileSize - next) & ~15L);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, next, length);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = next;
+        }
+        return window;
+    }
+
+
+    /**
+     * Close the file being read.
+     */
+    public void close() {
+        try {
+            if (channel != null) channel.close();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+        window = null;
+    }
+}
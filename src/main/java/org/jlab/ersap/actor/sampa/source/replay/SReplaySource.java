@@ -0,0 +1,297 @@
+package org.jlab.ersap.actor.sampa.source.replay;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.epsci.ersap.base.error.ErsapException;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.SEventSerializer;
+import org.jlab.ersap.actor.sampa.source.decoder.DasDecoder;
+import org.jlab.ersap.actor.sampa.source.decoder.DspDecoder;
+import org.jlab.ersap.actor.sampa.source.decoder.IDecoder;
+import org.jlab.ersap.actor.sampa.source.recagg.SBlockMerger;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>This class replays recorded SAMPA streams (binary files written by the treadout
+ * ALICE program) from memory-mapped files. Each stream is decoded in large slices
+ * straight from the mapped file into an event which is reused from one call to the next.
+ * The events of all streams are then aggregated into one, by handing their
+ * buffers over as {@link org.jlab.ersap.actor.sampa.source.recagg.SAggregator} does it
+ * in zero-copy mode, and serialized.</p>
+ *
+ * <p>Replay can go as fast as possible or be paced to a given frame rate.
+ * The SAMPA link delivers {@link #WALL_CLOCK_FRAME_RATE} frames per second.</p>
+ *
+ * <p>In DSP mode, the number of sampling windows in a block can be set and
+ * consecutive blocks merged into each event, see {@link SBlockMerger}.</p>
+ */
+public class SReplaySource {
+
+    /** Frames per second delivered by a SAMPA link. */
+    public static final double WALL_CLOCK_FRAME_RATE = 40.0e6;
+
+    /** Type of data in the files. */
+    private final EMode EMode;
+
+    /** Recorded streams. */
+    private final SMappedStream[] streams;
+
+    /** Decoder of each stream. */
+    private final IDecoder[] decoders;
+
+    /** Reusable event of each stream. */
+    private final SRingRawEvent[] events;
+
+    /** Reusable event holding all streams' data, ready for reading like the output of the live pipeline. */
+    private final SRingRawEvent aggEvent;
+
+    /** Number of frames of each stream in one event (DAS mode), 0 for as many as the decoder holds. */
+    private final int framesPerEvent;
+
+    /** Frames per second of each stream to pace replay to, 0 for as fast as possible. */
+    private final double frameRate;
+
+    /** Frames of first stream replayed so far. */
+    private long framesReplayed;
+
+    /** Time at which replay started. */
+    private long startNanos;
+
+    /** Merges consecutive blocks into each event (DSP mode), null if not merging. */
+    private SBlockMerger merger;
+
+    /** Serializes events on the calling thread, with their block numbers in DSP mode. */
+    private final SEventSerializer serializer = new SEventSerializer(1);
+
+
+    /**
+     * Constructor.
+     *
+     * @param streams   capture files of each stream, each stream's files in replay order.
+     * @param EMode     type of data in the files.
+     * @param framesPerEvent number of frames of each stream in one event (DAS mode only),
+     *                       0 for as many as the decoder holds. In DSP mode an event is one block.
+     * @param frameRate frames per second of each stream to pace replay to, 0 for as fast as possible.
+     * @param byteSize  size in bytes of each event's internal buffers.
+     * @param windowSize size in bytes of each memory-mapped window of a file.
+     */
+    public SReplaySource(List<Path[]> streams, EMode EMode, int framesPerEvent,
+                         double frameRate, int byteSize, long windowSize) {
+        this.EMode = EMode;
+        this.framesPerEvent = framesPerEvent;
+        this.frameRate = frameRate;
+
+        int count = streams.size();
+        this.streams  = new SMappedStream[count];
+        this.decoders = new IDecoder[count];
+        this.events   = new SRingRawEvent[count];
+
+        for (int i = 0; i < count; i++) {
+            this.streams[i] = new SMappedStream(streams.get(i), windowSize);
+            if (EMode.isDSP()) {
+                decoders[i] = new DspDecoder(false);
+            }
+            else {
+                decoders[i] = new DasDecoder(false, i, byteSize);
+            }
+            events[i] = new SRingRawEvent(EMode, byteSize, false);
+        }
+
+        aggEvent = new SRingRawEvent(EMode, byteSize, count, 16);
+    }
+
+
+    /**
+     * Set the number of sampling windows per block (DSP mode only),
+     * see {@link DspDecoder#setNBlock(int)}. Call before replay starts.
+     * @param nBlock number of sampling windows per block.
+     */
+    public void setNBlock(int nBlock) {
+        if (EMode.isDSP()) {
+            for (IDecoder decoder : decoders) {
+                ((DspDecoder) decoder).setNBlock(nBlock);
+            }
+        }
+    }
+
+
+    /**
+     * Merge consecutive blocks into each event (DSP mode only). Call before replay starts.
+     * @param blocks number of blocks in each event, 1 for no merging.
+     */
+    public void setMergeBlocks(int blocks) {
+        if (EMode.isDSP() && blocks > 1) {
+            merger = new SBlockMerger(blocks, EMode, aggEvent.getBufferSize(), streams.length);
+        }
+        else {
+            merger = null;
+        }
+    }
+
+
+    /**
+     * Get the number of events in the replay (DAS mode), computed from the size of the
+     * first stream's files.
+     * @return number of events in the replay, or Integer.MAX_VALUE if unknown.
+     */
+    public int getEventCount() {
+        if (EMode.isDSP() || framesPerEvent < 1) return Integer.MAX_VALUE;
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, streams[0].getFrameCount() / framesPerEvent);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+
+    /**
+     * Fill a stream's event with the next frames.
+     *
+     * @param stream index of stream.
+     * @return number of frames decoded, which is less than asked for if the stream ended.
+     * @throws Exception if error reading or decoding the stream.
+     */
+    private int fillEvent(int stream) throws Exception {
+        IDecoder decoder = decoders[stream];
+        SRingRawEvent event = events[stream];
+        int frameCount = 0;
+
+        event.reset();
+
+        do {
+            ByteBuffer frames = streams[stream].frames();
+            if (frames == null) break;
+            int maxFrames = (framesPerEvent == 0) ? Integer.MAX_VALUE : framesPerEvent - frameCount;
+            frameCount += decoder.decodeFrames(frames, maxFrames, event);
+        } while ( !((EMode.isDAS() && decoder.isFull()) ||
+                    (EMode.isDSP() && event.isFull())     ||
+                    (EMode.isDAS() && (framesPerEvent != 0) && (frameCount >= framesPerEvent))) );
+
+        if (EMode.isDSP()) {
+            if (event.isFull()) {
+                event.setBlockNumber(decoder.incrementBlockCount());
+            }
+        }
+        else {
+            ((DasDecoder) decoder).transferData(event);
+        }
+        return frameCount;
+    }
+
+
+    /**
+     * Wait until the time at which the frames replayed so far are due.
+     */
+    private void pace() {
+        if (frameRate <= 0) return;
+        long due = startNanos + (long) (framesReplayed * 1.0e9 / frameRate);
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+
+    /**
+     * Get the next event of all streams. When merging blocks, the blocks
+     * merged before the end of any stream is reached make up the last event.
+     * @return event holding data of all streams, or null if the end of any stream is reached.
+     * @throws Exception if error reading or decoding the streams.
+     */
+    public SRingRawEvent getEvent() throws Exception {
+        if (merger == null) {
+            return aggregate();
+        }
+
+        SRingRawEvent event;
+        do {
+            SRingRawEvent block = aggregate();
+            if (block == null) {
+                return merger.flush();
+            }
+            event = merger.add(block);
+        } while (event == null);
+        return event;
+    }
+
+
+    /**
+     * Decode the next frames of all streams and aggregate them.
+     * @return event holding data of all streams, or null if the end of any stream is reached.
+     * @throws Exception if error reading or decoding the streams.
+     */
+    private SRingRawEvent aggregate() throws Exception {
+        if (framesReplayed == 0) {
+            startNanos = System.nanoTime();
+        }
+
+        int frames = 0;
+        for (int i = 0; i < streams.length; i++) {
+            int n = fillEvent(i);
+            if (n == 0) {
+                System.out.println("SReplaySource: end of stream " + i);
+                return null;
+            }
+            if (i == 0) frames = n;
+        }
+        framesReplayed += frames;
+
+        // Stream events are refilled only on the next call, when the
+        // caller is done with this one, so their buffers can be handed over
+        aggEvent.reset();
+        aggEvent.setBlockNumber(events[0].getBlockNumber());
+        aggEvent.setTime(events[0].getTime());
+        for (SRingRawEvent event : events) {
+            aggEvent.swapData(event);
+        }
+
+        pace();
+        return aggEvent;
+    }
+
+
+    /**
+     * Get the next event of all streams, serialized.
+     * @return serialized event, or null if the end of any stream is reached.
+     */
+    public ByteBuffer getProcess() {
+        try {
+            SRingRawEvent event = getEvent();
+            if (event != null) {
+                return serializer.serialize(event);
+            }
+        }
+        catch (ErsapException e) {/* never happen */}
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+
+    /**
+     * Close all files.
+     */
+    public void close() {
+        for (SMappedStream stream : streams) {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.jlab.ersap.actor.sampa.source.ring;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * <p>Off-heap memory from which the channel buffers of ring events are carved,
+ * so that the bulk of the sample data is out of the garbage collector's reach.
+ * Buffers are all the same size and laid out at a fixed stride (rounded up to
+ * a cache line) in direct memory chunks of up to 64MB, as a single direct buffer
+ * can't exceed 2GB anyway. Chunks are allocated as buffers are needed, so memory
+ * is taken in steps as the rings fill up.</p>
+ *
+ * <p>Memory is never given back to the system. This fits ring events, which keep
+ * their buffers for the life of the ring, also when trading them with events of
+ * other rings, so one slab is meant to be shared by all rings of a pipeline and
+ * sized for all their events. A buffer an event no longer needs, because it was
+ * replaced by a larger one, can be given back with {@link #release(ByteBuffer)}
+ * and is handed out again before any new one. Buffers larger than the slab's are
+ * not carved from it. Direct memory is limited by -XX:MaxDirectMemorySize,
+ * which defaults to the max heap size.</p>
+ */
+public class SBufferSlab {
+
+    /** Most bytes in one chunk. */
+    private static final int MAX_CHUNK_BYTES = 1 << 26;
+
+    /** Buffers are aligned to this many bytes. */
+    private static final int ALIGNMENT = 64;
+
+    /** Bytes in each buffer. */
+    private final int bufferSize;
+
+    /** Bytes from the start of one buffer to the next. */
+    private final int stride;
+
+    /** Max number of buffers in one chunk. */
+    private final int buffersPerChunk;
+
+    /** Max number of buffers. */
+    private final long maxBuffers;
+
+    /** Chunks allocated so far. */
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+
+    /** Chunk buffers are currently carved from. */
+    private ByteBuffer chunk;
+
+    /** Number of buffers carved from current chunk. */
+    private int chunkBuffers;
+
+    /** Number of buffers carved. */
+    private long buffers;
+
+    /** Buffers given back, handed out again before new ones are carved. */
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+
+    /**
+     * Constructor. No memory is allocated until the first buffer is.
+     * @param bufferSize number of bytes in each buffer.
+     * @param maxBuffers max number of buffers to hand out.
+     */
+    public SBufferSlab(int bufferSize, long maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        stride = (bufferSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        buffersPerChunk = Math.max(1, MAX_CHUNK_BYTES / stride);
+    }
+
+
+    /**
+     * Get the next buffer of the slab, little endian, with position = 0 and limit = capacity.
+     * @return next buffer, or null if all have been handed out.
+     */
+    public synchronized ByteBuffer allocate() {
+        ByteBuffer buf = free.poll();
+        if (buf != null) {
+            buf.clear();
+            return buf;
+        }
+
+        if (buffers >= maxBuffers) {
+            return null;
+        }
+
+        if (chunk == null || chunkBuffers == chunk.capacity() / stride) {
+            int count = (int) Math.min(buffersPerChunk, maxBuffers - buffers);
+            // Align the start of the chunk's first buffer
+            ByteBuffer mem = ByteBuffer.allocateDirect(count * stride + ALIGNMENT);
+            chunk = mem.alignedSlice(ALIGNMENT);
+            chunks.add(chunk);
+            chunkBuffers = 0;
+        }
+
+        buf = chunk.slice(chunkBuffers * stride, bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        chunkBuffers++;
+        buffers++;
+        return buf;
+    }
+
+
+    /**
+     * Give back a buffer which is no longer used, so it's handed out again.
+     * @param buf buffer from {@link #allocate()}. Direct buffers of the slab's buffer size,
+     *            which only the slab gives out when it has any left, are taken back too;
+     *            any others are ignored.
+     */
+    public synchronized void release(ByteBuffer buf) {
+        if (buf.isDirect() && buf.capacity() == bufferSize) {
+            free.add(buf);
+        }
+    }
+
+
+    /**
+     * Get the number of buffers given back and waiting to be handed out again.
+     * @return number of free buffers.
+     */
+    public synchronized int getFreeCount() {return free.size();}
+
+
+    /**
+     * Get the number of bytes in each buffer.
+     * @return number of bytes in each buffer.
+     */
+    public int getBufferSize() {return bufferSize;}
+
+
+    /**
+     * Get the number of bytes of direct memory allocated so far.
+     * @return number of bytes of direct memory allocated so far.
+     */
+    public synchronized long getAllocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer c : chunks) {
+            bytes += c.capacity();
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Get the number of bytes of direct memory taken once all buffers are handed out.
+     * @return number of bytes of direct memory taken once all buffers are handed out.
+     */
+    public long getMaxBytes() {return maxBuffers * stride;}
+}
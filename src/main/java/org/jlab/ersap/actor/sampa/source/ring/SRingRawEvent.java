@@ -12,6 +12,9 @@ package org.jlab.ersap.actor.sampa.source.ring;
  * @project ersap-sampa
  */
 
+import org.jlab.ersap.actor.datatypes.DasChannelStats;
+import org.jlab.ersap.actor.datatypes.DasSamplePacker;
+import org.jlab.ersap.actor.datatypes.DasZeroSuppressor;
 import org.jlab.ersap.actor.sampa.EMode;
 import org.jlab.ersap.actor.sampa.source.decoder.DasDecoder;
 import org.jlab.ersap.actor.sampa.source.decoder.DspDecoder;
@@ -21,6 +24,7 @@ import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * <p>This class implements objects contained in a disruptor's ring buffer.
@@ -46,11 +50,11 @@ import java.nio.charset.StandardCharsets;
  * The period is called the sample window and equates to 50 us when sampling at 20 MHz.
  * This corresponds to 2000 frames of the 4.8 Gb/s data stream. We define a BLOCK of packets
  * to be the set of all packets collected during N_BLOCK consecutive sampling windows.
- * N_BLOCK is programmable (see below for current val). A BLOCK HEADER is written to a file followed
+ * N_BLOCK is programmable (see {@link DspDecoder#setNBlock(int)}). A BLOCK HEADER is written to a file followed
  * by all the packet data of the BLOCK. For N_BOCK = 10, the BLOCK represents 500 us of time,
  * so the file written is time-ordered to this level".</p>
  *
- * <p>What does that mean for memory? Currently:<br>
+ * <p>What does that mean for memory? By default:<br>
  * <code>DspDecoder.N_BLOCK = 1;
  * DspDecoder.frames_in_block = 2000 * N_BLOCK = 2000 frames/block;</code>
  * It's not possible to do an exact calculation because of zero suppression but
@@ -66,13 +70,42 @@ import java.nio.charset.StandardCharsets;
  * <p>Finally, let's just say each array = 131072 bytes. DSP mode uses 28, DAS mode uses 80 of them.
  * If 16 of these exist, 131072*80*16 = 167MB total memory used in ring buffer.
  * 131072 * 80 &lt; 11 MB total allocated in this object.
- * If this event is used for aggregating, double the memory numbers.</p>
+ * If this event is used for aggregating, multiply the memory numbers by the number of streams.</p>
+ *
+ * <p>Buffers are only allocated once they're first used, so a ring of these
+ * takes next to no memory until data starts flowing through it.
+ * They may be carved out of off-heap memory shared by all events of a ring,
+ * see {@link SBufferSlab}, in which case they're direct and not array-backed.</p>
+ *
+ * <p>In DAS mode, ADC values may instead be stored packed into 10 or 12 bits
+ * (see {@link DasSamplePacker}), which shrinks each buffer to 5/8 or 3/4 of the
+ * above while holding the same number of samples.</p>
+ *
+ * <p>In DAS mode, statistics of each channel's ADC values may be kept as the
+ * decoder stores them (see {@link #enableStats()}), sparing a second pass over
+ * the data to calculate them.</p>
+ *
+ * <p>In DAS mode, unpacked ADC values may be zero suppressed once decoded
+ * (see {@link #zeroSuppress(DasZeroSuppressor)}), after which each channel
+ * buffer holds clusters of values instead of all of them.</p>
+ *
+ * <p>In DSP mode, the data of consecutive blocks may be merged into one event
+ * (see {@link #appendBlock(SRingRawEvent)}), each eLink's packets in time order.</p>
  */
 public class SRingRawEvent {
 
-    /** Block number (DSP mode only). */
+    /** Block number (DSP mode only), that of the first block if merged. */
     private int blockNumber;
 
+    /** Number of consecutive blocks merged into this event, 0 if none (DSP mode only). */
+    private int blockCount;
+
+    /** Number of frames in a full block, set by the decoder filling this (DSP mode only). */
+    private int framesInBlock = DspDecoder.FRAMES_PER_WINDOW;
+
+    /** Bit set for each aggregated stream whose data is missing (DSP mode only). */
+    private int missingStreams;
+
     /** Keep track of valid entries in localData. */
     private int validChannels;
 
@@ -85,11 +118,28 @@ public class SRingRawEvent {
     /** Number of channels (and buffers in localData). */
     private int channelCount;
 
+    /** Number of streams whose data this holds. */
+    private final int streams;
+
+    /** Bits each ADC value is stored in, 16 if unpacked (DAS mode only). */
+    private final int sampleBits;
+
+    /** Number of bytes in each internal buffer when allocated. */
+    private final int bufferSize;
+
+    /** Bytes of buffers allocated, shared by all events of a ring, or null. */
+    private final LongAdder allocatedBytes;
+
+    /** Off-heap memory buffers are taken from, or null to allocate them on the heap. */
+    private final SBufferSlab slab;
+
     /**
      * One ByteBuffer for each of 80 channels in DAS mode, 28 available in DSP mode.
-     * In the DAS mode, each contained ADC value is stored in a short.
+     * In the DAS mode, each contained ADC value is stored in a short,
+     * or packed into sampleBits bits.
      * These ByteBuffers will be set to little endian by default since the data
      * from the sampa / trorc boards are little endian.
+     * An entry is null until its buffer is first used.
      */
     private final ByteBuffer[] localData;
 
@@ -109,6 +159,9 @@ public class SRingRawEvent {
     /** Std. dev. of ADC values for each channel (DAS mode only). */
     private double[] sdv;
 
+    /** Running statistics of the ADC values stored in each channel, or null if not kept. */
+    private DasChannelStats stats;
+
 
 
     /**
@@ -129,47 +182,138 @@ public class SRingRawEvent {
      *                       in case we are reading 3 readout cards, each providing 2 streams.
      */
     public SRingRawEvent(EMode type, int byteSize, boolean forAggregation) {
+        this(type, byteSize, forAggregation ? 6 : 1, DasSamplePacker.UNPACKED, null, null);
+    }
+
+
+    /**
+     * Constructor.
+     * @param type the type of data being stored.
+     * @param byteSize number of bytes in each internal buffer if ADC values are stored in shorts.
+     *                 When packing, buffers are shrunk to hold the same number of values.
+     * @param streams number of streams whose data this holds, 1 unless aggregating.
+     * @param sampleBits bits each ADC value is packed into: 10, 12 or 16 (unpacked).
+     *                   Only used in DAS mode.
+     */
+    public SRingRawEvent(EMode type, int byteSize, int streams, int sampleBits) {
+        this(type, byteSize, streams, sampleBits, null, null);
+    }
+
+
+    /**
+     * Constructor.
+     * @param type the type of data being stored.
+     * @param byteSize number of bytes in each internal buffer if ADC values are stored in shorts.
+     *                 When packing, buffers are shrunk to hold the same number of values.
+     * @param streams number of streams whose data this holds, 1 unless aggregating.
+     * @param sampleBits bits each ADC value is packed into: 10, 12 or 16 (unpacked).
+     *                   Only used in DAS mode.
+     * @param allocatedBytes if not null, incremented by the size of each buffer allocated.
+     * @param slab if not null, buffers are taken from this off-heap memory. Those it can't
+     *             provide, such as expanded ones, are allocated as separate direct buffers,
+     *             and the buffer an expanded one replaces goes back to the slab.
+     */
+    SRingRawEvent(EMode type, int byteSize, int streams, int sampleBits,
+                  LongAdder allocatedBytes, SBufferSlab slab) {
         EMode = type;
+        this.allocatedBytes = allocatedBytes;
+        this.slab = slab;
 
-        // If aggregating we need set channels times number of aggregated streams (TODO remove hardcoded value 6)
-        int factor = 1;
-        if (forAggregation) factor = 6;
+        if (!DasSamplePacker.isSupported(sampleBits)) {
+            throw new IllegalArgumentException("unsupported sample bits " + sampleBits);
+        }
+        if (streams < 1) {
+            throw new IllegalArgumentException("bad stream count " + streams);
+        }
+        this.sampleBits = type.isDAS() ? sampleBits : DasSamplePacker.UNPACKED;
+        if (this.sampleBits != DasSamplePacker.UNPACKED) {
+            byteSize = DasSamplePacker.packedSize(byteSize / 2, this.sampleBits);
+        }
+        bufferSize = byteSize;
+        this.streams = streams;
 
-        channelCount = 28*factor;
+        // Channels of each stream times number of aggregated streams
+        channelCount = 28*streams;
 
         if (EMode.isDAS()) {
-            channelCount = 80*factor;
+            channelCount = 80*streams;
             mean = new double[channelCount];
             sdv  = new double[channelCount];
         }
 
         localData = new ByteBuffer[channelCount];
+    }
 
-        for (int i=0; i < channelCount; i++) {
-            localData[i] = ByteBuffer.allocate(byteSize);
-            localData[i].order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Allocate a little endian buffer, from the slab if there is one.
+     * @param size number of bytes in buffer.
+     * @return new buffer.
+     */
+    private ByteBuffer allocate(int size) {
+        if (allocatedBytes != null) {
+            allocatedBytes.add(size);
+        }
+
+        ByteBuffer buf = null;
+        if (slab != null) {
+            if (size == slab.getBufferSize()) {
+                buf = slab.allocate();
+            }
+            if (buf == null) {
+                buf = ByteBuffer.allocateDirect(size);
+            }
+        }
+        else {
+            buf = ByteBuffer.allocate(size);
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+
+    /**
+     * Get an internal buffer, allocating it if this is its first use.
+     * @param index index into localData array of ByteBuffers.
+     * @return buffer.
+     */
+    private ByteBuffer buffer(int index) {
+        ByteBuffer buf = localData[index];
+        if (buf == null) {
+            buf = localData[index] = allocate(bufferSize);
         }
+        return buf;
     }
 
 
     /**
      * Expand a particular ByteBuffer, preserving existing data.
+     * The data up to the buffer's position is copied and the position kept,
+     * so writing can go on in the expanded buffer. With a slab, the expanded buffer
+     * is a separate direct one, being larger than the slab's, and the old one
+     * is given back to the slab for another event to use.
      *
      * @param index index into localData array of ByteBuffers.
      * @param size number of bytes in new buffer.
      * @return buffer of increased size (same buffer if size is &lt;= current size).
      */
     public ByteBuffer expandBuffer(int index, int size) {
-        ByteBuffer temp = localData[index];
+        ByteBuffer temp = buffer(index);
         if (size <= temp.capacity()) {
             return temp;
         }
         // Expand BB by 25% over necessary amount to reduce future reallocations
         size = 5 * size / 4;
-        localData[index] = ByteBuffer.allocate(size);
-        localData[index].order(ByteOrder.LITTLE_ENDIAN);
-        // Copy over existing data, pos = 0 to limit
-        System.arraycopy(temp.array(), 0, localData[index].array(), 0, temp.limit());
+        localData[index] = allocate(size);
+        if (allocatedBytes != null) {
+            allocatedBytes.add(-temp.capacity());
+        }
+        // Copy over existing data, 0 to pos
+        localData[index].put(0, temp, 0, temp.position());
+        localData[index].position(temp.position());
+        if (slab != null) {
+            slab.release(temp);
+        }
         return localData[index];
     }
 
@@ -180,6 +324,63 @@ public class SRingRawEvent {
      */
     public int getChannelCount() {return channelCount;}
 
+    /**
+     * Get the number of streams whose data this holds.
+     * @return number of streams, 1 unless aggregating.
+     */
+    public int getStreamCount() {return streams;}
+
+    /**
+     * Get the number of bytes taken by the internal buffers once all are allocated.
+     * @return number of bytes taken by the internal buffers once all are allocated.
+     */
+    public long getMaxBytes() {return (long) channelCount * bufferSize;}
+
+    /**
+     * Get the number of bytes in each internal buffer when allocated.
+     * @return number of bytes in each internal buffer when allocated.
+     */
+    public int getBufferSize() {return bufferSize;}
+
+    /**
+     * Get the number of bytes taken by the internal buffers allocated so far.
+     * @return number of bytes taken by the internal buffers allocated so far.
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer buf : localData) {
+            if (buf != null) bytes += buf.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the number of bits each ADC value is stored in (DAS mode only).
+     * @return 10 or 12 if packed, 16 if stored in shorts.
+     */
+    public int getSampleBits() {return sampleBits;}
+
+    /**
+     * Get the number of ADC values stored in a channel's buffer (DAS mode only),
+     * assuming its position = 0 and limit = valid bytes.
+     * @param channel channel number.
+     * @return number of ADC values.
+     */
+    public int getSampleCount(int channel) {
+        if (localData[channel] == null) return 0;
+        return DasSamplePacker.sampleCount(localData[channel].limit(), sampleBits);
+    }
+
+    /**
+     * Get a single ADC value of a channel (DAS mode only), whether packed or not.
+     * @param channel channel number.
+     * @param sample  index of ADC value.
+     * @return ADC value.
+     */
+    public int getSample(int channel, int sample) {
+        return DasSamplePacker.getSample(localData[channel], sample, sampleBits);
+    }
+
     /**
      * Get the DSP mode bunch crossing (time) for this block.
      * @return DSP mode bunch crossing (time) for this block.
@@ -192,6 +393,36 @@ public class SRingRawEvent {
      */
     public void setTime(int time) {this.time = time;}
 
+    /**
+     * Keep running statistics of the ADC values stored in each channel from now on
+     * (DAS mode only). They're updated by the decoder and carried along by
+     * {@link #swapData(SRingRawEvent)} and {@link #mergeStats(SRingRawEvent, int)}.
+     */
+    public void enableStats() {
+        if (EMode.isDAS() && stats == null) {
+            stats = new DasChannelStats(channelCount);
+        }
+    }
+
+    /**
+     * Get the running statistics of the ADC values stored in each channel.
+     * @return channel statistics, or null if not kept.
+     */
+    public DasChannelStats getStats() {return stats;}
+
+    /**
+     * Merge the channel statistics of another event into those of this one,
+     * for when its data is copied in rather than swapped.
+     * Nothing is done unless both events keep statistics.
+     * @param event        event whose statistics to merge.
+     * @param firstChannel channel of this event into which the other's first channel merges.
+     */
+    public void mergeStats(SRingRawEvent event, int firstChannel) {
+        if (stats != null && event.stats != null) {
+            stats.merge(event.stats, firstChannel);
+        }
+    }
+
     /**
      * Get the type of sampa data contained in the data buffers.
      * @return type of sampa data contained in the data buffers.
@@ -210,6 +441,33 @@ public class SRingRawEvent {
      */
     public void setBlockNumber(int blockNumber) {this.blockNumber = blockNumber;}
 
+    /**
+     * Get the number of consecutive blocks merged into this event by
+     * {@link #appendBlock(SRingRawEvent)}, starting at its block number (DSP mode only).
+     * @return number of blocks merged, 0 if none.
+     */
+    public int getBlockCount() {return blockCount;}
+
+    /**
+     * Get the streams whose data is missing from this aggregated event (DSP mode only),
+     * their channels being empty, see {@link #addMissing(int)}.
+     * @return bit i set if stream i is missing, 0 if none.
+     */
+    public int getMissingStreams() {return missingStreams;}
+
+    /**
+     * Set the streams whose data is missing from this aggregated event (DSP mode only).
+     * @param missingStreams bit i set if stream i is missing.
+     */
+    public void setMissingStreams(int missingStreams) {this.missingStreams = missingStreams;}
+
+    /**
+     * Set the number of frames in a full block (DSP mode only).
+     * The decoder filling this sets it to its own block size.
+     * @param framesInBlock number of frames in a full block.
+     */
+    public void setFramesInBlock(int framesInBlock) {this.framesInBlock = framesInBlock;}
+
     /**
      * Get the number of frames from which stored data has been taken.
      * @return number of frames from which stored data has been taken.
@@ -219,13 +477,19 @@ public class SRingRawEvent {
     /** Increment the number of frames stored by one. */
     public void incrementFramesStored() {framesStored++;}
 
+    /**
+     * Increment the number of frames stored.
+     * @param frames number of frames to add.
+     */
+    public void addFramesStored(int frames) {framesStored += frames;}
+
     /** Clear the number of frames stored. */
     public void clearFramesStored() {framesStored = 0;}
 
     /**
      * Is this event full of data?
      * For DSP, is the number of frames stored exactly enough to make
-     * one full block {@link DspDecoder#getFramesInBlock()}?
+     * one full block of the decoder filling this, {@link DspDecoder#getFramesInBlock()}?
      * For DAS, is the number of frames at or over the limit set in
      * {@link DasDecoder#getMaxFramesStored()}?
      *
@@ -233,7 +497,7 @@ public class SRingRawEvent {
      */
     public boolean isFull() {
         if (EMode.isDSP()) {
-            return framesStored >= DspDecoder.getFramesInBlock();
+            return framesStored >= framesInBlock;
         }
         else {
             return framesStored >= DasDecoder.getMaxFramesStored();
@@ -241,10 +505,15 @@ public class SRingRawEvent {
     }
 
     /**
-     * Get the internal array of ByteBuffers.
+     * Get the internal array of ByteBuffers, allocating those not used yet.
      * @return internal array of ByteBuffers.
      */
-    public ByteBuffer[] getData() {return localData;}
+    public ByteBuffer[] getData() {
+        for (int i=0; i < channelCount; i++) {
+            buffer(i);
+        }
+        return localData;
+    }
 
     /**
      * <p>Set up each of the ByteBuffers containing data for relative reading from its beginning.
@@ -283,7 +552,7 @@ public class SRingRawEvent {
      *               For DAS mode, it's the channel number from which this data came (0-79).
      * @return ByteBuffer to store data in.
      */
-    public ByteBuffer getBuffer(int index) {return localData[index];}
+    public ByteBuffer getBuffer(int index) {return buffer(index);}
 
     /**
      * <p>Copy the data of an array of ByteBuffers into an internal array of the same.
@@ -328,13 +597,14 @@ public class SRingRawEvent {
 
             // Need to actually copy the data here since the data in the arg
             // will change as soon as it reads more from the source.
-            // This should be much faster than using Vectors or ArrayLists element by element
+            // This should be much faster than using Vectors or ArrayLists element by element.
+            // Absolute bulk copies work for heap and direct buffers alike.
 
 //            System.out.println("setData: buf #" + i + ": data pos = " + data[i].position() + ", lim = " + data[i].limit() +
 //                    ", copy " + data[i].position() + " bytes, but remaining = " + data[i].remaining());
 
             int bytes = data[i].position();
-            System.arraycopy(data[i].array(), 0, localData[i].array(), 0, bytes);
+            buffer(i).put(0, data[i], 0, bytes);
             localData[i].limit(bytes);
             validChannels++;
         }
@@ -386,7 +656,7 @@ public class SRingRawEvent {
                 }
 
                 int bytes = data[i].position();
-                System.arraycopy(data[i].array(), 0, localData[validChannels].array(), 0, bytes);
+                buffer(validChannels).put(0, data[i], 0, bytes);
                 localData[validChannels].limit(bytes);
                 validChannels++;
             }
@@ -395,15 +665,164 @@ public class SRingRawEvent {
 
 
 
+    /**
+     * <p>Move the data of another event into this one without copying it. The other
+     * event's buffers are appended to the internal array of buffers, in its place,
+     * and in exchange the other event gets the buffers they replace, cleared.
+     * Each buffer thus always belongs to exactly one event, and a buffer handed
+     * back to the other event is one this event was done with. If this event
+     * has not allocated a buffer yet, the other event allocates one when it needs it.
+     * Excess buffers (when internal array is full) of the other event are left alone.</p>
+     *
+     * <p><b>As with {@link #addData(ByteBuffer[])}, each buffer of the other event must
+     * have its position set just past the valid data. Buffers taken over are set up
+     * so that pos = 0 and lim = valid bytes.</b></p>
+     *
+     * @param event event whose data to take over.
+     */
+    public void swapData(SRingRawEvent event) {
+        if (validChannels >= channelCount) {
+            System.out.println("SRingRawEvent: Error, RingBuffer data array limit reached.");
+            return;
+        }
+
+        int bufferEntries = Math.min(event.channelCount, (channelCount - validChannels));
+        mergeStats(event, validChannels);
+
+        for (int i = 0; i < bufferEntries; i++) {
+            ByteBuffer in  = event.buffer(i);
+            ByteBuffer out = localData[validChannels];
+
+            in.flip();
+            if (out != null) {
+                out.clear();
+            }
+
+            localData[validChannels] = in;
+            event.localData[i] = out;
+            validChannels++;
+        }
+    }
+
+
+    /**
+     * Set up each buffer of an aggregated event as the decoder leaves them, with the position
+     * just past the valid data and the limit at the capacity, so this event can in turn be
+     * aggregated with others (see {@link #swapData(SRingRawEvent)}). This undoes setting
+     * pos = 0 and lim = valid bytes when aggregating.
+     */
+    public void prepareForAggregation() {
+        for (int i = 0; i < validChannels; i++) {
+            ByteBuffer buf = localData[i];
+            if (buf != null) {
+                buf.position(buf.limit()).limit(buf.capacity());
+            }
+        }
+    }
+
+
+    /**
+     * Leave the next channels empty, in place of those of a stream missing
+     * from an aggregated event. Buffers are set so that pos = lim = 0.
+     * @param channels number of channels.
+     */
+    public void addMissing(int channels) {
+        int end = Math.min(channelCount, validChannels + channels);
+        for (; validChannels < end; validChannels++) {
+            buffer(validChannels).clear().limit(0);
+        }
+    }
+
+
+    /**
+     * <p>Append the data of a block after that of the blocks already merged into this
+     * event (DSP mode), eLink by eLink, so each eLink's packets stay in time order.
+     * Each packet keeps its own time in its header. The first block appended after a
+     * {@link #reset()} sets this event's block number and time. It's up to the caller
+     * to only append the block following the last one, see {@link #getBlockCount()}.
+     * A stream missing from any block appended is marked missing from this event.</p>
+     *
+     * <p><b>Each buffer of the block must hold its data from position to limit, as an
+     * aggregated event does. The data is copied, so the block can be reused right after.
+     * Buffers of this event are set up so that pos = 0 and lim = valid bytes.</b></p>
+     *
+     * @param block event holding one block, or blocks merged.
+     */
+    public void appendBlock(SRingRawEvent block) {
+        boolean first = blockCount == 0;
+        if (first) {
+            blockNumber = block.blockNumber;
+            time = block.time;
+        }
+
+        int channels = Math.min(channelCount, block.channelCount);
+        for (int i = 0; i < channels; i++) {
+            ByteBuffer in = block.localData[i];
+            int bytes = (in == null) ? 0 : in.remaining();
+            ByteBuffer out = buffer(i);
+            int at = first ? 0 : out.limit();
+
+            if (at + bytes > out.capacity()) {
+                out.position(at);
+                out = expandBuffer(i, at + bytes);
+            }
+            out.limit(at + bytes);
+            if (bytes > 0) {
+                out.put(at, in, in.position(), bytes);
+            }
+            out.position(0);
+        }
+
+        validChannels = Math.max(validChannels, channels);
+        framesStored += block.framesStored;
+        blockCount += Math.max(1, block.blockCount);
+        missingStreams |= block.missingStreams;
+    }
+
+
+    /**
+     * <p>Zero suppress the ADC values of each channel, replacing them with the clusters
+     * of values kept, see {@link DasZeroSuppressor}. A buffer too small for its clusters,
+     * which can only happen if nearly all values are kept, is expanded.</p>
+     *
+     * <p><b>As with the data coming from the DASDecoder, each buffer must have its
+     * position set just past the valid data, and is left that way.</b></p>
+     *
+     * @param suppressor suppressor with the thresholds of this event's channels.
+     * @throws IllegalStateException if not DAS mode or the values are packed.
+     */
+    public void zeroSuppress(DasZeroSuppressor suppressor) {
+        if (!EMode.isDAS() || sampleBits != DasSamplePacker.UNPACKED) {
+            throw new IllegalStateException("zero suppression needs unpacked DAS data");
+        }
+
+        for (int i = 0; i < channelCount; i++) {
+            ByteBuffer buf = localData[i];
+            if (buf == null) continue;
+
+            int bytes = suppressor.suppress(i, buf);
+            if (bytes > buf.capacity()) {
+                buf = expandBuffer(i, bytes);
+            }
+            suppressor.write(buf);
+        }
+    }
+
+
     /** Clear the buffer stored internally. */
     public void reset() {
         time = 0;
         blockNumber = 0;
+        blockCount = 0;
+        missingStreams = 0;
         framesStored = 0;
         validChannels = 0;
 
         // Not necessary to clear mean & sdv arrays as
         // calling calculateStats() will overwrite everything
+        if (stats != null) {
+            stats.reset();
+        }
 
         for (ByteBuffer buf : localData) {
             if (buf != null) {
@@ -465,7 +884,7 @@ public class SRingRawEvent {
 
         // write vector data for block to output stream
         for (int jj = 0; jj < 28; jj++) {
-            int numData = localData[jj].limit()/4;
+            int numData = (localData[jj] == null) ? 0 : localData[jj].limit()/4;
             writer.print("  eLink = ");
             writer.print(jj);
             writer.print("   num data = ");
@@ -514,14 +933,14 @@ public class SRingRawEvent {
             writer.println(channel);
 
             // How much data do we have?  Assume position = 0.
-            int sampleLimit = localData[channel].limit()/2;
+            int sampleLimit = getSampleCount(channel);
 
             for (int sample = 0; sample < sampleLimit; sample++) {
                 if (hex) {
-                    writer.printf("%3x", localData[channel].getShort(2*sample));
+                    writer.printf("%3x", getSample(channel, sample));
                 }
                 else {
-                    writer.printf("%4d", localData[channel].getShort(2*sample));
+                    writer.printf("%4d", getSample(channel, sample));
                 }
 
                 if ((sample+1) % 10 == 0) {
@@ -555,7 +974,7 @@ public class SRingRawEvent {
         }
 
         // How much data do we have?  How many shorts (samples)? Assume position = 0.
-        int totalSamples = localData[channel].limit()/2;
+        int totalSamples = getSampleCount(channel);
         if (samples < 1) samples = totalSamples;
         int sampleLimit = Math.min(samples, totalSamples);
 
@@ -568,10 +987,10 @@ public class SRingRawEvent {
 
         for (int sample = 0; sample < sampleLimit; sample++) {
             if (hex) {
-                writer.printf("%3x", localData[channel].getShort(2*sample));
+                writer.printf("%3x", getSample(channel, sample));
             }
             else {
-                writer.printf("%4d", localData[channel].getShort(2*sample));
+                writer.printf("%4d", getSample(channel, sample));
             }
 
             if ((sample+1) % 10 == 0) {
@@ -588,16 +1007,27 @@ public class SRingRawEvent {
     }
 
 
-    /** Calculate statistics (DAS mode only). */
+    /**
+     * Calculate statistics (DAS mode only).
+     * If running statistics are kept, they're used instead of going through the data.
+     */
     public void calculateStats() {
         if (EMode.isDSP()) {
             return;
         }
 
+        if (stats != null) {
+            for (int channel = 0; channel < 80; channel++) {
+                mean[channel] = stats.getMean(channel);
+                sdv[channel]  = stats.getSdv(channel);
+            }
+            return;
+        }
+
         double m, M2, variance, delta, dataPt;
 
         // How much data do we have?
-        int sampleLimit = localData[0].limit()/2;
+        int sampleLimit = getSampleCount(0);
 
         for (int channel = 0; channel < 80; channel++) {
             m = 0;
@@ -605,7 +1035,7 @@ public class SRingRawEvent {
             variance = 0;
 
             for (int sample = 0; sample < sampleLimit; sample++) {
-                dataPt = localData[channel].getShort(2*sample);
+                dataPt = getSample(channel, sample);
                 delta = dataPt - m;
                 m  += delta / (sample + 1);
                 M2 += delta * (dataPt - m);
@@ -14,11 +14,23 @@ package org.jlab.ersap.actor.sampa.source.ring;
 import com.lmax.disruptor.EventFactory;
 import org.jlab.ersap.actor.sampa.EMode;
 
+import java.util.concurrent.atomic.LongAdder;
+
 public class SRingRawEventFactory implements EventFactory<SRingRawEvent> {
 
     private final EMode type;
     private final int byteSize;
-    private final boolean forAggregation;
+    private final int streams;
+    private final int sampleBits;
+
+    /** Bytes of buffers allocated by all events produced. */
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    /** Off-heap memory the events' buffers are taken from, or null for heap buffers. */
+    private SBufferSlab slab;
+
+    /** Do events produced keep running statistics of their channels? */
+    private boolean stats;
 
     /**
      * Constructor of factory which produces event for a disruptor's ring buffer.
@@ -34,16 +46,81 @@ public class SRingRawEventFactory implements EventFactory<SRingRawEvent> {
      * @param byteSize number of bytes in each internal buffer.
      * @param forAggregation if true, this is used to hold aggregated data -
      *                       all 160 channels of a SAMPA board. Or, in other words,
-     *                       it needs hold 2x the data coming from a single stream.
+     *                       it needs hold 6x the data coming from a single stream.
      */
     public SRingRawEventFactory(EMode type, int byteSize, boolean forAggregation) {
+        this(type, byteSize, forAggregation ? 6 : 1, 16);
+    }
+
+    /**
+     * Constructor of factory which produces event for a disruptor's ring buffer.
+     * @param type type of data coming from SAMPA board
+     * @param byteSize number of bytes in each internal buffer if ADC values are stored in shorts.
+     * @param streams number of streams whose data each event holds, 1 unless aggregating.
+     * @param sampleBits bits each ADC value is packed into (DAS mode): 10, 12 or 16 (unpacked).
+     */
+    public SRingRawEventFactory(EMode type, int byteSize, int streams, int sampleBits) {
         this.type = type;
         this.byteSize = byteSize;
-        this.forAggregation = forAggregation;
+        this.streams = streams;
+        this.sampleBits = sampleBits;
     }
 
     @Override
     public SRingRawEvent newInstance() {
-        return new SRingRawEvent(type, byteSize, forAggregation);
+        SRingRawEvent event = new SRingRawEvent(type, byteSize, streams, sampleBits, allocatedBytes, slab);
+        if (stats) {
+            event.enableStats();
+        }
+        return event;
+    }
+
+    /**
+     * Have events produced from now on keep running statistics of their channels,
+     * see {@link SRingRawEvent#enableStats()}. Call before creating the ring.
+     */
+    public void enableStats() {
+        stats = true;
+    }
+
+    /**
+     * Take the buffers of events produced from now on out of the given off-heap memory.
+     * Call before creating the ring, which produces all its events right away.
+     * @param slab off-heap memory with buffers of {@link #getBufferSize()} bytes, or null for heap buffers.
+     */
+    public void setSlab(SBufferSlab slab) {
+        this.slab = slab;
+    }
+
+    /**
+     * Get the number of bytes in each buffer of an event.
+     * @return number of bytes in each buffer of an event.
+     */
+    public int getBufferSize() {
+        return new SRingRawEvent(type, byteSize, streams, sampleBits).getBufferSize();
+    }
+
+    /**
+     * Get the number of buffers in an event.
+     * @return number of buffers in an event.
+     */
+    public int getChannelCount() {
+        return new SRingRawEvent(type, byteSize, streams, sampleBits).getChannelCount();
+    }
+
+    /**
+     * Get the number of bytes an event's buffers take once all are allocated.
+     * @return number of bytes an event's buffers take once all are allocated.
+     */
+    public long getEventBytes() {
+        return new SRingRawEvent(type, byteSize, streams, sampleBits).getMaxBytes();
+    }
+
+    /**
+     * Get the number of bytes of buffers allocated so far by all events produced.
+     * @return number of bytes of buffers allocated so far by all events produced.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
     }
 }
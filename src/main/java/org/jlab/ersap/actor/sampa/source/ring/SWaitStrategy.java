@@ -0,0 +1,69 @@
+package org.jlab.ersap.actor.sampa.source.ring;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import com.lmax.disruptor.*;
+
+/**
+ * <p>How the consumers of the SAMPA rings wait for events, from the lowest latency
+ * and most CPU to the least CPU and highest latency. Each ring needs its own
+ * instance of a strategy, made by {@link #create()}.</p>
+ *
+ * <ul>
+ * <li>BUSY_SPIN: spins on the ring's cursor, a whole core per waiting thread.
+ *     Only for threads pinned to cores of their own.</li>
+ * <li>YIELDING: spins, yielding the core to other threads now and then.</li>
+ * <li>SPIN_BACKOFF: spins 30000 times, then blocks. The default.</li>
+ * <li>SLEEPING: spins, yields, then sleeps between checks.</li>
+ * <li>LITE_BLOCKING, BLOCKING: blocks until woken by the producer,
+ *     no CPU used while waiting.</li>
+ * </ul>
+ */
+public enum SWaitStrategy {
+    BUSY_SPIN,
+    YIELDING,
+    SPIN_BACKOFF,
+    SLEEPING,
+    LITE_BLOCKING,
+    BLOCKING;
+
+    /**
+     * Create an instance of this strategy for one ring.
+     * @return new wait strategy.
+     */
+    public WaitStrategy create() {
+        switch (this) {
+            case BUSY_SPIN:
+                return new BusySpinWaitStrategy();
+            case YIELDING:
+                return new YieldingWaitStrategy();
+            case SLEEPING:
+                return new SleepingWaitStrategy();
+            case LITE_BLOCKING:
+                return new LiteBlockingWaitStrategy();
+            case BLOCKING:
+                return new BlockingWaitStrategy();
+            default:
+                return new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy());
+        }
+    }
+
+    /**
+     * Get a strategy from its name, in any case, such as "busy_spin" or "blocking".
+     * @param name name of strategy.
+     * @return strategy.
+     * @throws IllegalArgumentException if there's no such strategy.
+     */
+    public static SWaitStrategy parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -13,6 +13,7 @@ package org.jlab.ersap.actor.sampa.source.s2;
  */
 import com.lmax.disruptor.*;
 import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.recagg.SBlockAligner;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
 
 /**
@@ -56,6 +57,12 @@ public class S2Aggregator extends Thread {
     /** Control for the thread termination. */
     private volatile boolean running = true;
 
+    /** Hand the input events' buffers over to the output event instead of copying them. */
+    private final boolean zeroCopy;
+
+    /** Lines up DSP blocks by block number, null in DAS mode. */
+    private final SBlockAligner aligner;
+
 
     /**
      * Constructor.
@@ -74,6 +81,59 @@ public class S2Aggregator extends Thread {
                         SequenceBarrier barrier1, SequenceBarrier barrier2,
                         RingBuffer<SRingRawEvent> outputRingBuffer,
                         EMode EMode) {
+        this(ringBuffer1, ringBuffer2, sequence1, sequence2, barrier1, barrier2,
+             outputRingBuffer, EMode, false);
+    }
+
+
+    /**
+     * Constructor.
+     * @param ringBuffer1       ring buffer containing events from input data stream 1.
+     * @param ringBuffer2       ring buffer containing events from input data stream 2.
+     * @param sequence1         consumer ring sequence for input stream 1.
+     * @param sequence2         consumer ring sequence for input stream 2.
+     * @param barrier1          ring barrier for consumer of stream 1.
+     * @param barrier2          ring barrier for consumer of stream 2.
+     * @param outputRingBuffer  ring buffer containing events from the output data stream.
+     * @param EMode         type of data coming from the input streams.
+     * @param zeroCopy      if true, the buffers of the input events are swapped with those
+     *                      of the output event instead of being copied into them
+     *                      (see {@link SRingRawEvent#swapData(SRingRawEvent)}).
+     */
+    public S2Aggregator(RingBuffer<SRingRawEvent> ringBuffer1,
+                        RingBuffer<SRingRawEvent> ringBuffer2,
+                        Sequence sequence1, Sequence sequence2,
+                        SequenceBarrier barrier1, SequenceBarrier barrier2,
+                        RingBuffer<SRingRawEvent> outputRingBuffer,
+                        EMode EMode, boolean zeroCopy) {
+        this(ringBuffer1, ringBuffer2, sequence1, sequence2, barrier1, barrier2,
+             outputRingBuffer, EMode, zeroCopy,
+             SBlockAligner.DEFAULT_WINDOW, SBlockAligner.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+
+    /**
+     * Constructor.
+     * @param ringBuffer1       ring buffer containing events from input data stream 1.
+     * @param ringBuffer2       ring buffer containing events from input data stream 2.
+     * @param sequence1         consumer ring sequence for input stream 1.
+     * @param sequence2         consumer ring sequence for input stream 2.
+     * @param barrier1          ring barrier for consumer of stream 1.
+     * @param barrier2          ring barrier for consumer of stream 2.
+     * @param outputRingBuffer  ring buffer containing events from the output data stream.
+     * @param EMode         type of data coming from the input streams.
+     * @param zeroCopy      if true, the buffers of the input events are swapped with those
+     *                      of the output event instead of being copied into them.
+     * @param alignWindow   DSP blocks a stream may have queued while waiting for the other stream.
+     * @param alignTimeoutMillis milliseconds to wait for a DSP stream with no block queued.
+     */
+    public S2Aggregator(RingBuffer<SRingRawEvent> ringBuffer1,
+                        RingBuffer<SRingRawEvent> ringBuffer2,
+                        Sequence sequence1, Sequence sequence2,
+                        SequenceBarrier barrier1, SequenceBarrier barrier2,
+                        RingBuffer<SRingRawEvent> outputRingBuffer,
+                        EMode EMode, boolean zeroCopy,
+                        int alignWindow, long alignTimeoutMillis) {
 
         this.ringBuffer1 = ringBuffer1;
         this.ringBuffer2 = ringBuffer2;
@@ -83,15 +143,35 @@ public class S2Aggregator extends Thread {
         this.barrier2 = barrier2;
         this.outputRingBuffer = outputRingBuffer;
         this.EMode = EMode;
+        this.zeroCopy = zeroCopy;
 
         nextSequence1 = sequence1.get() + 1L;
         nextSequence2 = sequence2.get() + 1L;
 
         availableSequence1 = -1L;
         availableSequence2 = -1L;
+
+        if (EMode.isDSP()) {
+            // Arrays of a generic type can't be created, but both rings are of SRingRawEvent
+            @SuppressWarnings("unchecked")
+            RingBuffer<SRingRawEvent>[] rings = (RingBuffer<SRingRawEvent>[]) new RingBuffer<?>[] {ringBuffer1, ringBuffer2};
+            aligner = new SBlockAligner(rings, new Sequence[] {sequence1, sequence2},
+                                        outputRingBuffer, zeroCopy,
+                                        alignWindow, alignTimeoutMillis);
+        }
+        else {
+            aligner = null;
+        }
     }
 
 
+    /**
+     * Get the block aligner, for its counters.
+     * @return block aligner, null in DAS mode.
+     */
+    public SBlockAligner getBlockAligner() {return aligner;}
+
+
     /**
      * Get 2 events, one from each of the 2 input streams, aggregate the data
      * and place it into a 3rd event from the output stream.
@@ -148,19 +228,10 @@ public class S2Aggregator extends Thread {
 
 
     /**
-     * <p>Combine the data of 2 events (one from each of 2 receiving ring buffers)
-     * into one event in a third ring buffer.</p>
-     *
-     * <p>DSP mode: The assumption is made that on each input stream, blocks arrive in
-     * numerical order with the block number increasing by one in each successive event.
-     * It may be possible that particular members of that sequence are missing, but it
-     * will still be monotonically increasing. Based on that assumption, the logic matches
-     * up data with identical block numbers from each of the 2 input streams and saves
-     * that together in one event.</p>
-     *
-     * DAS mode: In this mode, there is no reliable clock accompanying the data. It relies
-     * entirely on the sync signal and on not dropping any data in the receiver in assuring
-     * that the given events are from the same time and can be combined.
+     * Combine the DAS data of 2 events (one from each of 2 receiving ring buffers)
+     * into one event in a third ring buffer. DAS data has no reliable clock, so the
+     * events are taken to be from the same time as long as the sync signal was found
+     * and neither receiver dropped data.
      *
      * @param e1 event from input ring buffer 1.
      * @param e2 event from input ring buffer 2.
@@ -174,29 +245,6 @@ public class S2Aggregator extends Thread {
             TimeoutException,
             AlertException {
         int b1 = e1.getBlockNumber();
-        int b2 = e2.getBlockNumber();
-
-        if (EMode.isDSP()) {
-            // While blocks don't match up
-            while (b1 != b2) {
-                // If stream 2 lost one or more blocks ...
-                if (b1 < b2) {
-                    // Dump block and read next for receiver 1
-                    sequence1.set(nextSequence1++);
-                    e1 = getEventStream1();
-                    b1 = e1.getBlockNumber();
-                }
-                // If stream 1 lost one or more blocks ...
-                else {
-                    // Dump block and read next for receiver 2
-                    sequence2.set(nextSequence2++);
-                    e2 = getEventStream2();
-                    b2 = e2.getBlockNumber();
-                }
-            }
-        }
-
-        // If we're here, in DSP mode, b1 == b2 and everything is fine as both events match up
 
         // Get an event from the ring which holds the aggregated events
         long outSequence = outputRingBuffer.next();
@@ -207,29 +255,16 @@ public class S2Aggregator extends Thread {
         outputItem.setBlockNumber(b1);
 
         // Add two data arrays together and add to the output item
-//        ByteBuffer[] data1 = e1.getData();
-//        int numShorts = data1[0].position()/2;
-//
-//        System.out.println("AGGREGATOR:");
-//        for (int i = 0; i < numShorts; i++) {
-//            short s = data1[0].getShort(i*2);
-//            System.out.print(" " + Integer.toHexString(s));
-//            if ((i+1) % 10 == 0) System.out.println();
-//        }
-//        System.out.println();
-//
-//        ByteBuffer[] data2 = e2.getData();
-//        numShorts = data2[0].position()/2;
-//        System.out.println();
-//        for (int i = 0; i < numShorts; i++) {
-//            short s = data2[0].getShort(i*2);
-//            System.out.print(" " + Integer.toHexString(s));
-//            if ((i+1) % 10 == 0) System.out.println();
-//        }
-//        System.out.println();
-
-        outputItem.setData(e1.getData());
-        outputItem.addData(e2.getData());
+        if (zeroCopy) {
+            outputItem.swapData(e1);
+            outputItem.swapData(e2);
+        }
+        else {
+            outputItem.setData(e1.getData());
+            outputItem.addData(e2.getData());
+            outputItem.mergeStats(e1, 0);
+            outputItem.mergeStats(e2, e1.getChannelCount());
+        }
 
         // Publish
         outputRingBuffer.publish(outSequence);
@@ -247,6 +282,13 @@ public class S2Aggregator extends Thread {
 
     /** Run this thread. */
     public void run() {
+        if (aligner != null) {
+            while (running) {
+                aligner.publishNext();
+            }
+            return;
+        }
+
         try {
             while (running) {
                 get();
@@ -260,6 +302,9 @@ public class S2Aggregator extends Thread {
     /** Stop this thread. */
     public void exit() {
         running = false;
+        if (aligner != null) {
+            aligner.stop();
+        }
         //this.interrupt();
     }
 
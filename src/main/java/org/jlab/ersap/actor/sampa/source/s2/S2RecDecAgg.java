@@ -13,14 +13,19 @@ package org.jlab.ersap.actor.sampa.source.s2;
  */
 import com.lmax.disruptor.*;
 import org.jlab.epsci.ersap.base.error.ErsapException;
-import org.jlab.ersap.actor.datatypes.DasDataType;
+import org.jlab.ersap.actor.datatypes.DasZeroSuppressor;
 import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.SEventQueue;
+import org.jlab.ersap.actor.sampa.source.SEventSerializer;
+import org.jlab.ersap.actor.sampa.source.SPipelineParameters;
+import org.jlab.ersap.actor.sampa.source.recagg.SBlockMerger;
 import org.jlab.ersap.actor.sampa.source.recagg.SReceiverDecoder;
+import org.jlab.ersap.actor.sampa.source.ring.SBufferSlab;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
 import org.jlab.ersap.actor.sampa.source.ring.SRingRawEventFactory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static com.lmax.disruptor.RingBuffer.createSingleProducer;
 
@@ -65,8 +70,17 @@ public class S2RecDecAgg extends Thread {
     /** Control for the go method termination. */
     private volatile boolean running = true;
 
-    /** Pool of ByteBuffers of serialized sampa stream data */
-    private ConcurrentLinkedQueue<ByteBuffer> pool;
+    /** Bounded queue of serialized sampa stream data waiting for the engine. */
+    private final SEventQueue queue;
+
+    /** Serializes aggregated events, possibly in parallel. */
+    private final SEventSerializer serializer;
+
+    /** Merges consecutive aggregated DSP blocks into larger events, null if not merging. */
+    private final SBlockMerger merger;
+
+    /** Factories of the events of both stream rings and the aggregated ring, which track memory allocated. */
+    private final SRingRawEventFactory[] factories;
 
     /**
      * Constructor.
@@ -82,6 +96,24 @@ public class S2RecDecAgg extends Thread {
                        int streamId1, int streamId2,
                        int streamFrameLimit,
                        EMode EMode) {
+        this(sampaPort1, sampaPort2, streamId1, streamId2, streamFrameLimit, EMode, new SPipelineParameters());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sampaPort1       TCP port for first  data producer to connect to.
+     * @param sampaPort2       TCP port for second data producer to connect to.
+     * @param streamId1        id number of first  data stream / producer.
+     * @param streamId2        id number of second data stream / producer.
+     * @param streamFrameLimit total number of frames consumed before exiting.
+     * @param EMode        type of data coming over TCP sockets.
+     * @param params       pipeline settings (zero-copy aggregation, serialization).
+     */
+    public S2RecDecAgg(int sampaPort1, int sampaPort2,
+                       int streamId1, int streamId2,
+                       int streamFrameLimit,
+                       EMode EMode, SPipelineParameters params) {
 
         this.streamFrameLimit = streamFrameLimit;
 
@@ -89,8 +121,44 @@ public class S2RecDecAgg extends Thread {
         // Byte size of each buffer in each raw event (1 buf per channel)
         int byteSize = 8192;
 
+        // Zero suppressors with the thresholds of each stream's 80 channels, DAS mode only
+        DasZeroSuppressor[] suppressors = null;
+        if (EMode.isDAS()) {
+            try {
+                suppressors = params.createZeroSuppressors(2, 80);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        factories = new SRingRawEventFactory[] {
+                new SRingRawEventFactory(EMode, byteSize, 1, params.getSampleBits()),
+                new SRingRawEventFactory(EMode, byteSize, 1, params.getSampleBits()),
+                new SRingRawEventFactory(EMode, byteSize, 2, params.getSampleBits())};
+
+        // Channel statistics are kept by the decoders and merged when aggregating
+        if (params.isChannelStats()) {
+            for (SRingRawEventFactory f : factories) {
+                f.enableStats();
+            }
+        }
+
+        // Events trade buffers when aggregating without copying,
+        // so one slab is shared by all rings and sized for all their events
+        if (params.isOffHeapRings()) {
+            long buffers = 0;
+            for (SRingRawEventFactory f : factories) {
+                buffers += (long) maxRingItems * f.getChannelCount();
+            }
+            SBufferSlab slab = new SBufferSlab(factories[0].getBufferSize(), buffers);
+            for (SRingRawEventFactory f : factories) {
+                f.setSlab(slab);
+            }
+        }
+
         // RingBuffer in which receiver1 will get & fill events, then pass them to the aggregator
-        RingBuffer<SRingRawEvent> ringBuffer1 = createSingleProducer(new SRingRawEventFactory(EMode, byteSize, false), maxRingItems,
+        RingBuffer<SRingRawEvent> ringBuffer1 = createSingleProducer(factories[0], maxRingItems,
                 new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
 //        new YieldingWaitStrategy());
 
@@ -101,7 +169,7 @@ public class S2RecDecAgg extends Thread {
         ringBuffer1.addGatingSequences(sequence1);
 
         // RingBuffer in which receiver2 will get & fill events, then pass them to the aggregator
-        RingBuffer<SRingRawEvent> ringBuffer2 = createSingleProducer(new SRingRawEventFactory(EMode, byteSize, false), maxRingItems,
+        RingBuffer<SRingRawEvent> ringBuffer2 = createSingleProducer(factories[1], maxRingItems,
                 new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
 //        new YieldingWaitStrategy());
 
@@ -113,7 +181,7 @@ public class S2RecDecAgg extends Thread {
 
         // RingBuffer in which Aggregator will get empty events and fill them with data aggregated
         // from the 2 streams. It then passes to this object which takes the place of the consumer.
-        ringBuffer12 = createSingleProducer(new SRingRawEventFactory(EMode, byteSize, true), maxRingItems,
+        ringBuffer12 = createSingleProducer(factories[2], maxRingItems,
                 new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
 //        new YieldingWaitStrategy());
 
@@ -125,19 +193,56 @@ public class S2RecDecAgg extends Thread {
         // Create the receivers and the aggregator threads
         receiver1 = new SReceiverDecoder(sampaPort1, streamId1, ringBuffer1, streamFrameLimit, EMode, byteSize);
         receiver2 = new SReceiverDecoder(sampaPort2, streamId2, ringBuffer2, streamFrameLimit, EMode, byteSize);
+        if (suppressors != null) {
+            receiver1.setZeroSuppressor(suppressors[0]);
+            receiver2.setZeroSuppressor(suppressors[1]);
+        }
+        receiver1.setSyncMonitor(params.isSyncMonitor());
+        receiver2.setSyncMonitor(params.isSyncMonitor());
+        receiver1.setNBlock(params.getNBlock());
+        receiver2.setNBlock(params.getNBlock());
 
         aggregator12 = new S2Aggregator(ringBuffer1, ringBuffer2,
                 sequence1, sequence2,
                 barrier1, barrier2,
-                ringBuffer12, EMode);
+                ringBuffer12, EMode, params.isZeroCopy(),
+                params.getAlignWindow(), params.getAlignTimeoutMillis());
 
+        if (EMode.isDSP() && params.getMergeBlocks() > 1) {
+            merger = new SBlockMerger(params.getMergeBlocks(), EMode, byteSize, 2);
+        }
+        else {
+            merger = null;
+        }
 
         // Get this thread ready
         nextSequence = sequence12.get() + 1L;
         availableSequence = -1L;
 
-        // Create a pool of ByteBuffers
-        pool = new ConcurrentLinkedQueue<>();
+        // Create the queue of serialized events
+        queue = new SEventQueue(params.getQueueSize(), params.isDropWhenFull());
+
+        serializer = new SEventSerializer(params);
+
+        // Buffers are allocated as events get used, so this is the most the rings will take
+        long ringBytes = 0;
+        for (SRingRawEventFactory f : factories) {
+            ringBytes += maxRingItems * f.getEventBytes();
+        }
+        System.out.println("S2RecDecAgg: ring memory up to " + (ringBytes >> 20) + " MB, allocated as used" +
+                (params.isOffHeapRings() ? " off heap" : ""));
+    }
+
+    /**
+     * Get the number of bytes of event buffers allocated so far in all rings.
+     * @return number of bytes of event buffers allocated so far in all rings.
+     */
+    public long getAllocatedRingBytes() {
+        long bytes = 0;
+        for (SRingRawEventFactory f : factories) {
+            bytes += f.getAllocatedBytes();
+        }
+        return bytes;
     }
 
 
@@ -151,7 +256,13 @@ public class S2RecDecAgg extends Thread {
         while (running) {
             try {
                 ByteBuffer b = getSerializedData();
-                if(b!=null) pool.add(b);
+                // Blocks while the queue is full, unless dropping
+                if (b != null) {
+                    queue.publish(b);
+                }
+            } catch (InterruptedException e) {
+                // Interrupted by close()
+                break;
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -163,6 +274,10 @@ public class S2RecDecAgg extends Thread {
         receiver1.exit();
         receiver2.exit();
         aggregator12.exit();
+        running = false;
+        // Wake up this thread if it's waiting to queue an event
+        this.interrupt();
+        serializer.close();
     }
 
     /**
@@ -199,34 +314,67 @@ public class S2RecDecAgg extends Thread {
      * Release the item back to the ring.
      * Return serialized data.
      * This method does a get and put underneath.
+     * When merging DSP blocks, the item is merged with the following ones instead
+     * and only serialized once enough blocks are merged.
      *
-     * @return next available item in ring buffer.
+     * @return next available item in ring buffer, or null if merging and the merged event isn't complete.
      * @throws InterruptedException if thread interrupted.
      */
     private ByteBuffer getSerializedData() throws InterruptedException {
 
         SRingRawEvent item = get();
+
+        if (merger != null) {
+            // The block is copied, so it can go back to the ring right away
+            item = merger.add(item);
+            put();
+            if (item == null) {
+                return null;
+            }
+        }
+
         // Serialize this data here. By doing the copy here,
         // the put() can be done immediately, greatly simplifying
         // the engine code to wrap this class.
         ByteBuffer bb = null;
         try {
-            bb = DasDataType.serialize(item.getData());
-        } catch (ErsapException e) {/* never happen */}
+            bb = serializer.serialize(item);
+        } catch (ErsapException e) {
+            e.printStackTrace();
+        }
 
-        put();
+        if (merger == null) {
+            put();
+        }
         return bb;
     }
 
+    /**
+     * Get the queue of serialized events, for its fill level and counters.
+     * @return queue of serialized events.
+     */
+    public SEventQueue getEventQueue() {
+        return queue;
+    }
+
+    /**
+     * Get the next serialized event.
+     *
+     * @return next serialized event, or null if interrupted while waiting for one,
+     *         in which case the thread's interrupt status is set.
+     */
     public ByteBuffer getEvent() {
-        while (pool.isEmpty()){
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        ByteBuffer bb;
+        try {
+            bb = queue.take();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            // Keep the interrupt for whoever shuts the engine down
+            Thread.currentThread().interrupt();
+            return null;
         }
-        return pool.poll();
+
+        return bb;
     }
 
     /** Release item claimed from input ring buffer. */
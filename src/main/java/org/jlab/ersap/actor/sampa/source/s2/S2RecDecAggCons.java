@@ -122,7 +122,7 @@ public class S2RecDecAggCons {
 
         // RingBuffer in which Aggregator will get empty events and fill them with data aggregated
         // from the 2 streams. It then passes them to the consumer.
-        ringBuffer12 = createSingleProducer(new SRingRawEventFactory(EMode, byteSize, true), maxRingItems,
+        ringBuffer12 = createSingleProducer(new SRingRawEventFactory(EMode, byteSize, 2, 16), maxRingItems,
                 new SpinCountBackoffWaitStrategy(30000, new LiteBlockingWaitStrategy()));
 
         sequence12 = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
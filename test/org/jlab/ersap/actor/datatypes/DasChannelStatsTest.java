@@ -0,0 +1,156 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * However values are split into batches, or channels into objects merged
+ * together, the statistics must be those of all the values at once.
+ */
+public class DasChannelStatsTest {
+
+    /**
+     * Get a repeatable 10 bit ADC value.
+     * @param channel channel number.
+     * @param i       index of value.
+     * @return value.
+     */
+    private static int value(int channel, int i) {
+        return (channel * 31 + i * i * 7) & 0x3FF;
+    }
+
+
+    /**
+     * Check a channel against the mean and variance of its values worked out directly.
+     * @param stats   statistics.
+     * @param channel channel of stats.
+     * @param values  all values of the channel.
+     */
+    private static void assertChannel(DasChannelStats stats, int channel, int[] values) {
+        double mean = 0;
+        for (int v : values) {
+            mean += v;
+        }
+        mean /= values.length;
+        double m2 = 0;
+        for (int v : values) {
+            m2 += (v - mean) * (v - mean);
+        }
+
+        assertEquals("count of channel " + channel, values.length, stats.getCount(channel));
+        assertEquals("mean of channel " + channel, mean, stats.getMean(channel), 1e-9);
+        assertEquals("variance of channel " + channel, m2 / values.length, stats.getVariance(channel), 1e-6);
+    }
+
+
+    @Test
+    public void batchesGiveSameAsSingleValues() {
+        int[] values = new int[1000];
+        DasChannelStats single = new DasChannelStats(1);
+        DasChannelStats batched = new DasChannelStats(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value(0, i);
+            single.add(0, values[i]);
+        }
+        // Batches of 1, 2, 3, ... values
+        for (int i = 0, n = 1; i < values.length; i += n, n++) {
+            int end = Math.min(values.length, i + n);
+            long sum = 0, sumSquares = 0;
+            for (int j = i; j < end; j++) {
+                sum += values[j];
+                sumSquares += (long) values[j] * values[j];
+            }
+            batched.add(0, end - i, sum, sumSquares);
+        }
+        batched.add(0, 0, 0, 0);
+
+        assertChannel(single, 0, values);
+        assertChannel(batched, 0, values);
+    }
+
+
+    @Test
+    public void mergesChannelRanges() {
+        // 2 streams of 3 channels each merge into the 6 channels of an event, twice
+        DasChannelStats event = new DasChannelStats(6);
+        int[][] values = new int[6][200];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int stream = 0; stream < 2; stream++) {
+                DasChannelStats streamStats = new DasChannelStats(3);
+                for (int c = 0; c < 3; c++) {
+                    int channel = 3 * stream + c;
+                    for (int i = 100 * pass; i < 100 * (pass + 1); i++) {
+                        values[channel][i] = value(channel, i);
+                        streamStats.add(c, values[channel][i]);
+                    }
+                }
+                event.merge(streamStats, 3 * stream);
+            }
+        }
+        for (int channel = 0; channel < 6; channel++) {
+            assertChannel(event, channel, values[channel]);
+        }
+
+        // Merging an empty channel changes nothing
+        DasChannelStats empty = new DasChannelStats(6);
+        event.merge(empty, 0);
+        for (int channel = 0; channel < 6; channel++) {
+            assertChannel(event, channel, values[channel]);
+        }
+    }
+
+
+    @Test
+    public void ignoresChannelsPastTheEnd() {
+        DasChannelStats event = new DasChannelStats(4);
+        DasChannelStats stream = new DasChannelStats(3);
+        for (int c = 0; c < 3; c++) {
+            stream.add(c, 2, 10L * (c + 1), 50L * (c + 1) * (c + 1));
+        }
+        event.merge(stream, 2);
+
+        assertEquals(0, event.getCount(0));
+        assertEquals(0, event.getCount(1));
+        assertEquals(2, event.getCount(2));
+        assertEquals(5, event.getMean(2), 0);
+        assertEquals(2, event.getCount(3));
+        assertEquals(10, event.getMean(3), 0);
+    }
+
+
+    @Test
+    public void readsWhatWasWritten() {
+        DasChannelStats stats = new DasChannelStats(5);
+        for (int c = 0; c < 5; c++) {
+            for (int i = 0; i < 10 * c; i++) {
+                stats.add(c, value(c, i));
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(3 + stats.serializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        stats.write(buf, 3);
+        assertEquals(0, buf.position());
+
+        DasChannelStats read = DasChannelStats.read(buf, 3);
+        assertEquals(5, read.getChannelCount());
+        for (int c = 0; c < 5; c++) {
+            assertEquals(stats.getCount(c), read.getCount(c));
+            assertEquals(stats.getMean(c), read.getMean(c), 0);
+            assertEquals(stats.getM2(c), read.getM2(c), 0);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Whatever is in the header, the channels must deserialize into what was serialized,
+ * and the header's block numbers and missing streams must read back.
+ */
+public class DasDataTypeTest {
+
+    /**
+     * Make channels of little endian shorts, each with its own number of values.
+     * @param channels number of channels.
+     * @return channels, position 0 and limit = valid bytes.
+     */
+    private static ByteBuffer[] channels(int channels) {
+        ByteBuffer[] buffers = new ByteBuffer[channels];
+        for (int i = 0; i < channels; i++) {
+            buffers[i] = ByteBuffer.allocate(2 * (3 * i + 1)).order(ByteOrder.LITTLE_ENDIAN);
+            for (int j = 0; j < 3 * i + 1; j++) {
+                buffers[i].putShort(2 * j, (short) ((100 * i + j) & 0x3FF));
+            }
+        }
+        return buffers;
+    }
+
+
+    private static ByteBuffer serialize(ByteBuffer[] buffers, int sampleBits, DasChannelStats stats,
+                                        int blockNumber, int blockCount, int missing) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(
+                DasDataType.serializedSize(buffers, sampleBits, stats, false, blockCount, missing));
+        DasDataType.serialize(buffers, buf, null, 1, sampleBits, stats, false,
+                              blockNumber, blockCount, missing);
+        assertEquals(buf.capacity(), buf.limit());
+        return buf;
+    }
+
+
+    private static void assertChannels(ByteBuffer[] expected, ByteBuffer[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("channel " + i, expected[i], actual[i]);
+        }
+    }
+
+
+    @Test
+    public void roundTripWithoutBlocks() throws Exception {
+        ByteBuffer[] buffers = channels(5);
+        ByteBuffer buf = DasDataType.serialize(buffers);
+        assertChannels(buffers, DasDataType.deserialize(buf));
+        assertEquals(0, DasDataType.getBlockCount(buf));
+        assertEquals(0, DasDataType.getBlockNumber(buf));
+        assertEquals(0, DasDataType.getMissingStreams(buf));
+    }
+
+
+    @Test
+    public void readsBlockNumbers() throws Exception {
+        ByteBuffer[] buffers = channels(5);
+        ByteBuffer buf = serialize(buffers, 16, null, -5, 3, 0);
+        assertEquals(-5, DasDataType.getBlockNumber(buf));
+        assertEquals(3, DasDataType.getBlockCount(buf));
+        assertEquals(16, DasDataType.getSampleBits(buf));
+        assertFalse(DasDataType.isZeroSuppressed(buf));
+        assertEquals(0, DasDataType.getMissingStreams(buf));
+        assertChannels(buffers, DasDataType.deserialize(buf));
+    }
+
+
+    @Test
+    public void readsStatsAfterBlockNumbersAndMissingStreams() throws Exception {
+        ByteBuffer[] buffers = channels(4);
+        DasChannelStats stats = new DasChannelStats(4);
+        for (int i = 0; i < 4; i++) {
+            stats.add(i, i + 1, 10L * i, 100L * i);
+        }
+
+        // Packed values, statistics and blocks all together
+        ByteBuffer[] packed = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            int samples = buffers[i].limit() / 2;
+            packed[i] = ByteBuffer.allocate(DasSamplePacker.packedSize(samples, 10));
+            DasSamplePacker.pack(buffers[i].array(), 0, samples, 10, packed[i].array(), 0);
+        }
+        ByteBuffer buf = serialize(packed, 10, stats, Integer.MAX_VALUE, 1, 0b101);
+
+        assertEquals(Integer.MAX_VALUE, DasDataType.getBlockNumber(buf));
+        assertEquals(1, DasDataType.getBlockCount(buf));
+        assertEquals(0b101, DasDataType.getMissingStreams(buf));
+        assertChannels(buffers, DasDataType.deserialize(buf));
+        DasChannelStats read = DasDataType.getStats(buf);
+        assertNotNull(read);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(stats.getMean(i), read.getMean(i), 0);
+        }
+    }
+
+
+    @Test
+    public void readsMissingStreamsWithoutBlockNumbers() throws Exception {
+        ByteBuffer[] buffers = channels(3);
+        ByteBuffer buf = serialize(buffers, 16, null, 0, 0, 0b10);
+        assertEquals(0b10, DasDataType.getMissingStreams(buf));
+        assertEquals(0, DasDataType.getBlockCount(buf));
+        assertChannels(buffers, DasDataType.deserialize(buf));
+    }
+}
@@ -0,0 +1,97 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ADC values packed into 10 or 12 bits must unpack into the same values,
+ * whatever their number, and packing must stay within its bytes.
+ */
+public class DasSamplePackerTest {
+
+    /**
+     * Make random little endian shorts that fit in a number of bits.
+     * @param random random numbers.
+     * @param samples number of values.
+     * @param bits    bits of each value.
+     * @return values.
+     */
+    private static byte[] values(Random random, int samples, int bits) {
+        byte[] values = new byte[2 * samples];
+        for (int i = 0; i < samples; i++) {
+            int v = random.nextInt(1 << Math.min(bits, 15));
+            values[2 * i] = (byte) v;
+            values[2 * i + 1] = (byte) (v >> 8);
+        }
+        return values;
+    }
+
+
+    private static void assertRoundTrip(int bits) {
+        Random random = new Random(bits);
+        for (int samples = 0; samples < 50; samples++) {
+            byte[] values = values(random, samples, bits);
+            int size = DasSamplePacker.packedSize(samples, bits);
+            assertEquals(samples, DasSamplePacker.sampleCount(size, bits));
+
+            // Pack at an offset, between guard bytes
+            byte[] packed = new byte[size + 2];
+            Arrays.fill(packed, (byte) 0x55);
+            DasSamplePacker.pack(values, 0, samples, bits, packed, 1);
+            assertEquals("guard before", 0x55, packed[0]);
+            assertEquals("guard after", 0x55, packed[size + 1]);
+
+            byte[] unpacked = new byte[2 * samples];
+            DasSamplePacker.unpack(packed, 1, samples, bits, unpacked, 0);
+            assertArrayEquals(bits + " bits, " + samples + " samples", values, unpacked);
+
+            ByteBuffer buf = ByteBuffer.wrap(packed, 1, size).slice().order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < samples; i++) {
+                int value = (values[2 * i] & 0xFF) | (values[2 * i + 1] & 0xFF) << 8;
+                assertEquals("sample " + i, value, DasSamplePacker.getSample(buf, i, bits));
+            }
+        }
+    }
+
+
+    @Test
+    public void roundTrip10Bits() {
+        assertRoundTrip(10);
+    }
+
+    @Test
+    public void roundTrip12Bits() {
+        assertRoundTrip(12);
+    }
+
+    @Test
+    public void roundTripUnpacked() {
+        assertRoundTrip(DasSamplePacker.UNPACKED);
+    }
+
+    @Test
+    public void packedSizes() {
+        assertEquals(5, DasSamplePacker.packedSize(4, 10));
+        assertEquals(3, DasSamplePacker.packedSize(2, 12));
+        assertEquals(8, DasSamplePacker.packedSize(4, 16));
+        assertTrue(DasSamplePacker.isSupported(10));
+        assertFalse(DasSamplePacker.isSupported(11));
+    }
+}
@@ -0,0 +1,181 @@
+package org.jlab.ersap.actor.datatypes;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Expanding a channel's clusters must give back the values kept, each at its
+ * own sample, with all others suppressed, however many clusters there are
+ * and however long.
+ */
+public class DasZeroSuppressorTest {
+
+    /** Value of suppressed samples once expanded. */
+    private static final short FILL = -1;
+
+
+    /**
+     * Put values into a buffer the way a decoder leaves them.
+     * @param values values.
+     * @return little endian buffer with position just past the values.
+     */
+    private static ByteBuffer channel(short[] values) {
+        ByteBuffer buf = ByteBuffer.allocate(2 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (short v : values) {
+            buf.putShort(v);
+        }
+        return buf;
+    }
+
+
+    /**
+     * Suppress a channel and expand it again.
+     * @param suppressor suppressor.
+     * @param channel    channel number.
+     * @param values     values of the channel.
+     * @return expanded values.
+     */
+    private static short[] roundTrip(DasZeroSuppressor suppressor, int channel, short[] values) {
+        ByteBuffer buf = channel(values);
+        int bytes = suppressor.suppress(channel, buf);
+        if (bytes > buf.capacity()) {
+            // The decoder's event would expand its buffer here
+            buf = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        suppressor.write(buf);
+        assertEquals(bytes, buf.position());
+        buf.flip();
+
+        assertEquals(values.length, DasZeroSuppressor.getSampleCount(buf));
+        short[] expanded = new short[values.length];
+        assertEquals(values.length, DasZeroSuppressor.expand(buf, expanded, FILL));
+        return expanded;
+    }
+
+
+    @Test
+    public void keepsValuesAroundThoseAboveThreshold() {
+        short[] values = new short[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) (i % 7);
+        }
+        // Pulses at 1 (pre cut off), 20 and 24 (merged), 50 and 98 (post cut off)
+        for (int i : new int[] {1, 20, 24, 50, 98}) {
+            values[i] = 500;
+        }
+        DasZeroSuppressor suppressor = new DasZeroSuppressor(new int[] {100}, 2, 3);
+        short[] expanded = roundTrip(suppressor, 0, values);
+
+        boolean[] kept = new boolean[values.length];
+        for (int i : new int[] {1, 20, 24, 50, 98}) {
+            for (int j = Math.max(0, i - 2); j <= Math.min(values.length - 1, i + 3); j++) {
+                kept[j] = true;
+            }
+        }
+        int keptCount = 0;
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("sample " + i, kept[i] ? values[i] : FILL, expanded[i]);
+            if (kept[i]) keptCount++;
+        }
+        assertEquals(values.length, suppressor.getValuesIn());
+        assertEquals(keptCount, suppressor.getValuesKept());
+    }
+
+
+    @Test
+    public void mergesTouchingClusters() {
+        short[] values = new short[40];
+        values[10] = values[16] = 200;
+        DasZeroSuppressor suppressor = new DasZeroSuppressor(new int[] {100}, 2, 2);
+        // 8 to 12 and 14 to 18 are 1 apart, so make 2 clusters
+        assertEquals(2 * (2 + 2 * 3 + 10), suppressor.suppress(0, channel(values)));
+
+        // 8 to 12 and 13 to 17 touch, so make 1
+        values[16] = 0;
+        values[15] = 200;
+        assertEquals(2 * (2 + 3 + 10), suppressor.suppress(0, channel(values)));
+    }
+
+
+    @Test
+    public void keepsNothingOrEverything() {
+        short[] values = new short[50];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) (i + 1);
+        }
+
+        // Nothing above threshold leaves only the number of values
+        DasZeroSuppressor suppressor = new DasZeroSuppressor(new int[] {1000}, 5, 5);
+        ByteBuffer buf = channel(values);
+        assertEquals(4, suppressor.suppress(0, buf));
+        short[] expanded = roundTrip(suppressor, 0, values);
+        for (short v : expanded) {
+            assertEquals(FILL, v);
+        }
+
+        // A channel with no threshold keeps all
+        assertArrayEquals(values, roundTrip(suppressor, 1, values));
+    }
+
+
+    @Test
+    public void splitsClusterTooLongForItsLength() {
+        // More values than a cluster can hold, and more than a short can count
+        short[] values = new short[70000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) (200 + i % 300);
+        }
+        DasZeroSuppressor suppressor = new DasZeroSuppressor(new int[] {100}, 0, 0);
+        ByteBuffer buf = channel(values);
+        int bytes = suppressor.suppress(0, buf);
+        assertEquals(2 * (2 + 2 * 3 + values.length), bytes);
+        assertTrue(bytes > buf.capacity());
+
+        assertArrayEquals(values, roundTrip(suppressor, 0, values));
+    }
+
+
+    @Test
+    public void expandsWhatFits() {
+        short[] values = new short[30];
+        values[25] = 300;
+        DasZeroSuppressor suppressor = new DasZeroSuppressor(new int[] {100}, 3, 3);
+        ByteBuffer buf = channel(values);
+        suppressor.suppress(0, buf);
+        suppressor.write(buf);
+        buf.flip();
+
+        short[] expanded = new short[24];
+        assertEquals(30, DasZeroSuppressor.expand(buf, expanded, FILL));
+        for (int i = 0; i < 22; i++) {
+            assertEquals(FILL, expanded[i]);
+        }
+        assertEquals(0, expanded[22]);
+        assertEquals(0, expanded[23]);
+    }
+
+
+    @Test
+    public void setsThresholdsAbovePedestals() {
+        float[] mean = {10, 20, 30};
+        float[] sdv = {1, 2, 3};
+        assertArrayEquals(new int[] {18, 30, 43}, DasZeroSuppressor.thresholds(3, 0, 5, 2.5f, mean, sdv));
+        assertArrayEquals(new int[] {30, 43, 5}, DasZeroSuppressor.thresholds(3, 1, 5, 2.5f, mean, sdv));
+        assertArrayEquals(new int[] {5, 5}, DasZeroSuppressor.thresholds(2, 0, 5, 2.5f, null, null));
+    }
+}
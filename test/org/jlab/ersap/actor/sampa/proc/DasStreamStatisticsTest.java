@@ -0,0 +1,63 @@
+package org.jlab.ersap.actor.sampa.proc;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.datatypes.DasChannelStats;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Statistics calculated from the data must be those the source keeps while
+ * decoding, zeros included, serially or split across a pool.
+ */
+public class DasStreamStatisticsTest {
+
+    /** Number of channels, more than one fork-join task's worth. */
+    private static final int CHANNELS = 100;
+
+
+    @Test
+    public void matchesSourceStatistics() {
+        ByteBuffer[] data = new ByteBuffer[CHANNELS];
+        DasChannelStats expected = new DasChannelStats(CHANNELS);
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            // A channel with no buffer has no values
+            if (channel == 7) {
+                continue;
+            }
+            data[channel] = ByteBuffer.allocate(2 * 50).order(ByteOrder.LITTLE_ENDIAN);
+            for (int sample = 0; sample < 50; sample++) {
+                // Every 5th value is 0
+                int value = (sample % 5 == 0) ? 0 : (channel * 7 + sample * 13) & 0x3FF;
+                data[channel].putShort(2 * sample, (short) value);
+                expected.add(channel, value);
+            }
+        }
+
+        for (boolean parallel : new boolean[] {false, true}) {
+            DasStreamStatistics statistics = new DasStreamStatistics(CHANNELS, false, parallel, true);
+            statistics.calculateStats(data);
+            DasChannelStats total = statistics.getTotalStats();
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                assertEquals("count of channel " + channel, expected.getCount(channel), total.getCount(channel));
+                assertEquals("mean of channel " + channel, expected.getMean(channel),
+                             statistics.getMean()[channel], 1e-9);
+                assertEquals("sdv of channel " + channel, expected.getSdv(channel),
+                             statistics.getSdv()[channel], 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.jlab.ersap.actor.sampa.proc;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pedestals must be written out in batches, kept in a rolling window,
+ * and read back, averaged, from a file being appended to again.
+ */
+public class PedestalStoreTest {
+
+    private static final int CHANNELS = 3;
+
+    /** Bytes of each record of the file. */
+    private static final int RECORD_BYTES = 8 + 8 * CHANNELS;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * Add the pedestals of an event, channel ch having mean 100 * record + ch and std. dev. record.
+     * @param store  pedestal store.
+     * @param record index of record, also its time.
+     */
+    private static void add(PedestalStore store, int record) throws IOException {
+        double[] mean = new double[CHANNELS];
+        double[] sdv = new double[CHANNELS];
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            mean[ch] = 100 * record + ch;
+            sdv[ch] = record;
+        }
+        store.add(record, mean, sdv);
+    }
+
+
+    @Test
+    public void writesRecordsInBatches() throws IOException {
+        File file = new File(folder.getRoot(), "pedestals.bin");
+        PedestalStore store = new PedestalStore(file.getPath(), CHANNELS, 4, 10);
+        assertEquals(PedestalStore.HEADER_BYTES, file.length());
+
+        for (int r = 0; r < 3; r++) {
+            add(store, r);
+        }
+        assertEquals(3, store.getRecordCount());
+        assertEquals(PedestalStore.HEADER_BYTES, file.length());
+
+        add(store, 3);
+        assertEquals(PedestalStore.HEADER_BYTES + 4 * RECORD_BYTES, file.length());
+
+        add(store, 4);
+        store.close();
+        assertEquals(PedestalStore.HEADER_BYTES + 5 * RECORD_BYTES, file.length());
+    }
+
+
+    @Test
+    public void keepsRollingWindow() throws IOException {
+        File file = new File(folder.getRoot(), "pedestals.bin");
+        PedestalStore store = new PedestalStore(file.getPath(), CHANNELS, 100, 3);
+        float[] mean = new float[CHANNELS];
+        float[] sdv = new float[CHANNELS];
+        assertEquals(-1, store.getLatest(mean, sdv));
+        assertEquals(0, store.getAverage(5, mean, sdv));
+        assertEquals(0, mean[1], 0);
+
+        for (int r = 1; r <= 5; r++) {
+            add(store, r);
+        }
+        assertEquals(3, store.getWindowCount());
+        assertEquals(5, store.getLatest(mean, sdv));
+        assertEquals(502, mean[2], 0);
+        assertEquals(5, sdv[0], 0);
+
+        // Only records 3 to 5 are left, means and variances averaged
+        assertEquals(3, store.getAverage(10, mean, sdv));
+        assertEquals(400, mean[0], 1e-3);
+        assertEquals(Math.sqrt((9 + 16 + 25) / 3.0), sdv[0], 1e-5);
+        assertEquals(2, store.getAverage(2, mean, null));
+        assertEquals(451, mean[1], 1e-3);
+        store.close();
+    }
+
+
+    @Test
+    public void appendsToExistingFile() throws IOException {
+        File file = new File(folder.getRoot(), "pedestals.bin");
+        PedestalStore store = new PedestalStore(file.getPath(), CHANNELS, 2, 4);
+        for (int r = 1; r <= 3; r++) {
+            add(store, r);
+        }
+        store.close();
+
+        // A partly written record is dropped
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() + RECORD_BYTES / 2);
+        }
+
+        store = new PedestalStore(file.getPath(), CHANNELS, 2, 4);
+        assertEquals(3, store.getRecordCount());
+        assertEquals(3, store.getWindowCount());
+        float[] mean = new float[CHANNELS];
+        assertEquals(3, store.getLatest(mean, null));
+        assertEquals(301, mean[1], 0);
+
+        add(store, 4);
+        store.close();
+        assertEquals(PedestalStore.HEADER_BYTES + 4 * RECORD_BYTES, file.length());
+
+        float[] sdv = new float[CHANNELS];
+        assertEquals(CHANNELS, PedestalStore.readAverage(file.getPath(), 2, mean, sdv));
+        assertEquals(351, mean[1], 1e-3);
+        assertEquals(Math.sqrt((9 + 16) / 2.0), sdv[1], 1e-5);
+    }
+
+
+    @Test(expected = IOException.class)
+    public void rejectsFileOfOtherChannelCount() throws IOException {
+        File file = new File(folder.getRoot(), "pedestals.bin");
+        new PedestalStore(file.getPath(), CHANNELS, 1, 1).close();
+        new PedestalStore(file.getPath(), CHANNELS + 1, 1, 1);
+    }
+}
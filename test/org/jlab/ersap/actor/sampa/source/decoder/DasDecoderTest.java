@@ -0,0 +1,98 @@
+package org.jlab.ersap.actor.sampa.source.decoder;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.generator.SDasFrameEncoder;
+import org.jlab.ersap.actor.sampa.source.generator.SSignalModel;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * DAS frames made by {@link SDasFrameEncoder} must decode back into
+ * the ADC values they were made from.
+ */
+public class DasDecoderTest {
+
+    /** Samples encoded per channel. */
+    private static final int SAMPLES = 1000;
+
+    private static final int CHANNELS = SDasFrameEncoder.CHANNEL_COUNT;
+
+
+    /**
+     * Encode a ramp, each channel's values going up by 1 from a different start,
+     * and decode it, some frames at a time.
+     * @param useLookupTables if true, half-words are demultiplexed with tables.
+     * @param sampleBits      bits each value is stored in.
+     * @param chunk           most frames decoded at once.
+     * @return decoded event.
+     */
+    private static SRingRawEvent roundTrip(boolean useLookupTables, int sampleBits, int chunk) throws Exception {
+        SDasFrameEncoder encoder = new SDasFrameEncoder(new SSignalModel(SSignalModel.Waveform.RAMP, CHANNELS, 1));
+        int frames = encoder.getPreambleFrames() + SDasFrameEncoder.FRAMES_PER_SAMPLE * SAMPLES;
+        ByteBuffer buf = ByteBuffer.allocate(16 * frames).order(ByteOrder.LITTLE_ENDIAN);
+        encoder.encode(buf, frames);
+        buf.flip();
+
+        DasDecoder decoder = new DasDecoder(false, 0, 8192, useLookupTables);
+        SRingRawEvent event = new SRingRawEvent(EMode.DAS, 8192, 1, sampleBits);
+        while (buf.remaining() >= 16) {
+            decoder.decodeFrames(buf, chunk, event);
+        }
+        decoder.transferData(event);
+
+        // Written buffers have position = valid bytes, make it their limit
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            event.getBuffer(channel).flip();
+        }
+        return event;
+    }
+
+
+    private static void assertRamp(SRingRawEvent event) {
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            assertEquals("samples of channel " + channel, SAMPLES, event.getSampleCount(channel));
+            for (int sample = 0; sample < SAMPLES; sample++) {
+                assertEquals("channel " + channel + " sample " + sample,
+                             (sample + 7 * channel) & 0x3FF, event.getSample(channel, sample));
+            }
+        }
+    }
+
+
+    @Test
+    public void decodesWhatWasEncoded() throws Exception {
+        assertRamp(roundTrip(true, 16, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void decodesWithoutLookupTables() throws Exception {
+        assertRamp(roundTrip(false, 16, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void decodesFewFramesAtATime() throws Exception {
+        assertRamp(roundTrip(true, 16, 37));
+    }
+
+    @Test
+    public void decodesIntoPackedSamples() throws Exception {
+        assertRamp(roundTrip(true, 10, 1001));
+        assertRamp(roundTrip(true, 12, 1001));
+    }
+}
@@ -0,0 +1,158 @@
+package org.jlab.ersap.actor.sampa.source.decoder;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fed a stream a few half-words at a time, with data removed from the front
+ * of its buffer now and then, the matcher must find the same patterns, and at
+ * the same places, as a plain search of the whole stream.
+ */
+public class DasSyncMatcherTest {
+
+    /** DAS sync pattern, as in DasDecoder. */
+    private static final byte[] SYNC = {0x15, 0x15, 0xa, 0xa, 0x15, 0x15, 0xa, 0xa, 0x15, 0x15, 0xa,
+            0xa, 0x15, 0x15, 0xa, 0xa, 0x15, 0x15, 0x15, 0x15, 0xa, 0xa,
+            0xa, 0xa, 0x15, 0x15, 0x15, 0x15, 0xa, 0xa, 0xa, 0xa};
+
+
+    /**
+     * Find the last half-word of each pattern in a stream, overlapping ones included.
+     * @param stream  half-words.
+     * @param pattern pattern.
+     * @return index in stream of the end of each pattern.
+     */
+    private static List<Integer> search(byte[] stream, byte[] pattern) {
+        List<Integer> found = new ArrayList<>();
+        outer:
+        for (int i = pattern.length - 1; i < stream.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (stream[i - pattern.length + 1 + j] != pattern[j]) continue outer;
+            }
+            found.add(i);
+        }
+        return found;
+    }
+
+
+    /**
+     * Feed a stream to a matcher in chunks, removing what's been searched from
+     * the front of the buffer whenever it fills up, as the decoder does.
+     * @param stream   half-words.
+     * @param pattern  pattern.
+     * @param capacity bytes of the buffer.
+     * @param random   picks the size of each chunk.
+     * @return index in stream of the end of each pattern found.
+     */
+    private static List<Integer> feed(byte[] stream, byte[] pattern, int capacity, Random random) {
+        DasSyncMatcher matcher = new DasSyncMatcher(pattern);
+        ByteBuffer buf = ByteBuffer.allocate(capacity);
+        List<Integer> found = new ArrayList<>();
+        // Index in stream of the buffer's first half-word
+        int base = 0;
+
+        for (int next = 0; next < stream.length; ) {
+            if (!buf.hasRemaining()) {
+                // Keep a few half-words, so a partial match spans what was removed
+                int removed = buf.position() - random.nextInt(4);
+                buf.flip().position(removed);
+                buf.compact();
+                matcher.shift(removed);
+                base += removed;
+            }
+            int chunk = Math.min(1 + random.nextInt(40), Math.min(buf.remaining(), stream.length - next));
+            buf.put(stream, next, chunk);
+            next += chunk;
+
+            for (int i = matcher.find(buf); i >= 0; i = matcher.find(buf)) {
+                found.add(base + i);
+            }
+        }
+        return found;
+    }
+
+
+    /**
+     * Make a stream of noise with patterns, whole or cut short, dropped into it.
+     * @param length  number of half-words.
+     * @param pattern pattern.
+     * @param random  source of noise.
+     * @return half-words.
+     */
+    private static byte[] stream(int length, byte[] pattern, Random random) {
+        byte[] stream = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // Mostly the pattern's own half-words, to make partial matches likely
+            stream[i] = random.nextInt(4) == 0 ? (byte) random.nextInt(32) : pattern[random.nextInt(pattern.length)];
+        }
+        for (int i = 0; i + pattern.length < length; i += pattern.length + random.nextInt(200)) {
+            int copy = random.nextBoolean() ? pattern.length : random.nextInt(pattern.length);
+            System.arraycopy(pattern, 0, stream, i, copy);
+        }
+        return stream;
+    }
+
+
+    @Test
+    public void findsSyncAcrossBufferBoundaries() {
+        Random random = new Random(1);
+        for (int capacity : new int[] {33, 64, 257}) {
+            byte[] stream = stream(20000, SYNC, random);
+            List<Integer> expected = search(stream, SYNC);
+            assertTrue(expected.size() > 10);
+            assertEquals("buffer of " + capacity, expected, feed(stream, SYNC, capacity, random));
+        }
+    }
+
+
+    @Test
+    public void findsOverlappingPatterns() {
+        // A repeating pattern, whose matches overlap
+        byte[] pattern = {1, 2, 1, 2, 1};
+        byte[] stream = {1, 2, 1, 2, 1, 2, 1, 3, 1, 2, 1, 2, 1, 2, 1, 2, 1};
+        List<Integer> expected = search(stream, pattern);
+        assertEquals(List.of(4, 6, 12, 14, 16), expected);
+
+        Random random = new Random(2);
+        for (int capacity = 8; capacity < 20; capacity++) {
+            assertEquals("buffer of " + capacity, expected, feed(stream, pattern, capacity, random));
+        }
+    }
+
+
+    @Test
+    public void forgetsPartialMatch() {
+        DasSyncMatcher matcher = new DasSyncMatcher(SYNC);
+        ByteBuffer buf = ByteBuffer.allocate(2 * SYNC.length);
+        buf.put(SYNC, 0, 20);
+        assertEquals(-1, matcher.find(buf));
+
+        matcher.restart();
+        buf.put(SYNC, 20, SYNC.length - 20);
+        assertEquals(-1, matcher.find(buf));
+
+        // After a reset, the whole buffer is searched again
+        matcher.reset();
+        buf.clear();
+        buf.put(SYNC);
+        assertEquals(SYNC.length - 1, matcher.find(buf));
+        assertEquals(-1, matcher.find(buf));
+    }
+}
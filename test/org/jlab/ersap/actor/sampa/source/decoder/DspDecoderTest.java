@@ -0,0 +1,151 @@
+package org.jlab.ersap.actor.sampa.source.decoder;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.generator.SDspFrameEncoder;
+import org.jlab.ersap.actor.sampa.source.generator.SSignalModel;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding DSP eLinks a nibble at a time must give exactly what
+ * decoding them one bit at a time does, including when bit errors
+ * make eLinks lose and find sync again.
+ */
+public class DspDecoderTest {
+
+    /** Frames decoded, 20 sampling windows. */
+    private static final int FRAMES = 20 * DspDecoder.FRAMES_PER_WINDOW;
+
+
+    /**
+     * Generate DSP frames, flipping bits at random.
+     * @param seed     random seed.
+     * @param flipRate probability of each bit being flipped.
+     * @return frames, 4 words each.
+     */
+    private static int[][] frames(long seed, double flipRate) {
+        SDspFrameEncoder encoder = new SDspFrameEncoder(
+                new SSignalModel(SSignalModel.Waveform.PULSES, 80, seed), 0);
+        ByteBuffer buf = ByteBuffer.allocate(16 * FRAMES).order(ByteOrder.LITTLE_ENDIAN);
+        encoder.encode(buf, FRAMES);
+        buf.flip();
+
+        Random random = new Random(seed);
+        int[][] frames = new int[FRAMES][4];
+        for (int i = 0; i < FRAMES; i++) {
+            IDecoder.readFrame(buf, 16 * i, frames[i]);
+            for (int bit = 0; bit < 128; bit++) {
+                if (random.nextDouble() < flipRate) {
+                    frames[i][bit / 32] ^= 1 << (bit % 32);
+                }
+            }
+        }
+        return frames;
+    }
+
+
+    /**
+     * Decode frames, one block at a time.
+     * @param frames        frames to decode.
+     * @param nibbleAtATime if true, decode a nibble at a time, else a bit at a time.
+     * @param blocks        filled with each block's eLink data, then time, then the eLink statistics.
+     */
+    private static void decode(int[][] frames, boolean nibbleAtATime, ArrayList<Object> blocks) {
+        DspDecoder decoder = new DspDecoder(false, nibbleAtATime);
+        SRingRawEvent event = new SRingRawEvent(EMode.DSP);
+
+        for (int i = 0; i < frames.length; i++) {
+            decoder.decodeSerial(frames[i], event);
+            if (event.isFull()) {
+                for (int eLink = 0; eLink < 28; eLink++) {
+                    ByteBuffer buf = event.getBuffer(eLink);
+                    byte[] bytes = new byte[buf.position()];
+                    buf.get(0, bytes);
+                    blocks.add(bytes);
+                }
+                blocks.add(event.getTime());
+                event.reset();
+            }
+        }
+
+        ByteArrayOutputStream stats = new ByteArrayOutputStream();
+        decoder.printStats(stats, false);
+        blocks.add(stats.toString());
+    }
+
+
+    /**
+     * Decode the same frames a nibble and a bit at a time and compare.
+     * @param flipRate probability of each bit being flipped.
+     * @return eLink statistics.
+     */
+    private static String assertSameDecoding(double flipRate) {
+        int[][] frames = frames(7, flipRate);
+        ArrayList<Object> bits = new ArrayList<>(), nibbles = new ArrayList<>();
+        decode(frames, false, bits);
+        decode(frames, true, nibbles);
+
+        assertEquals(bits.size(), nibbles.size());
+        for (int i = 0; i < bits.size(); i++) {
+            if (bits.get(i) instanceof byte[]) {
+                assertArrayEquals("eLink data of item " + i, (byte[]) bits.get(i), (byte[]) nibbles.get(i));
+            }
+            else {
+                assertEquals("item " + i, bits.get(i), nibbles.get(i));
+            }
+        }
+        return (String) bits.get(bits.size() - 1);
+    }
+
+
+    @Test
+    public void nibblesMatchBitsWithoutErrors() {
+        assertSameDecoding(0);
+    }
+
+    @Test
+    public void nibblesMatchBitsWithFewErrors() {
+        assertSameDecoding(1e-5);
+    }
+
+    @Test
+    public void nibblesMatchBitsWithManyErrors() {
+        String stats = assertSameDecoding(5e-4);
+        assertTrue("no eLink lost sync", stats.matches("(?s).*sync lost count = [1-9].*"));
+    }
+
+    @Test
+    public void decodesPackets() {
+        ArrayList<Object> blocks = new ArrayList<>();
+        decode(frames(7, 0), true, blocks);
+
+        // 20 blocks of 28 eLinks and a time each, then statistics
+        assertEquals(20 * 29 + 1, blocks.size());
+        long bytes = 0;
+        for (Object item : blocks) {
+            if (item instanceof byte[]) {
+                bytes += ((byte[]) item).length;
+            }
+        }
+        assertTrue("no packets decoded", bytes > 0);
+    }
+}
@@ -0,0 +1,195 @@
+package org.jlab.ersap.actor.sampa.source.recagg;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.Sequencer;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEventFactory;
+import org.jlab.ersap.actor.sampa.source.ring.SWaitStrategy;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.lmax.disruptor.RingBuffer.createSingleProducer;
+import static org.junit.Assert.*;
+
+/**
+ * A tree of aggregators must have one intermediate ring per aggregator below
+ * the root, each sized for the streams it merges, and lay out the output
+ * events just as a single aggregator does.
+ */
+public class SAggregatorTreeTest {
+
+    /** Channels of each stream's DAS events. */
+    private static final int CHANNELS = 80;
+
+    /** Events in each ring. */
+    private static final int RING_ITEMS = 16;
+
+    private RingBuffer<SRingRawEvent>[] inputs;
+    private Sequence[] sequences;
+    private SequenceBarrier[] barriers;
+
+
+    /**
+     * Make single producer DAS input rings.
+     * @param streams number of streams.
+     */
+    private void inputs(int streams) {
+        // Arrays of a generic type can't be created, but all rings are of SRingRawEvent
+        @SuppressWarnings("unchecked")
+        RingBuffer<SRingRawEvent>[] rings = (RingBuffer<SRingRawEvent>[]) new RingBuffer<?>[streams];
+        inputs = rings;
+        sequences = new Sequence[streams];
+        barriers = new SequenceBarrier[streams];
+        for (int i = 0; i < streams; i++) {
+            inputs[i] = createSingleProducer(new SRingRawEventFactory(EMode.DAS, 256, 1, 16),
+                                             RING_ITEMS, new YieldingWaitStrategy());
+            sequences[i] = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+            barriers[i] = inputs[i].newBarrier();
+            inputs[i].addGatingSequences(sequences[i]);
+        }
+    }
+
+
+    /**
+     * Make the factories of a tree's intermediate rings.
+     * @param streams number of streams.
+     * @param fanIn   most inputs of each aggregator.
+     * @return factory of each intermediate ring.
+     */
+    private static SRingRawEventFactory[] factories(int streams, int fanIn) {
+        int[] ringStreams = SAggregatorTree.intermediateStreams(streams, fanIn);
+        SRingRawEventFactory[] factories = new SRingRawEventFactory[ringStreams.length];
+        for (int i = 0; i < factories.length; i++) {
+            factories[i] = new SRingRawEventFactory(EMode.DAS, 256, ringStreams[i], 16);
+        }
+        return factories;
+    }
+
+
+    /**
+     * Get a repeatable ADC value.
+     * @param stream  index of stream.
+     * @param channel channel of stream.
+     * @param event   index of event.
+     * @param sample  index of sample.
+     * @return value.
+     */
+    private static short value(int stream, int channel, int event, int sample) {
+        return (short) (stream * 1000 + channel * 3 + event + sample);
+    }
+
+
+    @Test
+    public void sizesIntermediateRings() {
+        // Groups of 4, 4 and 2 streams, merged by the root
+        assertArrayEquals(new int[] {4, 4, 2}, SAggregatorTree.intermediateStreams(10, 4));
+        // A lone stream left over goes straight to the root
+        assertArrayEquals(new int[] {4, 4}, SAggregatorTree.intermediateStreams(9, 4));
+        // Pairs, pairs of pairs, and so on, lone inputs passed up a level
+        assertArrayEquals(new int[] {2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 4, 4, 4, 4, 4, 8, 8, 16},
+                          SAggregatorTree.intermediateStreams(20, 2));
+        assertArrayEquals(new int[] {6}, SAggregatorTree.intermediateStreams(7, 6));
+
+        // A single aggregator
+        for (int fanIn : new int[] {0, 1, 6, 7}) {
+            assertEquals(0, SAggregatorTree.intermediateStreams(6, fanIn).length);
+        }
+    }
+
+
+    @Test
+    public void buildsOneAggregatorPerRing() {
+        inputs(10);
+        RingBuffer<SRingRawEvent> output = createSingleProducer(
+                new SRingRawEventFactory(EMode.DAS, 256, 10, 16), RING_ITEMS, new YieldingWaitStrategy());
+
+        SAggregatorTree tree = new SAggregatorTree(EMode.DAS, inputs, sequences, barriers, output, 4,
+                factories(10, 4), RING_ITEMS, SWaitStrategy.YIELDING, false, 8, 10);
+        assertEquals(4, tree.getAggregatorCount());
+        assertSame(tree.getAggregator(3), tree.getRoot());
+
+        try {
+            new SAggregatorTree(EMode.DAS, inputs, sequences, barriers, output, 4,
+                    factories(10, 3), RING_ITEMS, SWaitStrategy.YIELDING, false, 8, 10);
+            fail("factories of another tree taken");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+
+    @Test(timeout = 30000)
+    public void laysOutStreamsInOrder() throws Exception {
+        int streams = 7, events = 2 * RING_ITEMS;
+        for (boolean zeroCopy : new boolean[] {false, true}) {
+            inputs(streams);
+            RingBuffer<SRingRawEvent> output = createSingleProducer(
+                    new SRingRawEventFactory(EMode.DAS, 256, streams, 16), RING_ITEMS, new YieldingWaitStrategy());
+            Sequence outputSequence = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+            SequenceBarrier outputBarrier = output.newBarrier();
+            output.addGatingSequences(outputSequence);
+
+            // 3 pairs and the last stream, then groups of 4 and 3 merged by the root
+            SAggregatorTree tree = new SAggregatorTree(EMode.DAS, inputs, sequences, barriers, output, 2,
+                    factories(streams, 2), RING_ITEMS, SWaitStrategy.YIELDING, zeroCopy, 8, 10);
+            tree.setDaemon(true);
+            tree.start();
+
+            Thread[] producers = new Thread[streams];
+            for (int s = 0; s < streams; s++) {
+                final int stream = s;
+                producers[s] = new Thread(() -> {
+                    for (int e = 0; e < events; e++) {
+                        long sequence = inputs[stream].next();
+                        SRingRawEvent event = inputs[stream].get(sequence);
+                        event.reset();
+                        for (int c = 0; c < CHANNELS; c++) {
+                            ByteBuffer buf = event.getBuffer(c);
+                            for (int k = 0; k <= (c + e) % 5; k++) {
+                                buf.putShort(value(stream, c, e, k));
+                            }
+                        }
+                        inputs[stream].publish(sequence);
+                    }
+                });
+                producers[s].setDaemon(true);
+                producers[s].start();
+            }
+
+            for (int e = 0; e < events; e++) {
+                long sequence = outputSequence.get() + 1;
+                outputBarrier.waitFor(sequence);
+                ByteBuffer[] data = output.get(sequence).getData();
+                for (int s = 0; s < streams; s++) {
+                    for (int c = 0; c < CHANNELS; c++) {
+                        ByteBuffer buf = data[CHANNELS * s + c];
+                        String where = "event " + e + " stream " + s + " channel " + c;
+                        assertEquals(where, 2 * ((c + e) % 5 + 1), buf.remaining());
+                        for (int k = 0; k <= (c + e) % 5; k++) {
+                            assertEquals(where, value(s, c, e, k), buf.getShort(buf.position() + 2 * k));
+                        }
+                    }
+                }
+                outputSequence.set(sequence);
+            }
+            tree.exit();
+        }
+    }
+}
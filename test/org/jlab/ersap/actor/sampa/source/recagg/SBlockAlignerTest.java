@@ -0,0 +1,245 @@
+package org.jlab.ersap.actor.sampa.source.recagg;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.Sequencer;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEventFactory;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.lmax.disruptor.RingBuffer.createSingleProducer;
+import static org.junit.Assert.*;
+
+/**
+ * DSP blocks of several streams, some missing, late or wrapping around in
+ * number, must be lined up by block number. The aligner is driven from the
+ * test's thread, one block at a time, so nothing depends on timing except
+ * where a test waits on purpose.
+ */
+public class SBlockAlignerTest {
+
+    /** Channels of each stream's DSP events. */
+    private static final int CHANNELS = 28;
+
+    /** Time to wait for a stream with nothing queued, long enough for a test never to see it. */
+    private static final long FOREVER = 3600000;
+
+    private RingBuffer<SRingRawEvent>[] inputs;
+    private RingBuffer<SRingRawEvent> output;
+    private SBlockAligner aligner;
+
+    /** Sequence of the next output event. */
+    private long outputSequence;
+
+
+    /**
+     * Make single producer input rings and an aligner reading them.
+     * @param streams       number of streams.
+     * @param zeroCopy      if true, buffers are handed over instead of copied.
+     * @param window        blocks a stream may have queued while another is waited for.
+     * @param timeoutMillis time to wait for a stream with nothing queued.
+     */
+    private void align(int streams, boolean zeroCopy, int window, long timeoutMillis) {
+        // Arrays of a generic type can't be created, but all rings are of SRingRawEvent
+        @SuppressWarnings("unchecked")
+        RingBuffer<SRingRawEvent>[] rings = (RingBuffer<SRingRawEvent>[]) new RingBuffer<?>[streams];
+        Sequence[] sequences = new Sequence[streams];
+        for (int i = 0; i < streams; i++) {
+            rings[i] = createSingleProducer(new SRingRawEventFactory(EMode.DSP, 256, false),
+                                            64, new YieldingWaitStrategy());
+            sequences[i] = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+            rings[i].addGatingSequences(sequences[i]);
+        }
+        inputs = rings;
+        output = createSingleProducer(new SRingRawEventFactory(EMode.DSP, 256, streams, 16),
+                                      256, new YieldingWaitStrategy());
+        aligner = new SBlockAligner(inputs, sequences, output, zeroCopy, window, timeoutMillis);
+        outputSequence = 0;
+    }
+
+
+    /**
+     * Publish a stream's block, its first channel holding 10 * block + stream.
+     * @param stream index of stream.
+     * @param block  block number.
+     */
+    private void publish(int stream, int block) {
+        long sequence = inputs[stream].next();
+        SRingRawEvent event = inputs[stream].get(sequence);
+        event.reset();
+        event.setBlockNumber(block);
+        event.setTime(7 * block + stream);
+        event.getBuffer(0).putInt(10 * block + stream);
+        inputs[stream].publish(sequence);
+    }
+
+
+    /**
+     * Publish blocks of all streams, each stream's in order.
+     * @param first first block number.
+     * @param last  last block number.
+     */
+    private void publishAll(int first, int last) {
+        for (int block = first; block != last + 1; block++) {
+            for (int stream = 0; stream < inputs.length; stream++) {
+                publish(stream, block);
+            }
+        }
+    }
+
+
+    /**
+     * Align the next block.
+     * @return aligned event.
+     */
+    private SRingRawEvent next() {
+        assertTrue(aligner.publishNext());
+        assertEquals(outputSequence, output.getCursor());
+        return output.get(outputSequence++);
+    }
+
+
+    /**
+     * Check an aligned event.
+     * @param event   aligned event.
+     * @param block   its expected block number.
+     * @param missing its expected missing streams.
+     */
+    private void assertBlock(SRingRawEvent event, int block, int missing) {
+        assertEquals("block number", block, event.getBlockNumber());
+        assertEquals("missing streams of block " + block, missing, event.getMissingStreams());
+
+        ByteBuffer[] data = event.getData();
+        boolean timed = false;
+        for (int stream = 0; stream < inputs.length; stream++) {
+            ByteBuffer buf = data[CHANNELS * stream];
+            if ((missing & (1 << stream)) != 0) {
+                assertEquals("data of missing stream " + stream, 0, buf.position());
+                continue;
+            }
+            assertEquals("data of stream " + stream, 10 * block + stream, buf.getInt(0));
+            if (!timed) {
+                assertEquals("time of block " + block, 7 * block + stream, event.getTime());
+                timed = true;
+            }
+        }
+    }
+
+
+    private void assertCounters(long complete, long partial, long missing, long late) {
+        assertEquals("complete blocks", complete, aligner.getCompleteBlocks());
+        assertEquals("partial blocks", partial, aligner.getPartialBlocks());
+        assertEquals("missing blocks", missing, aligner.getMissingBlocks());
+        assertEquals("late blocks", late, aligner.getLateBlocks());
+    }
+
+
+    @Test
+    public void alignsCompleteBlocks() {
+        for (boolean zeroCopy : new boolean[] {false, true}) {
+            align(3, zeroCopy, 8, FOREVER);
+            publishAll(1, 5);
+            for (int block = 1; block <= 5; block++) {
+                assertBlock(next(), block, 0);
+            }
+            assertCounters(5, 0, 0, 0);
+        }
+    }
+
+
+    @Test
+    public void skipsStreamWithGap() {
+        align(3, true, 8, FOREVER);
+        // Stream 1 has no block 3, which it shows by moving on to block 4
+        for (int block = 1; block <= 5; block++) {
+            for (int stream = 0; stream < 3; stream++) {
+                if (stream != 1 || block != 3) {
+                    publish(stream, block);
+                }
+            }
+        }
+        assertBlock(next(), 1, 0);
+        assertBlock(next(), 2, 0);
+        assertBlock(next(), 3, 0b010);
+        assertBlock(next(), 4, 0);
+        assertBlock(next(), 5, 0);
+        assertCounters(4, 1, 1, 0);
+    }
+
+
+    @Test
+    public void dropsLateBlock() {
+        align(3, true, 8, 0);
+        publishAll(1, 1);
+        assertBlock(next(), 1, 0);
+
+        // Stream 2 has nothing yet, so block 2 goes out without it
+        publish(0, 2);
+        publish(1, 2);
+        assertBlock(next(), 2, 0b100);
+
+        // Its block 2 is then too late
+        publish(2, 2);
+        publishAll(3, 3);
+        assertBlock(next(), 3, 0);
+        assertCounters(2, 1, 1, 1);
+    }
+
+
+    @Test
+    public void doesNotStallOnDeadStream() {
+        align(3, false, 4, FOREVER);
+        // Stream 2 never sends anything, the others queue up blocks 1 to 10
+        for (int block = 1; block <= 10; block++) {
+            publish(0, block);
+            publish(1, block);
+        }
+
+        // A block goes out partial while the others have a full window queued
+        for (int block = 1; block <= 7; block++) {
+            assertBlock(next(), block, 0b100);
+        }
+        assertCounters(0, 7, 7, 0);
+
+        // With fewer queued, the aligner waits, until stopped
+        aligner.stop();
+        assertFalse(aligner.publishNext());
+        assertEquals(outputSequence - 1, output.getCursor());
+    }
+
+
+    @Test
+    public void followsBlockNumbersAroundWrap() {
+        align(2, true, 8, FOREVER);
+        // Stream 1 has no block MAX_VALUE
+        publishAll(Integer.MAX_VALUE - 1, Integer.MAX_VALUE - 1);
+        publish(0, Integer.MAX_VALUE);
+        publishAll(Integer.MIN_VALUE, Integer.MIN_VALUE + 1);
+
+        assertBlock(next(), Integer.MAX_VALUE - 1, 0);
+        assertBlock(next(), Integer.MAX_VALUE, 0b10);
+        assertBlock(next(), Integer.MIN_VALUE, 0);
+        assertBlock(next(), Integer.MIN_VALUE + 1, 0);
+
+        // A block from before the wrap is late, not early
+        publish(1, Integer.MAX_VALUE);
+        publishAll(Integer.MIN_VALUE + 2, Integer.MIN_VALUE + 2);
+        assertBlock(next(), Integer.MIN_VALUE + 2, 0);
+        assertCounters(4, 1, 1, 1);
+    }
+}
@@ -0,0 +1,120 @@
+package org.jlab.ersap.actor.sampa.source.recagg;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.datatypes.DasDataType;
+import org.jlab.ersap.actor.sampa.EMode;
+import org.jlab.ersap.actor.sampa.source.SEventSerializer;
+import org.jlab.ersap.actor.sampa.source.ring.SRingRawEvent;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Consecutive DSP blocks must merge into one event holding each eLink's data
+ * in block order, with the streams missing from any of them marked missing,
+ * and a gap in block numbers must close the merged event.
+ */
+public class SBlockMergerTest {
+
+    /** Channels of each stream's DSP events. */
+    private static final int CHANNELS = 28;
+
+    /** Number of streams aggregated into each block. */
+    private static final int STREAMS = 2;
+
+    /** Aggregated block reused for each call to add. */
+    private final SRingRawEvent block = new SRingRawEvent(EMode.DSP, 64, STREAMS, 16);
+
+
+    /**
+     * Fill the block, the first channel of each stream present holding 10 * number + stream.
+     * @param number  block number.
+     * @param missing bit i set if stream i is missing.
+     * @return block, each buffer holding its data from position to limit.
+     */
+    private SRingRawEvent block(int number, int missing) {
+        block.reset();
+        block.setBlockNumber(number);
+        block.setMissingStreams(missing);
+        ByteBuffer[] data = block.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i].clear().limit(0);
+        }
+        for (int stream = 0; stream < STREAMS; stream++) {
+            if ((missing & (1 << stream)) == 0) {
+                data[CHANNELS * stream].limit(4).putInt(0, 10 * number + stream);
+            }
+        }
+        return block;
+    }
+
+
+    /**
+     * Check a merged event.
+     * @param event   merged event.
+     * @param first   number of its first block.
+     * @param count   number of blocks it holds.
+     * @param missing bit i set if stream i is missing from any block.
+     */
+    private static void assertMerged(SRingRawEvent event, int first, int count, int missing) {
+        assertNotNull(event);
+        assertEquals("block number", first, event.getBlockNumber());
+        assertEquals("block count", count, event.getBlockCount());
+        assertEquals("missing streams", missing, event.getMissingStreams());
+    }
+
+
+    @Test
+    public void mergesMissingStreams() throws Exception {
+        SBlockMerger merger = new SBlockMerger(3, EMode.DSP, 16, STREAMS);
+        assertNull(merger.add(block(1, 0)));
+        assertNull(merger.add(block(2, 0b01)));
+        SRingRawEvent event = merger.add(block(3, 0b10));
+        assertMerged(event, 1, 3, 0b11);
+
+        // Each stream's data of the blocks it is in, in block order
+        ByteBuffer first = event.getBuffer(0);
+        assertEquals(8, first.limit());
+        assertEquals(10, first.getInt(0));
+        assertEquals(30, first.getInt(4));
+        ByteBuffer second = event.getBuffer(CHANNELS);
+        assertEquals(8, second.limit());
+        assertEquals(11, second.getInt(0));
+        assertEquals(21, second.getInt(4));
+
+        // The mask goes with the serialized event
+        ByteBuffer buf = new SEventSerializer(1).serialize(event);
+        assertEquals(0b11, DasDataType.getMissingStreams(buf));
+        assertEquals(1, DasDataType.getBlockNumber(buf));
+        assertEquals(3, DasDataType.getBlockCount(buf));
+
+        // and doesn't carry over to the next merged event
+        assertNull(merger.add(block(4, 0)));
+        assertNull(merger.add(block(5, 0)));
+        assertMerged(merger.add(block(6, 0)), 4, 3, 0);
+    }
+
+
+    @Test
+    public void closesMergedEventAtGap() {
+        SBlockMerger merger = new SBlockMerger(3, EMode.DSP, 16, STREAMS);
+        assertNull(merger.add(block(1, 0b10)));
+        assertNull(merger.add(block(2, 0)));
+        // Block 3 was dropped
+        assertMerged(merger.add(block(4, 0)), 1, 2, 0b10);
+        assertMerged(merger.flush(), 4, 1, 0);
+        assertNull(merger.flush());
+    }
+}
@@ -0,0 +1,114 @@
+package org.jlab.ersap.actor.sampa.source.ring;
+
+/**
+ * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
+ * See LICENSE.txt file.
+ * Thomas Jefferson National Accelerator Facility
+ * Experimental Physics Software and Computing Infrastructure Group
+ * 12000, Jefferson Ave, Newport News, VA 23606
+ * Phone : (757)-269-7100
+ *
+ * @project ersap-sampa
+ */
+
+import org.jlab.ersap.actor.sampa.EMode;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Buffers carved from a slab must be separate, limited in number, and handed
+ * out again once given back, as events do when they expand a buffer.
+ */
+public class SBufferSlabTest {
+
+    /** Bytes in each buffer, not a multiple of the alignment. */
+    private static final int SIZE = 100;
+
+
+    @Test
+    public void allocatesSeparateBuffersUpToMax() {
+        SBufferSlab slab = new SBufferSlab(SIZE, 3);
+        assertEquals(0, slab.getAllocatedBytes());
+
+        ByteBuffer[] bufs = new ByteBuffer[3];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = slab.allocate();
+            assertNotNull(bufs[i]);
+            assertTrue(bufs[i].isDirect());
+            assertEquals(ByteOrder.LITTLE_ENDIAN, bufs[i].order());
+            assertEquals(0, bufs[i].position());
+            assertEquals(SIZE, bufs[i].limit());
+            assertEquals(SIZE, bufs[i].capacity());
+        }
+        assertNull(slab.allocate());
+
+        // Filling one buffer doesn't touch the others
+        for (int i = 0; i < bufs.length; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                bufs[i].put(j, (byte) i);
+            }
+        }
+        for (int i = 0; i < bufs.length; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                assertEquals((byte) i, bufs[i].get(j));
+            }
+        }
+
+        // 1 chunk of 3 cache line aligned buffers
+        assertTrue(slab.getAllocatedBytes() >= slab.getMaxBytes());
+        assertEquals(3 * 128, slab.getMaxBytes());
+    }
+
+
+    @Test
+    public void handsOutReleasedBuffersFirst() {
+        SBufferSlab slab = new SBufferSlab(SIZE, 2);
+        ByteBuffer first = slab.allocate();
+        slab.allocate();
+        assertNull(slab.allocate());
+
+        first.position(10).limit(20);
+        slab.release(first);
+        assertEquals(1, slab.getFreeCount());
+        ByteBuffer again = slab.allocate();
+        assertSame(first, again);
+        assertEquals(0, again.position());
+        assertEquals(SIZE, again.limit());
+        assertEquals(0, slab.getFreeCount());
+
+        // Buffers the slab can't have handed out are ignored
+        slab.release(ByteBuffer.allocate(SIZE));
+        slab.release(ByteBuffer.allocateDirect(2 * SIZE));
+        assertEquals(0, slab.getFreeCount());
+    }
+
+
+    @Test
+    public void expandedBufferGoesBackToSlab() {
+        SRingRawEventFactory factory = new SRingRawEventFactory(EMode.DAS, SIZE, false);
+        SBufferSlab slab = new SBufferSlab(factory.getBufferSize(), 160);
+        factory.setSlab(slab);
+        SRingRawEvent event = factory.newInstance();
+
+        ByteBuffer buf = event.getBuffer(0);
+        assertTrue(buf.isDirect());
+        buf.putInt(0x12345678);
+
+        ByteBuffer expanded = event.expandBuffer(0, 4 * SIZE);
+        assertNotSame(buf, expanded);
+        assertTrue(expanded.isDirect());
+        assertTrue(expanded.capacity() >= 4 * SIZE);
+        assertEquals(4, expanded.position());
+        assertEquals(0x12345678, expanded.getInt(0));
+        assertEquals(1, slab.getFreeCount());
+
+        // Another event gets the buffer given back
+        SRingRawEvent other = factory.newInstance();
+        assertSame(buf, other.getBuffer(0));
+        assertEquals(0, slab.getFreeCount());
+    }
+}